@@ -0,0 +1,184 @@
+package net.frakbot.cache.benchmark;
+
+import net.frakbot.cache.ConcurrentMemoryCache;
+import net.frakbot.cache.MemoryCache;
+import net.frakbot.cache.PolicyMemoryCache;
+import net.frakbot.cache.TinyLfuPolicy;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the in-memory caches under a mixed workload: one "UI" thread
+ * doing lookups, as the ImageViewNext does while binding, plus a number of
+ * background readers and writers, as the operations of the service do.
+ * Reports the lookup latency of the UI thread and the overall throughput,
+ * after a few warm-up iterations.
+ * <p/>
+ * Usage: {@code ConcurrentCacheBenchmark [writers] [readers] [seconds per iteration]}.
+ *
+ * @author Francesco Pontillo
+ */
+public class ConcurrentCacheBenchmark {
+
+    private static final int CACHE_SIZE = 8 * 1024 * 1024;
+    private static final int KEYS = 2048;
+    private static final int WARMUP_ITERATIONS = 2;
+    private static final int MEASURED_ITERATIONS = 3;
+
+    private static final byte[][] VALUES = new byte[KEYS][];
+    private static final String[] KEY_NAMES = new String[KEYS];
+
+    /** Creates the cache under test. */
+    private interface CacheFactory {
+        MemoryCache<String, byte[]> create();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        final int writers = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        final int readers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        final long iterationMillis = args.length > 2 ? Long.parseLong(args[2]) * 1000 : 2000;
+
+        Random random = new Random(42);
+        for (int i = 0; i < KEYS; i++) {
+            KEY_NAMES[i] = "http://example.com/images/" + i + ".jpg";
+            VALUES[i] = new byte[4 * 1024 + random.nextInt(28 * 1024)];
+        }
+
+        System.out.println(String.format("%d writers, %d background readers, 1 UI reader", writers, readers));
+        run("PolicyMemoryCache (synchronized)", new CacheFactory() {
+            public MemoryCache<String, byte[]> create() {
+                return new PolicyMemoryCache<String, byte[]>(CACHE_SIZE, new TinyLfuPolicy<String>()) {
+                    @Override
+                    protected int sizeOf(String key, byte[] value) {
+                        return value.length;
+                    }
+                };
+            }
+        }, writers, readers, iterationMillis);
+        run("ConcurrentMemoryCache", new CacheFactory() {
+            public MemoryCache<String, byte[]> create() {
+                return new ConcurrentMemoryCache<String, byte[]>(CACHE_SIZE, new TinyLfuPolicy<String>()) {
+                    @Override
+                    protected int sizeOf(String key, byte[] value) {
+                        return value.length;
+                    }
+                };
+            }
+        }, writers, readers, iterationMillis);
+    }
+
+    private static void run(String name, CacheFactory factory, int writers, int readers, long iterationMillis)
+            throws InterruptedException {
+        System.out.println(name);
+        for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+            Result result = iterate(factory.create(), writers, readers, iterationMillis);
+            System.out.println(String.format("  %s %d: UI get p50 %5d ns, p99 %7d ns, p99.9 %8d ns, max %9d ns;"
+                                             + " %6.2f M reads/s, %6.2f M writes/s",
+                                             i < WARMUP_ITERATIONS ? "warm-up  " : "iteration", i + 1,
+                                             result.percentile(0.5), result.percentile(0.99),
+                                             result.percentile(0.999), result.percentile(1),
+                                             result.mReads / (iterationMillis * 1000.0),
+                                             result.mWrites / (iterationMillis * 1000.0)));
+        }
+    }
+
+    private static Result iterate(final MemoryCache<String, byte[]> cache, int writers, int readers,
+                                  long iterationMillis) throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(writers + readers + 1);
+        final Result result = new Result();
+
+        for (int i = 0; i < writers; i++) {
+            final Random random = new Random(i);
+            start(new Runnable() {
+                public void run() {
+                    long count = 0;
+                    while (running.get()) {
+                        int key = random.nextInt(KEYS);
+                        cache.put(KEY_NAMES[key], VALUES[key]);
+                        count++;
+                    }
+                    writes.addAndGet(count);
+                    done.countDown();
+                }
+            });
+        }
+
+        for (int i = 0; i < readers; i++) {
+            final Random random = new Random(1000 + i);
+            start(new Runnable() {
+                public void run() {
+                    long count = 0;
+                    while (running.get()) {
+                        cache.get(KEY_NAMES[skewed(random)]);
+                        count++;
+                    }
+                    reads.addAndGet(count);
+                    done.countDown();
+                }
+            });
+        }
+
+        start(new Runnable() {
+            public void run() {
+                Random random = new Random(-1);
+                while (running.get()) {
+                    String key = KEY_NAMES[skewed(random)];
+                    long start = System.nanoTime();
+                    cache.get(key);
+                    result.record(System.nanoTime() - start);
+                }
+                reads.addAndGet(result.mCount);
+                done.countDown();
+            }
+        });
+
+        Thread.sleep(iterationMillis);
+        running.set(false);
+        done.await();
+
+        result.mReads = reads.get();
+        result.mWrites = writes.get();
+        return result;
+    }
+
+    private static void start(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Picks a key, favouring the lowest ones. */
+    private static int skewed(Random random) {
+        double value = random.nextDouble();
+        return (int) (value * value * KEYS);
+    }
+
+    /** The latencies of the UI thread lookups and the overall counts. */
+    private static class Result {
+        private long[] mLatencies = new long[1 << 20];
+        private int mCount;
+        long mReads;
+        long mWrites;
+
+        void record(long latency) {
+            if (mCount == mLatencies.length) {
+                mLatencies = Arrays.copyOf(mLatencies, mCount * 2);
+            }
+            mLatencies[mCount++] = latency;
+        }
+
+        long percentile(double percentile) {
+            if (mCount == 0) return 0;
+            long[] sorted = Arrays.copyOf(mLatencies, mCount);
+            Arrays.sort(sorted);
+            return sorted[Math.min(mCount - 1, (int) (percentile * mCount))];
+        }
+    }
+}
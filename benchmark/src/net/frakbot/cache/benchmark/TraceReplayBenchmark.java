@@ -0,0 +1,184 @@
+package net.frakbot.cache.benchmark;
+
+import net.frakbot.cache.EvictionPolicy;
+import net.frakbot.cache.LruPolicy;
+import net.frakbot.cache.PolicyMemoryCache;
+import net.frakbot.cache.TinyLfuPolicy;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replays access traces against the in-memory cache with different
+ * eviction policies and prints the resulting hit rates.
+ * <p/>
+ * Usage: {@code TraceReplayBenchmark [cacheSizeInBytes] [traceFile...]}.
+ * Each line of a trace file is an access, made of the key and, optionally,
+ * the size of the entry in bytes (separated by whitespace). If no trace
+ * file is given, a few synthetic workloads are generated instead.
+ *
+ * @author Francesco Pontillo
+ */
+public class TraceReplayBenchmark {
+
+    private static final int DEFAULT_CACHE_SIZE = 4 * 1024 * 1024;
+    private static final int DEFAULT_ENTRY_SIZE = 32 * 1024;
+    private static final float MAX_ENTRY_FRACTION = 0.25f;
+
+    /** A single access of a trace. */
+    static class Access {
+        final String mKey;
+        final int mSize;
+
+        Access(String key, int size) {
+            mKey = key;
+            mSize = size;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int cacheSize = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CACHE_SIZE;
+
+        if (args.length > 1) {
+            for (int i = 1; i < args.length; i++) {
+                replayAll(args[i], readTrace(args[i]), cacheSize);
+            }
+        }
+        else {
+            replayAll("feed", generateFeed(new Random(42), false, false), cacheSize);
+            replayAll("feed + scrolling scans", generateFeed(new Random(42), true, false), cacheSize);
+            replayAll("feed + large GIFs", generateFeed(new Random(42), false, true), cacheSize);
+        }
+    }
+
+    private static void replayAll(String name, List<Access> trace, int cacheSize) {
+        System.out.println(String.format("%s (%d accesses, cache of %d bytes)", name, trace.size(), cacheSize));
+        final int expectedEntries = cacheSize / DEFAULT_ENTRY_SIZE;
+        replay("LRU", trace, cacheSize, new LruPolicy<String>(), 1f);
+        replay("LRU + admission", trace, cacheSize, new LruPolicy<String>(), MAX_ENTRY_FRACTION);
+        replay("W-TinyLFU", trace, cacheSize, new TinyLfuPolicy<String>(expectedEntries), 1f);
+        replay("W-TinyLFU + admission", trace, cacheSize, new TinyLfuPolicy<String>(expectedEntries), MAX_ENTRY_FRACTION);
+        System.out.println();
+    }
+
+    private static void replay(String name, List<Access> trace, int cacheSize,
+                               EvictionPolicy<String> policy, float maxEntryFraction) {
+        PolicyMemoryCache<String, Access> cache = new PolicyMemoryCache<String, Access>(cacheSize, policy) {
+            @Override
+            protected int sizeOf(String key, Access value) {
+                return value.mSize;
+            }
+        };
+        cache.setMaxEntryFraction(maxEntryFraction);
+
+        long hits = 0;
+        long bytes = 0;
+        long hitBytes = 0;
+        long start = System.nanoTime();
+        for (Access access : trace) {
+            bytes += access.mSize;
+            if (cache.get(access.mKey) != null) {
+                hits++;
+                hitBytes += access.mSize;
+            }
+            else {
+                cache.put(access.mKey, access);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println(String.format("  %-24s hit rate %6.2f%%   byte hit rate %6.2f%%   %6.0f ns/access",
+                                         name, 100.0 * hits / trace.size(), 100.0 * hitBytes / bytes,
+                                         (double) elapsed / trace.size()));
+    }
+
+    private static List<Access> readTrace(String path) throws IOException {
+        List<Access> trace = new ArrayList<Access>();
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields[0].length() == 0) continue;
+                int size = fields.length > 1 ? Integer.parseInt(fields[1]) : DEFAULT_ENTRY_SIZE;
+                trace.add(new Access(fields[0], size));
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return trace;
+    }
+
+    /**
+     * Generates a feed-like workload: a skewed (Zipf) popularity over a set
+     * of thumbnails and avatars, optionally interleaved with long scans of
+     * images that are only seen once or with one-off large animated GIFs.
+     */
+    private static List<Access> generateFeed(Random random, boolean scans, boolean largeGifs) {
+        final int images = 5000;
+        final int accesses = 200000;
+        int[] sizes = new int[images];
+        for (int i = 0; i < images; i++) {
+            // Between 8 and 128 KiB, mostly on the small side
+            sizes[i] = (int) (8 * 1024 * Math.pow(16, random.nextDouble() * random.nextDouble()));
+        }
+        ZipfGenerator zipf = new ZipfGenerator(images, 0.9, random);
+
+        List<Access> trace = new ArrayList<Access>(accesses);
+        int oneOff = 0;
+        for (int i = 0; i < accesses; i++) {
+            if (scans && i % 5000 == 0) {
+                // The user flings through a long list of images never seen again
+                for (int j = 0; j < 1000; j++) {
+                    trace.add(new Access("scan-" + (oneOff++), sizes[random.nextInt(images)]));
+                }
+            }
+            if (largeGifs && i % 500 == 0) {
+                trace.add(new Access("gif-" + (oneOff++), 2 * 1024 * 1024));
+            }
+            int image = zipf.next();
+            trace.add(new Access("image-" + image, sizes[image]));
+        }
+        return trace;
+    }
+
+    /** Draws integers in [0, n) following a Zipf distribution. */
+    private static class ZipfGenerator {
+        private final double[] mCumulative;
+        private final Random mRandom;
+
+        ZipfGenerator(int n, double skew, Random random) {
+            mRandom = random;
+            mCumulative = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1 / Math.pow(i + 1, skew);
+                mCumulative[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                mCumulative[i] /= sum;
+            }
+        }
+
+        int next() {
+            double value = mRandom.nextDouble();
+            int low = 0;
+            int high = mCumulative.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mCumulative[mid] < value) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package net.frakbot.imageviewex.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs {@link Microbenchmark}s the same way every time, so that their
+ * results can be compared between runs: the number of operations of an
+ * iteration is calibrated once, then a few warm-up iterations let the JIT
+ * settle before the measured ones. Results are the mean time per operation
+ * and its standard deviation across the measured iterations; they can be
+ * saved and compared against a baseline, flagging regressions.
+ *
+ * @author Francesco Pontillo
+ */
+public class BenchmarkRunner {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+    private static final long ITERATION_NANOS = 200 * 1000 * 1000L;
+    // Differences within this much of the baseline are considered noise
+    private static final double REGRESSION_THRESHOLD = 0.10;
+
+    private final Map<String, Result> mResults = new LinkedHashMap<String, Result>();
+    private long mBlackhole;
+
+    /** The time per operation of a benchmark. */
+    public static class Result {
+        final double mMeanNanos;
+        final double mStdDevNanos;
+
+        Result(double meanNanos, double stdDevNanos) {
+            mMeanNanos = meanNanos;
+            mStdDevNanos = stdDevNanos;
+        }
+    }
+
+    /**
+     * Runs the benchmarks, printing their results.
+     *
+     * @param benchmarks The benchmarks.
+     *
+     * @throws Exception If any of the benchmarks fails.
+     */
+    public void run(List<? extends Microbenchmark> benchmarks) throws Exception {
+        for (Microbenchmark benchmark : benchmarks) {
+            benchmark.setUp();
+            try {
+                Result result = measure(benchmark);
+                mResults.put(benchmark.getName(), result);
+                System.out.println(String.format(Locale.US, "%-48s %14.1f ns/op  +- %6.1f%%",
+                                                 benchmark.getName(), result.mMeanNanos,
+                                                 100 * result.mStdDevNanos / result.mMeanNanos));
+            }
+            finally {
+                benchmark.tearDown();
+            }
+        }
+        // Keeps the results of the measured code alive
+        if (mBlackhole == 42) System.out.println();
+    }
+
+    private Result measure(Microbenchmark benchmark) throws Exception {
+        // Grows the batch until an iteration takes long enough to be timed reliably
+        int operations = 1;
+        while (true) {
+            long elapsed = time(benchmark, operations);
+            if (elapsed >= ITERATION_NANOS / 10 || operations >= Integer.MAX_VALUE / 2) {
+                operations = (int) Math.max(1, Math.min(Integer.MAX_VALUE / 2,
+                                                        (long) operations * ITERATION_NANOS / Math.max(1, elapsed)));
+                break;
+            }
+            operations *= 2;
+        }
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            time(benchmark, operations);
+        }
+
+        double[] samples = new double[MEASURED_ITERATIONS];
+        double sum = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            samples[i] = (double) time(benchmark, operations) / operations;
+            sum += samples[i];
+        }
+        double mean = sum / MEASURED_ITERATIONS;
+        double variance = 0;
+        for (double sample : samples) {
+            variance += (sample - mean) * (sample - mean);
+        }
+        return new Result(mean, Math.sqrt(variance / (MEASURED_ITERATIONS - 1)));
+    }
+
+    private long time(Microbenchmark benchmark, int operations) throws Exception {
+        final long start = System.nanoTime();
+        mBlackhole += benchmark.run(operations);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Saves the results, one benchmark per line.
+     *
+     * @param file The file to save the results into.
+     *
+     * @throws IOException If the file can't be written.
+     */
+    public void save(File file) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            for (Map.Entry<String, Result> entry : mResults.entrySet()) {
+                out.println(String.format(Locale.US, "%s\t%.3f\t%.3f", entry.getKey(),
+                                          entry.getValue().mMeanNanos, entry.getValue().mStdDevNanos));
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Compares the results with the ones of a previous run, printing the
+     * difference of each benchmark.
+     *
+     * @param file The file holding the results of the previous run.
+     *
+     * @return The number of benchmarks that got slower beyond the noise.
+     * @throws IOException If the file can't be read.
+     */
+    public int compare(File file) throws IOException {
+        Map<String, Result> baseline = new LinkedHashMap<String, Result>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length < 3) continue;
+                baseline.put(fields[0], new Result(Double.parseDouble(fields[1]), Double.parseDouble(fields[2])));
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        int regressions = 0;
+        System.out.println("Compared with " + file);
+        for (Map.Entry<String, Result> entry : mResults.entrySet()) {
+            Result before = baseline.get(entry.getKey());
+            if (before == null) continue;
+
+            Result after = entry.getValue();
+            double change = (after.mMeanNanos - before.mMeanNanos) / before.mMeanNanos;
+            // Only flags differences that exceed both the threshold and the measured noise
+            double noise = 2 * (after.mStdDevNanos + before.mStdDevNanos) / before.mMeanNanos;
+            boolean regression = change > Math.max(REGRESSION_THRESHOLD, noise);
+            if (regression) regressions++;
+            System.out.println(String.format(Locale.US, "%-48s %+7.1f%%%s", entry.getKey(), 100 * change,
+                                             regression ? "  REGRESSION" : ""));
+        }
+        return regressions;
+    }
+}
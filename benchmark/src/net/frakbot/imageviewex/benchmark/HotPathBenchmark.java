@@ -0,0 +1,446 @@
+package net.frakbot.imageviewex.benchmark;
+
+import net.frakbot.cache.CacheHelper;
+import net.frakbot.cache.ConcurrentMemoryCache;
+import net.frakbot.cache.MemoryCache;
+import net.frakbot.cache.TinyLfuPolicy;
+import net.frakbot.imageviewex.Converters;
+import net.frakbot.imageviewex.GifHeader;
+import net.frakbot.imageviewex.decoder.FrameDecoder;
+import net.frakbot.imageviewex.decoder.GifFrameDecoder;
+import net.frakbot.imageviewex.decoder.TranscodedFrameDecoder;
+import net.frakbot.remote.RemoteHelper;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the pure-Java code that runs on every load: the hashing of the
+ * disk cache keys, the conversion of streams into byte arrays, the memory
+ * cache (alone and under contention), the buffering of the downloads and
+ * the parsing and frame decoding of the GIFs. All the inputs are generated with fixed seeds,
+ * so the results of different runs can be compared.
+ * <p/>
+ * Usage: {@code HotPathBenchmark [--assets dir] [--save file] [--baseline file] [filter]}.
+ * Only the benchmarks whose name contains the filter are run; with a
+ * baseline, the process exits with status 1 if any of them has regressed.
+ *
+ * @author Francesco Pontillo
+ */
+public class HotPathBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        File assets = new File("test/assets");
+        File save = null;
+        File baseline = null;
+        String filter = "";
+        for (int i = 0; i < args.length; i++) {
+            if ("--assets".equals(args[i])) assets = new File(args[++i]);
+            else if ("--save".equals(args[i])) save = new File(args[++i]);
+            else if ("--baseline".equals(args[i])) baseline = new File(args[++i]);
+            else filter = args[i];
+        }
+
+        List<Microbenchmark> benchmarks = new ArrayList<Microbenchmark>();
+        benchmarks.add(new KeyHashing());
+        for (int size : new int[]{16 * 1024, 256 * 1024}) {
+            benchmarks.add(new StreamToByteArray(size, false));
+            benchmarks.add(new StreamToByteArray(size, true));
+        }
+        benchmarks.add(new MemoryCacheGet(0));
+        benchmarks.add(new MemoryCacheGet(4));
+        benchmarks.add(new MemoryCachePut());
+        for (int size : new int[]{16 * 1024, 256 * 1024}) {
+            benchmarks.add(new DownloadBuffering(size, true));
+            benchmarks.add(new DownloadBuffering(size, false));
+        }
+        File[] gifs = assets.listFiles();
+        if (gifs != null) {
+            for (File gif : gifs) {
+                if (gif.getName().toLowerCase().endsWith(".gif")) {
+                    benchmarks.add(new GifParsing(gif));
+                    benchmarks.add(new GifDecoding(gif));
+                    benchmarks.add(new TranscodedReplay(gif));
+                }
+            }
+        }
+
+        List<Microbenchmark> selected = new ArrayList<Microbenchmark>();
+        for (Microbenchmark benchmark : benchmarks) {
+            if (benchmark.getName().contains(filter)) selected.add(benchmark);
+        }
+
+        BenchmarkRunner runner = new BenchmarkRunner();
+        runner.run(selected);
+        if (save != null) runner.save(save);
+        if (baseline != null && runner.compare(baseline) > 0) System.exit(1);
+    }
+
+    /** Hashes URLs into disk cache keys. */
+    private static class KeyHashing extends Microbenchmark {
+        private final String[] mUrls = new String[1024];
+
+        KeyHashing() {
+            super("CacheHelper.UriToDiskLruCacheString");
+        }
+
+        @Override
+        protected void setUp() {
+            Random random = new Random(42);
+            for (int i = 0; i < mUrls.length; i++) {
+                mUrls[i] = "http://upload.example.com/images/" + Long.toHexString(random.nextLong())
+                           + "/" + random.nextInt(100000) + ".jpg";
+            }
+        }
+
+        @Override
+        protected long run(int operations) throws Exception {
+            long result = 0;
+            for (int i = 0; i < operations; i++) {
+                result += CacheHelper.UriToDiskLruCacheString(mUrls[i & (mUrls.length - 1)]).length();
+            }
+            return result;
+        }
+    }
+
+    /** Reads a stream into a byte array, as the disk cache reads do. */
+    private static class StreamToByteArray extends Microbenchmark {
+        private final byte[] mData;
+        private final boolean mChunked;
+
+        StreamToByteArray(int size, boolean chunked) {
+            super("Converters.inputStreamToByteArray " + size / 1024 + "KiB" + (chunked ? " chunked" : ""));
+            mData = new byte[size];
+            new Random(size).nextBytes(mData);
+            mChunked = chunked;
+        }
+
+        @Override
+        protected long run(int operations) {
+            long result = 0;
+            for (int i = 0; i < operations; i++) {
+                InputStream in = new ByteArrayInputStream(mData);
+                if (mChunked) in = new ChunkedInputStream(in, 4096);
+                result += Converters.inputStreamToByteArray(in, mData.length).length;
+            }
+            return result;
+        }
+    }
+
+    /** Looks up images in the memory cache, optionally while other threads are adding images. */
+    private static class MemoryCacheGet extends Microbenchmark {
+        private static final int KEYS = 1024;
+        private final int mWriters;
+        private final String[] mKeys = new String[KEYS];
+        private final byte[][] mValues = new byte[KEYS][];
+        private final AtomicBoolean mRunning = new AtomicBoolean();
+        private final List<Thread> mThreads = new ArrayList<Thread>();
+        private MemoryCache<String, byte[]> mCache;
+
+        MemoryCacheGet(int writers) {
+            super("ConcurrentMemoryCache.get" + (writers > 0 ? " with " + writers + " writers" : ""));
+            mWriters = writers;
+        }
+
+        @Override
+        protected void setUp() {
+            mCache = createCache();
+            Random random = new Random(7);
+            for (int i = 0; i < KEYS; i++) {
+                mKeys[i] = "http://example.com/images/" + i + ".jpg";
+                mValues[i] = new byte[1024 + random.nextInt(7 * 1024)];
+                mCache.put(mKeys[i], mValues[i]);
+            }
+
+            mRunning.set(true);
+            for (int w = 0; w < mWriters; w++) {
+                final Random writerRandom = new Random(w);
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        while (mRunning.get()) {
+                            int key = writerRandom.nextInt(KEYS);
+                            mCache.put(mKeys[key], mValues[key]);
+                        }
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+                mThreads.add(thread);
+            }
+        }
+
+        @Override
+        protected void tearDown() throws InterruptedException {
+            mRunning.set(false);
+            for (Thread thread : mThreads) {
+                thread.join();
+            }
+            mThreads.clear();
+        }
+
+        @Override
+        protected long run(int operations) {
+            long result = 0;
+            for (int i = 0; i < operations; i++) {
+                byte[] value = mCache.get(mKeys[(i * 31) & (KEYS - 1)]);
+                if (value != null) result += value.length;
+            }
+            return result;
+        }
+    }
+
+    /** Adds images to a full memory cache, evicting others. */
+    private static class MemoryCachePut extends Microbenchmark {
+        private static final int KEYS = 8192;
+        private final String[] mKeys = new String[KEYS];
+        private final byte[] mValue = new byte[4096];
+        private MemoryCache<String, byte[]> mCache;
+
+        MemoryCachePut() {
+            super("ConcurrentMemoryCache.put");
+        }
+
+        @Override
+        protected void setUp() {
+            mCache = createCache();
+            for (int i = 0; i < KEYS; i++) {
+                mKeys[i] = "http://example.com/images/" + i + ".jpg";
+            }
+        }
+
+        @Override
+        protected long run(int operations) {
+            for (int i = 0; i < operations; i++) {
+                mCache.put(mKeys[(i * 17) & (KEYS - 1)], mValue);
+            }
+            return mCache.size();
+        }
+    }
+
+    /**
+     * Downloads a body from a local socket with the same buffering the
+     * RemoteHelper uses, with and without a known Content-Length.
+     */
+    private static class DownloadBuffering extends Microbenchmark {
+        private final byte[] mBody;
+        private final boolean mKnownLength;
+        private ServerSocket mServer;
+        private Thread mServerThread;
+
+        DownloadBuffering(int size, boolean knownLength) {
+            super("RemoteHelper.readBody " + size / 1024 + "KiB" + (knownLength ? "" : " unknown length"));
+            mBody = new byte[size];
+            new Random(size).nextBytes(mBody);
+            mKnownLength = knownLength;
+        }
+
+        @Override
+        protected void setUp() throws IOException {
+            mServer = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            mServerThread = new Thread(new Runnable() {
+                public void run() {
+                    while (!mServer.isClosed()) {
+                        try {
+                            Socket socket = mServer.accept();
+                            OutputStream out = socket.getOutputStream();
+                            out.write(mBody);
+                            socket.close();
+                        }
+                        catch (IOException ignored) {
+                        }
+                    }
+                }
+            });
+            mServerThread.setDaemon(true);
+            mServerThread.start();
+        }
+
+        @Override
+        protected void tearDown() throws Exception {
+            mServer.close();
+            mServerThread.join();
+        }
+
+        @Override
+        protected long run(int operations) throws IOException {
+            long result = 0;
+            for (int i = 0; i < operations; i++) {
+                Socket socket = new Socket(mServer.getInetAddress(), mServer.getLocalPort());
+                try {
+                    InputStream in = new BufferedInputStream(socket.getInputStream());
+                    result += RemoteHelper.readBody(in, mKnownLength ? mBody.length : -1).length;
+                }
+                finally {
+                    socket.close();
+                }
+            }
+            return result;
+        }
+    }
+
+    /** Walks the blocks of a GIF, as done for every downloaded GIF. */
+    private static class GifParsing extends Microbenchmark {
+        private final File mFile;
+        private byte[] mData;
+
+        GifParsing(File file) {
+            super("GifHeader.parse " + file.getName());
+            mFile = file;
+        }
+
+        @Override
+        protected void setUp() throws IOException {
+            mData = readFile(mFile);
+        }
+
+        @Override
+        protected long run(int operations) {
+            long result = 0;
+            for (int i = 0; i < operations; i++) {
+                result += GifHeader.parse(mData).getFrameCount();
+            }
+            return result;
+        }
+    }
+
+    /** Decodes a whole loop of a GIF with the streaming frame decoder. */
+    private static class GifDecoding extends Microbenchmark {
+        private final File mFile;
+        private GifFrameDecoder mDecoder;
+
+        GifDecoding(File file) {
+            super("GifFrameDecoder loop " + file.getName());
+            mFile = file;
+        }
+
+        @Override
+        protected void setUp() throws IOException {
+            final byte[] data = readFile(mFile);
+            mDecoder = GifFrameDecoder.open(data);
+            checkLoop(mDecoder, GifHeader.parse(data).getFrameCount());
+        }
+
+        @Override
+        protected long run(int operations) {
+            return playLoops(mDecoder, operations);
+        }
+    }
+
+    /** Replays a whole loop of a GIF transcoded by TranscodedFrameDecoder, from memory. */
+    private static class TranscodedReplay extends Microbenchmark {
+        private final File mFile;
+        private TranscodedFrameDecoder mDecoder;
+
+        TranscodedReplay(File file) {
+            super("TranscodedFrameDecoder loop " + file.getName());
+            mFile = file;
+        }
+
+        @Override
+        protected void setUp() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            TranscodedFrameDecoder.transcode(GifFrameDecoder.open(readFile(mFile)), out);
+            final byte[] frames = out.toByteArray();
+            mDecoder = TranscodedFrameDecoder.open(new TranscodedFrameDecoder.Source() {
+                @Override
+                public InputStream open() {
+                    return new ByteArrayInputStream(frames);
+                }
+
+                @Override
+                public long getLength() {
+                    return frames.length;
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+            checkLoop(mDecoder, GifHeader.parse(readFile(mFile)).getFrameCount());
+        }
+
+        @Override
+        protected long run(int operations) {
+            return playLoops(mDecoder, operations);
+        }
+    }
+
+    /** Plays whole loops of an animation, from its first frame to its last one. */
+    private static long playLoops(FrameDecoder decoder, int loops) {
+        long result = 0;
+        for (int i = 0; i < loops; i++) {
+            decoder.rewind();
+            result += decoder.advance();
+            while (decoder.advance() > 0) {
+                result += decoder.getPixels()[0];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks that {@link #playLoops(FrameDecoder, int)} decodes every frame of
+     * the animation, and not only the first one, on the first loop and after it.
+     */
+    private static void checkLoop(FrameDecoder decoder, int frameCount) {
+        for (int loop = 0; loop < 2; loop++) {
+            decoder.rewind();
+            int frames = decoder.advance() >= 0 ? 1 : 0;
+            while (decoder.advance() > 0) {
+                frames++;
+            }
+            if (frames != frameCount) {
+                throw new IllegalStateException("Loop " + loop + " decoded " + frames + " frames out of "
+                                                + frameCount);
+            }
+        }
+    }
+
+    private static MemoryCache<String, byte[]> createCache() {
+        return new ConcurrentMemoryCache<String, byte[]>(4 * 1024 * 1024, new TinyLfuPolicy<String>()) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length;
+            }
+        };
+    }
+
+    static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return Converters.inputStreamToByteArray(in, (int) file.length());
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /** A stream that never returns more than a given number of bytes per read, like a file does. */
+    private static class ChunkedInputStream extends FilterInputStream {
+        private final int mChunkSize;
+
+        ChunkedInputStream(InputStream in, int chunkSize) {
+            super(in);
+            mChunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            return super.read(buffer, offset, Math.min(count, mChunkSize));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package net.frakbot.imageviewex.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local HTTP server of fake images, with a configurable latency,
+ * bandwidth and error rate. The image at {@code /images/<n>} is always
+ * the same, so that the same workload can be replayed. Counts every
+ * request, to spot the images that have been downloaded more than once.
+ *
+ * @author Francesco Pontillo
+ */
+public class ImageServer {
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final HttpServer mServer;
+    private final long mLatencyMillis;
+    private final long mBytesPerSecond;
+    private final double mErrorRate;
+    private final Random mRandom;
+    private final ConcurrentHashMap<String, AtomicInteger> mRequests = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private final AtomicInteger mErrors = new AtomicInteger();
+
+    /**
+     * Starts a server on a random local port.
+     *
+     * @param latencyMillis  The time before the response headers are sent, in milliseconds.
+     * @param bytesPerSecond The bandwidth of each connection, in bytes per second, or 0 for no limit.
+     * @param errorRate      The fraction of requests that fail with a 500, between 0 and 1.
+     * @param seed           The seed of the failures.
+     *
+     * @throws IOException If the server can't be started.
+     */
+    public ImageServer(long latencyMillis, long bytesPerSecond, double errorRate, long seed) throws IOException {
+        mLatencyMillis = latencyMillis;
+        mBytesPerSecond = bytesPerSecond;
+        mErrorRate = errorRate;
+        mRandom = new Random(seed);
+
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 50);
+        mServer.createContext("/images/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+    }
+
+    /**
+     * @param index The index of the image.
+     *
+     * @return The URL of the image.
+     */
+    public String getUrl(int index) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/images/" + index;
+    }
+
+    /**
+     * @param index The index of the image.
+     *
+     * @return The size of the image, in bytes: between 8 and 120KiB, like thumbnails and photos in a feed.
+     */
+    public static int getImageSize(int index) {
+        return 8 * 1024 + new Random(index).nextInt(112 * 1024);
+    }
+
+    /** @return The number of bytes of the images sent. */
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    /** @return The number of requests that have failed on purpose. */
+    public int getErrors() {
+        return mErrors.get();
+    }
+
+    /** @return The number of requests for images that had already been sent successfully. */
+    public int getDuplicateRequests() {
+        int duplicates = 0;
+        for (AtomicInteger count : mRequests.values()) {
+            duplicates += Math.max(0, count.get() - 1);
+        }
+        return duplicates;
+    }
+
+    /** Stops the server. */
+    public void stop() {
+        mServer.stop(0);
+        ((java.util.concurrent.ExecutorService) mServer.getExecutor()).shutdownNow();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            sleep(mLatencyMillis);
+
+            boolean fail;
+            synchronized (mRandom) {
+                fail = mRandom.nextDouble() < mErrorRate;
+            }
+            if (fail) {
+                mErrors.incrementAndGet();
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            int index = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+            byte[] image = new byte[getImageSize(index)];
+            new Random(index).nextBytes(image);
+
+            AtomicInteger count = mRequests.putIfAbsent(path, new AtomicInteger(1));
+            if (count != null) count.incrementAndGet();
+
+            exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, image.length);
+            OutputStream out = exchange.getResponseBody();
+            for (int offset = 0; offset < image.length; offset += CHUNK_SIZE) {
+                int length = Math.min(CHUNK_SIZE, image.length - offset);
+                out.write(image, offset, length);
+                out.flush();
+                if (mBytesPerSecond > 0) {
+                    sleep(length * 1000L / mBytesPerSecond);
+                }
+            }
+            mBytesSent.addAndGet(image.length);
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package net.frakbot.imageviewex.benchmark;
+
+/**
+ * A piece of code measured by the {@link BenchmarkRunner}.
+ *
+ * @author Francesco Pontillo
+ */
+public abstract class Microbenchmark {
+
+    private final String mName;
+
+    /** @param name The name of the benchmark, used to compare it between runs. */
+    protected Microbenchmark(String name) {
+        mName = name;
+    }
+
+    /** @return The name of the benchmark. */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Prepares the benchmark, before any iteration. Not measured.
+     *
+     * @throws Exception If the benchmark can't be run.
+     */
+    protected void setUp() throws Exception {
+    }
+
+    /**
+     * Releases whatever {@link #setUp()} has acquired. Not measured.
+     *
+     * @throws Exception If the resources can't be released.
+     */
+    protected void tearDown() throws Exception {
+    }
+
+    /**
+     * Runs the measured code a number of times.
+     *
+     * @param operations The number of times to run the measured code.
+     *
+     * @return Any value depending on the results of the measured code, so
+     *         that the JIT can't optimize it away.
+     * @throws Exception If the measured code fails.
+     */
+    protected abstract long run(int operations) throws Exception;
+}
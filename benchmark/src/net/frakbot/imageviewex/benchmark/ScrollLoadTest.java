@@ -0,0 +1,386 @@
+package net.frakbot.imageviewex.benchmark;
+
+import com.jakewharton.disklrucache.DiskLruCache;
+import net.frakbot.cache.CacheHelper;
+import net.frakbot.cache.ConcurrentMemoryCache;
+import net.frakbot.cache.MemoryCache;
+import net.frakbot.cache.TinyLfuPolicy;
+import net.frakbot.remote.RemoteHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replays a list-scroll workload against the memory, disk and network
+ * chain of the ImageViewNext, with a local {@link ImageServer} in place of
+ * the internet, and reports throughput, time-to-display percentiles, bytes
+ * downloaded, duplicate fetches and cache hit rates.
+ * <p/>
+ * The views need the Android framework, so they're emulated the way the
+ * ImageViewNext works: a single "UI" thread binds recycled views with
+ * {@code setUrl} and looks into the memory cache; misses go to a pool of
+ * worker threads (as many as the service has) that read the disk cache and
+ * download with the same code the operations use; identical requests in
+ * flight are merged, as the RequestManager does, and results for views
+ * that have been recycled in the meantime are dropped. Decoding is not
+ * included: the time to display ends when the bytes reach the UI thread.
+ * <p/>
+ * Usage: {@code ScrollLoadTest [--option value]...}, see {@link #main(String[])}.
+ *
+ * @author Francesco Pontillo
+ */
+public class ScrollLoadTest {
+
+    private static final long FRAME_MILLIS = 16;
+
+    // Configuration
+    private int mItems = 1000;
+    private int mVisibleViews = 8;
+    private int mThreads = 10;
+    private int mMemCacheSize = 4 * 1024 * 1024;
+    private long mDiskCacheSize = 50 * 1024 * 1024;
+    private long mLatencyMillis = 100;
+    private long mBandwidth = 512 * 1024;
+    private double mErrorRate = 0.01;
+    private int mDurationSeconds = 30;
+    private float mFlingSpeed = 25;
+    private long mSeed = 42;
+
+    private ImageServer mServer;
+    private MemoryCache<String, byte[]> mMemCache;
+    private DiskLruCache mDiskCache;
+    private File mDiskCacheDir;
+    private ExecutorService mWorkers;
+    private ExecutorService mUiThread;
+
+    // The requests in flight, with the views waiting for them; only touched on the UI thread
+    private final Map<String, List<View>> mInFlight = new HashMap<String, List<View>>();
+
+    // Results, only touched on the UI thread
+    private final List<Long> mTimesToDisplay = new ArrayList<Long>();
+    private int mBinds;
+    private int mMemoryHits;
+    private int mDiskRequests;
+    private int mDiskHits;
+    private int mNetworkRequests;
+    private int mNetworkHits;
+    private int mFailures;
+    private int mAbandoned;
+    private final AtomicInteger mWorkerErrors = new AtomicInteger();
+
+    /** A recycled view of the list. */
+    private class View {
+        String mUrl;
+        long mBindNanos;
+        boolean mPending;
+
+        void setUrl(String url) {
+            if (mPending) mAbandoned++;
+            mUrl = url;
+            mBindNanos = System.nanoTime();
+            mBinds++;
+
+            byte[] image = mMemCache.get(url);
+            if (image != null) {
+                mMemoryHits++;
+                display();
+            }
+            else {
+                mPending = true;
+                execute("disk:" + url, this, new DiskOperation(url));
+            }
+        }
+
+        void display() {
+            mPending = false;
+            mTimesToDisplay.add(System.nanoTime() - mBindNanos);
+        }
+    }
+
+    /** An operation run by the workers, returning the image or null. */
+    private interface Operation {
+        byte[] run() throws Exception;
+    }
+
+    private class DiskOperation implements Operation {
+        private final String mUrl;
+
+        DiskOperation(String url) {
+            mUrl = url;
+        }
+
+        public byte[] run() throws Exception {
+            byte[] image = CacheHelper.readByteArrayFromDiskCache(mDiskCache, mUrl);
+            if (image != null) mMemCache.put(mUrl, image);
+            return image;
+        }
+    }
+
+    private class NetworkOperation implements Operation {
+        private final String mUrl;
+
+        NetworkOperation(String url) {
+            mUrl = url;
+        }
+
+        public byte[] run() throws Exception {
+            HttpURLConnection connection = (HttpURLConnection) new URL(mUrl).openConnection();
+            try {
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) return null;
+
+                InputStream in = connection.getInputStream();
+                byte[] image = RemoteHelper.readBody(in, connection.getContentLength());
+                in.close();
+
+                CacheHelper.writeByteArrayToDiskCache(mDiskCache, mUrl, image);
+                mMemCache.put(mUrl, image);
+                return image;
+            }
+            finally {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Runs the load test.
+     * Options: --items, --views, --threads, --mem-cache (bytes), --disk-cache (bytes),
+     * --latency (ms), --bandwidth (bytes/s per connection, 0 = unlimited),
+     * --error-rate (0-1), --duration (s), --fling-speed (items/s), --seed.
+     *
+     * @param args The options.
+     */
+    public static void main(String[] args) throws Exception {
+        ScrollLoadTest test = new ScrollLoadTest();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String option = args[i];
+            String value = args[i + 1];
+            if ("--items".equals(option)) test.mItems = Integer.parseInt(value);
+            else if ("--views".equals(option)) test.mVisibleViews = Integer.parseInt(value);
+            else if ("--threads".equals(option)) test.mThreads = Integer.parseInt(value);
+            else if ("--mem-cache".equals(option)) test.mMemCacheSize = Integer.parseInt(value);
+            else if ("--disk-cache".equals(option)) test.mDiskCacheSize = Long.parseLong(value);
+            else if ("--latency".equals(option)) test.mLatencyMillis = Long.parseLong(value);
+            else if ("--bandwidth".equals(option)) test.mBandwidth = Long.parseLong(value);
+            else if ("--error-rate".equals(option)) test.mErrorRate = Double.parseDouble(value);
+            else if ("--duration".equals(option)) test.mDurationSeconds = Integer.parseInt(value);
+            else if ("--fling-speed".equals(option)) test.mFlingSpeed = Float.parseFloat(value);
+            else if ("--seed".equals(option)) test.mSeed = Long.parseLong(value);
+            else throw new IllegalArgumentException("Unknown option " + option);
+        }
+        test.run();
+    }
+
+    private void run() throws Exception {
+        mServer = new ImageServer(mLatencyMillis, mBandwidth, mErrorRate, mSeed);
+        mMemCache = new ConcurrentMemoryCache<String, byte[]>(mMemCacheSize, new TinyLfuPolicy<String>()) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length;
+            }
+        };
+        mDiskCacheDir = File.createTempFile("scroll-load-test", "");
+        mDiskCacheDir.delete();
+        mDiskCache = DiskLruCache.open(mDiskCacheDir, 1, 1, mDiskCacheSize);
+        mWorkers = Executors.newFixedThreadPool(mThreads);
+        mUiThread = Executors.newSingleThreadExecutor();
+
+        try {
+            final long start = System.nanoTime();
+            scroll();
+            final long elapsed = System.nanoTime() - start;
+            drain();
+            report(elapsed);
+        }
+        finally {
+            mWorkers.shutdownNow();
+            mUiThread.shutdownNow();
+            mServer.stop();
+            mDiskCache.delete();
+        }
+    }
+
+    /**
+     * Scrolls the list, frame by frame: flings down, pauses, and every now
+     * and then scrolls back up, binding the views that become visible.
+     */
+    private void scroll() throws Exception {
+        final Random random = new Random(mSeed);
+        final List<View> views = new ArrayList<View>();
+        for (int i = 0; i < mVisibleViews + 1; i++) {
+            views.add(new View());
+        }
+
+        float position = 0;
+        int firstBound = 0;
+        int lastBound = -1;
+        float velocity = 0;
+        long phaseEnd = 0;
+        final long frames = mDurationSeconds * 1000 / FRAME_MILLIS;
+
+        for (long frame = 0; frame < frames; frame++) {
+            // Picks the next phase of the gesture
+            if (frame >= phaseEnd) {
+                double gesture = random.nextDouble();
+                if (gesture < 0.6) velocity = mFlingSpeed * (0.5f + random.nextFloat());
+                else if (gesture < 0.85) velocity = 0;
+                else velocity = -mFlingSpeed * (0.5f + random.nextFloat());
+                phaseEnd = frame + (500 + random.nextInt(2000)) / FRAME_MILLIS;
+            }
+
+            position += velocity * FRAME_MILLIS / 1000f;
+            position = Math.max(0, Math.min(mItems - mVisibleViews, position));
+            final int first = (int) position;
+            final int last = first + mVisibleViews;
+
+            // Binds the items that came into view to the views of those that left it
+            final List<Integer> toBind = new ArrayList<Integer>();
+            for (int item = first; item <= last; item++) {
+                if (item < firstBound || item > lastBound) toBind.add(item);
+            }
+            firstBound = first;
+            lastBound = last;
+            if (!toBind.isEmpty()) {
+                mUiThread.submit(new Runnable() {
+                    public void run() {
+                        for (int item : toBind) {
+                            views.get(item % views.size()).setUrl(mServer.getUrl(item));
+                        }
+                    }
+                }).get();
+            }
+            Thread.sleep(FRAME_MILLIS);
+        }
+    }
+
+    /** Sends a request to the workers, merging it with an identical one in flight. Runs on the UI thread. */
+    private void execute(final String key, View view, final Operation operation) {
+        List<View> waiting = mInFlight.get(key);
+        if (waiting != null) {
+            waiting.add(view);
+            return;
+        }
+        waiting = new ArrayList<View>();
+        waiting.add(view);
+        mInFlight.put(key, waiting);
+        if (key.startsWith("net:")) mNetworkRequests++;
+        else mDiskRequests++;
+
+        mWorkers.submit(new Runnable() {
+            public void run() {
+                byte[] result = null;
+                try {
+                    result = operation.run();
+                }
+                catch (Exception e) {
+                    mWorkerErrors.incrementAndGet();
+                }
+                final byte[] image = result;
+                mUiThread.submit(new Runnable() {
+                    public void run() {
+                        onFinished(key, image);
+                    }
+                });
+            }
+        });
+    }
+
+    /** Delivers a result to the views still waiting for it. Runs on the UI thread. */
+    private void onFinished(String key, byte[] image) {
+        final boolean network = key.startsWith("net:");
+        final String url = key.substring(key.indexOf(':') + 1);
+        if (image != null) {
+            if (network) mNetworkHits++;
+            else mDiskHits++;
+        }
+
+        for (View view : mInFlight.remove(key)) {
+            // The view has been recycled for another image
+            if (!url.equals(view.mUrl) || !view.mPending) continue;
+
+            if (image != null) {
+                view.display();
+            }
+            else if (!network) {
+                execute("net:" + url, view, new NetworkOperation(url));
+            }
+            else {
+                mFailures++;
+                view.mPending = false;
+            }
+        }
+    }
+
+    /** Waits for the requests in flight to finish. */
+    private void drain() throws Exception {
+        final long deadline = System.currentTimeMillis() + 30 * 1000;
+        while (System.currentTimeMillis() < deadline) {
+            boolean idle = mUiThread.submit(new java.util.concurrent.Callable<Boolean>() {
+                public Boolean call() {
+                    return mInFlight.isEmpty();
+                }
+            }).get();
+            if (idle) return;
+            Thread.sleep(50);
+        }
+    }
+
+    private void report(long elapsedNanos) throws Exception {
+        mUiThread.submit(new Runnable() {
+            public void run() {
+            }
+        }).get(10, TimeUnit.SECONDS);
+
+        List<Long> times = new ArrayList<Long>(mTimesToDisplay);
+        Collections.sort(times);
+        final double seconds = elapsedNanos / 1e9;
+
+        System.out.println(String.format(Locale.US,
+            "%d items, %d views, %d threads, %d ms latency, %s, %.1f%% errors, %d s",
+            mItems, mVisibleViews, mThreads, mLatencyMillis,
+            mBandwidth > 0 ? mBandwidth / 1024 + " KiB/s" : "unlimited bandwidth", mErrorRate * 100,
+            mDurationSeconds));
+        System.out.println(String.format(Locale.US, "binds:              %d (%d abandoned, %d failed)",
+                                         mBinds, mAbandoned, mFailures));
+        System.out.println(String.format(Locale.US, "images displayed:   %d (%.1f/s)",
+                                         times.size(), times.size() / seconds));
+        System.out.println(String.format(Locale.US, "time to display:    p50 %.1f ms, p95 %.1f ms, p99 %.1f ms",
+                                         percentile(times, 0.50) / 1e6, percentile(times, 0.95) / 1e6,
+                                         percentile(times, 0.99) / 1e6));
+        System.out.println(String.format(Locale.US, "memory cache:       %d/%d binds hit (%.1f%%)",
+                                         mMemoryHits, mBinds, rate(mMemoryHits, mBinds)));
+        System.out.println(String.format(Locale.US, "disk cache:         %d/%d requests hit (%.1f%%)",
+                                         mDiskHits, mDiskRequests, rate(mDiskHits, mDiskRequests)));
+        System.out.println(String.format(Locale.US, "network:            %d/%d requests succeeded (%.1f%%), %d server errors",
+                                         mNetworkHits, mNetworkRequests, rate(mNetworkHits, mNetworkRequests),
+                                         mServer.getErrors()));
+        System.out.println(String.format(Locale.US, "bytes downloaded:   %d KiB", mServer.getBytesSent() / 1024));
+        System.out.println(String.format(Locale.US, "duplicate fetches:  %d", mServer.getDuplicateRequests()));
+        if (mWorkerErrors.get() > 0) {
+            System.out.println(String.format(Locale.US, "worker exceptions:  %d", mWorkerErrors.get()));
+        }
+    }
+
+    private static long percentile(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) return 0;
+        return sorted.get(Math.min(sorted.size() - 1, (int) Math.ceil(percentile * sorted.size()) - 1));
+    }
+
+    private static double rate(int hits, int lookups) {
+        return lookups > 0 ? 100.0 * hits / lookups : 0;
+    }
+}
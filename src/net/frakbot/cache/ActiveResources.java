@@ -0,0 +1,73 @@
+package net.frakbot.cache;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The resources that are currently held by at least one view, weakly
+ * referenced so that a view that's garbage collected without releasing
+ * its resource doesn't leak it. This class is not thread safe.
+ *
+ * @author Francesco Pontillo
+ */
+final class ActiveResources {
+
+    private final HashMap<String, ResourceReference> mResources = new HashMap<String, ResourceReference>();
+    private final ReferenceQueue<BitmapResource> mQueue = new ReferenceQueue<BitmapResource>();
+
+    /** A weak reference that remembers the key of its resource. */
+    private static final class ResourceReference extends WeakReference<BitmapResource> {
+        final String mKey;
+
+        ResourceReference(BitmapResource resource, ReferenceQueue<BitmapResource> queue) {
+            super(resource, queue);
+            mKey = resource.getKey();
+        }
+    }
+
+    BitmapResource get(String key) {
+        purge();
+        ResourceReference reference = mResources.get(key);
+        return reference != null ? reference.get() : null;
+    }
+
+    void put(BitmapResource resource) {
+        purge();
+        mResources.put(resource.getKey(), new ResourceReference(resource, mQueue));
+    }
+
+    void remove(BitmapResource resource) {
+        ResourceReference reference = mResources.get(resource.getKey());
+        if (reference != null && reference.get() == resource) {
+            mResources.remove(resource.getKey());
+        }
+    }
+
+    int size() {
+        purge();
+        return mResources.size();
+    }
+
+    List<BitmapResource> getAll() {
+        purge();
+        List<BitmapResource> resources = new ArrayList<BitmapResource>(mResources.size());
+        for (ResourceReference reference : mResources.values()) {
+            BitmapResource resource = reference.get();
+            if (resource != null) resources.add(resource);
+        }
+        return resources;
+    }
+
+    /** Drops the references whose resources have been garbage collected. */
+    private void purge() {
+        ResourceReference reference;
+        while ((reference = (ResourceReference) mQueue.poll()) != null) {
+            if (mResources.get(reference.mKey) == reference) {
+                mResources.remove(reference.mKey);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package net.frakbot.cache;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+/**
+ * A pool of bitmaps nobody is using anymore, which can be reused to decode
+ * other images of the same size (see {@code BitmapFactory.Options.inBitmap}).
+ * Bitmaps that can't be reused, and the least recently pooled ones when the
+ * pool is full, are recycled.
+ *
+ * @author Francesco Pontillo
+ */
+public class BitmapPool implements TrimmableCache {
+
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<Bitmap>();
+    private final int mMaxSize;
+    private int mSize;
+
+    /**
+     * Creates a new pool.
+     *
+     * @param maxSize The maximum size of the pool, in bytes.
+     */
+    public BitmapPool(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Puts a bitmap into the pool. The bitmap must not be used by anybody
+     * else anymore, since it can be reused or recycled at any time.
+     *
+     * @param bitmap The bitmap.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return;
+
+        final int size = bitmap.getRowBytes() * bitmap.getHeight();
+        if (!isReusable(bitmap) || size > mMaxSize) {
+            bitmap.recycle();
+            return;
+        }
+
+        mBitmaps.addLast(bitmap);
+        mSize += size;
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Takes a bitmap out of the pool, to be used as {@code inBitmap}.
+     *
+     * @param width  The width of the bitmap, in pixels.
+     * @param height The height of the bitmap, in pixels.
+     * @param config The configuration of the bitmap.
+     *
+     * @return A bitmap with exactly the given size and configuration, or null if there is none.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        // The most recently pooled bitmaps are the most likely to be of the right size
+        ListIterator<Bitmap> iterator = mBitmaps.listIterator(mBitmaps.size());
+        while (iterator.hasPrevious()) {
+            Bitmap bitmap = iterator.previous();
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                iterator.remove();
+                mSize -= bitmap.getRowBytes() * bitmap.getHeight();
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return mSize;
+    }
+
+    @Override
+    public int maxSize() {
+        return mMaxSize;
+    }
+
+    @Override
+    public synchronized void trimToSize(int maxSize) {
+        while (mSize > maxSize && !mBitmaps.isEmpty()) {
+            Bitmap bitmap = mBitmaps.removeFirst();
+            mSize -= bitmap.getRowBytes() * bitmap.getHeight();
+            bitmap.recycle();
+        }
+    }
+
+    private static boolean isReusable(Bitmap bitmap) {
+        // inBitmap only exists since Honeycomb, and it needs mutable bitmaps
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && bitmap.isMutable();
+    }
+}
@@ -0,0 +1,49 @@
+package net.frakbot.cache;
+
+import android.graphics.Bitmap;
+
+/**
+ * A decoded image, shared by all the views showing it. Views acquire it
+ * from a {@link BitmapResourceCache} when they bind it and release it when
+ * they don't show it anymore; its bitmap is only reused or recycled once
+ * nobody is holding it.
+ *
+ * @author Francesco Pontillo
+ */
+public final class BitmapResource {
+
+    private final String mKey;
+    private final Bitmap mBitmap;
+    private final int mByteSize;
+
+    // Guarded by the BitmapResourceCache
+    int mAcquired;
+    boolean mActive;
+
+    BitmapResource(String key, Bitmap bitmap) {
+        mKey = key;
+        mBitmap = bitmap;
+        mByteSize = bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /** @return The key of the resource. */
+    public String getKey() {
+        return mKey;
+    }
+
+    /** @return The decoded bitmap. Must not be used after the resource has been released. */
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /** @return The size of the bitmap, in bytes. */
+    public int getByteSize() {
+        return mByteSize;
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapResource{" + mKey + ", " + mBitmap.getWidth() + "x" + mBitmap.getHeight()
+               + ", acquired=" + mAcquired + "}";
+    }
+}
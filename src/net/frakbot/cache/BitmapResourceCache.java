@@ -0,0 +1,206 @@
+package net.frakbot.cache;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps track of the decoded images, so that binding the same image again
+ * doesn't decode it again, and so that bitmaps are only reused when nobody
+ * is showing them.
+ * <p/>
+ * Resources are reference counted: views {@link #acquire(String)} them on
+ * bind and {@link #release(BitmapResource)} them on unbind. While held, a
+ * resource lives in a weak map of active resources; once its count drops
+ * to zero, it moves to a memory cache and, when evicted from it, its
+ * bitmap goes to the {@link BitmapPool}.
+ *
+ * @author Francesco Pontillo
+ */
+public class BitmapResourceCache implements TrimmableCache {
+
+    private final ActiveResources mActiveResources = new ActiveResources();
+    private final PolicyMemoryCache<String, BitmapResource> mCache;
+    private final BitmapPool mPool;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mPutCount;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize The maximum size of the released resources kept in memory, in bytes.
+     * @param pool    The pool the evicted bitmaps go to.
+     */
+    public BitmapResourceCache(int maxSize, BitmapPool pool) {
+        mPool = pool;
+        mCache = new PolicyMemoryCache<String, BitmapResource>(maxSize) {
+            @Override
+            protected int sizeOf(String key, BitmapResource value) {
+                return value.getByteSize();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, BitmapResource oldValue,
+                                        BitmapResource newValue) {
+                onEntryRemoved(oldValue);
+            }
+        };
+    }
+
+    /** @return The pool the evicted bitmaps go to. */
+    public BitmapPool getBitmapPool() {
+        return mPool;
+    }
+
+    /**
+     * Acquires the resource for a key, if it's shown by some other view or
+     * if it's still in memory.
+     *
+     * @param key The key of the resource.
+     *
+     * @return The acquired resource, which must be released later, or null if there is none.
+     */
+    public synchronized BitmapResource acquire(String key) {
+        BitmapResource resource = acquireResource(key);
+        if (resource != null) {
+            mHitCount++;
+        }
+        else {
+            mMissCount++;
+        }
+        return resource;
+    }
+
+    private BitmapResource acquireResource(String key) {
+        BitmapResource resource = mActiveResources.get(key);
+        if (resource == null) {
+            resource = mCache.get(key);
+            if (resource == null) return null;
+
+            // Moves the resource from the cache to the active ones
+            resource.mActive = true;
+            mCache.remove(key);
+            mActiveResources.put(resource);
+        }
+        resource.mAcquired++;
+        return resource;
+    }
+
+    /**
+     * Adds a freshly decoded bitmap and acquires it. If somebody else has
+     * decoded the same image in the meantime, that resource is acquired
+     * instead and the bitmap goes to the pool.
+     *
+     * @param key    The key of the resource.
+     * @param bitmap The decoded bitmap.
+     *
+     * @return The acquired resource, which must be released later.
+     */
+    public synchronized BitmapResource put(String key, Bitmap bitmap) {
+        BitmapResource existing = acquireResource(key);
+        if (existing != null) {
+            if (existing.getBitmap() != bitmap) {
+                mPool.put(bitmap);
+            }
+            return existing;
+        }
+
+        mPutCount++;
+        BitmapResource resource = new BitmapResource(key, bitmap);
+        resource.mActive = true;
+        resource.mAcquired = 1;
+        mActiveResources.put(resource);
+        return resource;
+    }
+
+    /**
+     * Releases a resource. Its bitmap must not be used anymore by whoever
+     * acquired it.
+     *
+     * @param resource The resource.
+     */
+    public synchronized void release(BitmapResource resource) {
+        if (resource.mAcquired <= 0) {
+            throw new IllegalStateException("Releasing a resource that isn't acquired: " + resource);
+        }
+        if (--resource.mAcquired > 0) return;
+
+        mActiveResources.remove(resource);
+        resource.mActive = false;
+        if (resource.getByteSize() <= mCache.maxSize()) {
+            mCache.put(resource.getKey(), resource);
+        }
+        else {
+            mPool.put(resource.getBitmap());
+        }
+    }
+
+    /** @return The resources currently held by somebody. */
+    public synchronized List<BitmapResource> getActiveResources() {
+        return mActiveResources.getAll();
+    }
+
+    /** @return The resources that nobody holds but that are still kept in memory. */
+    public synchronized List<BitmapResource> getCachedResources() {
+        return new ArrayList<BitmapResource>(mCache.snapshot().values());
+    }
+
+    /** @return The size of the resources currently held by somebody, in bytes. */
+    public synchronized long getActiveBytes() {
+        long bytes = 0;
+        for (BitmapResource resource : mActiveResources.getAll()) {
+            bytes += resource.getByteSize();
+        }
+        return bytes;
+    }
+
+    /** @return The number of resources currently held by somebody. */
+    public synchronized int getActiveCount() {
+        return mActiveResources.size();
+    }
+
+    /** @return The number of times a resource was found, either active or in memory. */
+    public synchronized long hitCount() {
+        return mHitCount;
+    }
+
+    /** @return The number of times a resource wasn't found and had to be decoded. */
+    public synchronized long missCount() {
+        return mMissCount;
+    }
+
+    /** @return The number of freshly decoded resources that were added. */
+    public synchronized long putCount() {
+        return mPutCount;
+    }
+
+    /** @return The number of released resources evicted from memory. */
+    public synchronized long evictionCount() {
+        return mCache.evictionCount();
+    }
+
+    @Override
+    public synchronized int size() {
+        return mCache.size();
+    }
+
+    @Override
+    public int maxSize() {
+        return mCache.maxSize();
+    }
+
+    @Override
+    public synchronized void trimToSize(int maxSize) {
+        mCache.trimToSize(maxSize);
+    }
+
+    private synchronized void onEntryRemoved(BitmapResource resource) {
+        // Resources taken out of the cache to be acquired again are not pooled
+        if (!resource.mActive && resource.mAcquired == 0) {
+            mPool.put(resource.getBitmap());
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package net.frakbot.cache;
 
 import android.annotation.TargetApi;
+import android.app.ActivityManager;
 import android.content.Context;
 import android.os.Build;
 import android.os.Environment;
+import com.jakewharton.disklrucache.DiskLruCache;
 import com.jakewharton.disklrucache.DiskLruCache.Editor;
+import com.jakewharton.disklrucache.DiskLruCache.Snapshot;
+
+import net.frakbot.imageviewex.Converters;
+import net.frakbot.imageviewex.metrics.MainThreadGuard;
 
 import java.io.*;
 import java.security.MessageDigest;
@@ -12,6 +18,10 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Locale;
 
 public class CacheHelper {
+
+    private static final String VARIANT_KEY_SEPARATOR = "#variant=";
+    private static final String POSTER_KEY_SEPARATOR = "#poster=";
+    private static final String FRAMES_KEY_SUFFIX = "#frames";
 	
 	public static File getDiskCacheDir(Context context, String uniqueName) {
 	    // Check if media is mounted or storage is built-in, if so,
@@ -40,6 +50,26 @@ public class CacheHelper {
         return new File(Environment.getExternalStorageDirectory().getPath() + cacheDir);
     }
 
+    /**
+     * Computes a memory budget as a fraction of the heap available to the app,
+     * as given by the memory class of the device.
+     *
+     * @param context			The Context used to get the memory class.
+     * @param fraction			The fraction of the heap to use, between 0 and 1.
+     * @param largeMemoryClass	true to use the large memory class (only meaningful if the
+     *                          app requests a large heap), false otherwise.
+     *
+     * @return					The memory budget, in bytes.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static int getMemoryBudget(Context context, float fraction, boolean largeMemoryClass) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int memoryClass = largeMemoryClass && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB ?
+                          am.getLargeMemoryClass() :
+                          am.getMemoryClass();
+        return (int) (memoryClass * 1024L * 1024L * fraction);
+    }
+
     public static boolean hasExternalCacheDir() {
         return Build.VERSION.SDK_INT >= Build.VERSION_CODES.FROYO;
     }
@@ -66,6 +96,123 @@ public class CacheHelper {
         }
     }
     
+    /**
+     * Reads an entry from a {@link DiskLruCache} into a byte array.
+     *
+     * @param diskCache		The {@link DiskLruCache} to read from.
+     * @param key			The unencoded key (usually an URL) of the entry.
+     *
+     * @return				The byte array of the entry, or null if there is no such entry.
+     * @throws Exception	If there was an error while reading the entry.
+     */
+    public static byte[] readByteArrayFromDiskCache(DiskLruCache diskCache, String key) throws Exception {
+        final long guard = MainThreadGuard.begin();
+        try {
+            return readEntry(diskCache, key);
+        } finally {
+            MainThreadGuard.end(MainThreadGuard.Operation.DISK_READ, key, guard);
+        }
+    }
+
+    private static byte[] readEntry(DiskLruCache diskCache, String key) throws Exception {
+        Snapshot snapshot = diskCache.get(UriToDiskLruCacheString(key));
+        if (snapshot == null) {
+            return null;
+        }
+
+        try {
+            return Converters.inputStreamToByteArray(snapshot.getInputStream(0), (int) snapshot.getLength(0));
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    /**
+     * Writes a byte array into a {@link DiskLruCache}, replacing any previous entry.
+     *
+     * @param diskCache		The {@link DiskLruCache} to write into.
+     * @param key			The unencoded key (usually an URL) of the entry.
+     * @param source		The byte array to write.
+     *
+     * @return				true if the entry has been committed, false otherwise.
+     * @throws Exception	If there was an error while writing the entry.
+     */
+    public static boolean writeByteArrayToDiskCache(DiskLruCache diskCache, String key, byte[] source)
+            throws Exception {
+        final long guard = MainThreadGuard.begin();
+        try {
+            return writeEntry(diskCache, key, source);
+        } finally {
+            MainThreadGuard.end(MainThreadGuard.Operation.DISK_WRITE, key, guard);
+        }
+    }
+
+    private static boolean writeEntry(DiskLruCache diskCache, String key, byte[] source) throws Exception {
+        Editor editor = diskCache.edit(UriToDiskLruCacheString(key));
+        if (editor == null) {
+            // Another edit is in progress for the same key
+            return false;
+        }
+
+        if (writeByteArrayToEditor(source, editor)) {
+            diskCache.flush();
+            editor.commit();
+            return true;
+        }
+        else {
+            editor.abort();
+            return false;
+        }
+    }
+
+    /**
+     * Builds the cache key of a downsampled variant of a static image.
+     * The key changes along with the revision of the original image, so
+     * that variants of an outdated original are never used.
+     *
+     * @param uri		The URL of the original image.
+     * @param metadata	The metadata of the original image, or null if unknown.
+     * @param width		The target width of the variant, in pixels.
+     * @param height	The target height of the variant, in pixels.
+     *
+     * @return			The (unencoded) key of the variant.
+     */
+    public static String getVariantKey(String uri, ImageMetadata metadata, int width, int height) {
+        return uri + VARIANT_KEY_SEPARATOR + width + "x" + height + getRevisionSuffix(metadata);
+    }
+
+    /**
+     * Builds the cache key of the downsampled first-frame poster of an
+     * animated image. Posters are kept apart from the static variants
+     * so that a view that is allowed to animate never gets a poster.
+     *
+     * @param uri		The URL of the original image.
+     * @param metadata	The metadata of the original image, or null if unknown.
+     * @param width		The target width of the poster, in pixels.
+     * @param height	The target height of the poster, in pixels.
+     *
+     * @return			The (unencoded) key of the poster.
+     */
+    public static String getPosterKey(String uri, ImageMetadata metadata, int width, int height) {
+        return uri + POSTER_KEY_SEPARATOR + width + "x" + height + getRevisionSuffix(metadata);
+    }
+
+    /**
+     * Builds the cache key of the transcoded frames of an animated image.
+     *
+     * @param uri		The URL of the original image.
+     * @param metadata	The metadata of the original image, or null if unknown.
+     *
+     * @return			The (unencoded) key of the transcoded frames.
+     */
+    public static String getFramesKey(String uri, ImageMetadata metadata) {
+        return uri + FRAMES_KEY_SUFFIX + getRevisionSuffix(metadata);
+    }
+
+    private static String getRevisionSuffix(ImageMetadata metadata) {
+        return metadata != null ? "@" + metadata.getRevision() : "";
+    }
+
     /**
      * Encodes URLs with the SHA-256 algorithm.
      * @param uri	The URL to encode.
@@ -78,15 +225,20 @@ public class CacheHelper {
     public static String UriToDiskLruCacheString(String uri) throws
     														 NoSuchAlgorithmException,
     														 UnsupportedEncodingException {
-    	MessageDigest digest = MessageDigest.getInstance("SHA-256");
-    	byte[] convBytes = digest.digest(uri.getBytes("UTF-8"));
-    	String result;
-    	StringBuilder sb = new StringBuilder();
-    	for (byte b : convBytes) {
-    	    sb.append(String.format("%02X", b));
+    	final long guard = MainThreadGuard.begin();
+    	try {
+    	    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    	    byte[] convBytes = digest.digest(uri.getBytes("UTF-8"));
+    	    String result;
+    	    StringBuilder sb = new StringBuilder();
+    	    for (byte b : convBytes) {
+    	        sb.append(String.format("%02X", b));
+    	    }
+    	    result = sb.toString();
+    	    result = result.toLowerCase(Locale.US);
+    	    return result;
+    	} finally {
+    	    MainThreadGuard.end(MainThreadGuard.Operation.HASH, uri, guard);
     	}
-    	result = sb.toString();
-    	result = result.toLowerCase(Locale.US);
-    	return result;
     }
 }
@@ -0,0 +1,117 @@
+package net.frakbot.cache;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.util.Log;
+import net.frakbot.imageviewex.BuildConfig;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Shrinks the registered memory caches when the system asks the app to
+ * release memory, in proportion to the severity of the request: the more
+ * likely the process is to be killed, the more is released.
+ *
+ * @author Francesco Pontillo
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+public class CacheTrimmer implements ComponentCallbacks2 {
+    private static final String TAG = CacheTrimmer.class.getSimpleName();
+
+    private static CacheTrimmer sInstance;
+
+    private final List<TrimmableCache> mCaches = new CopyOnWriteArrayList<TrimmableCache>();
+
+    private CacheTrimmer() {
+    }
+
+    /**
+     * Gets the trimmer, registering it to the application the first time.
+     * Before Ice Cream Sandwich there is no way to be notified, and caches
+     * will never be trimmed.
+     *
+     * @param context Any Context of the application.
+     *
+     * @return The trimmer.
+     */
+    public static synchronized CacheTrimmer from(Context context) {
+        if (sInstance == null) {
+            sInstance = new CacheTrimmer();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+                context.getApplicationContext().registerComponentCallbacks(sInstance);
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Registers a cache to be trimmed.
+     *
+     * @param cache The cache.
+     */
+    public void register(TrimmableCache cache) {
+        if (!mCaches.contains(cache)) {
+            mCaches.add(cache);
+        }
+    }
+
+    /**
+     * Unregisters a cache, that won't be trimmed anymore.
+     *
+     * @param cache The cache.
+     */
+    public void unregister(TrimmableCache cache) {
+        mCaches.remove(cache);
+    }
+
+    /**
+     * Trims every registered cache to a fraction of its maximum size.
+     *
+     * @param fraction The fraction of the maximum size to keep, between 0 and 1.
+     */
+    public void trim(float fraction) {
+        for (TrimmableCache cache : mCaches) {
+            cache.trimToSize((int) (cache.maxSize() * fraction));
+        }
+    }
+
+    /**
+     * Returns the fraction of the caches to keep for a given trim level.
+     *
+     * @param level The level, as per {@link ComponentCallbacks2#onTrimMemory(int)}.
+     *
+     * @return The fraction of the maximum size to keep, between 0 and 1.
+     */
+    static float getKeptFraction(int level) {
+        if (level >= TRIM_MEMORY_COMPLETE) return 0f;           // Next to be killed
+        if (level >= TRIM_MEMORY_MODERATE) return 0.25f;        // Middle of the background LRU list
+        if (level >= TRIM_MEMORY_BACKGROUND) return 0.5f;       // Just entered the background LRU list
+        if (level >= TRIM_MEMORY_UI_HIDDEN) return 0.5f;        // Not visible anymore
+        if (level >= TRIM_MEMORY_RUNNING_CRITICAL) return 0.25f;
+        if (level >= TRIM_MEMORY_RUNNING_LOW) return 0.5f;
+        if (level >= TRIM_MEMORY_RUNNING_MODERATE) return 0.75f;
+        return 1f;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        float fraction = getKeptFraction(level);
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Trim memory level " + level + ", keeping " + (int) (fraction * 100) + "% of the caches");
+        }
+        trim(fraction);
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(0f);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+}
@@ -0,0 +1,419 @@
+package net.frakbot.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link MemoryCache} whose reads never block. Entries live in a
+ * {@link ConcurrentHashMap}; writes and evictions are serialized by a lock,
+ * while reads are only recorded into small lossy buffers that are replayed
+ * on the {@link EvictionPolicy} the next time the lock is taken. Since a
+ * few reads can be dropped when the buffers are full, the ordering of the
+ * policy is approximate.
+ * <p/>
+ * The size of each entry is computed once, when it's added, so the size
+ * accounting is exact. Entries weighing more than a fraction of the whole
+ * cache (see {@link #setMaxEntryFraction(float)}) are not admitted.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ *
+ * @author Francesco Pontillo
+ */
+public class ConcurrentMemoryCache<K, V> implements MemoryCache<K, V> {
+
+    private static final int READ_BUFFER_SIZE = 16;
+    private static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+    private final ConcurrentHashMap<K, Node<V>> mMap = new ConcurrentHashMap<K, Node<V>>();
+    private final ReentrantLock mEvictionLock = new ReentrantLock();
+    private final ReadBuffer[] mReadBuffers;
+    private final EvictionPolicy<K> mPolicy;
+    private final int mMaxSize;
+    private volatile int mSize;
+    private volatile float mMaxEntryFraction = 1f;
+
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+    private int mPutCount;
+    private int mEvictionCount;
+    private int mRejectionCount;
+
+    /** A cached value, along with its size. */
+    private static final class Node<V> {
+        final V mValue;
+        final int mSize;
+
+        Node(V value, int size) {
+            mValue = value;
+            mSize = size;
+        }
+    }
+
+    /** Marks a key that has been looked up without being found. */
+    private static final class Miss {
+        final Object mKey;
+
+        Miss(Object key) {
+            mKey = key;
+        }
+    }
+
+    /**
+     * A ring buffer of recorded reads, written by any thread and drained
+     * while holding the eviction lock. Reads are dropped when it's full.
+     */
+    private static final class ReadBuffer {
+        final AtomicReferenceArray<Object> mSlots = new AtomicReferenceArray<Object>(READ_BUFFER_SIZE);
+        final AtomicInteger mWriteIndex = new AtomicInteger();
+        volatile int mReadIndex;
+
+        /** @return false if the buffer is full and should be drained. */
+        boolean offer(Object read) {
+            int index = mWriteIndex.get();
+            if (index - mReadIndex >= READ_BUFFER_SIZE) {
+                return false;
+            }
+            if (mWriteIndex.compareAndSet(index, index + 1)) {
+                mSlots.set(index & READ_BUFFER_MASK, read);
+            }
+            return index - mReadIndex < READ_BUFFER_SIZE - 1;
+        }
+    }
+
+    /**
+     * Creates a new LRU cache.
+     *
+     * @param maxSize The maximum size of the cache, in the units of {@link #sizeOf(Object, Object)}.
+     */
+    public ConcurrentMemoryCache(int maxSize) {
+        this(maxSize, new LruPolicy<K>());
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize The maximum size of the cache, in the units of {@link #sizeOf(Object, Object)}.
+     * @param policy  The eviction policy. It can't be shared with other caches.
+     */
+    public ConcurrentMemoryCache(int maxSize, EvictionPolicy<K> policy) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (policy == null) {
+            throw new NullPointerException("policy == null");
+        }
+        mMaxSize = maxSize;
+        mPolicy = policy;
+        mPolicy.setMaximumWeight(maxSize);
+
+        int buffers = 1;
+        while (buffers < 4 * Runtime.getRuntime().availableProcessors()) {
+            buffers <<= 1;
+        }
+        mReadBuffers = new ReadBuffer[buffers];
+        for (int i = 0; i < buffers; i++) {
+            mReadBuffers[i] = new ReadBuffer();
+        }
+    }
+
+    /**
+     * Sets the largest fraction of the cache a single entry can take.
+     * Larger entries are not admitted at all.
+     *
+     * @param maxEntryFraction The fraction, between 0 (excluded) and 1.
+     */
+    public void setMaxEntryFraction(float maxEntryFraction) {
+        if (maxEntryFraction <= 0 || maxEntryFraction > 1) {
+            throw new IllegalArgumentException("maxEntryFraction must be in (0, 1]");
+        }
+        mMaxEntryFraction = maxEntryFraction;
+    }
+
+    @Override
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        Node<V> node = mMap.get(key);
+        if (node != null) {
+            mHitCount.incrementAndGet();
+            recordRead(key);
+            return node.mValue;
+        }
+
+        mMissCount.incrementAndGet();
+        recordRead(new Miss(key));
+        return null;
+    }
+
+    @Override
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        final int size = safeSizeOf(key, value);
+        final boolean admitted = size <= mMaxSize * mMaxEntryFraction;
+        Node<V> previous;
+        List<Object> evicted;
+
+        mEvictionLock.lock();
+        try {
+            drainReadBuffers();
+            previous = admitted ? mMap.put(key, new Node<V>(value, size)) : mMap.remove(key);
+            if (previous != null) {
+                mSize -= previous.mSize;
+                mPolicy.onRemove(key);
+            }
+
+            if (admitted) {
+                mPutCount++;
+                mSize += size;
+                mPolicy.onAdd(key, size);
+            }
+            else {
+                mRejectionCount++;
+            }
+            evicted = evict(mMaxSize);
+        }
+        finally {
+            mEvictionLock.unlock();
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous.mValue, admitted ? value : null);
+        }
+        notifyEvicted(evicted);
+        return previous != null ? previous.mValue : null;
+    }
+
+    @Override
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        Node<V> previous;
+        mEvictionLock.lock();
+        try {
+            previous = mMap.remove(key);
+            if (previous != null) {
+                mSize -= previous.mSize;
+                mPolicy.onRemove(key);
+            }
+        }
+        finally {
+            mEvictionLock.unlock();
+        }
+
+        if (previous == null) return null;
+
+        entryRemoved(false, key, previous.mValue, null);
+        return previous.mValue;
+    }
+
+    @Override
+    public void trimToSize(int maxSize) {
+        List<Object> evicted;
+        mEvictionLock.lock();
+        try {
+            drainReadBuffers();
+            evicted = evict(maxSize);
+        }
+        finally {
+            mEvictionLock.unlock();
+        }
+        notifyEvicted(evicted);
+    }
+
+    @Override
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    /**
+     * Called for entries that have been evicted or removed. This method is
+     * invoked without holding the lock of the cache.
+     *
+     * @param evicted  true if the entry is being removed to make space, false
+     *                 if the removal was caused by a put or a remove.
+     * @param key      The key of the entry.
+     * @param oldValue The removed value.
+     * @param newValue The new value for the key, if it exists.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    /**
+     * Returns the size of an entry, in user-defined units. The default
+     * implementation returns 1, so that the size is the number of entries.
+     * The size is only computed once, when the entry is added.
+     *
+     * @param key   The key of the entry.
+     * @param value The value of the entry.
+     *
+     * @return The size of the entry.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    private void recordRead(Object read) {
+        int index = (int) Thread.currentThread().getId() & (mReadBuffers.length - 1);
+        if (!mReadBuffers[index].offer(read) && mEvictionLock.tryLock()) {
+            // Never wait for the lock here: if somebody else holds it, the buffer will be drained soon anyway
+            try {
+                drainReadBuffers();
+            }
+            finally {
+                mEvictionLock.unlock();
+            }
+        }
+    }
+
+    /** Replays the buffered reads on the policy. Must hold the eviction lock. */
+    @SuppressWarnings("unchecked")
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : mReadBuffers) {
+            int readIndex = buffer.mReadIndex;
+            final int writeIndex = buffer.mWriteIndex.get();
+            while (readIndex < writeIndex) {
+                int slot = readIndex & READ_BUFFER_MASK;
+                Object read = buffer.mSlots.get(slot);
+                if (read == null) {
+                    // The reader has not published it yet
+                    break;
+                }
+                buffer.mSlots.set(slot, null);
+                readIndex++;
+
+                if (read instanceof Miss) {
+                    mPolicy.recordAccess((K) ((Miss) read).mKey, false);
+                }
+                else {
+                    K key = (K) read;
+                    mPolicy.recordAccess(key, mMap.containsKey(key));
+                }
+            }
+            buffer.mReadIndex = readIndex;
+        }
+    }
+
+    /**
+     * Evicts entries until the cache fits the given size. Must hold the eviction lock.
+     *
+     * @return The evicted keys and values, interleaved.
+     */
+    private List<Object> evict(int maxSize) {
+        List<Object> evicted = null;
+        while (mSize > maxSize && !mMap.isEmpty()) {
+            K key = mPolicy.selectVictim();
+            if (key == null) {
+                break;
+            }
+            Node<V> node = mMap.remove(key);
+            mPolicy.onRemove(key);
+            if (node == null) {
+                continue;
+            }
+            mSize -= node.mSize;
+            mEvictionCount++;
+
+            if (evicted == null) {
+                evicted = new ArrayList<Object>();
+            }
+            evicted.add(key);
+            evicted.add(node.mValue);
+        }
+        return evicted;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void notifyEvicted(List<Object> evicted) {
+        if (evicted == null) return;
+
+        for (int i = 0; i < evicted.size(); i += 2) {
+            entryRemoved(true, (K) evicted.get(i), (V) evicted.get(i + 1), null);
+        }
+    }
+
+    @Override
+    public final int size() {
+        return mSize;
+    }
+
+    @Override
+    public final int maxSize() {
+        return mMaxSize;
+    }
+
+    /** @return The number of times {@link #get(Object)} returned a value. */
+    @Override
+    public final int hitCount() {
+        return mHitCount.get();
+    }
+
+    /** @return The number of times {@link #get(Object)} returned null. */
+    @Override
+    public final int missCount() {
+        return mMissCount.get();
+    }
+
+    /** @return The number of values admitted by {@link #put(Object, Object)}. */
+    @Override
+    public final int putCount() {
+        mEvictionLock.lock();
+        try {
+            return mPutCount;
+        }
+        finally {
+            mEvictionLock.unlock();
+        }
+    }
+
+    /** @return The number of values that have been evicted. */
+    @Override
+    public final int evictionCount() {
+        mEvictionLock.lock();
+        try {
+            return mEvictionCount;
+        }
+        finally {
+            mEvictionLock.unlock();
+        }
+    }
+
+    /** @return The number of values that were too large to be admitted. */
+    public final int rejectionCount() {
+        mEvictionLock.lock();
+        try {
+            return mRejectionCount;
+        }
+        finally {
+            mEvictionLock.unlock();
+        }
+    }
+
+    @Override
+    public final String toString() {
+        int hits = mHitCount.get();
+        int accesses = hits + mMissCount.get();
+        int hitPercent = accesses != 0 ? (100 * hits / accesses) : 0;
+        return String.format("ConcurrentMemoryCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%,policy=%s]",
+                             mMaxSize, hits, accesses - hits, hitPercent, mPolicy.getClass().getSimpleName());
+    }
+}
@@ -0,0 +1,56 @@
+package net.frakbot.cache;
+
+/**
+ * Decides which entry of a {@link PolicyMemoryCache} has to be evicted
+ * when the cache is full. The policy only tracks the keys and their
+ * weights: the cache calls it while holding its own lock, so
+ * implementations don't need to be thread safe.
+ *
+ * @param <K> The type of the keys.
+ *
+ * @author Francesco Pontillo
+ */
+public interface EvictionPolicy<K> {
+
+    /**
+     * Sets the maximum total weight of the cache.
+     *
+     * @param maximumWeight The maximum weight.
+     */
+    public void setMaximumWeight(long maximumWeight);
+
+    /**
+     * Records a lookup of a key.
+     *
+     * @param key The key.
+     * @param hit true if the key is in the cache, false otherwise.
+     */
+    public void recordAccess(K key, boolean hit);
+
+    /**
+     * Records the addition of a key to the cache.
+     *
+     * @param key    The key.
+     * @param weight The weight of the entry.
+     */
+    public void onAdd(K key, int weight);
+
+    /**
+     * Records the removal of a key from the cache, either explicit or
+     * because of an eviction.
+     *
+     * @param key The key.
+     */
+    public void onRemove(K key);
+
+    /**
+     * Selects the next entry to be evicted. This may be the entry that
+     * has just been added, if the policy decides not to admit it.
+     *
+     * @return The key of the entry to evict, or null if there is none.
+     */
+    public K selectVictim();
+
+    /** Forgets every key. */
+    public void clear();
+}
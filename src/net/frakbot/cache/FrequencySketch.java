@@ -0,0 +1,86 @@
+package net.frakbot.cache;
+
+/**
+ * A Count-Min sketch estimating the popularity of keys within a time
+ * window, using 4-bit counters. Counters are periodically halved so that
+ * keys that used to be popular are eventually forgotten.
+ *
+ * @author Francesco Pontillo
+ */
+final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x97cb3127, 0xbd0f2cd3, 0x2d5a7f8b, 0x6c91b9e5};
+
+    private final byte[] mTable;
+    private final int mWidth;
+    private final int mSampleSize;
+    private int mAdditions;
+
+    /**
+     * Creates a sketch for the given number of keys.
+     *
+     * @param expectedEntries The number of distinct keys expected in the cache.
+     */
+    FrequencySketch(int expectedEntries) {
+        int width = 16;
+        while (width < expectedEntries) {
+            width <<= 1;
+        }
+        mWidth = width;
+        mTable = new byte[DEPTH * width];
+        mSampleSize = 10 * width;
+    }
+
+    /**
+     * Increments the popularity of a key.
+     *
+     * @param key The key.
+     */
+    void increment(Object key) {
+        final int hash = key.hashCode();
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            if (mTable[index] < MAX_COUNT) {
+                mTable[index]++;
+            }
+        }
+
+        if (++mAdditions >= mSampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Estimates the popularity of a key.
+     *
+     * @param key The key.
+     *
+     * @return The estimated number of accesses to the key, capped at 15.
+     */
+    int frequency(Object key) {
+        final int hash = key.hashCode();
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, mTable[indexOf(hash, i)]);
+        }
+        return frequency;
+    }
+
+    /** Halves every counter, aging the popularity of all the keys. */
+    private void reset() {
+        for (int i = 0; i < mTable.length; i++) {
+            mTable[i] = (byte) (mTable[i] >>> 1);
+        }
+        mAdditions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return row * mWidth + (h & (mWidth - 1));
+    }
+}
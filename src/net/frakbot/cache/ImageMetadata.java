@@ -0,0 +1,260 @@
+package net.frakbot.cache;
+
+import net.frakbot.imageviewex.ImageFormat;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Describes a cached image without the need of reading its content:
+ * format, size, animation details and usage.
+ *
+ * @author Francesco Pontillo
+ */
+public class ImageMetadata {
+
+    private final String mMimeType;
+    private final ImageFormat mFormat;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameCount;
+    private final int mDuration;
+    private final long mByteSize;
+    private volatile long mLastAccess;
+    private final long mExpires;
+    private final String mETag;
+    private final long mLastModified;
+
+    /**
+     * Creates a new metadata object.
+     *
+     * @param mimeType   The MIME type of the image, or null if unknown.
+     * @param width      The width of the image, in pixels.
+     * @param height     The height of the image, in pixels.
+     * @param frameCount The number of frames (1 for static images).
+     * @param duration   The duration of an animation loop, in milliseconds (0 for static images).
+     * @param byteSize   The size of the encoded image, in bytes.
+     * @param lastAccess The time of the last access to the image, in milliseconds.
+     */
+    public ImageMetadata(String mimeType, int width, int height, int frameCount,
+                         int duration, long byteSize, long lastAccess) {
+        this(mimeType, width, height, frameCount, duration, byteSize, lastAccess, 0, null, 0);
+    }
+
+    /**
+     * Creates a new metadata object, including the freshness of the image.
+     *
+     * @param mimeType     The MIME type of the image, or null if unknown.
+     * @param width        The width of the image, in pixels.
+     * @param height       The height of the image, in pixels.
+     * @param frameCount   The number of frames (1 for static images).
+     * @param duration     The duration of an animation loop, in milliseconds (0 for static images).
+     * @param byteSize     The size of the encoded image, in bytes.
+     * @param lastAccess   The time of the last access to the image, in milliseconds.
+     * @param expires      The time the image expires at, in milliseconds, or 0 if it never expires.
+     * @param eTag         The entity tag of the image, or null.
+     * @param lastModified The last modification time of the image, in milliseconds, or 0.
+     */
+    public ImageMetadata(String mimeType, int width, int height, int frameCount,
+                         int duration, long byteSize, long lastAccess,
+                         long expires, String eTag, long lastModified) {
+        this(mimeType, ImageFormat.fromMimeType(mimeType), width, height, frameCount, duration, byteSize,
+             lastAccess, expires, eTag, lastModified);
+    }
+
+    /**
+     * Creates a new metadata object, including the format sniffed from the image
+     * (see {@link ImageFormat#sniff(byte[])}) and the freshness of the image.
+     *
+     * @param mimeType     The MIME type of the image, or null if unknown.
+     * @param format       The format of the image.
+     * @param width        The width of the image, in pixels.
+     * @param height       The height of the image, in pixels.
+     * @param frameCount   The number of frames (1 for static images).
+     * @param duration     The duration of an animation loop, in milliseconds (0 for static images).
+     * @param byteSize     The size of the encoded image, in bytes.
+     * @param lastAccess   The time of the last access to the image, in milliseconds.
+     * @param expires      The time the image expires at, in milliseconds, or 0 if it never expires.
+     * @param eTag         The entity tag of the image, or null.
+     * @param lastModified The last modification time of the image, in milliseconds, or 0.
+     */
+    public ImageMetadata(String mimeType, ImageFormat format, int width, int height, int frameCount,
+                         int duration, long byteSize, long lastAccess,
+                         long expires, String eTag, long lastModified) {
+        mMimeType = mimeType;
+        mFormat = format != null ? format : ImageFormat.UNKNOWN;
+        mWidth = width;
+        mHeight = height;
+        mFrameCount = frameCount;
+        mDuration = duration;
+        mByteSize = byteSize;
+        mLastAccess = lastAccess;
+        mExpires = expires;
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    /**
+     * Creates a copy of this metadata with a different freshness.
+     *
+     * @param expires      The time the image expires at, in milliseconds, or 0 if it never expires.
+     * @param eTag         The entity tag of the image, or null.
+     * @param lastModified The last modification time of the image, in milliseconds, or 0.
+     *
+     * @return The new metadata.
+     */
+    public ImageMetadata withFreshness(long expires, String eTag, long lastModified) {
+        return new ImageMetadata(mMimeType, mFormat, mWidth, mHeight, mFrameCount, mDuration, mByteSize,
+                                 mLastAccess, expires, eTag, lastModified);
+    }
+
+    /** @return The MIME type of the image, or null if unknown. */
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    /** @return The format of the image, {@link ImageFormat#UNKNOWN} if unknown. */
+    public ImageFormat getFormat() {
+        return mFormat;
+    }
+
+    /** @return The width of the image, in pixels. */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /** @return The height of the image, in pixels. */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /** @return The number of frames of the image. */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /** @return The duration of an animation loop, in milliseconds. */
+    public int getDuration() {
+        return mDuration;
+    }
+
+    /** @return The size of the encoded image, in bytes. */
+    public long getByteSize() {
+        return mByteSize;
+    }
+
+    /** @return The time of the last access to the image, in milliseconds. */
+    public long getLastAccess() {
+        return mLastAccess;
+    }
+
+    /** @param lastAccess The time of the last access to the image, in milliseconds. */
+    void setLastAccess(long lastAccess) {
+        mLastAccess = lastAccess;
+    }
+
+    /** @return The time the image expires at, in milliseconds, or 0 if it never expires. */
+    public long getExpires() {
+        return mExpires;
+    }
+
+    /** @return The entity tag of the image, or null. */
+    public String getETag() {
+        return mETag;
+    }
+
+    /** @return The last modification time of the image, in milliseconds, or 0. */
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * Checks whether the image should be revalidated before being trusted.
+     *
+     * @param now The current time, in milliseconds.
+     *
+     * @return true if the image has expired, false if it's still fresh.
+     */
+    public boolean isStale(long now) {
+        return mExpires > 0 && now >= mExpires;
+    }
+
+    /**
+     * Returns a short string that changes whenever the content of the image
+     * changes, as far as the validators sent by the server can tell.
+     *
+     * @return The revision of the image.
+     */
+    public String getRevision() {
+        int hash = (int) (mByteSize ^ (mByteSize >>> 32));
+        hash = 31 * hash + (int) (mLastModified ^ (mLastModified >>> 32));
+        hash = 31 * hash + (mETag != null ? mETag.hashCode() : 0);
+        return Integer.toHexString(hash);
+    }
+
+    /** @return true if the image is animated, false otherwise. */
+    public boolean isAnimated() {
+        return mFrameCount > 1;
+    }
+
+    /**
+     * Writes the metadata into a stream.
+     *
+     * @param out The stream to write into.
+     *
+     * @throws IOException If there was an error while writing.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF(mMimeType != null ? mMimeType : "");
+        out.writeUTF(mFormat.name());
+        out.writeInt(mWidth);
+        out.writeInt(mHeight);
+        out.writeInt(mFrameCount);
+        out.writeInt(mDuration);
+        out.writeLong(mByteSize);
+        out.writeLong(mLastAccess);
+        out.writeLong(mExpires);
+        out.writeUTF(mETag != null ? mETag : "");
+        out.writeLong(mLastModified);
+    }
+
+    /**
+     * Reads the metadata from a stream.
+     *
+     * @param in The stream to read from.
+     *
+     * @return The read metadata.
+     * @throws IOException If there was an error while reading.
+     */
+    static ImageMetadata readFrom(DataInputStream in) throws IOException {
+        String mimeType = in.readUTF();
+        ImageFormat format;
+        try {
+            format = ImageFormat.valueOf(in.readUTF());
+        }
+        catch (IllegalArgumentException e) {
+            format = ImageFormat.UNKNOWN;
+        }
+        int width = in.readInt();
+        int height = in.readInt();
+        int frameCount = in.readInt();
+        int duration = in.readInt();
+        long byteSize = in.readLong();
+        long lastAccess = in.readLong();
+        long expires = in.readLong();
+        String eTag = in.readUTF();
+        long lastModified = in.readLong();
+        return new ImageMetadata(mimeType.length() > 0 ? mimeType : null, format, width, height, frameCount,
+                                 duration, byteSize, lastAccess,
+                                 expires, eTag.length() > 0 ? eTag : null, lastModified);
+    }
+
+    @Override
+    public String toString() {
+        return "ImageMetadata{" + mMimeType + ", " + mFormat + ", " + mWidth + "x" + mHeight
+               + ", frames=" + mFrameCount + ", duration=" + mDuration
+               + "ms, bytes=" + mByteSize + ", lastAccess=" + mLastAccess
+               + ", expires=" + mExpires + ", eTag=" + mETag + "}";
+    }
+}
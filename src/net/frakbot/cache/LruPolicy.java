@@ -0,0 +1,48 @@
+package net.frakbot.cache;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Least recently used eviction policy: the entry that hasn't been
+ * accessed for the longest time is evicted first.
+ *
+ * @param <K> The type of the keys.
+ *
+ * @author Francesco Pontillo
+ */
+public class LruPolicy<K> implements EvictionPolicy<K> {
+
+    private final LinkedHashMap<K, Integer> mEntries = new LinkedHashMap<K, Integer>(16, 0.75f, true);
+
+    @Override
+    public void setMaximumWeight(long maximumWeight) {
+    }
+
+    @Override
+    public void recordAccess(K key, boolean hit) {
+        if (hit) {
+            // Moves the key to the most recently used end
+            mEntries.get(key);
+        }
+    }
+
+    @Override
+    public void onAdd(K key, int weight) {
+        mEntries.put(key, weight);
+    }
+
+    @Override
+    public void onRemove(K key) {
+        mEntries.remove(key);
+    }
+
+    @Override
+    public K selectVictim() {
+        return mEntries.isEmpty() ? null : mEntries.keySet().iterator().next();
+    }
+
+    @Override
+    public void clear() {
+        mEntries.clear();
+    }
+}
@@ -0,0 +1,57 @@
+package net.frakbot.cache;
+
+/**
+ * A bounded in-memory cache. Implementations decide how entries are
+ * weighed and which ones are evicted when the cache is full.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ *
+ * @author Francesco Pontillo
+ */
+public interface MemoryCache<K, V> extends TrimmableCache {
+
+    /**
+     * Gets the value for a key.
+     *
+     * @param key The key.
+     *
+     * @return The cached value, or null if there is none.
+     */
+    public V get(K key);
+
+    /**
+     * Caches a value for a key. The value may not be admitted into the cache
+     * (e.g., if it is too large), in which case any previous value is removed.
+     *
+     * @param key   The key.
+     * @param value The value.
+     *
+     * @return The previous value for the key, or null if there was none.
+     */
+    public V put(K key, V value);
+
+    /**
+     * Removes the value for a key.
+     *
+     * @param key The key.
+     *
+     * @return The removed value, or null if there was none.
+     */
+    public V remove(K key);
+
+    /** Evicts every entry of the cache. */
+    public void evictAll();
+
+    /** @return The number of lookups that returned a value. */
+    public int hitCount();
+
+    /** @return The number of lookups that returned null. */
+    public int missCount();
+
+    /** @return The number of values added to the cache. */
+    public int putCount();
+
+    /** @return The number of values evicted to make space. */
+    public int evictionCount();
+}
@@ -0,0 +1,378 @@
+package net.frakbot.cache;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact on-disk index that lives next to a DiskLruCache and describes
+ * each of its entries (see {@link ImageMetadata}), so that the type and the
+ * size of an image can be known without reading the entry itself.
+ * <p/>
+ * The index is kept in memory and persisted as an append-only journal,
+ * which gets compacted when it grows too much. Metadata is written once,
+ * when an image is downloaded; access times are only updated in memory and
+ * appended to the journal along with the next write.
+ * <p/>
+ * The index is a hint: entries evicted from the DiskLruCache are only
+ * dropped by {@link #remove(String)} or by the next compaction.
+ * <p/>
+ * Lookups and {@link #recordAccess(String)} never wait for the journal:
+ * the entries are kept in a concurrent map, and only the methods that
+ * write the journal (which may compact it, touching the disk) take its lock.
+ *
+ * @author Francesco Pontillo
+ */
+public class MetadataIndex {
+    private static final String TAG = MetadataIndex.class.getSimpleName();
+
+    private static final int INDEX_MAGIC = 0x49565849; // "IVXI"
+    private static final int INDEX_VERSION = 3;
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+    private static final byte RECORD_ACCESS = 3;
+
+    private static final int COMPACTION_THRESHOLD = 500;
+
+    private final File mIndexFile;
+    private final File mCacheDirectory;
+    private final Map<String, ImageMetadata> mEntries = new ConcurrentHashMap<String, ImageMetadata>();
+    // Used as a set: there's no concurrent set before API level 9
+    private final Map<String, Boolean> mPendingAccesses = new ConcurrentHashMap<String, Boolean>();
+    // Guards the journal and the record count, never taken by the lookups
+    private final Object mJournalLock = new Object();
+    private DataOutputStream mJournal;
+    private int mRecordCount;
+
+    private MetadataIndex(File indexFile, File cacheDirectory) {
+        mIndexFile = indexFile;
+        mCacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Opens the index stored in the given file, creating it if it doesn't exist.
+     *
+     * @param indexFile      The file holding the index.
+     * @param cacheDirectory The directory of the DiskLruCache the index refers to,
+     *                       used to prune stale entries during compactions.
+     *
+     * @return The opened index.
+     * @throws IOException If the index file can't be written.
+     */
+    public static MetadataIndex open(File indexFile, File cacheDirectory) throws IOException {
+        MetadataIndex index = new MetadataIndex(indexFile, cacheDirectory);
+        boolean rebuild = !indexFile.exists();
+        if (!rebuild) {
+            try {
+                rebuild = !index.readJournal();
+            }
+            catch (IOException e) {
+                Log.w(TAG, "The metadata index is corrupted, rebuilding it", e);
+                index.mEntries.clear();
+                rebuild = true;
+            }
+        }
+
+        // Rewrite the journal if it can't be appended to or if it's too large
+        if (rebuild || index.needsCompaction()) {
+            index.compact();
+        }
+        else {
+            index.mJournal = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+        }
+        return index;
+    }
+
+    /**
+     * Gets the metadata of an image.
+     *
+     * @param key The key (usually the URL) of the image.
+     *
+     * @return The metadata of the image, or null if it's not in the index.
+     */
+    public ImageMetadata get(String key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * Checks whether an image is in the index.
+     *
+     * @param key The key (usually the URL) of the image.
+     *
+     * @return true if the image is in the index, false otherwise.
+     */
+    public boolean contains(String key) {
+        return mEntries.containsKey(key);
+    }
+
+    /**
+     * Adds or replaces the metadata of an image, writing it to the journal.
+     *
+     * @param key      The key (usually the URL) of the image.
+     * @param metadata The metadata of the image.
+     */
+    public void put(String key, ImageMetadata metadata) {
+        synchronized (mJournalLock) {
+            mEntries.put(key, metadata);
+            mPendingAccesses.remove(key);
+            try {
+                writePendingAccesses();
+                mJournal.writeByte(RECORD_PUT);
+                mJournal.writeUTF(key);
+                metadata.writeTo(mJournal);
+                mRecordCount++;
+                flushOrCompact();
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Error while writing the metadata index", e);
+            }
+        }
+    }
+
+    /**
+     * Removes the metadata of an image, writing the removal to the journal.
+     *
+     * @param key The key (usually the URL) of the image.
+     */
+    public void remove(String key) {
+        synchronized (mJournalLock) {
+            if (mEntries.remove(key) == null) return;
+
+            mPendingAccesses.remove(key);
+            try {
+                writePendingAccesses();
+                mJournal.writeByte(RECORD_REMOVE);
+                mJournal.writeUTF(key);
+                mRecordCount++;
+                flushOrCompact();
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Error while writing the metadata index", e);
+            }
+        }
+    }
+
+    /**
+     * Updates the last access time of an image. This is safe to call from the UI
+     * thread: it doesn't wait for the journal, and nothing is written until the
+     * next {@link #put(String, ImageMetadata)}, {@link #remove(String)} or {@link #flush()}.
+     *
+     * @param key The key (usually the URL) of the image.
+     */
+    public void recordAccess(String key) {
+        ImageMetadata metadata = mEntries.get(key);
+        if (metadata != null) {
+            metadata.setLastAccess(System.currentTimeMillis());
+            mPendingAccesses.put(key, Boolean.TRUE);
+        }
+    }
+
+    /** @return The number of images in the index. */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /** @return The total size of the encoded images in the index, in bytes. */
+    public long getTotalByteSize() {
+        long total = 0;
+        for (ImageMetadata metadata : mEntries.values()) {
+            total += metadata.getByteSize();
+        }
+        return total;
+    }
+
+    /** @return A copy of the whole index, mapping each key to its metadata. */
+    public Map<String, ImageMetadata> snapshot() {
+        return new HashMap<String, ImageMetadata>(mEntries);
+    }
+
+    /** Writes the pending access times to the journal. */
+    public void flush() {
+        synchronized (mJournalLock) {
+            try {
+                writePendingAccesses();
+                flushOrCompact();
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Error while writing the metadata index", e);
+            }
+        }
+    }
+
+    /** Flushes and closes the index. */
+    public void close() {
+        synchronized (mJournalLock) {
+            flush();
+            try {
+                mJournal.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Reads the whole journal into memory.
+     *
+     * @return true if the journal can be appended to, false if it has to be rewritten.
+     */
+    private boolean readJournal() throws IOException {
+        DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(mIndexFile)));
+        try {
+            readHeader(in);
+            return readRecords(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private void readHeader(DataInputStream in) throws IOException {
+        try {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                throw new IOException("Unexpected metadata index header");
+            }
+        }
+        catch (EOFException e) {
+            throw new IOException("Missing metadata index header");
+        }
+    }
+
+    private boolean readRecords(DataInputStream in) throws IOException {
+        try {
+            while (true) {
+                byte record;
+                try {
+                    record = in.readByte();
+                }
+                catch (EOFException e) {
+                    return true;
+                }
+
+                String key = in.readUTF();
+                switch (record) {
+                    case RECORD_PUT:
+                        mEntries.put(key, ImageMetadata.readFrom(in));
+                        break;
+                    case RECORD_REMOVE:
+                        mEntries.remove(key);
+                        break;
+                    case RECORD_ACCESS:
+                        long lastAccess = in.readLong();
+                        ImageMetadata metadata = mEntries.get(key);
+                        if (metadata != null) metadata.setLastAccess(lastAccess);
+                        break;
+                    default:
+                        throw new IOException("Unexpected metadata index record " + record);
+                }
+                mRecordCount++;
+            }
+        }
+        catch (EOFException e) {
+            // A truncated last record is lost, everything before it is fine
+            Log.w(TAG, "The metadata index is truncated");
+            return false;
+        }
+    }
+
+    private void writePendingAccesses() throws IOException {
+        // Accesses recorded while writing are either written now or by the next write
+        Iterator<String> keys = mPendingAccesses.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            keys.remove();
+            ImageMetadata metadata = mEntries.get(key);
+            if (metadata == null) continue;
+            mJournal.writeByte(RECORD_ACCESS);
+            mJournal.writeUTF(key);
+            mJournal.writeLong(metadata.getLastAccess());
+            mRecordCount++;
+        }
+    }
+
+    private boolean needsCompaction() {
+        return mRecordCount >= COMPACTION_THRESHOLD && mRecordCount >= 2 * mEntries.size();
+    }
+
+    private void flushOrCompact() throws IOException {
+        if (needsCompaction()) {
+            compact();
+        }
+        else {
+            mJournal.flush();
+        }
+    }
+
+    /**
+     * Rewrites the journal with a single record per entry, dropping the entries
+     * that are not in the DiskLruCache anymore. Called with the journal lock
+     * held (or before the index is published), so lookups are not blocked.
+     */
+    private void compact() throws IOException {
+        if (mJournal != null) {
+            try {
+                mJournal.close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+
+        File tmpFile = new File(mIndexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+
+            // The snapshot has the access times recorded so far, later ones stay pending
+            mPendingAccesses.clear();
+            mRecordCount = 0;
+            for (Map.Entry<String, ImageMetadata> entry : snapshot().entrySet()) {
+                if (!isInDiskCache(entry.getKey())) {
+                    mEntries.remove(entry.getKey());
+                    continue;
+                }
+                out.writeByte(RECORD_PUT);
+                out.writeUTF(entry.getKey());
+                entry.getValue().writeTo(out);
+                mRecordCount++;
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        if (!tmpFile.renameTo(mIndexFile)) {
+            throw new IOException("Can't replace the metadata index " + mIndexFile);
+        }
+        mJournal = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(mIndexFile, true)));
+    }
+
+    private boolean isInDiskCache(String key) {
+        if (mCacheDirectory == null) return true;
+
+        try {
+            // DiskLruCache stores the first value of each entry as "<key>.0"
+            return new File(mCacheDirectory, CacheHelper.UriToDiskLruCacheString(key) + ".0").exists();
+        }
+        catch (Exception e) {
+            return true;
+        }
+    }
+}
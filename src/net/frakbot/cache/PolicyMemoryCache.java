@@ -0,0 +1,269 @@
+package net.frakbot.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link MemoryCache} whose evictions are delegated to an
+ * {@link EvictionPolicy}. It mimics the behaviour of the support library's
+ * LruCache: override {@link #sizeOf(Object, Object)} to weigh the entries
+ * and {@link #entryRemoved(boolean, Object, Object, Object)} to be notified
+ * of removals.
+ * <p/>
+ * Entries weighing more than a fraction of the whole cache (see
+ * {@link #setMaxEntryFraction(float)}) are not admitted, so that a single
+ * huge image can't flush everything else.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the values.
+ *
+ * @author Francesco Pontillo
+ */
+public class PolicyMemoryCache<K, V> implements MemoryCache<K, V> {
+
+    private final HashMap<K, V> mMap = new HashMap<K, V>();
+    private final EvictionPolicy<K> mPolicy;
+    private int mMaxSize;
+    private int mSize;
+    private float mMaxEntryFraction = 1f;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+    private int mRejectionCount;
+
+    /**
+     * Creates a new LRU cache.
+     *
+     * @param maxSize The maximum size of the cache, in the units of {@link #sizeOf(Object, Object)}.
+     */
+    public PolicyMemoryCache(int maxSize) {
+        this(maxSize, new LruPolicy<K>());
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize The maximum size of the cache, in the units of {@link #sizeOf(Object, Object)}.
+     * @param policy  The eviction policy. It can't be shared with other caches.
+     */
+    public PolicyMemoryCache(int maxSize, EvictionPolicy<K> policy) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (policy == null) {
+            throw new NullPointerException("policy == null");
+        }
+        mMaxSize = maxSize;
+        mPolicy = policy;
+        mPolicy.setMaximumWeight(maxSize);
+    }
+
+    /**
+     * Sets the largest fraction of the cache a single entry can take.
+     * Larger entries are not admitted at all.
+     *
+     * @param maxEntryFraction The fraction, between 0 (excluded) and 1.
+     */
+    public synchronized void setMaxEntryFraction(float maxEntryFraction) {
+        if (maxEntryFraction <= 0 || maxEntryFraction > 1) {
+            throw new IllegalArgumentException("maxEntryFraction must be in (0, 1]");
+        }
+        mMaxEntryFraction = maxEntryFraction;
+    }
+
+    @Override
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        synchronized (this) {
+            V value = mMap.get(key);
+            mPolicy.recordAccess(key, value != null);
+            if (value != null) {
+                mHitCount++;
+            }
+            else {
+                mMissCount++;
+            }
+            return value;
+        }
+    }
+
+    @Override
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+
+        V previous;
+        boolean admitted;
+        synchronized (this) {
+            final int size = safeSizeOf(key, value);
+            admitted = size <= mMaxSize * mMaxEntryFraction;
+            previous = admitted ? mMap.put(key, value) : mMap.remove(key);
+            if (previous != null) {
+                mSize -= safeSizeOf(key, previous);
+                mPolicy.onRemove(key);
+            }
+
+            if (admitted) {
+                mPutCount++;
+                mSize += size;
+                mPolicy.onAdd(key, size);
+            }
+            else {
+                mRejectionCount++;
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, admitted ? value : null);
+        }
+
+        trimToSize(mMaxSize);
+        return previous;
+    }
+
+    @Override
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+
+        V previous;
+        synchronized (this) {
+            previous = mMap.remove(key);
+            if (previous != null) {
+                mSize -= safeSizeOf(key, previous);
+                mPolicy.onRemove(key);
+            }
+        }
+
+        if (previous != null) {
+            entryRemoved(false, key, previous, null);
+        }
+        return previous;
+    }
+
+    @Override
+    public void trimToSize(int maxSize) {
+        while (true) {
+            K key;
+            V value;
+            synchronized (this) {
+                if (mSize <= maxSize || mMap.isEmpty()) {
+                    break;
+                }
+
+                key = mPolicy.selectVictim();
+                if (key == null) {
+                    break;
+                }
+                value = mMap.remove(key);
+                mPolicy.onRemove(key);
+                if (value == null) {
+                    continue;
+                }
+                mSize -= safeSizeOf(key, value);
+                mEvictionCount++;
+            }
+
+            entryRemoved(true, key, value, null);
+        }
+    }
+
+    @Override
+    public final void evictAll() {
+        trimToSize(-1);
+    }
+
+    /**
+     * Called for entries that have been evicted or removed. This method is
+     * invoked without holding the lock of the cache.
+     *
+     * @param evicted  true if the entry is being removed to make space, false
+     *                 if the removal was caused by a put or a remove.
+     * @param key      The key of the entry.
+     * @param oldValue The removed value.
+     * @param newValue The new value for the key, if it exists.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {
+    }
+
+    /**
+     * Returns the size of an entry, in user-defined units. The default
+     * implementation returns 1, so that the size is the number of entries.
+     * The size of an entry must not change while it is in the cache.
+     *
+     * @param key   The key of the entry.
+     * @param value The value of the entry.
+     *
+     * @return The size of the entry.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /** @return A copy of the current contents of the cache. */
+    public synchronized final Map<K, V> snapshot() {
+        return new HashMap<K, V>(mMap);
+    }
+
+    @Override
+    public synchronized final int size() {
+        return mSize;
+    }
+
+    @Override
+    public synchronized final int maxSize() {
+        return mMaxSize;
+    }
+
+    /** @return The number of times {@link #get(Object)} returned a value. */
+    @Override
+    public synchronized final int hitCount() {
+        return mHitCount;
+    }
+
+    /** @return The number of times {@link #get(Object)} returned null. */
+    @Override
+    public synchronized final int missCount() {
+        return mMissCount;
+    }
+
+    /** @return The number of values admitted by {@link #put(Object, Object)}. */
+    @Override
+    public synchronized final int putCount() {
+        return mPutCount;
+    }
+
+    /** @return The number of values that have been evicted. */
+    @Override
+    public synchronized final int evictionCount() {
+        return mEvictionCount;
+    }
+
+    /** @return The number of values that were too large to be admitted. */
+    public synchronized final int rejectionCount() {
+        return mRejectionCount;
+    }
+
+    @Override
+    public synchronized final String toString() {
+        int accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (100 * mHitCount / accesses) : 0;
+        return String.format("PolicyMemoryCache[maxSize=%d,hits=%d,misses=%d,hitRate=%d%%,policy=%s]",
+                             mMaxSize, mHitCount, mMissCount, hitPercent, mPolicy.getClass().getSimpleName());
+    }
+}
@@ -0,0 +1,154 @@
+package net.frakbot.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Window TinyLFU eviction policy. New entries land in a small LRU window;
+ * when they fall out of it they have to compete with the eviction
+ * candidate of the main space, and are only admitted if they have been
+ * requested more often (see {@link FrequencySketch}). The main space is a
+ * segmented LRU, where entries hit at least twice are protected.
+ * <p/>
+ * Unlike plain LRU, a burst of one-off lookups (such as quickly scrolling
+ * through a long list) can't flush the images that are used all the time.
+ *
+ * @param <K> The type of the keys.
+ *
+ * @author Francesco Pontillo
+ */
+public class TinyLfuPolicy<K> implements EvictionPolicy<K> {
+
+    private static final int DEFAULT_EXPECTED_ENTRIES = 1024;
+    private static final float WINDOW_FRACTION = 0.01f;
+    private static final float PROTECTED_FRACTION = 0.8f;
+
+    private final FrequencySketch mSketch;
+    private final LinkedHashMap<K, Integer> mWindow = new LinkedHashMap<K, Integer>(16, 0.75f, true);
+    private final LinkedHashMap<K, Integer> mProbation = new LinkedHashMap<K, Integer>(16, 0.75f, true);
+    private final LinkedHashMap<K, Integer> mProtected = new LinkedHashMap<K, Integer>(16, 0.75f, true);
+
+    private long mWindowWeight;
+    private long mProbationWeight;
+    private long mProtectedWeight;
+
+    private long mMaxWindowWeight;
+    private long mMaxMainWeight;
+    private long mMaxProtectedWeight;
+
+    /** Creates a new policy, sized for a thousand entries or so. */
+    public TinyLfuPolicy() {
+        this(DEFAULT_EXPECTED_ENTRIES);
+    }
+
+    /**
+     * Creates a new policy.
+     *
+     * @param expectedEntries The number of entries the cache is expected to hold,
+     *                        used to size the frequency sketch.
+     */
+    public TinyLfuPolicy(int expectedEntries) {
+        mSketch = new FrequencySketch(expectedEntries);
+    }
+
+    @Override
+    public void setMaximumWeight(long maximumWeight) {
+        mMaxWindowWeight = Math.max(1, (long) (maximumWeight * WINDOW_FRACTION));
+        mMaxMainWeight = maximumWeight - mMaxWindowWeight;
+        mMaxProtectedWeight = (long) (mMaxMainWeight * PROTECTED_FRACTION);
+    }
+
+    @Override
+    public void recordAccess(K key, boolean hit) {
+        mSketch.increment(key);
+        if (!hit) return;
+
+        if (mWindow.containsKey(key)) {
+            mWindow.get(key);
+        }
+        else if (mProtected.containsKey(key)) {
+            mProtected.get(key);
+        }
+        else if (mProbation.containsKey(key)) {
+            // A second hit in the main space promotes the entry
+            int weight = mProbation.remove(key);
+            mProbationWeight -= weight;
+            mProtected.put(key, weight);
+            mProtectedWeight += weight;
+
+            while (mProtectedWeight > mMaxProtectedWeight && mProtected.size() > 1) {
+                Map.Entry<K, Integer> eldest = eldest(mProtected);
+                mProtected.remove(eldest.getKey());
+                mProtectedWeight -= eldest.getValue();
+                mProbation.put(eldest.getKey(), eldest.getValue());
+                mProbationWeight += eldest.getValue();
+            }
+        }
+    }
+
+    @Override
+    public void onAdd(K key, int weight) {
+        mWindow.put(key, weight);
+        mWindowWeight += weight;
+    }
+
+    @Override
+    public void onRemove(K key) {
+        Integer weight;
+        if ((weight = mWindow.remove(key)) != null) {
+            mWindowWeight -= weight;
+        }
+        else if ((weight = mProbation.remove(key)) != null) {
+            mProbationWeight -= weight;
+        }
+        else if ((weight = mProtected.remove(key)) != null) {
+            mProtectedWeight -= weight;
+        }
+    }
+
+    @Override
+    public K selectVictim() {
+        while (mWindowWeight > mMaxWindowWeight && !mWindow.isEmpty()) {
+            Map.Entry<K, Integer> candidate = eldest(mWindow);
+            final boolean fits = mProbationWeight + mProtectedWeight + candidate.getValue() <= mMaxMainWeight;
+            if (fits || (mProbation.isEmpty() && mProtected.isEmpty())) {
+                moveToProbation(candidate);
+                continue;
+            }
+
+            // The main space is full: the candidate is only admitted if it's more popular than the victim
+            K victim = !mProbation.isEmpty() ? eldest(mProbation).getKey() : eldest(mProtected).getKey();
+            if (mSketch.frequency(candidate.getKey()) > mSketch.frequency(victim)) {
+                moveToProbation(candidate);
+                return victim;
+            }
+            return candidate.getKey();
+        }
+
+        if (!mProbation.isEmpty()) return eldest(mProbation).getKey();
+        if (!mProtected.isEmpty()) return eldest(mProtected).getKey();
+        if (!mWindow.isEmpty()) return eldest(mWindow).getKey();
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        mWindow.clear();
+        mProbation.clear();
+        mProtected.clear();
+        mWindowWeight = 0;
+        mProbationWeight = 0;
+        mProtectedWeight = 0;
+    }
+
+    private void moveToProbation(Map.Entry<K, Integer> entry) {
+        mWindow.remove(entry.getKey());
+        mWindowWeight -= entry.getValue();
+        mProbation.put(entry.getKey(), entry.getValue());
+        mProbationWeight += entry.getValue();
+    }
+
+    private static <K> Map.Entry<K, Integer> eldest(LinkedHashMap<K, Integer> map) {
+        return map.entrySet().iterator().next();
+    }
+}
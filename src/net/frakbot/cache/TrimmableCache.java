@@ -0,0 +1,23 @@
+package net.frakbot.cache;
+
+/**
+ * A memory cache whose content can be shrunk on demand, e.g. when the
+ * system is running low on memory.
+ *
+ * @author Francesco Pontillo
+ */
+public interface TrimmableCache {
+
+    /** @return The current size of the cache, in the cache's own units (usually bytes). */
+    public int size();
+
+    /** @return The maximum size of the cache, in the cache's own units (usually bytes). */
+    public int maxSize();
+
+    /**
+     * Evicts entries until the size of the cache is equal to or less than the given one.
+     *
+     * @param maxSize The size to shrink the cache to.
+     */
+    public void trimToSize(int maxSize);
+}
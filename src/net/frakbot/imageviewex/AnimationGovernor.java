@@ -0,0 +1,295 @@
+package net.frakbot.imageviewex;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps the GIFs playing in all the {@link ImageViewEx}s within a global
+ * rendering budget. Each playing view reports how long drawing its frames
+ * takes, at each {@link Level}; every half a second the governor adds up
+ * the cost of all of them and, if it's over budget, degrades the animations
+ * with the lowest priority first, one level at a time: half the frame rate,
+ * then a still poster frame. Views are prioritized by their visible area,
+ * weighted by how close they are to the center of the screen; the view with
+ * the highest priority is never frozen.
+ * <p/>
+ * It's abstract and all of its methods are static; it must be used from
+ * the main thread, except for {@link #register(ImageViewEx)} and
+ * {@link #unregister(ImageViewEx)}.
+ *
+ * @author Francesco Pontillo
+ */
+public abstract class AnimationGovernor {
+
+    private static final long EVALUATION_PERIOD_MS = 500;
+    private static final long DEFAULT_BUDGET_MS = 200;
+
+    // Cost of drawing a pixel, until the real cost of a view has been measured
+    private static final double DEFAULT_NANOS_PER_PIXEL = 4;
+    private static final double COST_SMOOTHING = 0.2;
+
+    /** How a view plays its animation, from the best to the cheapest. */
+    public enum Level {
+        /** At the frame rate of the view. */
+        FULL(1),
+        /** At half the frame rate. */
+        HALF_RATE(2),
+        /** Frozen on its first frame. */
+        FROZEN(1);
+
+        private final int mRateDivisor;
+
+        private Level(int rateDivisor) {
+            mRateDivisor = rateDivisor;
+        }
+
+        /**
+         * @param frameDuration The frame duration set on the view, in milliseconds.
+         *
+         * @return The time between two frames at this level, in milliseconds.
+         */
+        public int getFrameDuration(int frameDuration) {
+            return frameDuration * mRateDivisor;
+        }
+
+        private Level degrade() {
+            return this == FROZEN ? FROZEN : values()[ordinal() + 1];
+        }
+    }
+
+    /** What the governor knows about a playing view. */
+    private static class Stats {
+        // Smoothed cost of drawing a frame at each level, in nanoseconds, or 0 if never measured
+        final double[] mFrameCosts = new double[Level.values().length];
+    }
+
+    /** A playing view, as seen by an evaluation. */
+    private static class Candidate {
+        final ImageViewEx mView;
+        final double[] mFrameCosts;
+        double mPriority;
+        Level mLevel = Level.FULL;
+
+        Candidate(ImageViewEx view, double[] frameCosts) {
+            mView = view;
+            mFrameCosts = frameCosts.clone();
+        }
+
+        /** @return The cost of drawing a frame at a level, in nanoseconds. */
+        double getFrameCost(Level level) {
+            if (mFrameCosts[level.ordinal()] > 0) return mFrameCosts[level.ordinal()];
+
+            // Levels not measured yet are expected to cost as much per frame as the measured ones
+            for (double cost : mFrameCosts) {
+                if (cost > 0) return cost;
+            }
+            // Until any cost has been measured, it's estimated from the area
+            return mView.getAnimationArea() * DEFAULT_NANOS_PER_PIXEL;
+        }
+
+        /** @return The cost of the view at a level, in nanoseconds per second. */
+        long getCost(Level level) {
+            if (level == Level.FROZEN) return 0;
+
+            final int frameDuration = Math.max(level.getFrameDuration(mView.getFramesDuration()), 1);
+            return (long) (getFrameCost(level) * 1000 / frameDuration);
+        }
+    }
+
+    private static final Map<ImageViewEx, Stats> mViews = new WeakHashMap<ImageViewEx, Stats>();
+    private static final Handler mHandler = new Handler(Looper.getMainLooper());
+    private static final Runnable mEvaluation = new Runnable() {
+        @Override
+        public void run() {
+            evaluate();
+        }
+    };
+
+    private static volatile boolean mEnabled = true;
+    private static volatile long mBudgetNanos = DEFAULT_BUDGET_MS * 1000000;
+    private static long mTotalCost = 0;
+
+    /**
+     * Enables or disables the governor. When disabled, all the animations
+     * play at {@link Level#FULL}. Enabled by default.
+     *
+     * @param enabled true to enable the governor.
+     */
+    public static void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        scheduleEvaluation(0);
+    }
+
+    /** @return true if the governor is enabled. */
+    public static boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Sets how long all the animations together can take to draw, every
+     * second of playback. Defaults to 200 milliseconds.
+     *
+     * @param milliseconds The budget, in milliseconds per second.
+     */
+    public static void setBudget(long milliseconds) {
+        if (milliseconds <= 0) {
+            throw new IllegalArgumentException("The budget must be greater than zero.");
+        }
+        mBudgetNanos = milliseconds * 1000000;
+        scheduleEvaluation(0);
+    }
+
+    /** @return How long all the animations together can take to draw, in milliseconds per second. */
+    public static long getBudget() {
+        return mBudgetNanos / 1000000;
+    }
+
+    /** @return The number of views playing an animation. */
+    public static int getPlayingCount() {
+        synchronized (mViews) {
+            return mViews.size();
+        }
+    }
+
+    /** @return The estimated cost of all the animations at their current level, in milliseconds per second. */
+    public static long getTotalCost() {
+        synchronized (mViews) {
+            return mTotalCost / 1000000;
+        }
+    }
+
+    /**
+     * Starts governing a view, when it starts playing. Called by the views themselves.
+     *
+     * @param view The view.
+     */
+    static void register(ImageViewEx view) {
+        synchronized (mViews) {
+            if (mViews.containsKey(view)) return;
+            mViews.put(view, new Stats());
+        }
+        scheduleEvaluation(0);
+    }
+
+    /**
+     * Stops governing a view, when it stops playing. Called by the views themselves.
+     *
+     * @param view The view.
+     */
+    static void unregister(ImageViewEx view) {
+        synchronized (mViews) {
+            if (mViews.remove(view) == null) return;
+        }
+        scheduleEvaluation(0);
+    }
+
+    /**
+     * Records how long a frame of a view took to draw. Called by the views themselves.
+     *
+     * @param view  The view.
+     * @param nanos The time taken to draw the frame, in nanoseconds.
+     * @param level The level the frame has been drawn at.
+     */
+    static void onFrameDrawn(ImageViewEx view, long nanos, Level level) {
+        // Frozen views only redraw their poster frame when invalidated for other reasons
+        if (level == Level.FROZEN) return;
+
+        synchronized (mViews) {
+            Stats stats = mViews.get(view);
+            if (stats == null) return;
+            final double[] costs = stats.mFrameCosts;
+            final int index = level.ordinal();
+            costs[index] = costs[index] == 0 ? nanos : costs[index] + COST_SMOOTHING * (nanos - costs[index]);
+        }
+    }
+
+    private static void scheduleEvaluation(long delay) {
+        mHandler.removeCallbacks(mEvaluation);
+        mHandler.postDelayed(mEvaluation, delay);
+    }
+
+    /**
+     * Assigns a level to each playing view, then schedules the next evaluation.
+     * Runs on the main thread, as it reads the position of the views.
+     */
+    private static void evaluate() {
+        final List<Candidate> candidates = new ArrayList<Candidate>();
+        synchronized (mViews) {
+            for (Map.Entry<ImageViewEx, Stats> entry : mViews.entrySet()) {
+                final ImageViewEx view = entry.getKey();
+                if (view != null) candidates.add(new Candidate(view, entry.getValue().mFrameCosts));
+            }
+        }
+        if (candidates.isEmpty()) {
+            synchronized (mViews) {
+                mTotalCost = 0;
+            }
+            return;
+        }
+
+        final Rect rect = new Rect();
+        for (Candidate candidate : candidates) {
+            candidate.mPriority = computePriority(candidate.mView, rect);
+        }
+        // Lowest priority first, as it's the first to be degraded
+        Collections.sort(candidates, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate lhs, Candidate rhs) {
+                return Double.compare(lhs.mPriority, rhs.mPriority);
+            }
+        });
+
+        long total = 0;
+        for (Candidate candidate : candidates) {
+            total += candidate.getCost(Level.FULL);
+        }
+
+        if (mEnabled) {
+            // The view with the highest priority, the last one, keeps playing
+            for (int i = 0; i < candidates.size() && total > mBudgetNanos; i++) {
+                final Candidate candidate = candidates.get(i);
+                final Level floor = i == candidates.size() - 1 ? Level.HALF_RATE : Level.FROZEN;
+                while (candidate.mLevel != floor && total > mBudgetNanos) {
+                    total -= candidate.getCost(candidate.mLevel);
+                    candidate.mLevel = candidate.mLevel.degrade();
+                    total += candidate.getCost(candidate.mLevel);
+                }
+            }
+        }
+
+        synchronized (mViews) {
+            mTotalCost = total;
+        }
+        for (Candidate candidate : candidates) {
+            candidate.mView.setAnimationLevel(candidate.mLevel);
+        }
+        scheduleEvaluation(EVALUATION_PERIOD_MS);
+    }
+
+    /**
+     * @return The visible area of the view, in pixels, weighted down to
+     *         a half as it gets farther from the center of the screen.
+     */
+    private static double computePriority(View view, Rect rect) {
+        if (view.getVisibility() != View.VISIBLE || !view.getGlobalVisibleRect(rect)) return 0;
+
+        final View root = view.getRootView();
+        final double halfWidth = root.getWidth() / 2.0;
+        final double halfHeight = root.getHeight() / 2.0;
+        final double maxDistance = Math.sqrt(halfWidth * halfWidth + halfHeight * halfHeight);
+        final double distance = Math.sqrt(Math.pow(rect.exactCenterX() - halfWidth, 2)
+                                          + Math.pow(rect.exactCenterY() - halfHeight, 2));
+        final double centrality = maxDistance > 0 ? 1 - 0.5 * Math.min(distance / maxDistance, 1) : 1;
+
+        return (double) rect.width() * rect.height() * centrality;
+    }
+}
@@ -1,5 +1,6 @@
 package net.frakbot.imageviewex;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
@@ -7,7 +8,10 @@ import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.util.Log;
+import net.frakbot.cache.BitmapPool;
+import net.frakbot.cache.ImageMetadata;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -60,6 +64,189 @@ public abstract class Converters {
         return BitmapFactory.decodeByteArray(image, 0, image.length, opts);
     }
 
+    /**
+     * Converts a byte array into a Bitmap, using the provided options and
+     * reusing a bitmap from the pool, if there is one of the right size.
+     * Reuse is only attempted on Honeycomb and later, and only if the image
+     * is not going to be scaled or subsampled.
+     *
+     * @param image The byte array representing the image.
+     * @param opts  The decoding options to use, or null if you'd like to use predefined
+     *              options (scaling will be not active). They're not modified.
+     * @param pool  The pool to take the bitmap to reuse from, or null.
+     *
+     * @return The decoded Bitmap, or null if it can't be decoded.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static Bitmap byteArrayToBitmap(byte[] image, Options opts, BitmapPool pool) {
+        Options decodeOpts = new Options();
+        if (opts != null) {
+            decodeOpts.inDensity = opts.inDensity;
+            decodeOpts.inTargetDensity = opts.inTargetDensity;
+            decodeOpts.inScreenDensity = opts.inScreenDensity;
+            decodeOpts.inScaled = opts.inScaled;
+            decodeOpts.inSampleSize = opts.inSampleSize;
+            decodeOpts.inPreferredConfig = opts.inPreferredConfig;
+            decodeOpts.inDither = opts.inDither;
+        }
+        else {
+            decodeOpts.inScaled = false;
+        }
+
+        final boolean scaled = decodeOpts.inScaled && decodeOpts.inDensity != 0
+                               && decodeOpts.inTargetDensity != 0
+                               && decodeOpts.inDensity != decodeOpts.inTargetDensity;
+        if (pool == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
+            || scaled || decodeOpts.inSampleSize > 1) {
+            return BitmapFactory.decodeByteArray(image, 0, image.length, decodeOpts);
+        }
+
+        // Before KitKat, the reused bitmap must have exactly the same size
+        decodeOpts.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(image, 0, image.length, decodeOpts);
+        decodeOpts.inJustDecodeBounds = false;
+
+        Bitmap.Config config = decodeOpts.inPreferredConfig != null ?
+                               decodeOpts.inPreferredConfig : Bitmap.Config.ARGB_8888;
+        Bitmap reusable = pool.get(decodeOpts.outWidth, decodeOpts.outHeight, config);
+        decodeOpts.inMutable = true;
+        if (reusable != null) {
+            decodeOpts.inBitmap = reusable;
+            try {
+                return BitmapFactory.decodeByteArray(image, 0, image.length, decodeOpts);
+            }
+            catch (IllegalArgumentException e) {
+                Log.w(TAG, "The pooled bitmap can't be reused, decoding a new one");
+                decodeOpts.inBitmap = null;
+                pool.put(reusable);
+            }
+        }
+        return BitmapFactory.decodeByteArray(image, 0, image.length, decodeOpts);
+    }
+
+    /**
+     * Calculates the largest power-of-two sample size that keeps both dimensions
+     * of the decoded image equal to or larger than the requested ones.
+     *
+     * @param opts      The options, already filled in by a bounds-only decoding.
+     * @param reqWidth  The requested width, in pixels.
+     * @param reqHeight The requested height, in pixels.
+     *
+     * @return The sample size to set into {@link Options#inSampleSize}.
+     */
+    public static int calculateInSampleSize(Options opts, int reqWidth, int reqHeight) {
+        return calculateInSampleSize(opts.outWidth, opts.outHeight, reqWidth, reqHeight);
+    }
+
+    /**
+     * Calculates the largest power-of-two sample size that keeps both dimensions
+     * of the decoded image equal to or larger than the requested ones.
+     *
+     * @param width     The width of the original image, in pixels.
+     * @param height    The height of the original image, in pixels.
+     * @param reqWidth  The requested width, in pixels.
+     * @param reqHeight The requested height, in pixels.
+     *
+     * @return The sample size to set into {@link Options#inSampleSize}.
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+
+        if (width > reqWidth && height > reqHeight) {
+            final int halfWidth = width / 2;
+            final int halfHeight = height / 2;
+
+            while ((halfWidth / inSampleSize) >= reqWidth && (halfHeight / inSampleSize) >= reqHeight) {
+                inSampleSize *= 2;
+            }
+        }
+
+        return inSampleSize;
+    }
+
+    /**
+     * Decodes a byte array at (roughly) the requested size and re-encodes it, so that
+     * it can be stored as a processed variant of the original image.
+     * Opaque images are encoded as JPEG, translucent ones as WebP where the platform
+     * can decode it back, PNG otherwise. Animated GIFs only keep their first frame.
+     *
+     * @param image     The byte array representing the original image.
+     * @param reqWidth  The requested width, in pixels.
+     * @param reqHeight The requested height, in pixels.
+     *
+     * @return The encoded variant, or null if the image would not be downsampled
+     *         at all (and thus the original should be used instead).
+     */
+    public static byte[] byteArrayToDownsampledByteArray(byte[] image, int reqWidth, int reqHeight) {
+        Options opts = new Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(image, 0, image.length, opts);
+        if (opts.outWidth <= 0 || opts.outHeight <= 0) {
+            return null;
+        }
+
+        int inSampleSize = calculateInSampleSize(opts, reqWidth, reqHeight);
+        if (inSampleSize <= 1) {
+            return null;
+        }
+
+        opts = new Options();
+        opts.inScaled = false;
+        opts.inSampleSize = inSampleSize;
+        Bitmap bmp = BitmapFactory.decodeByteArray(image, 0, image.length, opts);
+        if (bmp == null) {
+            return null;
+        }
+
+        Bitmap.CompressFormat format;
+        int quality;
+        if (!bmp.hasAlpha()) {
+            format = Bitmap.CompressFormat.JPEG;
+            quality = 85;
+        }
+        else if (Build.VERSION.SDK_INT >= 18) {
+            // Translucent WebP images can only be decoded from Android 4.3 on
+            format = Bitmap.CompressFormat.WEBP;
+            quality = 90;
+        }
+        else {
+            format = Bitmap.CompressFormat.PNG;
+            quality = 100;
+        }
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        bmp.compress(format, quality, stream);
+        bmp.recycle();
+        return stream.toByteArray();
+    }
+
+    /**
+     * Extracts the metadata of an image without fully decoding it.
+     *
+     * @param image The byte array representing the image.
+     *
+     * @return The metadata of the image. If the image can't be decoded,
+     *         the MIME type will be null and the dimensions will be -1.
+     */
+    public static ImageMetadata byteArrayToMetadata(byte[] image) {
+        Options opts = new Options();
+        opts.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(image, 0, image.length, opts);
+
+        final ImageFormat format = ImageFormat.sniff(image);
+        int frameCount = 1;
+        int duration = 0;
+        GifHeader gifHeader = format == ImageFormat.GIF ? GifHeader.parse(image) : null;
+        if (gifHeader != null) {
+            frameCount = gifHeader.getFrameCount();
+            duration = frameCount > 1 ? gifHeader.getDuration() : 0;
+        }
+
+        return new ImageMetadata(opts.outMimeType != null ? opts.outMimeType : format.getMimeType(), format,
+                                 opts.outWidth, opts.outHeight, frameCount, duration, image.length,
+                                 System.currentTimeMillis(), 0, null, 0);
+    }
+
     /**
      * Covnerts a Bitmap into a byte array.
      *
@@ -0,0 +1,205 @@
+package net.frakbot.imageviewex;
+
+import android.util.Log;
+import com.jakewharton.disklrucache.DiskLruCache;
+import net.frakbot.cache.CacheHelper;
+import net.frakbot.imageviewex.decoder.AnimatedImage;
+import net.frakbot.imageviewex.decoder.FrameAnimatedImage;
+import net.frakbot.imageviewex.decoder.FrameDecoder;
+import net.frakbot.imageviewex.decoder.ImageDecoder;
+import net.frakbot.imageviewex.decoder.TranscodedFrameDecoder;
+import net.frakbot.imageviewex.metrics.MainThreadGuard;
+import net.frakbot.imageviewex.metrics.PipelineMetrics;
+
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Helper for the transcoded frames tier: animated GIFs that are played
+ * frame by frame are transcoded, in the background, into a form that
+ * replays with little CPU (see {@link TranscodedFrameDecoder}) and stored
+ * in the disk cache under their own key. Later binds stream the frames from
+ * there instead of decoding the GIF again. The original GIFs are kept in
+ * the disk cache as they are.
+ * The tier is disabled by default. It's abstract and all of its methods are static.
+ *
+ * @author Francesco Pontillo
+ */
+public abstract class FrameCache {
+    private static final String TAG = FrameCache.class.getSimpleName();
+
+    private static volatile boolean mEnabled = false;
+    private static final Set<String> mTranscoding = new HashSet<String>();
+    private static final ExecutorService mTranscoder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "IVX-transcoder");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Enables or disables the transcoded frames tier. Disabled by default.
+     *
+     * @param enabled true to transcode the animations and play them from the disk cache.
+     */
+    public static void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /** @return true if the transcoded frames tier is enabled. */
+    public static boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Opens the transcoded frames of an animation, if they're in the disk cache.
+     *
+     * @param key The (unencoded) key of the frames, see {@link CacheHelper#getFramesKey}.
+     *
+     * @return The animation, streamed from the disk cache, or null if there are no frames.
+     */
+    static AnimatedImage open(String key) {
+        final DiskLruCache diskCache = ImageViewNext.getDiskCache();
+        if (diskCache == null) return null;
+
+        SnapshotSource source = null;
+        try {
+            final String hash = CacheHelper.UriToDiskLruCacheString(key);
+            final long guard = MainThreadGuard.begin();
+            final DiskLruCache.Snapshot snapshot;
+            try {
+                snapshot = diskCache.get(hash);
+            }
+            finally {
+                MainThreadGuard.end(MainThreadGuard.Operation.DISK_READ, hash, guard);
+            }
+            if (snapshot == null) return null;
+
+            source = new SnapshotSource(snapshot);
+            TranscodedFrameDecoder decoder = TranscodedFrameDecoder.open(source);
+            return new FrameAnimatedImage(decoder, decoder.getDuration());
+        }
+        catch (Exception e) {
+            if (source != null) source.close();
+            Log.w(TAG, "The transcoded frames can't be read", e);
+            return null;
+        }
+    }
+
+    /**
+     * Transcodes an animation into the disk cache in the background,
+     * unless it's being transcoded already.
+     *
+     * @param key     The (unencoded) key of the frames, see {@link CacheHelper#getFramesKey}.
+     * @param decoder The decoder playing the animation frame by frame.
+     * @param src     The byte array containing the animation.
+     */
+    static void transcodeLater(final String key, final ImageDecoder decoder, final byte[] src) {
+        final DiskLruCache diskCache = ImageViewNext.getDiskCache();
+        if (diskCache == null) return;
+
+        synchronized (mTranscoding) {
+            if (!mTranscoding.add(key)) return;
+        }
+        mTranscoder.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    transcode(diskCache, key, decoder, src);
+                }
+                catch (Exception e) {
+                    Log.w(TAG, "Storage of transcoded frames into the disk cache failed!", e);
+                }
+                finally {
+                    synchronized (mTranscoding) {
+                        mTranscoding.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
+    private static void transcode(DiskLruCache diskCache, String key, ImageDecoder decoder, byte[] src)
+        throws Exception {
+        FrameDecoder frames = decoder.openFrames(src);
+        if (frames == null) return;
+
+        DiskLruCache.Editor editor = diskCache.edit(CacheHelper.UriToDiskLruCacheString(key));
+        if (editor == null) {
+            // Another edit is in progress for the same key
+            return;
+        }
+
+        int size = -1;
+        OutputStream out = editor.newOutputStream(0);
+        try {
+            size = TranscodedFrameDecoder.transcode(frames, out);
+        }
+        finally {
+            out.close();
+            if (size >= 0) {
+                editor.commit();
+                diskCache.flush();
+                PipelineMetrics.recordDiskPut(size);
+            }
+            else {
+                editor.abort();
+            }
+        }
+    }
+
+    /**
+     * Reads the transcoded frames from a single snapshot of their entry, kept
+     * open as long as the animation is played, so that each loop seeks back
+     * to the beginning of the file instead of looking the entry up again
+     * (and adding a line to the journal of the disk cache). The snapshot is
+     * closed when the animation is released (see {@link AnimatedImage#release()}).
+     */
+    private static class SnapshotSource implements TranscodedFrameDecoder.Source {
+        private final DiskLruCache.Snapshot mSnapshot;
+        private final FileInputStream mStream;
+
+        SnapshotSource(DiskLruCache.Snapshot snapshot) throws IOException {
+            final InputStream stream = snapshot.getInputStream(0);
+            if (!(stream instanceof FileInputStream)) {
+                snapshot.close();
+                throw new IOException("The transcoded frames can't be seeked");
+            }
+            mSnapshot = snapshot;
+            mStream = (FileInputStream) stream;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            // The previous stream is always closed by then, so the position can be moved
+            mStream.getChannel().position(0);
+            return new FilterInputStream(mStream) {
+                @Override
+                public void close() {
+                    // The snapshot stays open for the next loop
+                }
+            };
+        }
+
+        @Override
+        public long getLength() {
+            return mSnapshot.getLength(0);
+        }
+
+        @Override
+        public void close() {
+            mSnapshot.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package net.frakbot.imageviewex;
+
+/**
+ * Lightweight description of an animated GIF, obtained by walking its blocks
+ * without decompressing any of the frames.
+ *
+ * @author Sebastiano Poggi, Francesco Pontillo
+ */
+public class GifHeader {
+
+    private static final int DEFAULT_FRAME_DELAY = 100;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameCount;
+    private final int mDuration;
+
+    private GifHeader(int width, int height, int frameCount, int duration) {
+        mWidth = width;
+        mHeight = height;
+        mFrameCount = frameCount;
+        mDuration = duration;
+    }
+
+    /**
+     * Parses the header and the block structure of a GIF image.
+     *
+     * @param data The byte array containing the GIF.
+     *
+     * @return The parsed GifHeader, or null if the data doesn't contain a GIF.
+     */
+    public static GifHeader parse(byte[] data) {
+        if (data == null || data.length < 13
+            || data[0] != 'G' || data[1] != 'I' || data[2] != 'F') {
+            return null;
+        }
+
+        // Logical screen descriptor
+        int width = readShort(data, 6);
+        int height = readShort(data, 8);
+        int pos = 13 + colorTableSize(data[10]);
+
+        int frameCount = 0;
+        int duration = 0;
+        int delay = DEFAULT_FRAME_DELAY;
+
+        while (pos < data.length) {
+            int block = data[pos++] & 0xff;
+
+            if (block == 0x21 && pos < data.length) {
+                // Extension: the only one we care about is the graphic control one
+                int label = data[pos++] & 0xff;
+                if (label == 0xf9 && pos + 4 < data.length) {
+                    // Delays are expressed in hundredths of a second
+                    delay = readShort(data, pos + 2) * 10;
+                    if (delay <= 0) delay = DEFAULT_FRAME_DELAY;
+                }
+                pos = skipSubBlocks(data, pos);
+            }
+            else if (block == 0x2c && pos + 9 <= data.length) {
+                // Image descriptor, followed by the LZW min code size and the data
+                pos += 8 + 1 + colorTableSize(data[pos + 8]) + 1;
+                pos = skipSubBlocks(data, pos);
+                frameCount++;
+                duration += delay;
+                delay = DEFAULT_FRAME_DELAY;
+            }
+            else {
+                // Trailer, or truncated/corrupted data
+                break;
+            }
+        }
+
+        return new GifHeader(width, height, frameCount, duration);
+    }
+
+    /** @return The width of the logical screen, in pixels. */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /** @return The height of the logical screen, in pixels. */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /** @return The number of frames. */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /** @return The duration of a single loop of the animation, in milliseconds. */
+    public int getDuration() {
+        return mDuration;
+    }
+
+    private static int readShort(byte[] data, int pos) {
+        return (data[pos] & 0xff) | ((data[pos + 1] & 0xff) << 8);
+    }
+
+    private static int colorTableSize(byte packed) {
+        return (packed & 0x80) != 0 ? 3 * (1 << ((packed & 0x07) + 1)) : 0;
+    }
+
+    private static int skipSubBlocks(byte[] data, int pos) {
+        while (pos < data.length) {
+            int size = data[pos++] & 0xff;
+            if (size == 0) break;
+            pos += size;
+        }
+        return pos;
+    }
+}
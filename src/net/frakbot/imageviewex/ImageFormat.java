@@ -0,0 +1,138 @@
+package net.frakbot.imageviewex;
+
+/**
+ * Enum that contains the image formats ImageViewEx can tell apart from the
+ * leading bytes of an image, so that each image is sent straight to the
+ * right decoder (see {@link net.frakbot.imageviewex.decoder.ImageDecoders})
+ * instead of being tried as a Movie first.
+ *
+ * @author Francesco Pontillo
+ */
+public enum ImageFormat {
+    /** GIF87a or GIF89a, possibly animated. */
+    GIF("image/gif", true),
+
+    /** Static PNG. */
+    PNG("image/png", false),
+
+    /** Animated PNG. */
+    APNG("image/apng", true),
+
+    /** JPEG. */
+    JPEG("image/jpeg", false),
+
+    /** Static WebP, either lossy or lossless. */
+    WEBP("image/webp", false),
+
+    /** Animated WebP. */
+    WEBP_ANIMATED("image/webp", true),
+
+    /** Anything else, left to BitmapFactory. */
+    UNKNOWN(null, false);
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int WEBP_ANIMATION_FLAG = 0x02;
+
+    private final String mMimeType;
+    private final boolean mAnimated;
+
+    private ImageFormat(String mimeType, boolean animated) {
+        mMimeType = mimeType;
+        mAnimated = animated;
+    }
+
+    /** @return The MIME type of the format, or null if unknown. */
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    /** @return true if images of this format can hold more than one frame. */
+    public boolean isAnimated() {
+        return mAnimated;
+    }
+
+    /**
+     * Detects the format of an image from its leading bytes. Only PNGs are
+     * read past their header, up to their first image data chunk.
+     *
+     * @param data The byte array containing the image.
+     *
+     * @return The format of the image, or {@link #UNKNOWN}.
+     */
+    public static ImageFormat sniff(byte[] data) {
+        if (data == null) return UNKNOWN;
+
+        if (startsWith(data, 0, "GIF87a") || startsWith(data, 0, "GIF89a")) {
+            return GIF;
+        }
+        if (data.length >= 3 && (data[0] & 0xff) == 0xff && (data[1] & 0xff) == 0xd8 && (data[2] & 0xff) == 0xff) {
+            return JPEG;
+        }
+        if (startsWith(data, 0, PNG_SIGNATURE)) {
+            return hasPngChunkBeforeData(data, "acTL") ? APNG : PNG;
+        }
+        if (startsWith(data, 0, "RIFF") && startsWith(data, 8, "WEBP")) {
+            // Only the extended format (VP8X) can be animated
+            if (startsWith(data, 12, "VP8X") && data.length > 20 && (data[20] & WEBP_ANIMATION_FLAG) != 0) {
+                return WEBP_ANIMATED;
+            }
+            return WEBP;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Gets the format with the given MIME type. A MIME type can't tell
+     * animated WebP images from static ones, so the static format is returned.
+     *
+     * @param mimeType The MIME type, or null.
+     *
+     * @return The format, or {@link #UNKNOWN} if the MIME type is null or unknown.
+     */
+    public static ImageFormat fromMimeType(String mimeType) {
+        if (mimeType == null) return UNKNOWN;
+
+        for (ImageFormat format : values()) {
+            if (mimeType.equalsIgnoreCase(format.mMimeType)) return format;
+        }
+        return "image/jpg".equalsIgnoreCase(mimeType) ? JPEG : UNKNOWN;
+    }
+
+    /**
+     * Walks the chunks of a PNG until its first image data chunk, looking
+     * for a chunk of the given type.
+     */
+    private static boolean hasPngChunkBeforeData(byte[] data, String type) {
+        int pos = PNG_SIGNATURE.length;
+        while (pos + 8 <= data.length) {
+            long length = ((data[pos] & 0xffL) << 24) | ((data[pos + 1] & 0xff) << 16)
+                          | ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
+            if (startsWith(data, pos + 4, type)) return true;
+            if (startsWith(data, pos + 4, "IDAT")) return false;
+
+            // Length, type, data and CRC
+            long next = pos + 12 + length;
+            if (next > data.length) return false;
+            pos = (int) next;
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, String prefix) {
+        if (offset + prefix.length() > data.length) return false;
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (data[offset + i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, byte[] prefix) {
+        if (offset + prefix.length > data.length) return false;
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+}
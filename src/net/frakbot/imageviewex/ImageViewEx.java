@@ -7,7 +7,10 @@ import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
 import android.graphics.Movie;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.drawable.AnimationDrawable;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.ColorDrawable;
@@ -21,9 +24,18 @@ import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
+import net.frakbot.cache.ImageMetadata;
+import net.frakbot.imageviewex.decoder.AnimatedImage;
+import net.frakbot.imageviewex.decoder.ImageDecoder;
+import net.frakbot.imageviewex.decoder.ImageDecoders;
+import net.frakbot.imageviewex.decoder.MovieImage;
+import net.frakbot.imageviewex.metrics.MainThreadGuard;
+import net.frakbot.imageviewex.metrics.MemoryAccounting;
+import net.frakbot.imageviewex.metrics.Systrace;
 
 import java.io.InputStream;
 import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Extension of the ImageView that handles any kind of image already supported
@@ -63,17 +75,35 @@ public class ImageViewEx extends ImageView {
 
     private int mMaxHeight, mMaxWidth;
 
-    private Movie mGif;
+    private AnimatedImage mGif;
     private double mGifStartTime;
     private int mFrameDuration = 67;
     private final Handler mHandler = new Handler();
     private Thread mUpdater;
 
+    // Set by the AnimationGovernor
+    private volatile AnimationGovernor.Level mAnimationLevel = AnimationGovernor.Level.FULL;
+
+    // The animation shown as a poster (see PosterMode), to be decoded once scrolling stops
+    private volatile byte[] mPosterSource;
+    private volatile String mPosterMimeType;
+    private volatile Object mPosterTag;
+
+    // Maps the pixels of the GIF to the view, as of its last draw, to invalidate changed areas only
+    private final Matrix mGifMatrix = new Matrix();
+    private final Matrix mCanvasMatrix = new Matrix();
+    private boolean mGifMatrixValid = false;
+    private int mDrawnFrame = -1;
+    private final Rect mDirtyRect = new Rect();
+    private final RectF mDirtyRectF = new RectF();
+
     private ImageAlign mImageAlign = ImageAlign.NONE;
 
     private final DisplayMetrics mDm;
     private final SetDrawableRunnable mSetDrawableRunnable = new SetDrawableRunnable();
     private final SetGifRunnable mSetGifRunnable = new SetGifRunnable();
+    // Incremented by each new source: images decoded for an older one are dropped
+    private final AtomicInteger mSourceGeneration = new AtomicInteger();
     private ScaleType mScaleType;
 
     protected Drawable mEmptyDrawable = new ColorDrawable(0x00000000);
@@ -91,6 +121,7 @@ public class ImageViewEx extends ImageView {
     public ImageViewEx(Context context) {
         super(context);
         mDm = context.getResources().getDisplayMetrics();
+        MemoryAccounting.registerView(this);
     }
 
     /**
@@ -101,8 +132,9 @@ public class ImageViewEx extends ImageView {
      */
     public ImageViewEx(Context context, InputStream src) {
         super(context);
-        mGif = Movie.decodeStream(src);
+        mGif = MovieImage.wrap(Movie.decodeStream(src), 0);
         mDm = context.getResources().getDisplayMetrics();
+        MemoryAccounting.registerView(this);
     }
 
     /**
@@ -114,6 +146,7 @@ public class ImageViewEx extends ImageView {
     public ImageViewEx(Context context, AttributeSet attrs) {
         super(context, attrs);
         mDm = context.getResources().getDisplayMetrics();
+        MemoryAccounting.registerView(this);
 
         TypedArray a = context.obtainStyledAttributes(attrs,
                                                       R.styleable.ImageViewEx, 0, 0);
@@ -156,8 +189,9 @@ public class ImageViewEx extends ImageView {
      */
     public ImageViewEx(Context context, byte[] src) {
         super(context);
-        mGif = Movie.decodeByteArray(src, 0, src.length);
+        mGif = MovieImage.wrap(Movie.decodeByteArray(src, 0, src.length), src.length);
         mDm = context.getResources().getDisplayMetrics();
+        MemoryAccounting.registerView(this);
     }
 
     /**
@@ -168,8 +202,9 @@ public class ImageViewEx extends ImageView {
      */
     public ImageViewEx(Context context, String src) {
         super(context);
-        mGif = Movie.decodeFile(src);
+        mGif = MovieImage.wrap(Movie.decodeFile(src), 0);
         mDm = context.getResources().getDisplayMetrics();
+        MemoryAccounting.registerView(this);
     }
 
     ///////////////////////////////////////////////////////////
@@ -179,7 +214,7 @@ public class ImageViewEx extends ImageView {
     /** Initalizes the inner variable describing the kind of resource attached to the ImageViewEx. */
     public void initializeDefaultValues() {
         if (isPlaying()) stop();
-        mGif = null;
+        releaseGif();
         setTag(null);
         mImageSource = IMAGE_SOURCE_UNKNOWN;
     }
@@ -192,33 +227,129 @@ public class ImageViewEx extends ImageView {
      * @param src The byte array containing the image to set into the ImageViewEx.
      */
     public void setSource(final byte[] src) {
+        setSource(src, null);
+    }
+
+    /**
+     * Sets the image from a byte array, whose MIME type is already known.
+     * The actual image-setting is called on a worker thread because it can
+     * be pretty CPU-consuming.
+     *
+     * @param src      The byte array containing the image to set into the ImageViewEx.
+     * @param mimeType The MIME type of the image, used to pick the right decoder
+     *                 straight away, or null if unknown.
+     */
+    public void setSource(final byte[] src, final String mimeType) {
+        setSource(src, mimeType, null);
+    }
+
+    /**
+     * Sets the image from a byte array, like {@link #setSource(byte[], String)},
+     * along with some data describing it (e.g. the keys to cache it under).
+     * The worker thread decoding the image reads that data through
+     * {@link #getDecodingTag()}, rather than from fields of the view that
+     * the next image would overwrite while this one is still being decoded.
+     *
+     * @param src      The byte array containing the image to set into the ImageViewEx.
+     * @param mimeType The MIME type of the image, or null if unknown.
+     * @param tag      The data describing the image, or null.
+     */
+    protected void setSource(final byte[] src, final String mimeType, final Object tag) {
         if (src != null) {
-            final ImageViewEx thisImageView = this;
             setImageDrawable(mEmptyDrawable);
-            Thread t = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    thisImageView.setSourceBlocking(src);
-                }
-            });
-            t.setPriority(Thread.MIN_PRIORITY);
-            t.setName("ImageSetter@" + hashCode());
-            t.run();
+            startImageSetter(src, mimeType, tag);
+        }
+    }
+
+    /**
+     * Replaces the image with a new one from a byte array, like
+     * {@link #setSource(byte[], String, Object)}, but keeps showing the
+     * current image until the new one is decoded, rather than the empty one.
+     *
+     * @param src      The byte array containing the new image.
+     * @param mimeType The MIME type of the image, or null if unknown.
+     * @param tag      The data describing the image, or null.
+     */
+    protected void replaceSource(final byte[] src, final String mimeType, final Object tag) {
+        if (src != null) {
+            startImageSetter(src, mimeType, tag);
         }
     }
 
+    /** Calls {@link #setSourceBlocking(byte[], String)} on a worker thread. */
+    private void startImageSetter(final byte[] src, final String mimeType, final Object tag) {
+        final ImageViewEx thisImageView = this;
+        Thread t = new ImageSetterThread(mSourceGeneration.incrementAndGet(), tag, new Runnable() {
+            @Override
+            public void run() {
+                thisImageView.setSourceBlocking(src, mimeType);
+            }
+        });
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.setName("ImageSetter@" + hashCode());
+        t.start();
+    }
+
+    /**
+     * Drops the images still being decoded for this view: they won't be
+     * set once decoded. Called whenever a new image is about to be set.
+     */
+    protected void discardPendingSources() {
+        mSourceGeneration.incrementAndGet();
+    }
+
+    /**
+     * Checks whether the calling thread is decoding an image that has been
+     * replaced by a newer one since. Only the worker threads started by
+     * {@link #setSource(byte[], String)} can decode a stale image.
+     *
+     * @return true if the result of the decoding is going to be dropped.
+     */
+    protected boolean isDecodingStaleSource() {
+        final Thread thread = Thread.currentThread();
+        return thread instanceof ImageSetterThread
+               && ((ImageSetterThread) thread).mGeneration != mSourceGeneration.get();
+    }
+
+    /**
+     * Gets the data describing the image the calling thread is decoding, as
+     * given to {@link #setSource(byte[], String, Object)}.
+     *
+     * @return The data, or null if none was given or if the calling thread
+     *         isn't a worker thread started by a setSource method.
+     */
+    protected Object getDecodingTag() {
+        final Thread thread = Thread.currentThread();
+        return thread instanceof ImageSetterThread ? ((ImageSetterThread) thread).mTag : null;
+    }
+
     /**
      * Sets the image from a byte array in a blocking, CPU-consuming way.
      * Will handle itself referring back to the UI thread when needed.
      *
      * @param src The byte array containing the image to set into the ImageViewEx.
      */
-    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 	public void setSourceBlocking(final byte[] src) {
+        setSourceBlocking(src, null);
+    }
+
+    /**
+     * Sets the image from a byte array in a blocking, CPU-consuming way.
+     * Will handle itself referring back to the UI thread when needed.
+     * The image is sent straight to the cheapest decoder registered in
+     * {@link ImageDecoders} for its format. If the MIME type isn't known,
+     * the format is detected from the leading bytes of the image.
+     * While scrolling in {@link PosterMode}, animations are only decoded
+     * as a still poster, and played once scrolling stops.
+     *
+     * @param src      The byte array containing the image to set into the ImageViewEx.
+     * @param mimeType The MIME type of the image, or null if unknown.
+     */
+    public void setSourceBlocking(final byte[] src, final String mimeType) {
         if (src == null) {
             try {
                 stop();
-                mGif = null;
+                releaseGif();
                 setTag(null);
             }
             catch (Throwable ignored) {
@@ -226,51 +357,302 @@ public class ImageViewEx extends ImageView {
             return;
         }
 
-        Movie gif = null;
-
-        // If the animation is not requested
-        // decoding into a Movie is pointless (read: expensive)
-        if (internalCanAnimate()) {
-            gif = Movie.decodeByteArray(src, 0, src.length);
+        // Called directly, it replaces the images still being decoded
+        if (!(Thread.currentThread() instanceof ImageSetterThread)) {
+            discardPendingSources();
         }
 
-        // If gif is null, it's probably not a gif
-        if (gif == null || !internalCanAnimate()) {
+        final boolean traced = Systrace.isEnabled() && Systrace.beginSection("IVX.setSource", getTraceLabel());
+        try {
+            AnimatedImage gif = null;
+            Drawable drawable = null;
+            Drawable poster = null;
+            final long guard = MainThreadGuard.begin();
+            try {
+                // Parsed once, only if an animation or a tiled decoding needs it
+                ImageMetadata metadata = null;
+                ImageFormat format = ImageFormat.fromMimeType(mimeType);
+                if (format == ImageFormat.UNKNOWN) {
+                    format = ImageFormat.sniff(src);
+                }
+
+                // If the animation is not requested, or if no decoder can play
+                // the image, decoding it as an animation is pointless (read: expensive)
+                ImageDecoder decoder = internalCanAnimate() && format.isAnimated() ?
+                                       ImageDecoders.select(format, null, true) : null;
+                if (decoder != null) {
+                    // Single frame images are cheaper as plain bitmaps
+                    metadata = getSourceMetadata(src);
+                    decoder = metadata.isAnimated() ? ImageDecoders.select(format, metadata, true) : null;
+                    if (decoder == null && metadata.isAnimated()) {
+                        // Too large to be played within the memory limits: only its first frame is shown
+                        if (BuildConfig.DEBUG) {
+                            Log.i(TAG, "The animation is too large to be played, showing its first frame");
+                        }
+                        drawable = decodePoster(src, metadata);
+                    }
+                    else if (decoder != null && PosterMode.isShowingPosters()) {
+                        final boolean tracedPoster = Systrace.beginSection("IVX.decodePoster", decoder.getName());
+                        try {
+                            poster = decodePoster(src, metadata);
+                        }
+                        finally {
+                            Systrace.endSection(tracedPoster);
+                        }
+                    }
+                    else if (decoder != null) {
+                        final boolean tracedAnimation = Systrace.beginSection("IVX.decodeAnimation", decoder.getName());
+                        try {
+                            gif = decodeAnimation(decoder, src, metadata);
+                        }
+                        finally {
+                            Systrace.endSection(tracedAnimation);
+                        }
+                    }
+                }
+
+                // Static images, and animations that can't be played
+                if (gif == null && poster == null && drawable == null) {
+                    final boolean tracedBitmap = Systrace.beginSection("IVX.decodeBitmap");
+                    try {
+                        drawable = decodeTiled(src, format, metadata);
+                        if (drawable == null) {
+                            drawable = decodeDrawable(src);
+                        }
+                    }
+                    finally {
+                        Systrace.endSection(tracedBitmap);
+                    }
+                }
+            }
+            finally {
+                MainThreadGuard.end(MainThreadGuard.Operation.DECODE, getTraceLabel(), guard);
+            }
+
+            // If gif is null, it can't be played
+            final boolean isGif = gif != null;
 
-            // If not a gif and if on Android 3+, enable HW acceleration
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                setLayerType(View.LAYER_TYPE_HARDWARE, null);
+            if (poster != null) {
+                setDecodedPoster(poster, src, mimeType);
+            }
+            else if (!isGif) {
+                setDecodedDrawable(drawable);
             }
+            else if (!isDecodingStaleSource()) {
+                // We need to run this on the UI thread
+                stopLoading();
+                if (mSetGifRunnable.setGif(gif)) {
+                    mHandler.post(mSetGifRunnable);
+                }
+                else {
+                    gif.release();
+                }
+            }
+            else {
+                gif.release();
+            }
+        }
+        finally {
+            Systrace.endSection(traced);
+        }
+    }
+
+    /**
+     * Decodes an animated image with the given decoder.
+     * Override this to share the decoded animation among several views.
+     *
+     * @param decoder  The decoder selected for the image.
+     * @param src      The byte array containing the image.
+     * @param metadata The metadata of the image.
+     *
+     * @return The decoded image, or null if it can't be played.
+     */
+    protected AnimatedImage decodeAnimation(ImageDecoder decoder, byte[] src, ImageMetadata metadata) {
+        return decoder.decodeAnimation(src, metadata);
+    }
+
+    /**
+     * Gets the metadata of the image being set, parsing its header.
+     * Called at most once per image, on the thread of
+     * {@link #setSourceBlocking(byte[], String)}; override this to provide
+     * the metadata when it's already known.
+     *
+     * @param src The byte array containing the image.
+     *
+     * @return The metadata of the image.
+     */
+    protected ImageMetadata getSourceMetadata(byte[] src) {
+        return Converters.byteArrayToMetadata(src);
+    }
+
+    /**
+     * Opens a very large static image to be drawn by tiles, if it has to
+     * (see {@link TiledDecoding}), rather than decoding it whole.
+     *
+     * @param src      The byte array containing the image.
+     * @param format   The format of the image.
+     * @param metadata The metadata of the image, or null if it hasn't been parsed yet.
+     *
+     * @return The image drawn by tiles, or null if it has to be decoded whole.
+     */
+    private Drawable decodeTiled(byte[] src, ImageFormat format, ImageMetadata metadata) {
+        if (!TiledDecoding.isEnabled()) return null;
+
+        if (metadata == null) {
+            metadata = getSourceMetadata(src);
+        }
+        if (!TiledDecoding.shouldTile(format, metadata.getWidth(), metadata.getHeight())) return null;
+
+        // The low resolution copy, shown until the tiles are decoded, takes a quarter of the screen at most
+        return TiledDrawable.open(getContext(), src, mDm.widthPixels * mDm.heightPixels / 4);
+    }
+
+    /**
+     * Decodes the first frame of an animated image, to be shown as a still
+     * poster while scrolling (see {@link PosterMode}), or instead of an
+     * animation too large to be played (see {@link ImageDecoders}). The frame is
+     * downsampled to the size of the view, but keeps the intrinsic size of
+     * the image, so that the view doesn't change its layout once the
+     * animation replaces it.
+     *
+     * @param src      The byte array containing the image.
+     * @param metadata The metadata of the image.
+     *
+     * @return The poster, or null if it can't be decoded.
+     */
+    protected Drawable decodePoster(byte[] src, ImageMetadata metadata) {
+        // Views that haven't been laid out yet are as large as the screen, at most
+        final int reqWidth = getWidth() > 0 ? getWidth() : mDm.widthPixels;
+        final int reqHeight = getHeight() > 0 ? getHeight() : mDm.heightPixels;
+        final int sampleSize = Converters.calculateInSampleSize(metadata.getWidth(), metadata.getHeight(),
+                                                                reqWidth, reqHeight);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap = ImageDecoders.decodeBitmap(src, options, null);
+        if (bitmap == null) return null;
+
+        // Drawn as large as the image decoded without downsampling
+        bitmap.setDensity(mDm.densityDpi);
+        BitmapDrawable poster = new BitmapDrawable(getContext().getResources(), bitmap);
+        poster.setTargetDensity(mDm.densityDpi * sampleSize);
+        return poster;
+    }
+
+    /**
+     * Estimates the memory retained by this view for the image it shows:
+     * the bitmap of its drawable, if any, plus the animated GIF being played.
+     * Bitmaps shared with other views are counted by each of them.
+     *
+     * @return The retained memory, in bytes.
+     */
+    public long getRetainedBytes() {
+        return MemoryAccounting.getByteSize(getDrawable()) + getRetainedMovieBytes();
+    }
+
+    /**
+     * Estimates the memory retained by the animated GIF being played, if any:
+     * its encoded data plus the frame it's rendered into.
+     *
+     * @return The retained memory, in bytes, or 0 if no GIF is being played.
+     */
+    public long getRetainedMovieBytes() {
+        final AnimatedImage gif = mGif;
+        return gif != null ? gif.getByteSize() : 0;
+    }
 
-            // Sets the image as a regular Drawable
-            setTag(null);
+    /** @return The animated image being played, or null if none. */
+    public AnimatedImage getAnimatedImage() {
+        return mGif;
+    }
 
-            final Drawable d = Converters.byteArrayToDrawable(src, mOptions, getContext());
+    /**
+     * Describes the image being shown in the names of the trace sections
+     * (see {@link Systrace}). Only called while tracing.
+     *
+     * @return A short description of the image, or null.
+     */
+    protected String getTraceLabel() {
+        return null;
+    }
+
+    /**
+     * Decodes a static image. Called on the thread of
+     * {@link #setSourceBlocking(byte[], String)}; override this to change
+     * how the images are decoded or to keep track of the decoded bitmaps.
+     *
+     * @param src The byte array containing the image.
+     *
+     * @return The decoded image.
+     */
+    protected Drawable decodeDrawable(byte[] src) {
+        return new BitmapDrawable(getContext().getResources(), ImageDecoders.decodeBitmap(src, mOptions, null));
+    }
 
-            // We need to run this on the UI thread
-            stopLoading();
-            mSetDrawableRunnable.setDrawable(d);
+    /**
+     * Sets an already decoded static image, the same way
+     * {@link #setSourceBlocking(byte[], String)} does after decoding it.
+     *
+     * @param drawable The decoded image.
+     */
+    protected void setDecodedDrawable(Drawable drawable) {
+        // Sets the image as a regular Drawable
+        setTag(null);
+
+        // A newer image has been set in the meantime
+        if (isDecodingStaleSource()) {
+            recycleTiled(drawable);
+            return;
+        }
+
+        // We need to run this on the UI thread
+        stopLoading();
+        if (mSetDrawableRunnable.setDrawable(drawable, null, null, null)) {
             mHandler.post(mSetDrawableRunnable);
         }
         else {
-            // Disables the HW acceleration when viewing a GIF on Android 3+
-            if (Build.VERSION.SDK_INT >= 11) {
-                setLayerType(View.LAYER_TYPE_SOFTWARE, null);
-            }
+            recycleTiled(drawable);
+        }
+    }
 
-            // We need to run this on the UI thread
-            stopLoading();
-            mSetGifRunnable.setGif(gif);
-            mHandler.post(mSetGifRunnable);
+    /**
+     * Sets the poster of an animated image, keeping the image to decode
+     * its animation once scrolling stops.
+     *
+     * @param poster   The decoded poster.
+     * @param src      The byte array containing the image.
+     * @param mimeType The MIME type of the image, or null if unknown.
+     */
+    private void setDecodedPoster(Drawable poster, byte[] src, String mimeType) {
+        setTag(null);
+
+        // A newer image has been set in the meantime
+        if (isDecodingStaleSource()) return;
+
+        // We need to run this on the UI thread
+        stopLoading();
+        if (mSetDrawableRunnable.setDrawable(poster, src, mimeType, getDecodingTag())) {
+            mHandler.post(mSetDrawableRunnable);
         }
     }
 
+    /**
+     * Called on the UI thread right after a decoded image (either static
+     * or animated) has been set. Override this to get the appropriate callback.
+     */
+    protected void onSourceSet() {
+    }
+
     /** {@inheritDoc} */
     public void setImageResource(int resId) {
+        discardPendingSources();
         initializeDefaultValues();
         stopLoading();
         stop();
+        final Drawable previous = getDrawable();
         super.setImageResource(resId);
+        recycleReplaced(previous);
         mImageSource = IMAGE_SOURCE_RESOURCE;
         mGif = null;
     }
@@ -281,7 +663,9 @@ public class ImageViewEx extends ImageView {
         initializeDefaultValues();
         stopLoading();
         stop();
+        final Drawable previous = getDrawable();
         super.setImageDrawable(drawable);
+        recycleReplaced(previous);
         mBlockLayout = false;
         mGif = null;
         mImageSource = IMAGE_SOURCE_DRAWABLE;
@@ -289,14 +673,43 @@ public class ImageViewEx extends ImageView {
 
     /** {@inheritDoc} */
     public void setImageBitmap(Bitmap bm) {
+        discardPendingSources();
         initializeDefaultValues();
         stopLoading();
         stop();
+        final Drawable previous = getDrawable();
         super.setImageBitmap(bm);
+        recycleReplaced(previous);
         mImageSource = IMAGE_SOURCE_BITMAP;
         mGif = null;
     }
 
+    /** Releases the animated image being played, if any, once it's replaced. */
+    private void releaseGif() {
+        final AnimatedImage gif = mGif;
+        mGif = null;
+        if (gif != null) gif.release();
+    }
+
+    /**
+     * Releases the region decoder of an image drawn by tiles, once
+     * another drawable has replaced it.
+     *
+     * @param previous The drawable shown before, or null.
+     */
+    private void recycleReplaced(Drawable previous) {
+        if (previous != getDrawable()) {
+            recycleTiled(previous);
+        }
+    }
+
+    /** Releases the region decoder of a drawable, if it's drawn by tiles. */
+    private static void recycleTiled(Drawable drawable) {
+        if (drawable instanceof TiledDrawable) {
+            ((TiledDrawable) drawable).recycle();
+        }
+    }
+
     /** {@inheritDoc} */
     @Override
     public void setScaleType(ScaleType scaleType) {
@@ -400,6 +813,11 @@ public class ImageViewEx extends ImageView {
         mOptions = options;
     }
 
+    /** @return The BitmapFactory.Options used to decode the images, or null. */
+    public BitmapFactory.Options getOptions() {
+        return mOptions;
+    }
+
     /**
      * Programmatically overrides this view's density.
      * The new density will be set on the next {@link #onMeasure(int, int)}.
@@ -709,16 +1127,20 @@ public class ImageViewEx extends ImageView {
                     // Infinite loop: invalidates the View.
                     // Stopped when the thread is stopped or interrupted.
                     while (mUpdater != null && !mUpdater.isInterrupted()) {
-
-                        mHandler.post(new Runnable() {
-                            public void run() {
-                                invalidate();
-                            }
-                        });
+                        final AnimationGovernor.Level level = mAnimationLevel;
+
+                        // Frozen animations stay on their poster frame
+                        if (level != AnimationGovernor.Level.FROZEN) {
+                            mHandler.post(new Runnable() {
+                                public void run() {
+                                    invalidateAnimation();
+                                }
+                            });
+                        }
 
                         // The thread sleeps until the next frame
                         try {
-                            Thread.sleep(mFrameDuration);
+                            Thread.sleep(level.getFrameDuration(mFrameDuration));
                         }
                         catch (InterruptedException e) {
                             Thread.currentThread().interrupt();
@@ -728,7 +1150,34 @@ public class ImageViewEx extends ImageView {
             };
 
             mUpdater.start();
+            AnimationGovernor.register(this);
+        }
+    }
+
+    /**
+     * Invalidates the area of the view changed by the next frame of the GIF,
+     * or the whole view if it hasn't been drawn yet.
+     */
+    private void invalidateAnimation() {
+        final AnimatedImage gif = mGif;
+        if (gif == null || mGifStartTime == 0 || !mGifMatrixValid) {
+            invalidate();
+            return;
+        }
+
+        int dur = gif.getDuration();
+        if (dur == 0) {
+            dur = 1000;
         }
+        int relTime = (int) ((android.os.SystemClock.uptimeMillis() - mGifStartTime) % dur);
+        if (!gif.getChangedBounds(mDrawnFrame, relTime, mDirtyRect)) return;
+
+        mDirtyRectF.set(mDirtyRect);
+        mGifMatrix.mapRect(mDirtyRectF);
+        mDirtyRectF.roundOut(mDirtyRect);
+        // Filtering blends the pixels around the changed ones too
+        mDirtyRect.inset(-1, -1);
+        invalidate(mDirtyRect);
     }
 
     /** Pause playing the GIF, if it has started. */
@@ -746,6 +1195,65 @@ public class ImageViewEx extends ImageView {
             mUpdater.interrupt();
             mGifStartTime = 0;
         }
+        AnimationGovernor.unregister(this);
+        mAnimationLevel = AnimationGovernor.Level.FULL;
+    }
+
+    /**
+     * Gets how the GIF is being played, as decided by the {@link AnimationGovernor}
+     * to keep all the animations within its budget.
+     *
+     * @return The current animation level.
+     */
+    public AnimationGovernor.Level getAnimationLevel() {
+        return mAnimationLevel;
+    }
+
+    /**
+     * Sets how the GIF has to be played. Called by the {@link AnimationGovernor}.
+     *
+     * @param level The new animation level.
+     */
+    void setAnimationLevel(AnimationGovernor.Level level) {
+        if (mAnimationLevel != level) {
+            mAnimationLevel = level;
+            invalidate();
+        }
+    }
+
+    /** @return true if the view shows the poster of an animation, rather than the animation itself. */
+    public boolean isShowingPoster() {
+        return mPosterSource != null;
+    }
+
+    /**
+     * Decodes and plays the animation whose poster is being shown, if any.
+     * Called by the {@link PosterMode} once scrolling stops.
+     */
+    void playPoster() {
+        final byte[] src = mPosterSource;
+        final String mimeType = mPosterMimeType;
+        final Object tag = mPosterTag;
+        if (src == null) return;
+
+        // The poster stays until the animation replaces it
+        clearPoster();
+        startImageSetter(src, mimeType, tag);
+    }
+
+    private void clearPoster() {
+        if (mPosterSource == null) return;
+        mPosterSource = null;
+        mPosterMimeType = null;
+        mPosterTag = null;
+        PosterMode.unregister(this);
+    }
+
+    /** @return The area of the GIF as it's drawn, in pixels, or 0 if there's no GIF. */
+    long getAnimationArea() {
+        final AnimatedImage gif = mGif;
+        if (gif == null) return 0;
+        return (long) (gif.getWidth() * mScale * gif.getHeight() * mScale);
     }
 
     /** {@inheritDoc} */
@@ -779,6 +1287,17 @@ public class ImageViewEx extends ImageView {
      */
     @Override
     protected void onDraw(Canvas canvas) {
+        final boolean traced = Systrace.isEnabled() &&
+                               Systrace.beginSection(mGif != null ? "IVX.drawGif" : "IVX.draw", getTraceLabel());
+        try {
+            drawImage(canvas);
+        }
+        finally {
+            Systrace.endSection(traced);
+        }
+    }
+
+    private void drawImage(Canvas canvas) {
         if (mGif != null) {
             long now = android.os.SystemClock.uptimeMillis();
 
@@ -787,19 +1306,29 @@ public class ImageViewEx extends ImageView {
                 mGifStartTime = now;
             }
 
-            int dur = mGif.duration();
+            int dur = mGif.getDuration();
             if (dur == 0) {
                 dur = 1000;
             }
-            int relTime = (int) ((now - mGifStartTime) % dur);
-            mGif.setTime(relTime);
+            final AnimationGovernor.Level level = mAnimationLevel;
+            int relTime = level == AnimationGovernor.Level.FROZEN ? 0 : (int) ((now - mGifStartTime) % dur);
+            canvas.getMatrix(mCanvasMatrix);
             int saveCnt = canvas.save(Canvas.MATRIX_SAVE_FLAG);
 
             canvas.scale(mScale, mScale);
 
             float[] gifDrawParams = applyScaleType(canvas);
 
-            mGif.draw(canvas, gifDrawParams[0], gifDrawParams[1]);
+            // Keep the transformation of the GIF relative to the view
+            canvas.getMatrix(mGifMatrix);
+            mGifMatrixValid = mCanvasMatrix.invert(mCanvasMatrix);
+            mGifMatrix.postConcat(mCanvasMatrix);
+            mGifMatrix.preTranslate(gifDrawParams[0], gifDrawParams[1]);
+
+            final long drawStart = System.nanoTime();
+            mGif.draw(canvas, gifDrawParams[0], gifDrawParams[1], relTime);
+            mDrawnFrame = mGif.getDrawnFrame();
+            AnimationGovernor.onFrameDrawn(this, System.nanoTime() - drawStart, level);
 
             if (mImageAlign != ImageAlign.NONE) {
                 // We have an alignment override.
@@ -857,8 +1386,8 @@ public class ImageViewEx extends ImageView {
         // Get the current dimensions of the view and the gif
         float vWidth = getWidth();
         float vHeight = getHeight();
-        float gWidth = mGif.width() * mScale;
-        float gHeight = mGif.height() * mScale;
+        float gWidth = mGif.getWidth() * mScale;
+        float gHeight = mGif.getHeight() * mScale;
 
         // Disable the default scaling, it can mess things up
         if (mScaleType == null) {
@@ -1017,16 +1546,23 @@ public class ImageViewEx extends ImageView {
         final int heightSpecMode = MeasureSpec.getMode(heightMeasureSpec);
 
         final Drawable drawable = getDrawable();
+        final int[] expectedSize = getExpectedContentSize();
 
-        if (drawable != null) {
+        if (expectedSize != null) {
+            w = expectedSize[0];
+            h = expectedSize[1];
+            if (w <= 0) w = 1;
+            if (h <= 0) h = 1;
+        }
+        else if (drawable != null) {
             w = drawable.getIntrinsicWidth();
             h = drawable.getIntrinsicHeight();
             if (w <= 0) w = 1;
             if (h <= 0) h = 1;
         }
         else if (mGif != null) {
-            w = mGif.width();
-            h = mGif.height();
+            w = mGif.getWidth();
+            h = mGif.getHeight();
             if (w <= 0) w = 1;
             if (h <= 0) h = 1;
         }
@@ -1130,6 +1666,19 @@ public class ImageViewEx extends ImageView {
     ///                  PRIVATE HELPERS                    ///
     ///////////////////////////////////////////////////////////
 
+    /**
+     * Returns the size of the content that is going to be shown, when it's
+     * known before the content itself is available (e.g., while it's still
+     * loading). The view will be measured as if it was already showing it.
+     * By default, the size is never known in advance.
+     *
+     * @return An array containing the expected width and height of the
+     *         content, in pixels, or null if it's not known.
+     */
+    protected int[] getExpectedContentSize() {
+        return null;
+    }
+
     /** Copied from {@link ImageView}'s implementation. */
     private int resolveAdjustedSize(int desiredSize, int maxSize,
                                     int measureSpec) {
@@ -1186,7 +1735,7 @@ public class ImageViewEx extends ImageView {
         }
         else {
             // This is a GIF...
-            imgHeight = mGif.height();
+            imgHeight = mGif.getHeight();
         }
 
         //noinspection IfMayBeConditional
@@ -1216,13 +1765,14 @@ public class ImageViewEx extends ImageView {
      *
      * @return true if the animation can be started, false otherwise.
      */
-    private boolean internalCanAnimate() {
+    protected boolean internalCanAnimate() {
         return canAlwaysAnimate() ? canAnimate() : canAlwaysAnimate();
     }
 
     /**
      * Stops any currently running async loading (deserialization and
-     * parsing of the image).
+     * parsing of the image), including the animation waiting for
+     * scrolling to stop to replace its poster.
      */
     public void stopLoading() {
         //noinspection ConstantConditions
@@ -1230,6 +1780,7 @@ public class ImageViewEx extends ImageView {
             mHandler.removeCallbacks(mSetDrawableRunnable);
             mHandler.removeCallbacks(mSetGifRunnable);
         }
+        clearPoster();
     }
 
     /**
@@ -1276,29 +1827,74 @@ public class ImageViewEx extends ImageView {
         };
     }
 
+    /** A worker thread decoding an image, which knows the generation and the data of the source it decodes. */
+    private static class ImageSetterThread extends Thread {
+        private final int mGeneration;
+        private final Object mTag;
+
+        ImageSetterThread(int generation, Object tag, Runnable runnable) {
+            super(runnable);
+            mGeneration = generation;
+            mTag = tag;
+        }
+    }
+
     /** A Runnable that sets a specified Drawable on the ImageView. */
     private class SetDrawableRunnable implements Runnable {
 
         private Drawable mDrawable;
+        // The animation, if the drawable is its poster
+        private byte[] mSource;
+        private String mMimeType;
+        private Object mSourceTag;
+        private int mGeneration;
         private final Object mDrawableLock = new Object();
 
-        private void setDrawable(Drawable drawable) {
+        /** @return false if a newer image has been set, so that the drawable is dropped. */
+        private boolean setDrawable(Drawable drawable, byte[] source, String mimeType, Object tag) {
             synchronized (mDrawableLock) {
+                // Checked under the lock, so that a stale image can't replace a newer one
+                if (isDecodingStaleSource()) return false;
                 mDrawable = drawable;
+                mSource = source;
+                mMimeType = mimeType;
+                mSourceTag = tag;
+                mGeneration = mSourceGeneration.get();
+                return true;
             }
         }
 
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
         @Override
         public void run() {
             synchronized (mDrawableLock) {
-                if (mDrawable == null) {
+                if (mDrawable == null || mGeneration != mSourceGeneration.get()) {
                     Log.v(TAG, "Loading the Drawable has been aborted");
                     return;
                 }
 
-                setImageDrawable(mDrawable);
-                measure(0, 0);
-                requestLayout();
+                // If not a gif and if on Android 3+, enable HW acceleration
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    setLayerType(View.LAYER_TYPE_HARDWARE, null);
+                }
+
+                final boolean traced = Systrace.isEnabled() &&
+                                       Systrace.beginSection("IVX.bind", getTraceLabel());
+                try {
+                    setImageDrawable(mDrawable);
+                    if (mSource != null) {
+                        mPosterSource = mSource;
+                        mPosterMimeType = mMimeType;
+                        mPosterTag = mSourceTag;
+                        PosterMode.register(ImageViewEx.this);
+                    }
+                    measure(0, 0);
+                    requestLayout();
+                    onSourceSet();
+                }
+                finally {
+                    Systrace.endSection(traced);
+                }
 
                 try {
                     AnimationDrawable animationDrawable = (AnimationDrawable) getDrawable();
@@ -1310,35 +1906,61 @@ public class ImageViewEx extends ImageView {
         }
     }
 
-    /** A Runnable that sets a specified Movie on the ImageView. */
+    /** A Runnable that sets a specified animated image on the ImageView. */
     private class SetGifRunnable implements Runnable {
 
-        private Movie mGifMovie;
+        private AnimatedImage mGifMovie;
+        private int mGeneration;
         private final Object mGifMovieLock = new Object();
 
-        private void setGif(Movie drawable) {
+        /** @return false if a newer image has been set, so that the animated image is dropped. */
+        private boolean setGif(AnimatedImage drawable) {
             synchronized (mGifMovieLock) {
+                if (isDecodingStaleSource()) return false;
+                // An image that has been replaced before it could be shown
+                if (mGifMovie != null) mGifMovie.release();
                 mGifMovie = drawable;
+                mGeneration = mSourceGeneration.get();
+                return true;
             }
         }
 
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
         @Override
         public void run() {
             synchronized (mGifMovieLock) {
-                if (mGifMovie == null) {
+                if (mGifMovie == null || mGeneration != mSourceGeneration.get()) {
                     Log.v(TAG, "Loading the GIF has been aborted");
+                    if (mGifMovie != null) mGifMovie.release();
+                    mGifMovie = null;
                     return;
                 }
 
-                initializeDefaultValues();
-                mImageSource = IMAGE_SOURCE_GIF;
-                setImageDrawable(null);
-                mGif = mGifMovie;
-
-                measure(0, 0);
-                requestLayout();
+                // Disables the HW acceleration when viewing a GIF on Android 3+
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                    setLayerType(View.LAYER_TYPE_SOFTWARE, null);
+                }
 
-                play();
+                final boolean traced = Systrace.isEnabled() &&
+                                       Systrace.beginSection("IVX.bindGif", getTraceLabel());
+                try {
+                    initializeDefaultValues();
+                    mImageSource = IMAGE_SOURCE_GIF;
+                    setImageDrawable(null);
+                    mGif = mGifMovie;
+                    mGifMovie = null;
+                    mGifMatrixValid = false;
+                    mDrawnFrame = -1;
+
+                    measure(0, 0);
+                    requestLayout();
+
+                    play();
+                    onSourceSet();
+                }
+                finally {
+                    Systrace.endSection(traced);
+                }
             }
         }
     }
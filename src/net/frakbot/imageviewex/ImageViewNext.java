@@ -2,7 +2,10 @@ package net.frakbot.imageviewex;
 
 import android.content.Context;
 import android.content.IntentFilter;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.drawable.AnimationDrawable;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.support.v4.util.LruCache;
@@ -11,9 +14,28 @@ import android.util.Log;
 import com.foxykeep.datadroid.requestmanager.Request;
 import com.foxykeep.datadroid.requestmanager.RequestManager.RequestListener;
 import com.jakewharton.disklrucache.DiskLruCache;
+import net.frakbot.cache.BitmapPool;
+import net.frakbot.cache.BitmapResource;
+import net.frakbot.cache.BitmapResourceCache;
 import net.frakbot.cache.CacheHelper;
+import net.frakbot.cache.CacheTrimmer;
+import net.frakbot.cache.ConcurrentMemoryCache;
+import net.frakbot.cache.EvictionPolicy;
+import net.frakbot.cache.ImageMetadata;
+import net.frakbot.cache.MemoryCache;
+import net.frakbot.cache.MetadataIndex;
+import net.frakbot.cache.TinyLfuPolicy;
 import net.frakbot.imageviewex.broadcastreceiver.ConnectivityChangeBroadcastReceiver;
+import net.frakbot.imageviewex.decoder.AnimatedImage;
+import net.frakbot.imageviewex.decoder.FrameAnimatedImage;
+import net.frakbot.imageviewex.decoder.ImageDecoder;
+import net.frakbot.imageviewex.decoder.ImageDecoders;
+import net.frakbot.imageviewex.decoder.SharedAnimations;
 import net.frakbot.imageviewex.listener.ImageViewExRequestListener;
+import net.frakbot.imageviewex.metrics.LoadTrace;
+import net.frakbot.imageviewex.metrics.MemoryAccounting;
+import net.frakbot.imageviewex.metrics.PipelineMetrics;
+import net.frakbot.imageviewex.metrics.Systrace;
 import net.frakbot.imageviewex.requestmanager.ImageViewExRequestFactory;
 import net.frakbot.imageviewex.requestmanager.ImageViewExRequestManager;
 
@@ -40,23 +62,55 @@ public class ImageViewNext extends ImageViewEx {
     private static boolean mClassAutoRetryFromNetwork;
     private boolean hasFailedDownload;
 
+    private boolean mVariantCacheEnabled;
+    private static boolean mClassVariantCacheEnabled = false;
+    private int mVariantWidth;
+    private int mVariantHeight;
+    private int mRequestVariantWidth;
+    private int mRequestVariantHeight;
+    private ImageMetadata mExpectedMetadata;
+
     private String mUrl;
     private ImageLoadCompletionListener mLoadCallbacks;
+    // The level the image being decoded comes from, reported as completed once it's bound
+    private CacheLevel mCompletedLevel;
 
     protected ImageViewExRequestManager mRequestManager;
     protected Request mCurrentRequest;
     protected RequestListener mCurrentRequestListener;
+    protected RequestListener mRevalidationListener;
 
     private Context mContext;
 
-    private static int mMemCacheSize = 10 * 1024 * 1024; // 10MiB
-    private static LruCache<String, byte[]> mMemCache;
+    // The decoded image being shown, and the one that's about to be
+    private BitmapResource mResource;
+    private BitmapResource mPendingResource;
+
+    // The timeline of the current load
+    private volatile LoadTrace mLoadTrace;
+
+    // Set while a revalidated image replaces the stale one, which stays shown meanwhile
+    private boolean mReplacingSource;
+
+    private static int mMemCacheSize = -1; // Computed from the memory class
+    private static float mMemCacheFraction = 0.125f;
+    private static boolean mUseLargeMemoryClass = false;
+    private static float mMemCacheMaxEntryFraction = 0.25f;
+    private static EvictionPolicy<String> mMemCachePolicy;
+    private static MemoryCache<String, byte[]> mMemCache;
+    private static float mDecodedCacheFraction = 0.125f;
+    private static BitmapResourceCache mDecodedCache;
     private static int mAppVersion = 1;
     private static int mDiskCacheSize = 50 * 1024 * 1024; // 50MiB
     private static DiskLruCache mDiskCache;
+    private static MetadataIndex mMetadataIndex;
     private static boolean mCacheInit = false;
     private static int mConcurrentThreads = 10;
 
+    // Failed revalidations are not retried before this interval has elapsed
+    private static final long REVALIDATION_RETRY_INTERVAL = 30 * 1000;
+    private static final LruCache<String, Long> mRevalidationAttempts = new LruCache<String, Long>(256);
+
     private ConnectivityChangeBroadcastReceiver mReceiver;
     private static final String RECEIVER_ACTION = android.net.ConnectivityManager.CONNECTIVITY_ACTION;
 
@@ -99,6 +153,7 @@ public class ImageViewNext extends ImageViewEx {
         mClassAutoRetryFromNetwork = true;
         mAutoRetryFromNetwork = true;
         hasFailedDownload = false;
+        mVariantCacheEnabled = mClassVariantCacheEnabled;
     }
 
     /** {@inheritDoc} */
@@ -149,26 +204,152 @@ public class ImageViewNext extends ImageViewEx {
         mLoadCallbacks = loadCallbacks;
     }
 
-    /** @return The in-memory cache. */
-    public static LruCache<String, byte[]> getMemCache() {
+    /**
+     * Gets the in-memory cache. Since 2.1.0 it's a {@link MemoryCache}
+     * instead of an {@link LruCache}: its eviction policy is pluggable and
+     * it may live off the heap, so it can't be an LruCache anymore.
+     *
+     * @return The in-memory cache.
+     */
+    public static MemoryCache<String, byte[]> getMemCache() {
         return mMemCache;
     }
 
+    /** @return The cache of the decoded images, or null if the caches are not initialized. */
+    public static BitmapResourceCache getDecodedCache() {
+        return mDecodedCache;
+    }
+
     /** @return The disk cache. */
     public static DiskLruCache getDiskCache() {
         return mDiskCache;
     }
 
-    /** @return The in-memory cache size, in bits. */
+    /** @return The index of the disk cache metadata, or null if it can't be opened. */
+    public static MetadataIndex getMetadataIndex() {
+        return mMetadataIndex;
+    }
+
+    /**
+     * Gets the metadata (type, dimensions, animation details) of an image
+     * in the disk cache, without reading the image itself.
+     *
+     * @param url The URL of the image.
+     *
+     * @return The metadata of the image, or null if it's not known.
+     */
+    public static ImageMetadata getMetadata(String url) {
+        return mMetadataIndex != null ? mMetadataIndex.get(url) : null;
+    }
+
+    /**
+     * @return The in-memory cache size, in bits, or -1 if it is still
+     *         to be computed from the memory class of the device.
+     */
     public static int getMemCacheSize() {
         return mMemCacheSize;
     }
 
-    /** @param memCacheSize The in-memory cache size to set, in bits. */
+    /**
+     * Sets a fixed in-memory cache size, regardless of the memory class
+     * of the device. Only effective before the caches are initialized.
+     *
+     * @param memCacheSize The in-memory cache size to set, in bits.
+     */
     public static void setMemCacheSize(int memCacheSize) {
         mMemCacheSize = memCacheSize;
     }
 
+    /** @return The fraction of the app heap used by the in-memory cache. */
+    public static float getMemCacheFraction() {
+        return mMemCacheFraction;
+    }
+
+    /**
+     * Sets the fraction of the app heap, as given by the memory class of the
+     * device, to be used by the in-memory cache. Defaults to 1/8.
+     * Only effective before the caches are initialized, and if no fixed size
+     * has been set with {@link #setMemCacheSize(int)}.
+     *
+     * @param memCacheFraction The fraction, between 0 and 1.
+     */
+    public static void setMemCacheFraction(float memCacheFraction) {
+        if (memCacheFraction <= 0f || memCacheFraction > 1f) {
+            throw new IllegalArgumentException("The fraction must be in the (0, 1] range.");
+        }
+        mMemCacheFraction = memCacheFraction;
+    }
+
+    /** @return true if the memory budgets are computed on the large memory class. */
+    public static boolean isUseLargeMemoryClass() {
+        return mUseLargeMemoryClass;
+    }
+
+    /**
+     * Sets whether the memory budgets are computed on the large memory class
+     * of the device instead of the standard one. Only set it to true if the
+     * application requests a large heap. Defaults to false.
+     *
+     * @param useLargeMemoryClass true to use the large memory class.
+     */
+    public static void setUseLargeMemoryClass(boolean useLargeMemoryClass) {
+        mUseLargeMemoryClass = useLargeMemoryClass;
+    }
+
+    /** @return The largest fraction of the in-memory cache a single image can take. */
+    public static float getMemCacheMaxEntryFraction() {
+        return mMemCacheMaxEntryFraction;
+    }
+
+    /**
+     * Sets the largest fraction of the in-memory cache a single image can take.
+     * Larger images (e.g. long animated GIFs) are not kept in memory, so they
+     * can't flush all the other images. Defaults to 1/4.
+     * Only effective before the caches are initialized.
+     *
+     * @param maxEntryFraction The fraction, between 0 and 1.
+     */
+    public static void setMemCacheMaxEntryFraction(float maxEntryFraction) {
+        if (maxEntryFraction <= 0f || maxEntryFraction > 1f) {
+            throw new IllegalArgumentException("The fraction must be in the (0, 1] range.");
+        }
+        mMemCacheMaxEntryFraction = maxEntryFraction;
+    }
+
+    /**
+     * Sets the eviction policy of the in-memory cache. Defaults to a
+     * {@link TinyLfuPolicy}, which keeps the frequently used images in memory
+     * even while scrolling through many images that are only seen once;
+     * use a {@link net.frakbot.cache.LruPolicy} for the plain LRU behaviour.
+     * Only effective before the caches are initialized.
+     *
+     * @param policy The eviction policy, or null to use the default one.
+     */
+    public static void setMemCacheEvictionPolicy(EvictionPolicy<String> policy) {
+        mMemCachePolicy = policy;
+    }
+
+    /** @return The fraction of the app heap used by the decoded images nobody is showing. */
+    public static float getDecodedCacheFraction() {
+        return mDecodedCacheFraction;
+    }
+
+    /**
+     * Sets the fraction of the app heap, as given by the memory class of the
+     * device, to be used by the decoded images that are not shown anymore,
+     * so that binding them again doesn't need decoding. Half as much is used
+     * to pool the bitmaps that can be reused for decoding. Defaults to 1/8.
+     * Only effective before the caches are initialized.
+     *
+     * @param decodedCacheFraction The fraction, between 0 and 1.
+     */
+    public static void setDecodedCacheFraction(float decodedCacheFraction) {
+        if (decodedCacheFraction <= 0f || decodedCacheFraction > 1f) {
+            throw new IllegalArgumentException("The fraction must be in the (0, 1] range.");
+        }
+        mDecodedCacheFraction = decodedCacheFraction;
+    }
+
     /** @return The version of the app. */
     public static int getAppVersion() {
         return mAppVersion;
@@ -210,15 +391,30 @@ public class ImageViewNext extends ImageViewEx {
     /**
      * Initializes both the in-memory and the disk-cache
      * at class-level, if it hasn't been done already.
+     * The in-memory cache is sized on the memory class of the device
+     * (unless a fixed size is set) and it's trimmed whenever the system
+     * asks the app to release memory.
      * This method is idempotent.
      */
-    public static void initCaches(Context context) {
+    public static synchronized void initCaches(Context context) {
         if (!mCacheInit) {
-            mMemCache = new LruCache<String, byte[]>(mMemCacheSize) {
-                protected int sizeOf(String key, byte[] value) {
-                    return value.length;
-                }
-            };
+            if (mMemCacheSize <= 0) {
+                mMemCacheSize = CacheHelper.getMemoryBudget(context, mMemCacheFraction, mUseLargeMemoryClass);
+            }
+            if (mMemCachePolicy == null) {
+                // Assume an average image of 32KiB to size the frequency sketch
+                mMemCachePolicy = new TinyLfuPolicy<String>(mMemCacheSize / (32 * 1024));
+            }
+            mMemCache = createMemCache();
+            CacheTrimmer.from(context).register(mMemCache);
+
+            int decodedCacheSize = CacheHelper.getMemoryBudget(context, mDecodedCacheFraction, mUseLargeMemoryClass);
+            BitmapPool bitmapPool = new BitmapPool(decodedCacheSize / 2);
+            mDecodedCache = new BitmapResourceCache(decodedCacheSize, bitmapPool);
+            // The decoded images are trimmed first, so that their bitmaps go to the pool before it's trimmed
+            CacheTrimmer.from(context).register(mDecodedCache);
+            CacheTrimmer.from(context).register(bitmapPool);
+            CacheTrimmer.from(context).register(FrameAnimatedImage.getTrimmer());
             File diskCacheDir =
                 CacheHelper.getDiskCacheDir(context, "imagecache");
             try {
@@ -227,10 +423,29 @@ public class ImageViewNext extends ImageViewEx {
             }
             catch (IOException ignored) {
             }
+            try {
+                mMetadataIndex = MetadataIndex.open(
+                    CacheHelper.getDiskCacheDir(context, "imagecache.idx"), diskCacheDir);
+            }
+            catch (IOException e) {
+                Log.w(TAG, "The disk cache metadata index can't be opened", e);
+            }
             mCacheInit = true;
         }
     }
 
+    /** @return A new in-memory cache, as configured. */
+    private static MemoryCache<String, byte[]> createMemCache() {
+        ConcurrentMemoryCache<String, byte[]> cache =
+            new ConcurrentMemoryCache<String, byte[]>(mMemCacheSize, mMemCachePolicy) {
+                protected int sizeOf(String key, byte[] value) {
+                    return value.length;
+                }
+            };
+        cache.setMaxEntryFraction(mMemCacheMaxEntryFraction);
+        return cache;
+    }
+
     /**
      * Sets the loading {@link Drawable} to be used for every {@link ImageViewNext}.
      *
@@ -308,6 +523,11 @@ public class ImageViewNext extends ImageViewEx {
         if (isRequestInProgress()) {
             mRequestManager.removeRequestListener(mCurrentRequestListener);
         }
+        // The view doesn't care about the revalidation of the previous image anymore
+        if (mRevalidationListener != null) {
+            mRequestManager.removeRequestListener(mRevalidationListener);
+            mRevalidationListener = null;
+        }
 
         stop();
         stopLoading();
@@ -321,14 +541,38 @@ public class ImageViewNext extends ImageViewEx {
      */
     public void setUrl(String url) {
         mUrl = url;
+        LoadTrace previousTrace = mLoadTrace;
+        if (previousTrace != null) {
+            previousTrace.finish(LoadTrace.Outcome.CANCELLED);
+        }
+        mLoadTrace = PipelineMetrics.startTrace(url);
+        mExpectedMetadata = null;
+        mCompletedLevel = null;
 
         // Abort the pending request (if any) and stop animating/loading
         abortEverything();
+        discardPendingSources();
+        holdPendingResource(null);
+
+        // Decide whether a processed variant has to be used for this request
+        resolveVariantSize();
 
         // Start the whole retrieval chain
         getFromMemCache(url);
     }
 
+    /**
+     * Returns the timeline of the current load, which is complete once the
+     * image is shown. It's available from the {@link ImageLoadCompletionListener}
+     * callbacks; every finished trace can also be sampled through
+     * {@link PipelineMetrics#setLoadTraceSink(net.frakbot.imageviewex.metrics.LoadTraceSink, float)}.
+     *
+     * @return The trace of the current load, or null if no URL has been set.
+     */
+    public LoadTrace getLoadTrace() {
+        return mLoadTrace;
+    }
+
     /**
      * Returns the current URL set to the {@link ImageViewNext}.
      * The URL will be returned regardless of the existence of
@@ -340,6 +584,104 @@ public class ImageViewNext extends ImageViewEx {
         return mUrl;
     }
 
+    /**
+     * Returns true if this instance uses the processed variants tier, that is
+     * it loads (and stores) images downsampled to the size of the view instead
+     * of decoding the full-size original on every bind.
+     *
+     * @return true if processed variants are enabled for this instance, false otherwise.
+     */
+    public boolean isVariantCacheEnabled() {
+        return mVariantCacheEnabled;
+    }
+
+    /**
+     * Enables or disables the processed variants tier for this instance.
+     * The first time an image is loaded at a given size, a downsampled copy of it
+     * is re-encoded and stored in the disk cache; later requests at the same size
+     * will read the smaller file instead of the original. Animated GIFs are only
+     * replaced by a (first frame) poster when this instance can't animate.
+     * The setting is applied to the next call to {@link #setUrl(String)}.
+     *
+     * @param variantCacheEnabled true to enable the processed variants, false otherwise.
+     */
+    public void setVariantCacheEnabled(boolean variantCacheEnabled) {
+        mVariantCacheEnabled = variantCacheEnabled;
+    }
+
+    /**
+     * Returns true if new instances of ImageViewNext use the processed variants tier.
+     *
+     * @return true if processed variants are enabled by default, false otherwise.
+     */
+    public static boolean isClassVariantCacheEnabled() {
+        return mClassVariantCacheEnabled;
+    }
+
+    /**
+     * Sets whether new instances of ImageViewNext use the processed variants tier.
+     * Defaults to false.
+     * <p/>
+     * All of the existing constructed instances won't be affected by this.
+     *
+     * @param classVariantCacheEnabled true to enable the processed variants by default.
+     * @see #setVariantCacheEnabled(boolean)
+     */
+    public static void setClassVariantCacheEnabled(boolean classVariantCacheEnabled) {
+        mClassVariantCacheEnabled = classVariantCacheEnabled;
+    }
+
+    /**
+     * Sets the target size of the processed variants for this instance.
+     * If no size is set (or it's set to 0), the size of the view is used
+     * when it's known, falling back to its layout params.
+     *
+     * @param width  The target width, in pixels.
+     * @param height The target height, in pixels.
+     */
+    public void setVariantSize(int width, int height) {
+        mVariantWidth = width;
+        mVariantHeight = height;
+    }
+
+    /**
+     * Resolves the target size of the processed variant for the current request.
+     * If variants are disabled, or if no size can be determined, the original
+     * image will be used.
+     */
+    private void resolveVariantSize() {
+        int width = 0;
+        int height = 0;
+
+        if (mVariantCacheEnabled) {
+            if (mVariantWidth > 0 && mVariantHeight > 0) {
+                width = mVariantWidth;
+                height = mVariantHeight;
+            }
+            else if (getWidth() > 0 && getHeight() > 0) {
+                width = getWidth() - getPaddingLeft() - getPaddingRight();
+                height = getHeight() - getPaddingTop() - getPaddingBottom();
+            }
+            else if (getLayoutParams() != null) {
+                width = getLayoutParams().width;
+                height = getLayoutParams().height;
+            }
+        }
+
+        // Negative values come from MATCH_PARENT and WRAP_CONTENT
+        mRequestVariantWidth = Math.max(width, 0);
+        mRequestVariantHeight = Math.max(height, 0);
+    }
+
+    /**
+     * Checks if a processed variant is requested for the current URL.
+     *
+     * @return true if a processed variant is requested, false otherwise.
+     */
+    private boolean isVariantRequested() {
+        return mRequestVariantWidth > 0 && mRequestVariantHeight > 0;
+    }
+
     /**
      * Returns true if this instance will automatically retry the download from
      * the network when it becomes available once again.
@@ -447,7 +789,8 @@ public class ImageViewNext extends ImageViewEx {
             abortEverything();
             // Initalize caches
             ImageViewNext.initCaches(mContext);
-            // Starts the retrieval from the network once again
+            // Starts the retrieval from the network once again, as a new load
+            mLoadTrace = PipelineMetrics.startTrace(getUrl());
             getFromNetwork(getUrl());
             // Cross ye fingers
         }
@@ -474,17 +817,87 @@ public class ImageViewNext extends ImageViewEx {
         // Initializes the caches, if they're not initialized already
         ImageViewNext.initCaches(mContext);
 
-        LruCache<String, byte[]> cache = ImageViewNext.getMemCache();
-        byte[] image = cache.get(url);
+        final boolean traced = Systrace.isEnabled() && Systrace.beginSection("IVX.memCache", getTraceLabel());
+        try {
+            lookupMemCache(url);
+        }
+        finally {
+            Systrace.endSection(traced);
+        }
+    }
+
+    /**
+     * Looks for the image in the decoded images and in the memory cache.
+     *
+     * @param url The URL of the image.
+     */
+    private void lookupMemCache(String url) {
+        // The image may be already decoded, e.g. if another view is showing it
+        if (getFromDecodedCache(url)) return;
+
+        MemoryCache<String, byte[]> cache = ImageViewNext.getMemCache();
+        byte[] image = null;
+
+        if (isVariantRequested()) {
+            ImageMetadata metadata = getMetadata(url);
+            image = cache.get(CacheHelper.getVariantKey(url, metadata, mRequestVariantWidth, mRequestVariantHeight));
+            if (image == null && !internalCanAnimate()) {
+                image = cache.get(CacheHelper.getPosterKey(url, metadata, mRequestVariantWidth, mRequestVariantHeight));
+            }
+        }
+
+        if (image == null) {
+            image = cache.get(url);
+        }
 
+        mLoadTrace.mark(LoadTrace.Event.MEMORY_CHECKED);
         if (image == null) {
+            // The metadata, if any, is used to size the view while loading
+            mExpectedMetadata = getMetadata(url);
             handleMemCacheMiss();
         }
         else {
+            mLoadTrace.setSource("memory", image.length);
             onMemCacheHit(image, url);
         }
     }
 
+    /**
+     * Tries to get the already decoded image, either from another view
+     * showing it or from the decoded images still in memory.
+     *
+     * @param url The URL of the image.
+     *
+     * @return true if the decoded image has been found and set, false otherwise.
+     */
+    private boolean getFromDecodedCache(String url) {
+        ImageMetadata metadata = getMetadata(url);
+        // Animated images are played, not shown as a decoded bitmap
+        if (metadata == null || (metadata.isAnimated() && internalCanAnimate())) return false;
+
+        BitmapResource resource = mDecodedCache.acquire(getDecodedKey(url, metadata));
+        if (resource == null) return false;
+
+        if (BuildConfig.DEBUG) Log.i(TAG, "Decoded cache HIT @" + hashCode());
+        mLoadTrace.mark(LoadTrace.Event.MEMORY_CHECKED);
+        mLoadTrace.setSource("decoded", -1);
+        holdPendingResource(resource);
+        mExpectedMetadata = null;
+        if (mMetadataIndex != null) {
+            mMetadataIndex.recordAccess(url);
+        }
+
+        ScaleType scaleType = getScaleType();
+        if (scaleType != null) {
+            setScaleType(scaleType);
+        }
+        // Reported as completed once bound, like the images to decode
+        mCompletedLevel = CacheLevel.MEMORY;
+        setDecodedDrawable(new BitmapDrawable(getResources(), resource.getBitmap()));
+        revalidateIfStale(url);
+        return true;
+    }
+
     /** Generic function to handle the mem cache miss. */
     private void handleMemCacheMiss() {
         // Calls the class callback
@@ -500,9 +913,13 @@ public class ImageViewNext extends ImageViewEx {
      */
     private void getFromDiskCache(String url) {
         if (BuildConfig.DEBUG) Log.i(TAG, "Diskcache: getting for URL " + url + " @" + hashCode());
-        Request mRequest =
+        Request mRequest = isVariantRequested() ?
+            ImageViewExRequestFactory.getImageDiskCacheRequest(
+                url, mRequestVariantWidth, mRequestVariantHeight, !internalCanAnimate()) :
             ImageViewExRequestFactory.getImageDiskCacheRequest(url);
         mCurrentRequestListener = new ImageDiskCacheListener(this);
+        mLoadTrace.mark(LoadTrace.Event.DISK_QUEUED);
+        PipelineMetrics.onRequestQueued(mRequest);
         mRequestManager.execute(mRequest, mCurrentRequestListener);
 
         if (mLoadCallbacks != null) {
@@ -517,9 +934,13 @@ public class ImageViewNext extends ImageViewEx {
      */
     private void getFromNetwork(String url) {
         if (BuildConfig.DEBUG) Log.i(TAG, "Network: getting for URL " + url + " @" + hashCode());
-        Request mRequest =
+        Request mRequest = isVariantRequested() ?
+            ImageViewExRequestFactory.getImageDownloaderRequest(
+                url, mRequestVariantWidth, mRequestVariantHeight, !internalCanAnimate()) :
             ImageViewExRequestFactory.getImageDownloaderRequest(url);
         mCurrentRequestListener = new ImageDownloadListener(this);
+        mLoadTrace.mark(LoadTrace.Event.NETWORK_QUEUED);
+        PipelineMetrics.onRequestQueued(mRequest);
         mRequestManager.execute(mRequest, mCurrentRequestListener);
 
         if (mLoadCallbacks != null) {
@@ -527,6 +948,36 @@ public class ImageViewNext extends ImageViewEx {
         }
     }
 
+    /**
+     * Starts a background revalidation of the image if its cached copy,
+     * which is already being displayed, is stale. If the image has changed,
+     * the view will be updated as soon as the new one is downloaded; if the
+     * network fails, the stale copy just stays.
+     *
+     * @param url The URL of the image.
+     */
+    private void revalidateIfStale(String url) {
+        ImageMetadata metadata = getMetadata(url);
+        final long now = System.currentTimeMillis();
+        if (metadata == null || !metadata.isStale(now)) return;
+
+        // Don't keep hammering the network for the same image
+        synchronized (mRevalidationAttempts) {
+            Long lastAttempt = mRevalidationAttempts.get(url);
+            if (lastAttempt != null && now - lastAttempt < REVALIDATION_RETRY_INTERVAL) return;
+            mRevalidationAttempts.put(url, now);
+        }
+
+        if (BuildConfig.DEBUG) Log.i(TAG, "Revalidating stale URL " + url + " @" + hashCode());
+        Request mRequest = isVariantRequested() ?
+            ImageViewExRequestFactory.getImageRevalidateRequest(
+                url, mRequestVariantWidth, mRequestVariantHeight, !internalCanAnimate()) :
+            ImageViewExRequestFactory.getImageRevalidateRequest(url);
+        mRevalidationListener = new ImageRevalidateListener(this);
+        PipelineMetrics.onRequestQueued(mRequest);
+        mRequestManager.execute(mRequest, mRevalidationListener);
+    }
+
     /**
      * Called when the image is got from whatever the source.
      * Override this to get the appropriate callback.
@@ -544,10 +995,17 @@ public class ImageViewNext extends ImageViewEx {
      *
      * @param image The image as a byte array.
      * @param url   The URL of the retrieved image.
+     * @param level The level the image comes from, reported as completed once
+     *              the image is bound, or null not to report it.
      */
-    private void onPreSuccess(byte[] image, String url) {
+    private void onPreSuccess(byte[] image, String url, CacheLevel level) {
         // Only set the image if the current url equals to the retrieved image's url
         if (url != null && url.equals(getUrl())) {
+            mCompletedLevel = level;
+            mExpectedMetadata = null;
+            if (mMetadataIndex != null) {
+                mMetadataIndex.recordAccess(url);
+            }
             onSuccess(image);
         }
     }
@@ -561,11 +1019,8 @@ public class ImageViewNext extends ImageViewEx {
      */
     protected void onMemCacheHit(byte[] image, String url) {
         if (BuildConfig.DEBUG) Log.i(TAG, "Memory cache HIT @" + hashCode());
-        onPreSuccess(image, url);
-
-        if (mLoadCallbacks != null) {
-            mLoadCallbacks.onLoadCompleted(this, CacheLevel.MEMORY);
-        }
+        onPreSuccess(image, url, CacheLevel.MEMORY);
+        revalidateIfStale(url);
     }
 
     /**
@@ -605,11 +1060,8 @@ public class ImageViewNext extends ImageViewEx {
      */
     protected void onDiskCacheHit(byte[] image, String url) {
         if (BuildConfig.DEBUG) Log.i(TAG, "Disk cache HIT @" + hashCode());
-        onPreSuccess(image, url);
-
-        if (mLoadCallbacks != null) {
-            mLoadCallbacks.onLoadCompleted(this, CacheLevel.DISK);
-        }
+        onPreSuccess(image, url, CacheLevel.DISK);
+        revalidateIfStale(url);
     }
 
     /**
@@ -631,11 +1083,26 @@ public class ImageViewNext extends ImageViewEx {
      */
     protected void onNetworkHit(byte[] image, String url) {
         if (BuildConfig.DEBUG) Log.i(TAG, "Network HIT @" + hashCode());
-        onPreSuccess(image, url);
+        onPreSuccess(image, url, CacheLevel.NETWORK);
         hasFailedDownload = false;
+    }
 
-        if (mLoadCallbacks != null) {
-            mLoadCallbacks.onLoadCompleted(this, CacheLevel.NETWORK);
+    /**
+     * Called when a stale image, already displayed, has been revalidated
+     * and found to be changed on the network.
+     * Override this to get the appropriate callback.
+     *
+     * @param image The new image as a byte array.
+     * @param url   The URL of the retrieved image.
+     */
+    protected void onRevalidated(byte[] image, String url) {
+        if (BuildConfig.DEBUG) Log.i(TAG, "Revalidation: image changed @" + hashCode());
+        mReplacingSource = true;
+        try {
+            onPreSuccess(image, url, null);
+        }
+        finally {
+            mReplacingSource = false;
         }
     }
 
@@ -656,6 +1123,7 @@ public class ImageViewNext extends ImageViewEx {
      * Override this to get the appropriate callback.
      */
     protected void onMiss() {
+        mExpectedMetadata = null;
         Drawable errorDrawable = getErrorDrawable();
         if (getErrorDrawable() != null) {
             ScaleType scaleType = getScaleType();
@@ -683,10 +1151,338 @@ public class ImageViewNext extends ImageViewEx {
             if (scaleType != null) {
                 setScaleType(scaleType);
             }
-            setSource(image);
+            ImageMetadata metadata = getMetadata(mUrl);
+            String mimeType = null;
+            DecodingTag tag = null;
+            if (metadata != null) {
+                // The worker decoding these bytes gets their keys along with them
+                mimeType = metadata.getFormat().getMimeType();
+                tag = new DecodingTag(getDecodedKey(mUrl, metadata),
+                                      CacheHelper.getFramesKey(mUrl, metadata), metadata);
+            }
+            if (mReplacingSource) {
+                replaceSource(image, mimeType, tag);
+            }
+            else {
+                setSource(image, mimeType, tag);
+            }
+        }
+    }
+
+    /**
+     * Decodes a static image, sharing the decoded bitmap with the other views
+     * showing the same image and reusing pooled bitmaps when possible.
+     *
+     * @param src The byte array containing the image.
+     *
+     * @return The decoded image.
+     */
+    @Override
+    protected Drawable decodeDrawable(byte[] src) {
+        final DecodingTag tag = (DecodingTag) getDecodingTag();
+        final String key = tag != null ? tag.mDecodedKey : null;
+        if (key == null || mDecodedCache == null) {
+            holdPendingResource(null);
+            return super.decodeDrawable(src);
+        }
+
+        BitmapResource resource = mDecodedCache.acquire(key);
+        if (resource == null) {
+            Bitmap bitmap = ImageDecoders.decodeBitmap(src, getOptions(), mDecodedCache.getBitmapPool());
+            if (bitmap == null) {
+                holdPendingResource(null);
+                return new BitmapDrawable(getResources(), (Bitmap) null);
+            }
+            resource = mDecodedCache.put(key, bitmap);
+            final LoadTrace trace = mLoadTrace;
+            if (trace != null) trace.addAllocatedBytes(MemoryAccounting.getByteSize(bitmap));
+        }
+
+        if (!holdPendingResource(resource)) {
+            // A newer image has been set in the meantime: this one is dropped anyway
+            return new BitmapDrawable(getResources(), (Bitmap) null);
+        }
+        return new BitmapDrawable(getResources(), resource.getBitmap());
+    }
+
+    /**
+     * Decodes an animated image, sharing it with the other views showing
+     * the same image (see {@link SharedAnimations}), and replaying it from
+     * its transcoded frames if there are any (see {@link FrameCache}).
+     * {@inheritDoc}
+     */
+    @Override
+    protected AnimatedImage decodeAnimation(ImageDecoder decoder, byte[] src, ImageMetadata metadata) {
+        final DecodingTag tag = (DecodingTag) getDecodingTag();
+        final String key = tag != null ? tag.mDecodedKey : null;
+        AnimatedImage gif = key != null ? SharedAnimations.acquire(key) : null;
+        if (gif != null) return gif;
+
+        // Animations played frame by frame can be replayed from their transcoded frames
+        final String framesKey = tag != null ? tag.mFramesKey : null;
+        final boolean transcodable = framesKey != null && FrameCache.isEnabled() && decoder.supportsFrames();
+        gif = transcodable ? FrameCache.open(framesKey) : null;
+        if (gif == null) {
+            gif = super.decodeAnimation(decoder, src, metadata);
+            if (gif == null) return null;
+            if (transcodable) FrameCache.transcodeLater(framesKey, decoder, src);
+        }
+
+        final LoadTrace trace = mLoadTrace;
+        if (trace != null) trace.addAllocatedBytes(gif.getByteSize());
+        return key != null ? SharedAnimations.share(key, gif) : gif;
+    }
+
+    /**
+     * Measures how long decoding the image takes.
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSourceBlocking(byte[] src, String mimeType) {
+        if (src == null) {
+            super.setSourceBlocking(src, mimeType);
+            return;
+        }
+
+        final LoadTrace trace = mLoadTrace;
+        final long decodeStart = System.nanoTime();
+        if (trace != null) trace.mark(LoadTrace.Event.DECODE_STARTED, decodeStart);
+        super.setSourceBlocking(src, mimeType);
+        final long decodeEnd = System.nanoTime();
+        PipelineMetrics.recordLatency(PipelineMetrics.Stage.DECODE, decodeEnd - decodeStart);
+
+        if (trace != null) {
+            trace.mark(LoadTrace.Event.DECODED, decodeEnd);
+            // Animations are never downsampled, static images are measured when set
+            ImageMetadata metadata = getMetadata(trace.getUrl());
+            if (trace.getDecodedWidth() < 0 && metadata != null) {
+                trace.setDimensions(metadata.getWidth(), metadata.getHeight(),
+                                    metadata.getWidth(), metadata.getHeight());
+            }
         }
     }
 
+    /**
+     * Uses the metadata recorded when the image was cached, if it describes
+     * the very same bytes, instead of parsing them again.
+     * {@inheritDoc}
+     */
+    @Override
+    protected ImageMetadata getSourceMetadata(byte[] src) {
+        final DecodingTag tag = (DecodingTag) getDecodingTag();
+        final ImageMetadata metadata = tag != null ? tag.mMetadata : null;
+        // Variants and revalidated images are different bytes than the recorded ones
+        if (metadata != null && metadata.getByteSize() == src.length && metadata.getWidth() > 0) {
+            return metadata;
+        }
+        return super.getSourceMetadata(src);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected String getTraceLabel() {
+        final LoadTrace trace = mLoadTrace;
+        return trace != null ? trace.getLabel() : null;
+    }
+
+    /**
+     * Records the size of the decoded image into the trace of the load.
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setDecodedDrawable(Drawable drawable) {
+        final LoadTrace trace = mLoadTrace;
+        if (trace != null && drawable instanceof BitmapDrawable) {
+            Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+            if (bitmap != null) {
+                ImageMetadata metadata = getMetadata(trace.getUrl());
+                trace.setDimensions(metadata != null ? metadata.getWidth() : -1,
+                                    metadata != null ? metadata.getHeight() : -1,
+                                    bitmap.getWidth(), bitmap.getHeight());
+            }
+        }
+        super.setDecodedDrawable(drawable);
+    }
+
+    /**
+     * Measures how long it took to show the image since its URL was set,
+     * then reports the load as completed, with its trace filled in.
+     * {@inheritDoc}
+     */
+    @Override
+    protected void onSourceSet() {
+        super.onSourceSet();
+        final LoadTrace trace = mLoadTrace;
+        if (trace != null && trace.finish(LoadTrace.Outcome.BOUND)) {
+            PipelineMetrics.recordLatency(PipelineMetrics.Stage.BIND, trace.getTotalTime());
+        }
+
+        final CacheLevel level = mCompletedLevel;
+        mCompletedLevel = null;
+        if (level != null && mLoadCallbacks != null) {
+            mLoadCallbacks.onLoadCompleted(this, level);
+        }
+    }
+
+    /**
+     * Copies the timings measured by an operation into the trace of the load.
+     *
+     * @param resultData The result of the operation.
+     * @param started    The event of the operation starting.
+     */
+    private void traceOperation(Bundle resultData, LoadTrace.Event started) {
+        final LoadTrace trace = mLoadTrace;
+        if (trace == null || resultData == null) return;
+
+        traceTime(trace, started, resultData, ImageViewExRequestFactory.BUNDLE_EXTRA_OPERATION_START);
+        traceTime(trace, LoadTrace.Event.DISK_READ, resultData,
+                  ImageViewExRequestFactory.BUNDLE_EXTRA_DISK_READ_END);
+        traceTime(trace, LoadTrace.Event.NETWORK_RESPONSE, resultData,
+                  ImageViewExRequestFactory.BUNDLE_EXTRA_NETWORK_RESPONSE);
+        traceTime(trace, LoadTrace.Event.NETWORK_TRANSFERRED, resultData,
+                  ImageViewExRequestFactory.BUNDLE_EXTRA_NETWORK_TRANSFER_END);
+        if (resultData.containsKey(ImageViewExRequestFactory.BUNDLE_EXTRA_BYTES_TRANSFERRED)) {
+            trace.setBytesTransferred(resultData.getLong(ImageViewExRequestFactory.BUNDLE_EXTRA_BYTES_TRANSFERRED));
+        }
+    }
+
+    private static void traceTime(LoadTrace trace, LoadTrace.Event event, Bundle resultData, String key) {
+        if (resultData.containsKey(key)) {
+            trace.mark(event, resultData.getLong(key));
+        }
+    }
+
+    /**
+     * Keeps track of the decoded image being shown: the resource that was
+     * shown before is released as soon as it's replaced.
+     * {@inheritDoc}
+     */
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        super.setImageDrawable(drawable);
+        onDrawableChanged(drawable);
+    }
+
+    /**
+     * Holds the resource that's about to be shown, releasing the previous
+     * one, which has never been shown. If the calling thread has decoded a
+     * stale image (see {@link #isDecodingStaleSource()}), the resource is
+     * released instead, so that it can't replace the one of the newer image.
+     *
+     * @param resource The resource, already acquired, or null.
+     *
+     * @return true if the resource is held, false if it has been released.
+     */
+    private boolean holdPendingResource(BitmapResource resource) {
+        BitmapResource previous;
+        final boolean stale;
+        synchronized (this) {
+            // Checked under the lock, as setUrl discards the pending sources before releasing the resource
+            stale = isDecodingStaleSource();
+            if (stale) {
+                previous = resource;
+            }
+            else {
+                previous = mPendingResource;
+                mPendingResource = resource;
+            }
+        }
+        if (previous != null && (stale || previous != resource)) {
+            mDecodedCache.release(previous);
+        }
+        return !stale;
+    }
+
+    /**
+     * Updates the resource being shown, after the drawable has changed.
+     * This only happens on the UI thread, so the bitmap of the released
+     * resource is not drawn anymore.
+     *
+     * @param drawable The drawable that has just been set.
+     */
+    private void onDrawableChanged(Drawable drawable) {
+        // Called by the super constructor too, before anything is initialized
+        if (mDecodedCache == null) return;
+
+        BitmapResource shown = null;
+        BitmapResource unused = null;
+        synchronized (this) {
+            if (isShowing(drawable, mPendingResource)) {
+                shown = mPendingResource;
+                mPendingResource = null;
+            }
+            else if (isShowing(drawable, mResource)) {
+                shown = mResource;
+            }
+
+            if (mResource != shown) {
+                unused = mResource;
+                mResource = shown;
+            }
+        }
+        if (unused != null) {
+            mDecodedCache.release(unused);
+        }
+    }
+
+    private static boolean isShowing(Drawable drawable, BitmapResource resource) {
+        return resource != null && drawable instanceof BitmapDrawable
+               && ((BitmapDrawable) drawable).getBitmap() == resource.getBitmap();
+    }
+
+    /**
+     * Returns the key of a decoded image: it depends on the revision of the
+     * image, on the size of the processed variant, if any, and on the density
+     * it's decoded at.
+     *
+     * @param url      The URL of the image.
+     * @param metadata The metadata of the image.
+     *
+     * @return The key of the decoded image.
+     */
+    private String getDecodedKey(String url, ImageMetadata metadata) {
+        StringBuilder key = new StringBuilder(url).append("#decoded@").append(metadata.getRevision());
+        if (isVariantRequested()) {
+            key.append('/').append(mRequestVariantWidth).append('x').append(mRequestVariantHeight);
+        }
+        BitmapFactory.Options options = getOptions();
+        if (options != null && options.inScaled) {
+            key.append('/').append(options.inDensity).append(':').append(options.inTargetDensity);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the dimensions of the image being loaded, as recorded in the
+     * disk cache metadata index, so that the view can be measured before
+     * any byte is read. If a processed variant is requested, the dimensions
+     * are downsampled the same way the variant is.
+     *
+     * @return The expected width and height of the image, or null if unknown.
+     */
+    @Override
+    protected int[] getExpectedContentSize() {
+        final ImageMetadata metadata = mExpectedMetadata;
+        if (metadata == null || metadata.getWidth() <= 0 || metadata.getHeight() <= 0) {
+            return null;
+        }
+
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+
+        // Animated images are never downsampled when they can be played
+        if (isVariantRequested() && !(metadata.isAnimated() && internalCanAnimate())) {
+            int inSampleSize = Converters.calculateInSampleSize(
+                width, height, mRequestVariantWidth, mRequestVariantHeight);
+            if (inSampleSize > 1) {
+                width /= inSampleSize;
+                height /= inSampleSize;
+            }
+        }
+
+        return new int[] {width, height};
+    }
+
     /**
      * Returns the maximum number of concurrent worker threads
      * used to get images from cache/network.
@@ -712,12 +1508,50 @@ public class ImageViewNext extends ImageViewEx {
         mConcurrentThreads = concurrentThreads;
     }
 
+    /**
+     * What the worker decoding an image needs to know about it, captured
+     * with the bytes when they are set (see {@link ImageViewEx#getDecodingTag()}).
+     *
+     * @author Francesco Pontillo
+     */
+    private static final class DecodingTag {
+        final String mDecodedKey;
+        final String mFramesKey;
+        final ImageMetadata mMetadata;
+
+        DecodingTag(String decodedKey, String framesKey, ImageMetadata metadata) {
+            mDecodedKey = decodedKey;
+            mFramesKey = framesKey;
+            mMetadata = metadata;
+        }
+    }
+
+    /**
+     * Operation listener bound to the load it has been started for: its
+     * results are ignored once another load has started in the meantime.
+     *
+     * @author Francesco Pontillo
+     */
+    private abstract class LoadRequestListener extends ImageViewExRequestListener {
+        private final LoadTrace mTrace;
+
+        public LoadRequestListener(ImageViewNext imageViewNext) {
+            super(imageViewNext);
+            mTrace = mLoadTrace;
+        }
+
+        /** @return true if another load has started since this listener was created. */
+        protected boolean isStale() {
+            return mTrace != mLoadTrace;
+        }
+    }
+
     /**
      * Operation listener for the disk cache retrieval operation.
      *
      * @author Francesco Pontillo
      */
-    private class ImageDiskCacheListener extends ImageViewExRequestListener {
+    private class ImageDiskCacheListener extends LoadRequestListener {
 
         public ImageDiskCacheListener(ImageViewNext imageViewNext) {
             super(imageViewNext);
@@ -725,35 +1559,44 @@ public class ImageViewNext extends ImageViewEx {
 
         @Override
         public void onRequestFinished(Request request, Bundle resultData) {
+            PipelineMetrics.onRequestAnswered(request);
+            if (isStale()) return;
             byte[] image =
                 resultData.getByteArray(ImageViewExRequestFactory.BUNDLE_EXTRA_OBJECT);
             String url =
                 resultData.getString(ImageViewExRequestFactory.BUNDLE_EXTRA_IMAGE_URL);
+            traceOperation(resultData, LoadTrace.Event.DISK_STARTED);
             if (image == null) {
                 handleMiss();
             }
             else {
+                mLoadTrace.setSource("disk", image.length);
+                mLoadTrace.addAllocatedBytes(image.length);
                 mImageViewNext.onDiskCacheHit(image, url);
             }
         }
 
         @Override
         public void onRequestConnectionError(Request request, int statusCode) {
+            PipelineMetrics.onRequestAnswered(request);
             handleMiss();
         }
 
         @Override
         public void onRequestDataError(Request request) {
+            PipelineMetrics.onRequestAnswered(request);
             handleMiss();
         }
 
         @Override
         public void onRequestCustomError(Request request, Bundle resultData) {
+            PipelineMetrics.onRequestAnswered(request);
             handleMiss();
         }
 
         /** Generic function to handle the cache miss. */
         private void handleMiss() {
+            if (isStale()) return;
             // Calls the class callback
             mImageViewNext.onDiskCacheMiss();
             // Starts searching in the network
@@ -767,7 +1610,7 @@ public class ImageViewNext extends ImageViewEx {
      *
      * @author Francesco Pontillo
      */
-    private class ImageDownloadListener extends ImageViewExRequestListener {
+    private class ImageDownloadListener extends LoadRequestListener {
 
         public ImageDownloadListener(ImageViewNext imageViewNext) {
             super(imageViewNext);
@@ -775,39 +1618,90 @@ public class ImageViewNext extends ImageViewEx {
 
         @Override
         public void onRequestFinished(Request request, Bundle resultData) {
+            PipelineMetrics.onRequestAnswered(request);
+            if (isStale()) return;
             byte[] image =
                 resultData.getByteArray(ImageViewExRequestFactory.BUNDLE_EXTRA_OBJECT);
             String url =
                 resultData.getString(ImageViewExRequestFactory.BUNDLE_EXTRA_IMAGE_URL);
+            traceOperation(resultData, LoadTrace.Event.NETWORK_STARTED);
             if (image == null || image.length == 0) {
                 handleMiss();
             }
             else {
+                mLoadTrace.setSource("network", image.length);
+                mLoadTrace.addAllocatedBytes(image.length);
                 mImageViewNext.onNetworkHit(image, url);
             }
         }
 
         @Override
         public void onRequestConnectionError(Request request, int statusCode) {
+            PipelineMetrics.onRequestAnswered(request);
             handleMiss();
         }
 
         @Override
         public void onRequestDataError(Request request) {
+            PipelineMetrics.onRequestAnswered(request);
             handleMiss();
         }
 
         @Override
         public void onRequestCustomError(Request request, Bundle resultData) {
+            PipelineMetrics.onRequestAnswered(request);
             handleMiss();
         }
 
         /** Generic function to handle the network miss. */
         private void handleMiss() {
+            if (isStale()) return;
             // Calls the class callback
             mImageViewNext.onNetworkMiss();
             // Calss the final miss class callback
             mImageViewNext.onMiss();
+            mLoadTrace.finish(LoadTrace.Outcome.FAILED);
+        }
+    }
+
+    /**
+     * Operation listener for the revalidation of stale images.
+     * Errors are ignored, as the stale image is already displayed.
+     *
+     * @author Francesco Pontillo
+     */
+    private class ImageRevalidateListener extends LoadRequestListener {
+
+        public ImageRevalidateListener(ImageViewNext imageViewNext) {
+            super(imageViewNext);
+        }
+
+        @Override
+        public void onRequestFinished(Request request, Bundle resultData) {
+            PipelineMetrics.onRequestAnswered(request);
+            if (isStale()) return;
+            byte[] image =
+                resultData.getByteArray(ImageViewExRequestFactory.BUNDLE_EXTRA_OBJECT);
+            String url =
+                resultData.getString(ImageViewExRequestFactory.BUNDLE_EXTRA_IMAGE_URL);
+            if (image != null && image.length > 0) {
+                mImageViewNext.onRevalidated(image, url);
+            }
+        }
+
+        @Override
+        public void onRequestConnectionError(Request request, int statusCode) {
+            PipelineMetrics.onRequestAnswered(request);
+        }
+
+        @Override
+        public void onRequestDataError(Request request) {
+            PipelineMetrics.onRequestAnswered(request);
+        }
+
+        @Override
+        public void onRequestCustomError(Request request, Bundle resultData) {
+            PipelineMetrics.onRequestAnswered(request);
         }
     }
 
@@ -828,6 +1722,8 @@ public class ImageViewNext extends ImageViewEx {
         /**
          * Loading of a resource has been completed. This corresponds to a cache HIT
          * for the memory and disk cache levels, or a successful download from the net.
+         * It's called once the image has been decoded and set into the view, so that
+         * the trace of the load (see {@link ImageViewNext#getLoadTrace()}) is complete.
          *
          * @param v     The ImageViewNext on which the loading has completed
          * @param level The cache level involved. You will receive a pair of calls, one
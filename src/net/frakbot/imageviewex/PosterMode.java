@@ -0,0 +1,208 @@
+package net.frakbot.imageviewex;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.widget.AbsListView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps the animated GIFs from competing with scrolling for the CPU.
+ * While the list they're in is scrolling, the {@link ImageViewEx}s that
+ * would play an animation (see {@link ImageViewEx#canAnimate()}) only show
+ * its first frame, decoded at the size of the view, as a still poster.
+ * As soon as scrolling stops, the views showing a poster that are visible
+ * enough decode the full animation and start playing it.
+ * <p/>
+ * The mode is disabled by default. Lists report their scroll state through
+ * a {@link ScrollListener}, or any other scrolling container through
+ * {@link #setScrolling(boolean)}.
+ * <p/>
+ * It's abstract and all of its methods are static; it must be used from
+ * the main thread, except for {@link #register(ImageViewEx)} and
+ * {@link #unregister(ImageViewEx)}.
+ *
+ * @author Francesco Pontillo
+ */
+public abstract class PosterMode {
+
+    private static final float DEFAULT_MIN_VISIBLE_FRACTION = 0.5f;
+
+    private static final Map<ImageViewEx, Boolean> mPosters = new WeakHashMap<ImageViewEx, Boolean>();
+    private static final Handler mHandler = new Handler(Looper.getMainLooper());
+    private static final Runnable mPromotion = new Runnable() {
+        @Override
+        public void run() {
+            promote();
+        }
+    };
+
+    private static volatile boolean mEnabled = false;
+    private static volatile boolean mScrolling = false;
+    private static volatile float mMinVisibleFraction = DEFAULT_MIN_VISIBLE_FRACTION;
+
+    /**
+     * Reports the scroll state of an {@link AbsListView} to the poster mode,
+     * then forwards it to another listener, if any.
+     */
+    public static class ScrollListener implements AbsListView.OnScrollListener {
+        private final AbsListView.OnScrollListener mDelegate;
+
+        /** Creates a listener that only reports the scroll state. */
+        public ScrollListener() {
+            this(null);
+        }
+
+        /**
+         * Creates a listener that reports the scroll state, then forwards it.
+         *
+         * @param delegate The listener to forward the scroll events to, or null.
+         */
+        public ScrollListener(AbsListView.OnScrollListener delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState) {
+            setScrolling(scrollState != SCROLL_STATE_IDLE);
+            if (mDelegate != null) {
+                mDelegate.onScrollStateChanged(view, scrollState);
+            }
+        }
+
+        @Override
+        public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+            if (mDelegate != null) {
+                mDelegate.onScroll(view, firstVisibleItem, visibleItemCount, totalItemCount);
+            }
+        }
+    }
+
+    /**
+     * Enables or disables the poster mode. When disabled, the animations
+     * are always decoded and played straight away. Disabled by default.
+     *
+     * @param enabled true to show posters while scrolling.
+     */
+    public static void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) schedulePromotion();
+    }
+
+    /** @return true if the poster mode is enabled. */
+    public static boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Reports whether the container of the views is scrolling. When it stops,
+     * the views showing a poster that are visible enough start playing.
+     *
+     * @param scrolling true if scrolling, false if settled.
+     */
+    public static void setScrolling(boolean scrolling) {
+        if (mScrolling == scrolling) return;
+        mScrolling = scrolling;
+        if (!scrolling) schedulePromotion();
+    }
+
+    /** @return true if the container of the views is scrolling. */
+    public static boolean isScrolling() {
+        return mScrolling;
+    }
+
+    /**
+     * Sets how much of a view must be visible, once scrolling stops, for its
+     * animation to be played. Defaults to a half.
+     *
+     * @param fraction The fraction of the area of the view, between 0 and 1.
+     */
+    public static void setMinVisibleFraction(float fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("The fraction must be between 0 and 1.");
+        }
+        mMinVisibleFraction = fraction;
+    }
+
+    /** @return How much of a view must be visible for its animation to be played. */
+    public static float getMinVisibleFraction() {
+        return mMinVisibleFraction;
+    }
+
+    /** @return The number of views showing a poster instead of their animation. */
+    public static int getPosterCount() {
+        synchronized (mPosters) {
+            return mPosters.size();
+        }
+    }
+
+    /** @return true if the animations being decoded right now should be shown as posters instead. */
+    static boolean isShowingPosters() {
+        return mEnabled && mScrolling;
+    }
+
+    /**
+     * Starts tracking a view showing a poster. Called by the views themselves.
+     *
+     * @param view The view.
+     */
+    static void register(ImageViewEx view) {
+        synchronized (mPosters) {
+            mPosters.put(view, Boolean.TRUE);
+        }
+        // Scrolling might have stopped while the poster was being decoded
+        if (!isShowingPosters()) schedulePromotion();
+    }
+
+    /**
+     * Stops tracking a view, when it doesn't show a poster anymore. Called by the views themselves.
+     *
+     * @param view The view.
+     */
+    static void unregister(ImageViewEx view) {
+        synchronized (mPosters) {
+            mPosters.remove(view);
+        }
+    }
+
+    private static void schedulePromotion() {
+        mHandler.removeCallbacks(mPromotion);
+        mHandler.post(mPromotion);
+    }
+
+    /**
+     * Starts playing the animations of the views showing a poster that are
+     * visible enough. Runs on the main thread, as it reads the position of the views.
+     */
+    private static void promote() {
+        if (isShowingPosters()) return;
+
+        final List<ImageViewEx> views = new ArrayList<ImageViewEx>();
+        synchronized (mPosters) {
+            for (ImageViewEx view : mPosters.keySet()) {
+                if (view != null) views.add(view);
+            }
+        }
+
+        final Rect rect = new Rect();
+        for (ImageViewEx view : views) {
+            // When disabled, all the posters are played, wherever they are
+            if (!mEnabled || isVisibleEnough(view, rect)) {
+                unregister(view);
+                view.playPoster();
+            }
+        }
+    }
+
+    private static boolean isVisibleEnough(View view, Rect rect) {
+        if (!view.isShown() || !view.getGlobalVisibleRect(rect)) return false;
+
+        final long area = (long) view.getWidth() * view.getHeight();
+        return area > 0 && (long) rect.width() * rect.height() >= mMinVisibleFraction * area;
+    }
+}
@@ -0,0 +1,160 @@
+package net.frakbot.imageviewex;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Process;
+import net.frakbot.cache.CacheTrimmer;
+import net.frakbot.cache.ConcurrentMemoryCache;
+import net.frakbot.cache.MemoryCache;
+import net.frakbot.imageviewex.metrics.MemoryAccounting;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Helper for the tiled decoding of very large static images (e.g. long
+ * infographics or panoramas), which would take too much memory, or fail,
+ * if decoded whole. Those images are shown by a {@link TiledDrawable}:
+ * only the tiles being drawn are decoded, on a background pool, at the
+ * sample size matching the current zoom, and kept in a single LRU cache
+ * shared by all the images, so that memory stays bounded no matter how
+ * large the images are.
+ * <p/>
+ * Tiled decoding needs Android 2.3.3 (API level 10), for JPEG and PNG
+ * images only. It's disabled by default. It's abstract and all of its
+ * methods are static.
+ *
+ * @author Francesco Pontillo
+ */
+public abstract class TiledDecoding {
+
+    private static final int DECODER_THREADS = 2;
+
+    private static volatile boolean mEnabled = false;
+    private static volatile long mThreshold = Runtime.getRuntime().maxMemory() / 16;
+    private static volatile int mTileCacheSize = (int) (Runtime.getRuntime().maxMemory() / 16);
+    private static ConcurrentMemoryCache<String, Bitmap> mTileCache;
+    private static final ExecutorService mDecoderExecutor = createExecutor();
+
+    /**
+     * Enables or disables the tiled decoding. Disabled by default.
+     *
+     * @param enabled true to decode the images larger than the threshold by tiles.
+     */
+    public static void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /** @return true if the tiled decoding is enabled. */
+    public static boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Sets the decoded size above which the images are decoded by tiles.
+     * Defaults to 1/16 of the maximum heap size.
+     *
+     * @param bytes The threshold, in bytes of 32 bit pixels.
+     */
+    public static void setThreshold(long bytes) {
+        mThreshold = bytes;
+    }
+
+    /** @return The decoded size above which the images are decoded by tiles, in bytes. */
+    public static long getThreshold() {
+        return mThreshold;
+    }
+
+    /**
+     * Sets how much memory the decoded tiles of all the images can take.
+     * It must be called before any image is decoded by tiles.
+     * Defaults to 1/16 of the maximum heap size.
+     *
+     * @param bytes The size of the tile cache, in bytes.
+     */
+    public static synchronized void setTileCacheSize(int bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("The size of the tile cache must be greater than zero.");
+        }
+        if (mTileCache != null) {
+            throw new IllegalStateException("The tile cache has already been created.");
+        }
+        mTileCacheSize = bytes;
+    }
+
+    /** @return How much memory the decoded tiles of all the images can take, in bytes. */
+    public static int getTileCacheSize() {
+        return mTileCacheSize;
+    }
+
+    /**
+     * Checks whether an image has to be decoded by tiles.
+     *
+     * @param format The format of the image.
+     * @param width  The width of the image, in pixels.
+     * @param height The height of the image, in pixels.
+     *
+     * @return true if tiled decoding is enabled and available, and the image is larger than the threshold.
+     */
+    public static boolean shouldTile(ImageFormat format, int width, int height) {
+        return mEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1
+               && (format == ImageFormat.JPEG || format == ImageFormat.PNG)
+               && 4L * Math.max(width, 0) * Math.max(height, 0) > mThreshold;
+    }
+
+    /**
+     * Gets the cache of the decoded tiles, creating it the first time.
+     *
+     * @param context Any Context of the application, to trim the cache when memory is low.
+     *
+     * @return The tile cache.
+     */
+    static synchronized MemoryCache<String, Bitmap> getTileCache(Context context) {
+        if (mTileCache == null) {
+            mTileCache = new ConcurrentMemoryCache<String, Bitmap>(mTileCacheSize) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    return (int) MemoryAccounting.getByteSize(value);
+                }
+            };
+            CacheTrimmer.from(context).register(mTileCache);
+        }
+        return mTileCache;
+    }
+
+    /**
+     * Decodes a tile on the background pool.
+     *
+     * @param task The decoding task.
+     */
+    static void execute(Runnable task) {
+        mDecoderExecutor.execute(task);
+    }
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            DECODER_THREADS, DECODER_THREADS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int mCount = 0;
+
+            @Override
+            public synchronized Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "IVX-tiles-" + ++mCount);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
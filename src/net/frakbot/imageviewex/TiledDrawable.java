@@ -0,0 +1,310 @@
+package net.frakbot.imageviewex;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import net.frakbot.cache.MemoryCache;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Draws a very large static image by tiles (see {@link TiledDecoding}).
+ * Each time it's drawn, it works out which part of the image is visible
+ * and at which scale, then draws the tiles covering that part, decoded at
+ * the largest sample size that doesn't lose any detail at that scale.
+ * The tiles that haven't been decoded yet are requested to the background
+ * pool, and meanwhile the same area of a low resolution copy of the whole
+ * image, decoded up front, is drawn in their place.
+ * <p/>
+ * The intrinsic size of the drawable is the size of the image, so any
+ * {@link android.widget.ImageView.ScaleType} or image matrix can be used
+ * to zoom and pan it.
+ * <p/>
+ * The drawable holds a native region decoder: call {@link #recycle()} once
+ * it's not shown anymore ({@link ImageViewEx} does it when it's replaced).
+ *
+ * @author Francesco Pontillo
+ */
+@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+public class TiledDrawable extends Drawable {
+    private static final String TAG = TiledDrawable.class.getSimpleName();
+
+    // The size of a tile, in pixels of the decoded tile
+    private static final int TILE_SIZE = 256;
+
+    // The largest side of the low resolution copy, so that it fits into a texture
+    private static final int MAX_PREVIEW_SIZE = 2048;
+
+    private static final AtomicInteger mIds = new AtomicInteger();
+
+    private final BitmapRegionDecoder mDecoder;
+    private final MemoryCache<String, Bitmap> mTileCache;
+    private final int mId = mIds.incrementAndGet();
+    private final int mWidth;
+    private final int mHeight;
+    private final Bitmap mPreview;
+    private final int mPreviewSampleSize;
+
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mInvalidation = new Runnable() {
+        @Override
+        public void run() {
+            invalidateSelf();
+        }
+    };
+
+    // The tiles being decoded, and the ones wanted by the last draw: the others aren't decoded at all
+    private final Set<String> mPending = new HashSet<String>();
+    private final Rect mWanted = new Rect();
+    private int mWantedSampleSize;
+
+    // Guards the decoder, so that it's never recycled while decoding a tile
+    private final Object mDecoderLock = new Object();
+    private boolean mRecycled;
+
+    // Only accessed by the UI thread, while drawing
+    private final Matrix mMatrix = new Matrix();
+    private final float[] mValues = new float[9];
+    private final Rect mImage = new Rect();
+    private final Rect mClip = new Rect();
+    private final Rect mVisible = new Rect();
+    private final Rect mTile = new Rect();
+    private final Rect mPreviewTile = new Rect();
+
+    /**
+     * Opens an image to be drawn by tiles, and decodes its low resolution
+     * copy, so it's better called on a worker thread.
+     *
+     * @param context       Any Context of the application.
+     * @param data          The byte array containing the image.
+     * @param previewPixels The number of pixels the low resolution copy of the image can take, at most.
+     *
+     * @return The drawable, or null if the image can't be decoded by tiles.
+     */
+    public static TiledDrawable open(Context context, byte[] data, int previewPixels) {
+        try {
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+            if (decoder == null) return null;
+            return new TiledDrawable(decoder, TiledDecoding.getTileCache(context), previewPixels);
+        }
+        catch (IOException e) {
+            Log.w(TAG, "The image can't be decoded by tiles", e);
+            return null;
+        }
+        catch (IllegalArgumentException e) {
+            Log.w(TAG, "The image can't be decoded by tiles", e);
+            return null;
+        }
+    }
+
+    private TiledDrawable(BitmapRegionDecoder decoder, MemoryCache<String, Bitmap> tileCache, int previewPixels) {
+        mDecoder = decoder;
+        mTileCache = tileCache;
+        mWidth = decoder.getWidth();
+        mHeight = decoder.getHeight();
+        mImage.set(0, 0, mWidth, mHeight);
+
+        int sampleSize = 1;
+        while ((long) (mWidth / sampleSize) * (mHeight / sampleSize) > previewPixels
+               || mWidth / sampleSize > MAX_PREVIEW_SIZE || mHeight / sampleSize > MAX_PREVIEW_SIZE) {
+            sampleSize *= 2;
+        }
+        mPreviewSampleSize = sampleSize;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap preview = decoder.decodeRegion(mImage, options);
+        if (preview == null) {
+            throw new IllegalArgumentException("The image has no pixels that can be decoded");
+        }
+        mPreview = preview;
+    }
+
+    /**
+     * Releases the region decoder. The low resolution copy of the image is
+     * still drawn afterwards, along with the tiles already decoded, but no
+     * more tiles are decoded.
+     */
+    public void recycle() {
+        synchronized (mDecoderLock) {
+            if (mRecycled) return;
+            mRecycled = true;
+            mDecoder.recycle();
+        }
+    }
+
+    /** @return true if {@link #recycle()} has been called. */
+    public boolean isRecycled() {
+        synchronized (mDecoderLock) {
+            return mRecycled;
+        }
+    }
+
+    /** @return The low resolution copy of the whole image, drawn until the tiles are decoded. */
+    public Bitmap getPreview() {
+        return mPreview;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mHeight;
+    }
+
+    // Canvas.getMatrix is deprecated because the matrix of a hardware accelerated canvas is implementation
+    // defined: it may leave out the transformations of the parents of the view. It always includes the image
+    // matrix and the scale type, though, which are applied within the view, and a missing scale down only
+    // makes the tiles finer than needed, so it's good enough to pick the sample size.
+    @SuppressWarnings("deprecation")
+    @Override
+    public void draw(Canvas canvas) {
+        final Rect bounds = getBounds();
+        if (bounds.isEmpty() || !canvas.getClipBounds(mClip)) return;
+
+        // The scale of the image on the screen, with the bounds stretching it too
+        final float scaleX = (float) bounds.width() / mWidth;
+        final float scaleY = (float) bounds.height() / mHeight;
+        canvas.getMatrix(mMatrix);
+        mMatrix.getValues(mValues);
+        final double scale = Math.hypot(mValues[Matrix.MSCALE_X], mValues[Matrix.MSKEW_Y]) * scaleX;
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2;
+        }
+
+        // The visible part of the image, in pixels of the image
+        mVisible.set((int) Math.floor((mClip.left - bounds.left) / scaleX),
+                     (int) Math.floor((mClip.top - bounds.top) / scaleY),
+                     (int) Math.ceil((mClip.right - bounds.left) / scaleX),
+                     (int) Math.ceil((mClip.bottom - bounds.top) / scaleY));
+        if (!mVisible.intersect(mImage)) return;
+
+        int saveCnt = canvas.save(Canvas.MATRIX_SAVE_FLAG);
+        canvas.translate(bounds.left, bounds.top);
+        canvas.scale(scaleX, scaleY);
+
+        final boolean tiled = sampleSize < mPreviewSampleSize;
+        synchronized (mPending) {
+            mWanted.set(mVisible);
+            mWantedSampleSize = tiled ? sampleSize : 0;
+        }
+        if (tiled) {
+            drawTiles(canvas, sampleSize);
+        }
+        else {
+            // The low resolution copy has all the detail that can be seen
+            canvas.drawBitmap(mPreview, null, mImage, mPaint);
+        }
+
+        canvas.restoreToCount(saveCnt);
+    }
+
+    /** Draws the visible tiles, in pixels of the image, requesting the missing ones. */
+    private void drawTiles(Canvas canvas, int sampleSize) {
+        final int span = TILE_SIZE * sampleSize;
+        for (int row = mVisible.top / span; row * span < mVisible.bottom; row++) {
+            for (int col = mVisible.left / span; col * span < mVisible.right; col++) {
+                mTile.set(col * span, row * span, Math.min((col + 1) * span, mWidth),
+                          Math.min((row + 1) * span, mHeight));
+
+                final String key = getTileKey(sampleSize, col, row);
+                final Bitmap tile = mTileCache.get(key);
+                if (tile != null) {
+                    canvas.drawBitmap(tile, null, mTile, mPaint);
+                }
+                else {
+                    mPreviewTile.set(mTile.left / mPreviewSampleSize, mTile.top / mPreviewSampleSize,
+                                     mTile.right / mPreviewSampleSize, mTile.bottom / mPreviewSampleSize);
+                    canvas.drawBitmap(mPreview, mPreviewTile, mTile, mPaint);
+                    requestTile(key, sampleSize, new Rect(mTile));
+                }
+            }
+        }
+    }
+
+    /** Decodes a tile on the background pool, unless it's being decoded already. */
+    private void requestTile(final String key, final int sampleSize, final Rect region) {
+        if (isRecycled()) return;
+        synchronized (mPending) {
+            if (!mPending.add(key)) return;
+        }
+
+        TiledDecoding.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // Tiles scrolled or zoomed away in the meantime are not needed anymore
+                    if (!isWanted(sampleSize, region)) return;
+
+                    BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inSampleSize = sampleSize;
+                    Bitmap tile;
+                    synchronized (mDecoderLock) {
+                        if (mRecycled) return;
+                        tile = mDecoder.decodeRegion(region, options);
+                    }
+                    if (tile == null) return;
+
+                    mTileCache.put(key, tile);
+                    mHandler.removeCallbacks(mInvalidation);
+                    mHandler.post(mInvalidation);
+                }
+                catch (Exception e) {
+                    Log.w(TAG, "The tile " + key + " can't be decoded", e);
+                }
+                finally {
+                    synchronized (mPending) {
+                        mPending.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
+    private boolean isWanted(int sampleSize, Rect region) {
+        synchronized (mPending) {
+            return sampleSize == mWantedSampleSize && Rect.intersects(mWanted, region);
+        }
+    }
+
+    private String getTileKey(int sampleSize, int col, int row) {
+        return mId + "@" + sampleSize + "/" + col + "," + row;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mPaint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter cf) {
+        mPaint.setColorFilter(cf);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+}
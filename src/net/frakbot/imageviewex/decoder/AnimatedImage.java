@@ -0,0 +1,82 @@
+package net.frakbot.imageviewex.decoder;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+/**
+ * A decoded animated image, as played by ImageViewEx: given a time within
+ * the loop of the animation, it draws the matching frame.
+ *
+ * @author Francesco Pontillo
+ */
+public abstract class AnimatedImage {
+
+    /** @return The width of the image, in pixels. */
+    public abstract int getWidth();
+
+    /** @return The height of the image, in pixels. */
+    public abstract int getHeight();
+
+    /** @return The duration of a single loop of the animation, in milliseconds, or 0 if unknown. */
+    public abstract int getDuration();
+
+    /** @return The estimated memory retained by the image, in bytes. */
+    public abstract long getByteSize();
+
+    /**
+     * @return true if any frame can be drawn at any time, so that several
+     *         views can play the image at different positions.
+     */
+    public boolean isSeekable() {
+        return false;
+    }
+
+    /** @return The image actually holding the frames, for images wrapping another one. */
+    public AnimatedImage getSource() {
+        return this;
+    }
+
+    /**
+     * Releases the resources held by the image (e.g. the files its frames
+     * are read from) once no view plays it anymore. The image may still be
+     * drawn afterwards, but it won't advance. Does nothing by default.
+     */
+    public void release() {
+    }
+
+    /**
+     * Draws the frame shown at the given time. Called on the UI thread.
+     *
+     * @param canvas The canvas to draw onto.
+     * @param x      The horizontal position of the image.
+     * @param y      The vertical position of the image.
+     * @param time   The time within the loop of the animation, in milliseconds.
+     */
+    public abstract void draw(Canvas canvas, float x, float y, int time);
+
+    /**
+     * Identifies the frame drawn by the last call to {@link #draw(Canvas, float, float, int)},
+     * to be passed to {@link #getChangedBounds(int, int, Rect)}.
+     *
+     * @return The id of the frame, or -1 if frames can't be told apart.
+     */
+    public int getDrawnFrame() {
+        return -1;
+    }
+
+    /**
+     * Computes the area of the image that changes from a frame already drawn
+     * to the frame to be drawn at the given time, so that only that area is
+     * redrawn. By default, the whole image changes. Called on the UI thread.
+     *
+     * @param drawnFrame The id of the frame drawn last (see {@link #getDrawnFrame()}), or -1.
+     * @param time       The time within the loop of the animation, in milliseconds.
+     * @param bounds     Set to the changed area, in pixels of the image.
+     *
+     * @return true if anything changes, false if the same frame would be drawn.
+     */
+    public boolean getChangedBounds(int drawnFrame, int time, Rect bounds) {
+        bounds.set(0, 0, getWidth(), getHeight());
+        return true;
+    }
+}
@@ -0,0 +1,42 @@
+package net.frakbot.imageviewex.decoder;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import net.frakbot.cache.BitmapPool;
+import net.frakbot.cache.ImageMetadata;
+import net.frakbot.imageviewex.Converters;
+import net.frakbot.imageviewex.ImageFormat;
+
+/**
+ * The framework {@link BitmapFactory} decoder, for every static image
+ * and for the first frame of the animated ones.
+ *
+ * @author Francesco Pontillo
+ */
+public class BitmapFactoryDecoder extends ImageDecoder {
+
+    @Override
+    public boolean handles(ImageFormat format) {
+        return true;
+    }
+
+    @Override
+    public boolean isAnimated() {
+        return false;
+    }
+
+    @Override
+    public long estimateMemoryCost(ImageMetadata metadata) {
+        return 4L * Math.max(metadata.getWidth(), 0) * Math.max(metadata.getHeight(), 0);
+    }
+
+    @Override
+    public boolean supportsDownsampling() {
+        return true;
+    }
+
+    @Override
+    public Bitmap decodeBitmap(byte[] data, BitmapFactory.Options opts, BitmapPool pool) {
+        return Converters.byteArrayToBitmap(data, opts, pool);
+    }
+}
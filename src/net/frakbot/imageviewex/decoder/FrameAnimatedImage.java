@@ -0,0 +1,516 @@
+package net.frakbot.imageviewex.decoder;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Process;
+import android.os.SystemClock;
+import net.frakbot.cache.TrimmableCache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An animated image played by a {@link FrameDecoder}, which decodes the next
+ * frames ahead of time on a background thread, into a ring of reused bitmaps.
+ * Drawing never decodes anything: it shows the latest ready frame, and the
+ * frames that are ready too late are skipped rather than stalling the UI.
+ * <p/>
+ * The ring holds the shown frame plus up to {@link #setLookAhead(int) K}
+ * frames ahead, as long as it fits into its share of the global
+ * {@link #setMemoryBudget(long) memory budget}: the more images are being
+ * drawn, the shorter their rings become (down to two frames).
+ * <p/>
+ * The rings can be shrunk when the system asks for memory, by registering
+ * {@link #getTrimmer()} to a {@link net.frakbot.cache.CacheTrimmer}: the budget
+ * is lowered for a while, and the rings are trimmed right away. When the
+ * budget is cut to a quarter or less, rings keep the shown frame only, so the
+ * animations hold still until the budget is restored.
+ * <p/>
+ * Decoders that hold files open (e.g. {@link TranscodedFrameDecoder}) are
+ * {@link Closeable}, and are closed when the image is {@link #release() released}.
+ *
+ * @author Francesco Pontillo
+ */
+public class FrameAnimatedImage extends AnimatedImage {
+
+    private static final int MIN_RING_SIZE = 2;
+    private static final int DEFAULT_LOOK_AHEAD = 4;
+    private static final int DECODER_THREADS = 2;
+
+    // Stale frames skipped in a row before one is shown anyway, when decoding can't keep up
+    private static final int MAX_SKIPPED_IN_A_ROW = 8;
+
+    // The number of frames whose changed bounds are remembered
+    private static final int DIRTY_HISTORY_SIZE = 32;
+
+    // Images that haven't been drawn for this long don't count against the budget
+    private static final long ACTIVE_TIMEOUT_MS = 1000;
+
+    // The budget stays lowered for this long after the system asked for memory
+    private static final long TRIM_TIMEOUT_MS = 30 * 1000;
+
+    private static volatile int mLookAhead = DEFAULT_LOOK_AHEAD;
+    private static volatile long mMemoryBudget = Runtime.getRuntime().maxMemory() / 16;
+    private static volatile long mTrimmedBudget;
+    private static volatile long mTrimmedUntil;
+    private static final RingTrimmer mTrimmer = new RingTrimmer();
+    private static final Map<FrameAnimatedImage, Boolean> mImages = new WeakHashMap<FrameAnimatedImage, Boolean>();
+    private static final ExecutorService mDecoderExecutor = createExecutor();
+
+    /** A bitmap of the ring, with the time span of the frame it holds. */
+    private static class Frame {
+        final Bitmap mBitmap;
+        final Rect mDirty = new Rect();
+        int mSequence;
+        long mStart;
+        long mEnd;
+
+        Frame(Bitmap bitmap) {
+            mBitmap = bitmap;
+        }
+    }
+
+    private final FrameDecoder mDecoder;
+    private final int mDuration;
+    private final int mFrameBytes;
+
+    // Ready frames in playback order, the shown one first; and the free bitmaps
+    private final List<Frame> mReady = new ArrayList<Frame>();
+    private final List<Frame> mFree = new ArrayList<Frame>();
+    private int mRingSize = MIN_RING_SIZE;
+    private boolean mDecoding;
+    private boolean mReleased;
+    private int mSkippedFrames;
+
+    // Frames are numbered as they're added to the ring, and the area each one
+    // changes is remembered; drawing never goes past the pinned frame, if any
+    private int mSequence;
+    private final Rect[] mDirtyHistory = new Rect[DIRTY_HISTORY_SIZE];
+    private int mPinnedSequence = -1;
+
+    // Only accessed by the decoding task: the timeline of the decoded frames
+    private long mDecodedEnd;
+    private long mDecodedLoopStart;
+
+    // Only accessed by the UI thread: the timeline of the animation
+    private int mLastTime = -1;
+    private long mLoopStart;
+    private volatile long mPlaybackTime;
+    private volatile long mLastDrawTime;
+
+    /**
+     * Creates the image and decodes its first frame, so it's better called
+     * on a worker thread.
+     *
+     * @param decoder  The decoder, positioned before its first frame.
+     * @param duration The duration of a single loop of the animation, in milliseconds.
+     *
+     * @throws IllegalArgumentException If not even the first frame can be decoded.
+     */
+    public FrameAnimatedImage(FrameDecoder decoder, int duration) {
+        mDecoder = decoder;
+        mDuration = duration;
+        mFrameBytes = 4 * decoder.getWidth() * decoder.getHeight();
+
+        Frame first = new Frame(createBitmap());
+        if (!decodeInto(first)) {
+            throw new IllegalArgumentException("The image has no frames");
+        }
+        first.mBitmap.setPixels(mDecoder.getPixels(), 0, getWidth(), 0, 0, getWidth(), getHeight());
+        for (int i = 0; i < DIRTY_HISTORY_SIZE; i++) {
+            mDirtyHistory[i] = new Rect();
+        }
+        mDirtyHistory[0].set(0, 0, getWidth(), getHeight());
+        mReady.add(first);
+        synchronized (mImages) {
+            mImages.put(this, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Sets how many frames are decoded ahead of the shown one, at most.
+     *
+     * @param frames The number of frames, at least 1.
+     */
+    public static void setLookAhead(int frames) {
+        if (frames < 1) {
+            throw new IllegalArgumentException("At least a frame must be decoded ahead.");
+        }
+        mLookAhead = frames;
+    }
+
+    /** @return How many frames are decoded ahead of the shown one, at most. */
+    public static int getLookAhead() {
+        return mLookAhead;
+    }
+
+    /**
+     * Sets the memory that the rings of all the images being drawn can take,
+     * altogether. Each ring keeps at least two frames, whatever the budget.
+     * Defaults to 1/16 of the maximum heap size.
+     *
+     * @param bytes The budget, in bytes.
+     */
+    public static void setMemoryBudget(long bytes) {
+        mMemoryBudget = bytes;
+    }
+
+    /** @return The memory that the rings of all the images being drawn can take, in bytes. */
+    public static long getMemoryBudget() {
+        return mMemoryBudget;
+    }
+
+    /**
+     * Gets the cache to register to a {@link net.frakbot.cache.CacheTrimmer},
+     * so that the rings are trimmed when the system asks for memory.
+     * Its sizes are the memory taken by the rings and the memory budget.
+     *
+     * @return The trimmer of the rings.
+     */
+    public static TrimmableCache getTrimmer() {
+        return mTrimmer;
+    }
+
+    @Override
+    public int getWidth() {
+        return mDecoder.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mDecoder.getHeight();
+    }
+
+    @Override
+    public int getDuration() {
+        return mDuration;
+    }
+
+    @Override
+    public synchronized long getByteSize() {
+        return mDecoder.getByteSize() + (long) mFrameBytes * (mReady.size() + mFree.size());
+    }
+
+    /** @return The number of frames that have been decoded too late to be shown. */
+    public synchronized int getSkippedFrames() {
+        return mSkippedFrames;
+    }
+
+    @Override
+    public void draw(Canvas canvas, float x, float y, int time) {
+        // A time going backwards means a new loop has started
+        if (time < mLastTime) {
+            mLoopStart += Math.max(mDuration, 1);
+        }
+        mLastTime = time;
+        mPlaybackTime = mLoopStart + time;
+        mLastDrawTime = SystemClock.uptimeMillis();
+
+        final Bitmap bitmap;
+        synchronized (this) {
+            // Show the latest frame that has started: the ones before it, except
+            // for the one shown so far, have never been on screen
+            int dropped = 0;
+            while (mReady.size() > 1 && mReady.get(1).mStart <= mPlaybackTime
+                   && (mPinnedSequence < 0 || mReady.get(1).mSequence <= mPinnedSequence)) {
+                mFree.add(mReady.remove(0));
+                dropped++;
+            }
+            if (dropped > 1) mSkippedFrames += dropped - 1;
+            bitmap = mReady.get(0).mBitmap;
+            scheduleDecoding();
+        }
+        canvas.drawBitmap(bitmap, x, y, null);
+    }
+
+    @Override
+    public synchronized int getDrawnFrame() {
+        return mReady.get(0).mSequence;
+    }
+
+    /**
+     * Computes the area changed since the given frame from the bounds changed
+     * by each frame in between, and pins the frame to be drawn, so that a frame
+     * decoded in the meantime can't be drawn in its place.
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean getChangedBounds(int drawnFrame, int time, Rect bounds) {
+        final long playbackTime = (time < mLastTime ? mLoopStart + Math.max(mDuration, 1) : mLoopStart) + time;
+
+        synchronized (this) {
+            int target = mReady.get(0).mSequence;
+            for (int i = 1; i < mReady.size() && mReady.get(i).mStart <= playbackTime; i++) {
+                target = mReady.get(i).mSequence;
+            }
+            scheduleDecoding();
+            if (target <= drawnFrame) return false;
+
+            mPinnedSequence = Math.max(mPinnedSequence, target);
+            if (drawnFrame < 0 || target - drawnFrame > DIRTY_HISTORY_SIZE) {
+                bounds.set(0, 0, getWidth(), getHeight());
+                return true;
+            }
+            bounds.setEmpty();
+            for (int sequence = drawnFrame + 1; sequence <= target; sequence++) {
+                bounds.union(mDirtyHistory[sequence % DIRTY_HISTORY_SIZE]);
+            }
+            return !bounds.isEmpty();
+        }
+    }
+
+    /**
+     * Stops decoding frames and closes the decoder, right away or as soon as
+     * the frame being decoded is ready. The frame shown so far can still be drawn.
+     */
+    @Override
+    public void release() {
+        synchronized (this) {
+            if (mReleased) return;
+            mReleased = true;
+            for (Frame frame : mFree) {
+                frame.mBitmap.recycle();
+            }
+            mFree.clear();
+            // The decoding task closes the decoder itself once it stops
+            if (mDecoding) return;
+        }
+        closeDecoder();
+    }
+
+    /** Starts the decoding task, if there are free slots in the ring and it's not running yet. */
+    private void scheduleDecoding() {
+        if (mDecoding || mReleased) return;
+
+        mRingSize = computeRingSize();
+        while (mReady.size() + mFree.size() > mRingSize && !mFree.isEmpty()) {
+            mFree.remove(mFree.size() - 1).mBitmap.recycle();
+        }
+        if (mReady.size() >= mRingSize) return;
+
+        mDecoding = true;
+        mDecoderExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                decodeAhead();
+            }
+        });
+    }
+
+    /** Decodes frames until the ring is full. Runs on a decoder thread. */
+    private void decodeAhead() {
+        while (true) {
+            Frame frame;
+            synchronized (this) {
+                if (mReleased) {
+                    mDecoding = false;
+                    break;
+                }
+                if (mReady.size() >= mRingSize) {
+                    mDecoding = false;
+                    return;
+                }
+                frame = mFree.isEmpty() ? null : mFree.remove(mFree.size() - 1);
+            }
+
+            if (frame == null) {
+                frame = new Frame(createBitmap());
+            }
+            frame.mDirty.setEmpty();
+            boolean decoded = decodeInto(frame);
+            for (int skipped = 0; decoded && isStale(frame) && skipped < MAX_SKIPPED_IN_A_ROW; skipped++) {
+                // Too late to be shown: compose it, but don't copy it
+                synchronized (this) {
+                    mSkippedFrames++;
+                }
+                decoded = decodeInto(frame);
+            }
+            if (decoded) {
+                final int width = mDecoder.getWidth();
+                frame.mBitmap.setPixels(mDecoder.getPixels(), 0, width, 0, 0, width, mDecoder.getHeight());
+            }
+
+            synchronized (this) {
+                if (mReleased) {
+                    frame.mBitmap.recycle();
+                    mDecoding = false;
+                    break;
+                }
+                if (!decoded) {
+                    mFree.add(frame);
+                    mDecoding = false;
+                    return;
+                }
+                frame.mSequence = ++mSequence;
+                mDirtyHistory[frame.mSequence % DIRTY_HISTORY_SIZE].set(frame.mDirty);
+                mReady.add(frame);
+            }
+        }
+        closeDecoder();
+    }
+
+    private void closeDecoder() {
+        synchronized (mImages) {
+            mImages.remove(this);
+        }
+        if (mDecoder instanceof Closeable) {
+            try {
+                ((Closeable) mDecoder).close();
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Decodes the next frame, placing the slot of the ring on its timeline and
+     * adding the area it changes to the slot's. The pixels are left in the
+     * decoder, so that stale frames aren't copied.
+     *
+     * @return true if the frame has been decoded, false if the image can't be decoded.
+     */
+    private boolean decodeInto(Frame frame) {
+        final int index = mDecoder.advance();
+        if (index < 0) return false;
+
+        if (index == 0) {
+            // A new loop starts where the previous one was supposed to end
+            mDecodedLoopStart = mDecodedEnd > 0 ? Math.max(mDecodedLoopStart + mDuration, mDecodedEnd) : 0;
+            mDecodedEnd = mDecodedLoopStart;
+        }
+        final int[] dirty = mDecoder.getDirtyBounds();
+        frame.mDirty.union(dirty[0], dirty[1], dirty[2], dirty[3]);
+        frame.mStart = mDecodedEnd;
+        frame.mEnd = mDecodedEnd + mDecoder.getFrameDelay();
+        mDecodedEnd = frame.mEnd;
+        return true;
+    }
+
+    /** @return true if the frame is already over, so it would never be shown. */
+    private boolean isStale(Frame frame) {
+        return mLastDrawTime != 0 && frame.mEnd <= mPlaybackTime;
+    }
+
+    /** @return The number of frames the ring can hold, given its share of the budget. */
+    private int computeRingSize() {
+        final long now = SystemClock.uptimeMillis();
+        int active = 0;
+        synchronized (mImages) {
+            for (Iterator<FrameAnimatedImage> it = mImages.keySet().iterator(); it.hasNext(); ) {
+                FrameAnimatedImage image = it.next();
+                if (now - image.mLastDrawTime < ACTIVE_TIMEOUT_MS) active++;
+            }
+        }
+
+        final long share = getCurrentBudget() / Math.max(active, 1);
+        final long frames = mFrameBytes > 0 ? share / mFrameBytes : Integer.MAX_VALUE;
+        return (int) Math.max(getMinRingSize(), Math.min(frames, mLookAhead + 1));
+    }
+
+    /** @return The memory budget, as lowered by the last trim if it's still in effect. */
+    private static long getCurrentBudget() {
+        final long budget = mMemoryBudget;
+        return isTrimmed() ? Math.min(budget, mTrimmedBudget) : budget;
+    }
+
+    /** @return The fewest frames a ring can hold: only the shown one, when the budget is cut down. */
+    private static int getMinRingSize() {
+        // The critical trim levels keep a quarter of the budget or less, the others at least a half
+        return isTrimmed() && mTrimmedBudget < mMemoryBudget / 3 ? 1 : MIN_RING_SIZE;
+    }
+
+    private static boolean isTrimmed() {
+        return SystemClock.uptimeMillis() < mTrimmedUntil;
+    }
+
+    /**
+     * Frees the frames the ring can't hold anymore: the free bitmaps first,
+     * then the frames decoded ahead, which are skipped. The shown frame is kept.
+     * Images that aren't being drawn keep the fewest frames.
+     */
+    private synchronized void trimRing() {
+        final boolean active = SystemClock.uptimeMillis() - mLastDrawTime < ACTIVE_TIMEOUT_MS;
+        mRingSize = active ? computeRingSize() : getMinRingSize();
+        while (mReady.size() + mFree.size() > mRingSize && !mFree.isEmpty()) {
+            mFree.remove(mFree.size() - 1).mBitmap.recycle();
+        }
+        while (mReady.size() > Math.max(mRingSize, 1)) {
+            mReady.remove(mReady.size() - 1).mBitmap.recycle();
+            mSkippedFrames++;
+        }
+    }
+
+    /** @return A copy of the live images, so that they can be locked without holding mImages. */
+    private static List<FrameAnimatedImage> getImages() {
+        synchronized (mImages) {
+            return new ArrayList<FrameAnimatedImage>(mImages.keySet());
+        }
+    }
+
+    /** Lowers the memory budget and trims the rings of the live images, when the system asks for memory. */
+    private static class RingTrimmer implements TrimmableCache {
+
+        @Override
+        public int size() {
+            long size = 0;
+            for (FrameAnimatedImage image : getImages()) {
+                synchronized (image) {
+                    size += (long) image.mFrameBytes * (image.mReady.size() + image.mFree.size());
+                }
+            }
+            return (int) Math.min(size, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public int maxSize() {
+            return (int) Math.min(mMemoryBudget, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void trimToSize(int maxSize) {
+            mTrimmedBudget = maxSize;
+            mTrimmedUntil = SystemClock.uptimeMillis() + TRIM_TIMEOUT_MS;
+            for (FrameAnimatedImage image : getImages()) {
+                image.trimRing();
+            }
+        }
+    }
+
+    private Bitmap createBitmap() {
+        return Bitmap.createBitmap(mDecoder.getWidth(), mDecoder.getHeight(), Bitmap.Config.ARGB_8888);
+    }
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            DECODER_THREADS, DECODER_THREADS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int mCount = 0;
+
+            @Override
+            public synchronized Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "IVX-frames-" + ++mCount);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,58 @@
+package net.frakbot.imageviewex.decoder;
+
+/**
+ * Frame-by-frame output of an animated image: each call to {@link #advance()}
+ * composes the next frame into an ARGB canvas, which holds the frame as it
+ * must be shown (the disposal of the previous frames has already been applied).
+ * Decoders implementing it only need to keep the current frame in memory.
+ *
+ * @author Francesco Pontillo
+ */
+public interface FrameDecoder {
+
+    /** @return The width of the canvas, in pixels. */
+    int getWidth();
+
+    /** @return The height of the canvas, in pixels. */
+    int getHeight();
+
+    /** @return The number of frames, or -1 if not known yet (e.g. before the first loop is over). */
+    int getFrameCount();
+
+    /** @return The index of the current frame, or -1 if no frame has been decoded yet. */
+    int getCurrentFrame();
+
+    /** @return How long the current frame must be shown for, in milliseconds. */
+    int getFrameDelay();
+
+    /**
+     * Decodes the next frame into the canvas, starting over after the last one.
+     *
+     * @return The index of the decoded frame, or -1 if the image can't be decoded.
+     */
+    int advance();
+
+    /** Starts over from the first frame, emptying the canvas. */
+    void rewind();
+
+    /**
+     * Returns the canvas: {@link #getWidth()} times {@link #getHeight()} ARGB
+     * pixels, row by row. It's overwritten by the next call to {@link #advance()},
+     * and must not be modified.
+     *
+     * @return The pixels of the current frame.
+     */
+    int[] getPixels();
+
+    /**
+     * Returns the area of the canvas changed by the last call to {@link #advance()},
+     * as its left, top, right and bottom edges (the last two exclusive).
+     * It's overwritten by the next call to {@link #advance()}.
+     *
+     * @return The changed bounds.
+     */
+    int[] getDirtyBounds();
+
+    /** @return The memory retained by the decoder, in bytes. */
+    long getByteSize();
+}
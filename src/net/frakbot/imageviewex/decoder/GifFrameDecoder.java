@@ -0,0 +1,497 @@
+package net.frakbot.imageviewex.decoder;
+
+import java.util.Arrays;
+
+/**
+ * Streaming decoder of GIF images, written in plain Java: frames are decoded
+ * one at a time, straight from the encoded data, into a single ARGB canvas.
+ * Unlike {@code android.graphics.Movie}, which decompresses all of the frames
+ * up front, the memory it needs doesn't grow with the number of frames.
+ * <p/>
+ * Corrupted or truncated frames are decoded as far as possible; the
+ * missing pixels are left as they were in the previous frame.
+ * Instances are not thread-safe.
+ *
+ * @author Francesco Pontillo
+ */
+public class GifFrameDecoder implements FrameDecoder {
+
+    // Delays are clamped the same way GifHeader does it
+    private static final int DEFAULT_FRAME_DELAY = 100;
+    private static final int MAX_LZW_CODES = 4096;
+
+    // Larger canvases wouldn't fit into the heap of any device
+    private static final long MAX_CANVAS_PIXELS = 4096L * 4096L;
+
+    private static final int DISPOSAL_BACKGROUND = 2;
+    private static final int DISPOSAL_PREVIOUS = 3;
+
+    private final byte[] mData;
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mGlobalColorTable;
+    private final int mFirstFramePosition;
+
+    private final int[] mPixels;
+    private int[] mSavedPixels;
+    private byte[] mIndices;
+    private final int[] mLocalColorTable = new int[256];
+
+    // LZW dictionary, reused by all frames
+    private final short[] mPrefix = new short[MAX_LZW_CODES];
+    private final byte[] mSuffix = new byte[MAX_LZW_CODES];
+    private final byte[] mPixelStack = new byte[MAX_LZW_CODES + 1];
+
+    private int mPosition;
+    private int mFrameIndex = -1;
+    private int mFrameCount = -1;
+    private int mFrameDelay = DEFAULT_FRAME_DELAY;
+
+    // The previous frame, whose disposal is applied before drawing the next one
+    private int mDisposal;
+    private int mDisposalX, mDisposalY, mDisposalWidth, mDisposalHeight;
+
+    // The area changed by the last frame, and whether the canvas has been emptied since
+    private final int[] mDirtyBounds = new int[4];
+    private boolean mCleared = true;
+
+    // Set once a frame turns out to be invalid: no frame is decoded afterwards
+    private boolean mCorrupted;
+
+    private GifFrameDecoder(byte[] data, int width, int height, int[] globalColorTable, int firstFramePosition) {
+        mData = data;
+        mWidth = width;
+        mHeight = height;
+        mGlobalColorTable = globalColorTable;
+        mFirstFramePosition = firstFramePosition;
+        mPixels = new int[width * height];
+        mPosition = firstFramePosition;
+    }
+
+    /**
+     * Reads the header of a GIF image, without decoding any frame.
+     *
+     * @param data The byte array containing the GIF.
+     *
+     * @return The decoder, or null if the data doesn't contain a GIF.
+     */
+    public static GifFrameDecoder open(byte[] data) {
+        if (data == null || data.length < 13
+            || data[0] != 'G' || data[1] != 'I' || data[2] != 'F') {
+            return null;
+        }
+
+        // Logical screen descriptor
+        final int width = readShort(data, 6);
+        final int height = readShort(data, 8);
+        if (width <= 0 || height <= 0 || (long) width * height > MAX_CANVAS_PIXELS) {
+            return null;
+        }
+
+        final int packed = data[10] & 0xff;
+        int position = 13;
+        int[] globalColorTable = null;
+        if ((packed & 0x80) != 0) {
+            final int size = 2 << (packed & 0x07);
+            if (position + 3 * size > data.length) return null;
+            globalColorTable = new int[256];
+            readColorTable(data, position, size, globalColorTable);
+            position += 3 * size;
+        }
+        return new GifFrameDecoder(data, width, height, globalColorTable, position);
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    @Override
+    public int getCurrentFrame() {
+        return mFrameIndex;
+    }
+
+    @Override
+    public int getFrameDelay() {
+        return mFrameDelay;
+    }
+
+    @Override
+    public int advance() {
+        if (decodeNextFrame()) {
+            return mFrameIndex;
+        }
+
+        // The end of the image: start over, unless not even a frame could be decoded or one is invalid
+        if (mFrameIndex < 0 || mCorrupted) {
+            return -1;
+        }
+        mFrameCount = mFrameIndex + 1;
+        rewind();
+        return decodeNextFrame() ? mFrameIndex : -1;
+    }
+
+    @Override
+    public void rewind() {
+        mPosition = mFirstFramePosition;
+        mFrameIndex = -1;
+        mDisposal = 0;
+        Arrays.fill(mPixels, 0);
+        mCleared = true;
+    }
+
+    @Override
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    @Override
+    public int[] getDirtyBounds() {
+        return mDirtyBounds;
+    }
+
+    @Override
+    public long getByteSize() {
+        long size = 4L * mPixels.length + mData.length;
+        if (mSavedPixels != null) size += 4L * mSavedPixels.length;
+        if (mIndices != null) size += mIndices.length;
+        return size;
+    }
+
+    /**
+     * Reads the blocks up to the next image and composes it into the canvas.
+     *
+     * @return true if a frame has been decoded, false at the end of the image.
+     */
+    private boolean decodeNextFrame() {
+        final byte[] data = mData;
+        int disposal = 0;
+        int transparentIndex = -1;
+        int delay = DEFAULT_FRAME_DELAY;
+
+        while (mPosition < data.length) {
+            final int block = data[mPosition++] & 0xff;
+
+            if (block == 0x21) {
+                // Extension: the only one we care about is the graphic control one
+                if (mPosition >= data.length) return false;
+                final int label = data[mPosition++] & 0xff;
+                if (label == 0xf9 && mPosition + 5 <= data.length) {
+                    final int packed = data[mPosition + 1] & 0xff;
+                    disposal = (packed >> 2) & 0x07;
+                    // Delays are expressed in hundredths of a second
+                    delay = readShort(data, mPosition + 2) * 10;
+                    if (delay <= 0) delay = DEFAULT_FRAME_DELAY;
+                    if ((packed & 0x01) != 0) transparentIndex = data[mPosition + 4] & 0xff;
+                }
+                mPosition = skipSubBlocks(data, mPosition);
+            }
+            else if (block == 0x2c) {
+                if (mPosition + 9 > data.length) return false;
+                final int x = readShort(data, mPosition);
+                final int y = readShort(data, mPosition + 2);
+                final int width = readShort(data, mPosition + 4);
+                final int height = readShort(data, mPosition + 6);
+                final int packed = data[mPosition + 8] & 0xff;
+                mPosition += 9;
+
+                // A frame can't hold more pixels than the canvas: its indices would be
+                // allocated for nothing, as only the part within the canvas is drawn
+                if ((long) width * height > (long) mWidth * mHeight) {
+                    mCorrupted = true;
+                    return false;
+                }
+                final int clippedWidth = Math.max(0, Math.min(width, mWidth - x));
+                final int clippedHeight = Math.max(0, Math.min(height, mHeight - y));
+
+                int[] colorTable = mGlobalColorTable;
+                if ((packed & 0x80) != 0) {
+                    final int size = 2 << (packed & 0x07);
+                    if (mPosition + 3 * size > data.length) return false;
+                    readColorTable(data, mPosition, size, mLocalColorTable);
+                    mPosition += 3 * size;
+                    colorTable = mLocalColorTable;
+                }
+                else if (colorTable == null) {
+                    // No color table at all: show something rather than nothing
+                    Arrays.fill(mLocalColorTable, 0xff000000);
+                    colorTable = mLocalColorTable;
+                }
+
+                updateDirtyBounds(x, y, clippedWidth, clippedHeight);
+                disposePreviousFrame();
+                if (disposal == DISPOSAL_PREVIOUS) {
+                    if (mSavedPixels == null) mSavedPixels = new int[mPixels.length];
+                    System.arraycopy(mPixels, 0, mSavedPixels, 0, mPixels.length);
+                }
+
+                final int decoded = decodeIndices(width * height);
+                drawFrame(x, y, width, height, (packed & 0x40) != 0, colorTable, transparentIndex, decoded);
+
+                mDisposal = disposal;
+                mDisposalX = x;
+                mDisposalY = y;
+                mDisposalWidth = clippedWidth;
+                mDisposalHeight = clippedHeight;
+                mFrameDelay = delay;
+                mFrameIndex++;
+                return true;
+            }
+            else {
+                // Trailer, or truncated/corrupted data
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the area changed by a frame: the frame itself, plus the area of
+     * the previous frame if it's disposed of, or the whole canvas if it has
+     * been emptied.
+     */
+    private void updateDirtyBounds(int x, int y, int width, int height) {
+        if (mCleared) {
+            mDirtyBounds[0] = 0;
+            mDirtyBounds[1] = 0;
+            mDirtyBounds[2] = mWidth;
+            mDirtyBounds[3] = mHeight;
+            mCleared = false;
+            return;
+        }
+
+        int left = x, top = y, right = x + width, bottom = y + height;
+        if (mDisposal == DISPOSAL_BACKGROUND || mDisposal == DISPOSAL_PREVIOUS) {
+            left = Math.min(left, mDisposalX);
+            top = Math.min(top, mDisposalY);
+            right = Math.max(right, mDisposalX + mDisposalWidth);
+            bottom = Math.max(bottom, mDisposalY + mDisposalHeight);
+        }
+        mDirtyBounds[0] = Math.max(left, 0);
+        mDirtyBounds[1] = Math.max(top, 0);
+        mDirtyBounds[2] = Math.min(right, mWidth);
+        mDirtyBounds[3] = Math.min(bottom, mHeight);
+    }
+
+    /** Applies the disposal method of the previous frame to its area of the canvas. */
+    private void disposePreviousFrame() {
+        if (mDisposal != DISPOSAL_BACKGROUND && mDisposal != DISPOSAL_PREVIOUS) return;
+
+        final int right = Math.min(mDisposalX + mDisposalWidth, mWidth);
+        final int bottom = Math.min(mDisposalY + mDisposalHeight, mHeight);
+        for (int row = mDisposalY; row < bottom; row++) {
+            final int from = row * mWidth + mDisposalX;
+            final int to = row * mWidth + right;
+            if (from >= to) continue;
+            if (mDisposal == DISPOSAL_BACKGROUND || mSavedPixels == null) {
+                // Browsers restore to transparent rather than to the background color
+                Arrays.fill(mPixels, from, to, 0);
+            }
+            else {
+                System.arraycopy(mSavedPixels, from, mPixels, from, to - from);
+            }
+        }
+    }
+
+    /**
+     * Decompresses the LZW-encoded color indices of a frame, reading its
+     * data sub-blocks and leaving the position right after them.
+     *
+     * @param count The number of pixels of the frame.
+     *
+     * @return The number of indices that have been decoded.
+     */
+    private int decodeIndices(int count) {
+        if (mIndices == null || mIndices.length < count) {
+            mIndices = new byte[count];
+        }
+        final byte[] data = mData;
+        final byte[] indices = mIndices;
+        final short[] prefix = mPrefix;
+        final byte[] suffix = mSuffix;
+        final byte[] pixelStack = mPixelStack;
+
+        if (mPosition >= data.length) return 0;
+        final int minCodeSize = data[mPosition++] & 0xff;
+        if (minCodeSize < 1 || minCodeSize > 11) {
+            mPosition = skipSubBlocks(data, mPosition);
+            return 0;
+        }
+
+        final int clear = 1 << minCodeSize;
+        final int endOfInformation = clear + 1;
+        int available = clear + 2;
+        int codeSize = minCodeSize + 1;
+        int codeMask = (1 << codeSize) - 1;
+        int oldCode = -1;
+        int first = 0;
+        for (int code = 0; code < clear; code++) {
+            prefix[code] = 0;
+            suffix[code] = (byte) code;
+        }
+
+        int datum = 0;
+        int bits = 0;
+        int blockRemaining = 0;
+        boolean terminated = false;
+        int decoded = 0;
+
+        while (decoded < count) {
+            if (bits < codeSize) {
+                // Needs another byte, possibly from the next sub-block
+                if (blockRemaining == 0) {
+                    if (mPosition >= data.length) break;
+                    blockRemaining = data[mPosition++] & 0xff;
+                    if (blockRemaining == 0) {
+                        terminated = true;
+                        break;
+                    }
+                }
+                if (mPosition >= data.length) break;
+                datum |= (data[mPosition++] & 0xff) << bits;
+                bits += 8;
+                blockRemaining--;
+                continue;
+            }
+
+            int code = datum & codeMask;
+            datum >>= codeSize;
+            bits -= codeSize;
+
+            if (code == clear) {
+                codeSize = minCodeSize + 1;
+                codeMask = (1 << codeSize) - 1;
+                available = clear + 2;
+                oldCode = -1;
+                continue;
+            }
+            if (code == endOfInformation) {
+                break;
+            }
+            if (oldCode == -1) {
+                if (code >= available) break;
+                indices[decoded++] = suffix[code];
+                oldCode = code;
+                first = code;
+                continue;
+            }
+
+            final int inCode = code;
+            int top = 0;
+            if (code >= available) {
+                if (code > available) break;
+                pixelStack[top++] = (byte) first;
+                code = oldCode;
+            }
+            while (code >= clear) {
+                pixelStack[top++] = suffix[code];
+                code = prefix[code];
+            }
+            first = suffix[code] & 0xff;
+            pixelStack[top++] = (byte) first;
+
+            if (available < MAX_LZW_CODES) {
+                prefix[available] = (short) oldCode;
+                suffix[available] = (byte) first;
+                available++;
+                if ((available & codeMask) == 0 && available < MAX_LZW_CODES) {
+                    codeSize++;
+                    codeMask += available;
+                }
+            }
+            oldCode = inCode;
+
+            while (top > 0 && decoded < count) {
+                indices[decoded++] = pixelStack[--top];
+            }
+        }
+
+        if (!terminated) {
+            mPosition = skipSubBlocks(data, Math.min(mPosition + blockRemaining, data.length));
+        }
+        return decoded;
+    }
+
+    /** Draws the decoded indices of a frame into the canvas, clipping them to it. */
+    private void drawFrame(int x, int y, int width, int height, boolean interlaced,
+                           int[] colorTable, int transparentIndex, int decoded) {
+        final byte[] indices = mIndices;
+        final int[] pixels = mPixels;
+        int pass = 1;
+        int increment = 8;
+        int interlacedRow = 0;
+
+        for (int i = 0; i < height; i++) {
+            int row = i;
+            if (interlaced) {
+                while (interlacedRow >= height && pass < 4) {
+                    pass++;
+                    switch (pass) {
+                        case 2:
+                            interlacedRow = 4;
+                            break;
+                        case 3:
+                            interlacedRow = 2;
+                            increment = 4;
+                            break;
+                        default:
+                            interlacedRow = 1;
+                            increment = 2;
+                            break;
+                    }
+                }
+                row = interlacedRow;
+                interlacedRow += increment;
+            }
+
+            row += y;
+            if (row >= mHeight) continue;
+
+            int source = i * width;
+            int target = row * mWidth + x;
+            final int end = Math.min(target + width, (row + 1) * mWidth);
+            while (target < end && source < decoded) {
+                final int index = indices[source++] & 0xff;
+                if (index != transparentIndex) {
+                    pixels[target] = colorTable[index];
+                }
+                target++;
+            }
+        }
+    }
+
+    private static void readColorTable(byte[] data, int position, int size, int[] colorTable) {
+        for (int i = 0; i < size; i++) {
+            final int r = data[position++] & 0xff;
+            final int g = data[position++] & 0xff;
+            final int b = data[position++] & 0xff;
+            colorTable[i] = 0xff000000 | (r << 16) | (g << 8) | b;
+        }
+        for (int i = size; i < colorTable.length; i++) {
+            colorTable[i] = 0;
+        }
+    }
+
+    private static int readShort(byte[] data, int pos) {
+        return (data[pos] & 0xff) | ((data[pos + 1] & 0xff) << 8);
+    }
+
+    private static int skipSubBlocks(byte[] data, int pos) {
+        while (pos < data.length) {
+            int size = data[pos++] & 0xff;
+            if (size == 0) break;
+            pos += size;
+        }
+        return pos;
+    }
+}
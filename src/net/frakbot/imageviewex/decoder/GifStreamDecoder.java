@@ -0,0 +1,62 @@
+package net.frakbot.imageviewex.decoder;
+
+import android.util.Log;
+import net.frakbot.cache.ImageMetadata;
+import net.frakbot.imageviewex.ImageFormat;
+
+/**
+ * Frame-streaming decoder for animated GIFs, backed by {@link GifFrameDecoder}:
+ * only the current frame is kept in memory, so it's cheaper than
+ * {@link MovieDecoder} for GIFs with more than a few frames.
+ *
+ * @author Francesco Pontillo
+ */
+public class GifStreamDecoder extends ImageDecoder {
+    private static final String TAG = GifStreamDecoder.class.getSimpleName();
+
+    @Override
+    public boolean handles(ImageFormat format) {
+        return format == ImageFormat.GIF;
+    }
+
+    @Override
+    public boolean isAnimated() {
+        return true;
+    }
+
+    @Override
+    public long estimateMemoryCost(ImageMetadata metadata) {
+        // The canvas and the color indices of a frame, plus the smallest ring of two bitmaps
+        final long pixels = (long) Math.max(metadata.getWidth(), 0) * Math.max(metadata.getHeight(), 0);
+        return 13 * pixels + metadata.getByteSize();
+    }
+
+    @Override
+    public boolean supportsStreaming() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsFrames() {
+        return true;
+    }
+
+    @Override
+    public AnimatedImage decodeAnimation(byte[] data, ImageMetadata metadata) {
+        FrameDecoder decoder = openFrames(data);
+        if (decoder == null) return null;
+
+        try {
+            return new FrameAnimatedImage(decoder, metadata.getDuration());
+        }
+        catch (IllegalArgumentException e) {
+            Log.w(TAG, "The GIF has no frames that can be decoded");
+            return null;
+        }
+    }
+
+    @Override
+    public FrameDecoder openFrames(byte[] data) {
+        return GifFrameDecoder.open(data);
+    }
+}
@@ -0,0 +1,104 @@
+package net.frakbot.imageviewex.decoder;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import net.frakbot.cache.BitmapPool;
+import net.frakbot.cache.ImageMetadata;
+import net.frakbot.imageviewex.ImageFormat;
+
+/**
+ * A decoder that can be plugged into ImageViewEx through {@link ImageDecoders}.
+ * Each decoder declares the formats it handles, what it can do and how much
+ * memory it needs, so that the cheapest one can be picked for each image.
+ * <p/>
+ * Static decoders implement {@link #decodeBitmap(byte[], BitmapFactory.Options, BitmapPool)},
+ * animated ones {@link #decodeAnimation(byte[], ImageMetadata)}; the methods
+ * a decoder doesn't implement return null, like for images it can't decode.
+ * Decoding always happens on a worker thread.
+ *
+ * @author Francesco Pontillo
+ */
+public abstract class ImageDecoder {
+
+    /** @return The name of the decoder, for logging. */
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * @param format The format of an image.
+     *
+     * @return true if this decoder can decode images of the format.
+     */
+    public abstract boolean handles(ImageFormat format);
+
+    /** @return true if this decoder plays animations, false if it decodes static images. */
+    public abstract boolean isAnimated();
+
+    /**
+     * Estimates the memory retained by an image decoded by this decoder,
+     * encoded data included.
+     *
+     * @param metadata The metadata of the image.
+     *
+     * @return The estimated memory, in bytes.
+     */
+    public abstract long estimateMemoryCost(ImageMetadata metadata);
+
+    /** @return true if frames are decoded as they're needed, rather than all at once. */
+    public boolean supportsStreaming() {
+        return false;
+    }
+
+    /** @return true if the decoder honours {@link BitmapFactory.Options#inSampleSize}. */
+    public boolean supportsDownsampling() {
+        return false;
+    }
+
+    /** @return true if the decoder exposes its frames one by one, through a {@link FrameDecoder}. */
+    public boolean supportsFrames() {
+        return false;
+    }
+
+    /**
+     * Decodes a static image.
+     *
+     * @param data The byte array containing the image.
+     * @param opts The decoding options, or null. They're not modified.
+     * @param pool The pool to reuse bitmaps from, or null.
+     *
+     * @return The decoded image, or null if it can't be decoded, or if the decoder is an animated one.
+     */
+    public Bitmap decodeBitmap(byte[] data, BitmapFactory.Options opts, BitmapPool pool) {
+        return null;
+    }
+
+    /**
+     * Decodes an animated image.
+     *
+     * @param data     The byte array containing the image.
+     * @param metadata The metadata of the image.
+     *
+     * @return The decoded image, or null if it can't be decoded, or if the decoder is a static one.
+     */
+    public AnimatedImage decodeAnimation(byte[] data, ImageMetadata metadata) {
+        return null;
+    }
+
+    /**
+     * Opens the frames of an animated image one by one, if
+     * {@link #supportsFrames()} says it's possible.
+     *
+     * @param data The byte array containing the image.
+     *
+     * @return The frame decoder, or null if it can't be decoded, or if the decoder can't expose its frames.
+     */
+    public FrameDecoder openFrames(byte[] data) {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
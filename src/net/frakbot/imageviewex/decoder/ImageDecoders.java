@@ -0,0 +1,165 @@
+package net.frakbot.imageviewex.decoder;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import net.frakbot.cache.BitmapPool;
+import net.frakbot.cache.ImageMetadata;
+import net.frakbot.imageviewex.ImageFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registry of the {@link ImageDecoder}s used by ImageViewEx. For each image,
+ * the cheapest decoder (in terms of memory) handling its format is picked.
+ * <p/>
+ * Animations are kept within two memory limits, checked against the
+ * metadata of the image before it's decoded: if decoding all of its frames
+ * would take more than the {@link #setStreamingThreshold(long) streaming threshold},
+ * only the decoders that stream the frames one at a time are considered;
+ * decoders whose own estimate is above the {@link #setAnimationMemoryCap(long) hard cap}
+ * are never picked, so that animations too large for any of them are shown as a
+ * still image instead.
+ * <p/>
+ * The built-in decoders are {@link MovieDecoder} and {@link GifStreamDecoder}
+ * for animated GIFs, and {@link BitmapFactoryDecoder} for everything else.
+ * Register your own to add animated formats (e.g. WebP or APNG), or to
+ * replace the built-in ones. It's abstract and all of its methods are static.
+ *
+ * @author Francesco Pontillo
+ */
+public abstract class ImageDecoders {
+
+    private static final List<ImageDecoder> mDecoders = new CopyOnWriteArrayList<ImageDecoder>();
+    private static volatile long mStreamingThreshold = Runtime.getRuntime().maxMemory() / 32;
+    private static volatile long mAnimationMemoryCap = Runtime.getRuntime().maxMemory() / 8;
+
+    static {
+        mDecoders.add(new MovieDecoder());
+        mDecoders.add(new GifStreamDecoder());
+        mDecoders.add(new BitmapFactoryDecoder());
+    }
+
+    /**
+     * Registers a decoder. It takes precedence over the ones registered
+     * before it when they're estimated to be as expensive.
+     *
+     * @param decoder The decoder.
+     */
+    public static void register(ImageDecoder decoder) {
+        if (decoder == null) {
+            throw new IllegalArgumentException("The decoder can't be null.");
+        }
+        mDecoders.add(0, decoder);
+    }
+
+    /**
+     * Unregisters a decoder, built-in ones included.
+     *
+     * @param decoder The decoder.
+     *
+     * @return true if the decoder was registered, false otherwise.
+     */
+    public static boolean unregister(ImageDecoder decoder) {
+        return mDecoders.remove(decoder);
+    }
+
+    /** @return The registered decoders, the ones taking precedence first. */
+    public static List<ImageDecoder> getDecoders() {
+        return new ArrayList<ImageDecoder>(mDecoders);
+    }
+
+    /**
+     * Sets the decoded size of an animation above which it's only played by
+     * streaming decoders (see {@link ImageDecoder#supportsStreaming()}).
+     * Defaults to 1/32 of the maximum heap size.
+     *
+     * @param bytes The threshold, in bytes (see {@link #estimateDecodedSize(ImageMetadata)}).
+     */
+    public static void setStreamingThreshold(long bytes) {
+        mStreamingThreshold = bytes;
+    }
+
+    /** @return The decoded size of an animation above which it's only played by streaming decoders, in bytes. */
+    public static long getStreamingThreshold() {
+        return mStreamingThreshold;
+    }
+
+    /**
+     * Sets the memory that an animation can take at most, as estimated by
+     * its decoder. Animations that no decoder can play within the cap are
+     * shown as a still image. Defaults to 1/8 of the maximum heap size.
+     *
+     * @param bytes The cap, in bytes.
+     */
+    public static void setAnimationMemoryCap(long bytes) {
+        mAnimationMemoryCap = bytes;
+    }
+
+    /** @return The memory that an animation can take at most, in bytes. */
+    public static long getAnimationMemoryCap() {
+        return mAnimationMemoryCap;
+    }
+
+    /**
+     * Estimates the size of an animation with all of its frames decoded:
+     * its logical screen, as 32 bit pixels, times the number of frames.
+     *
+     * @param metadata The metadata of the animation.
+     *
+     * @return The estimated size, in bytes.
+     */
+    public static long estimateDecodedSize(ImageMetadata metadata) {
+        final long pixels = (long) Math.max(metadata.getWidth(), 0) * Math.max(metadata.getHeight(), 0);
+        return 4 * pixels * Math.max(metadata.getFrameCount(), 1);
+    }
+
+    /**
+     * Picks the decoder for an image.
+     *
+     * @param format   The format of the image.
+     * @param metadata The metadata of the image, used to compare the memory
+     *                 costs of the decoders and to keep animations within the
+     *                 memory limits, or null to pick the first registered one
+     *                 that handles the format.
+     * @param animated true to pick a decoder playing the animation, false to pick
+     *                 one decoding a static image.
+     *
+     * @return The decoder, or null if no decoder handles the format (within the
+     *         memory limits, for animations).
+     */
+    public static ImageDecoder select(ImageFormat format, ImageMetadata metadata, boolean animated) {
+        final boolean streamingOnly = animated && metadata != null
+                                      && estimateDecodedSize(metadata) > mStreamingThreshold;
+        ImageDecoder cheapest = null;
+        long cheapestCost = Long.MAX_VALUE;
+        for (ImageDecoder decoder : mDecoders) {
+            if (decoder.isAnimated() != animated || !decoder.handles(format)) continue;
+            if (metadata == null) return decoder;
+            if (streamingOnly && !decoder.supportsStreaming()) continue;
+
+            final long cost = decoder.estimateMemoryCost(metadata);
+            if (animated && cost > mAnimationMemoryCap) continue;
+            if (cheapest == null || cost < cheapestCost) {
+                cheapest = decoder;
+                cheapestCost = cost;
+            }
+        }
+        return cheapest;
+    }
+
+    /**
+     * Decodes a static image with the first registered decoder handling its format.
+     *
+     * @param data The byte array containing the image.
+     * @param opts The decoding options, or null. They're not modified.
+     * @param pool The pool to reuse bitmaps from, or null.
+     *
+     * @return The decoded image, or null if it can't be decoded.
+     */
+    public static Bitmap decodeBitmap(byte[] data, BitmapFactory.Options opts, BitmapPool pool) {
+        ImageDecoder decoder = select(ImageFormat.sniff(data), null, false);
+        return decoder != null ? decoder.decodeBitmap(data, opts, pool) : null;
+    }
+}
@@ -0,0 +1,36 @@
+package net.frakbot.imageviewex.decoder;
+
+import android.graphics.Movie;
+import net.frakbot.cache.ImageMetadata;
+import net.frakbot.imageviewex.ImageFormat;
+
+/**
+ * The framework {@link Movie} decoder for animated GIFs. It's backed by
+ * native code, but it decompresses the pixels of all the frames up front
+ * (one byte each) and keeps them, along with the encoded image.
+ *
+ * @author Francesco Pontillo
+ */
+public class MovieDecoder extends ImageDecoder {
+
+    @Override
+    public boolean handles(ImageFormat format) {
+        return format == ImageFormat.GIF;
+    }
+
+    @Override
+    public boolean isAnimated() {
+        return true;
+    }
+
+    @Override
+    public long estimateMemoryCost(ImageMetadata metadata) {
+        final long pixels = (long) Math.max(metadata.getWidth(), 0) * Math.max(metadata.getHeight(), 0);
+        return (4 + Math.max(metadata.getFrameCount(), 1)) * pixels + metadata.getByteSize();
+    }
+
+    @Override
+    public AnimatedImage decodeAnimation(byte[] data, ImageMetadata metadata) {
+        return MovieImage.wrap(Movie.decodeByteArray(data, 0, data.length), data.length);
+    }
+}
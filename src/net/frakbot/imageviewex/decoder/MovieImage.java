@@ -0,0 +1,75 @@
+package net.frakbot.imageviewex.decoder;
+
+import android.graphics.Canvas;
+import android.graphics.Movie;
+import net.frakbot.imageviewex.metrics.MemoryAccounting;
+
+/**
+ * An animated image played by the framework {@link Movie} class.
+ *
+ * @author Francesco Pontillo
+ */
+public class MovieImage extends AnimatedImage {
+
+    private final Movie mMovie;
+    private final int mEncodedSize;
+
+    /**
+     * Wraps a movie.
+     *
+     * @param movie       The movie.
+     * @param encodedSize The size of the encoded image, in bytes, or 0 if unknown.
+     */
+    public MovieImage(Movie movie, int encodedSize) {
+        mMovie = movie;
+        mEncodedSize = encodedSize;
+    }
+
+    /**
+     * Wraps a movie, if there is one.
+     *
+     * @param movie       The movie, or null.
+     * @param encodedSize The size of the encoded image, in bytes, or 0 if unknown.
+     *
+     * @return The wrapped movie, or null if there was none.
+     */
+    public static MovieImage wrap(Movie movie, int encodedSize) {
+        return movie != null ? new MovieImage(movie, encodedSize) : null;
+    }
+
+    /** @return The wrapped movie. */
+    public Movie getMovie() {
+        return mMovie;
+    }
+
+    @Override
+    public int getWidth() {
+        return mMovie.width();
+    }
+
+    @Override
+    public int getHeight() {
+        return mMovie.height();
+    }
+
+    @Override
+    public int getDuration() {
+        return mMovie.duration();
+    }
+
+    @Override
+    public long getByteSize() {
+        return MemoryAccounting.getMovieByteSize(mMovie.width(), mMovie.height(), mEncodedSize);
+    }
+
+    @Override
+    public boolean isSeekable() {
+        return true;
+    }
+
+    @Override
+    public void draw(Canvas canvas, float x, float y, int time) {
+        mMovie.setTime(time);
+        mMovie.draw(canvas, x, y);
+    }
+}
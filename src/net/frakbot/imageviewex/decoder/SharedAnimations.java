@@ -0,0 +1,240 @@
+package net.frakbot.imageviewex.decoder;
+
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.SystemClock;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Shares the decoded animated images among the views showing the same
+ * image, so that each image is decoded and held only once. Each view plays
+ * a lightweight handle of the shared image, keeping its own playback
+ * position, unless:
+ * <ul>
+ * <li>the synchronized mode is on (see {@link #setSynchronized(boolean)}),
+ * so that all the views play the image in step and the frames rendered for
+ * one view are reused by the others;</li>
+ * <li>the image can only be played forward (see {@link AnimatedImage#isSeekable()}),
+ * in which case its views are always synchronized;</li>
+ * <li>the image is played by a {@link MovieImage} and movies are synchronized
+ * (see {@link #setMoviesSynchronized(boolean)}), which is the default.</li>
+ * </ul>
+ * Shared images are held as long as any view holds one of their handles,
+ * and the image is released (see {@link AnimatedImage#release()}) along
+ * with its last handle.
+ * It's abstract and all of its methods are static.
+ *
+ * @author Francesco Pontillo
+ */
+public abstract class SharedAnimations {
+
+    private static final int DEFAULT_DURATION = 1000;
+
+    private static final Map<String, WeakReference<Shared>> mImages = new HashMap<String, WeakReference<Shared>>();
+    private static volatile boolean mSynchronized = false;
+    private static volatile boolean mMoviesSynchronized = true;
+
+    /** A shared image, with the clock its synchronized views play by. */
+    private static class Shared {
+        final AnimatedImage mImage;
+        final long mStartTime = SystemClock.uptimeMillis();
+        // The handles not released yet, guarded by mImages
+        int mHandles;
+
+        Shared(AnimatedImage image) {
+            mImage = image;
+        }
+
+        /** @return true if all the views play the image in step. */
+        boolean isSynchronized() {
+            return mSynchronized || !mImage.isSeekable() || (mMoviesSynchronized && mImage instanceof MovieImage);
+        }
+
+        int getTime() {
+            int duration = mImage.getDuration();
+            if (duration == 0) {
+                duration = DEFAULT_DURATION;
+            }
+            return (int) ((SystemClock.uptimeMillis() - mStartTime) % duration);
+        }
+    }
+
+    /** The handle of a shared image, played by a single view. */
+    private static class Handle extends AnimatedImage {
+        private final Shared mShared;
+        // Guarded by mImages
+        private boolean mReleased;
+
+        Handle(Shared shared) {
+            mShared = shared;
+            shared.mHandles++;
+        }
+
+        @Override
+        public int getWidth() {
+            return mShared.mImage.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return mShared.mImage.getHeight();
+        }
+
+        @Override
+        public int getDuration() {
+            return mShared.mImage.getDuration();
+        }
+
+        @Override
+        public long getByteSize() {
+            return mShared.mImage.getByteSize();
+        }
+
+        @Override
+        public boolean isSeekable() {
+            return mShared.mImage.isSeekable();
+        }
+
+        @Override
+        public AnimatedImage getSource() {
+            return mShared.mImage;
+        }
+
+        @Override
+        public void draw(Canvas canvas, float x, float y, int time) {
+            mShared.mImage.draw(canvas, x, y, getTime(time));
+        }
+
+        @Override
+        public void release() {
+            final AnimatedImage released;
+            synchronized (mImages) {
+                if (mReleased) return;
+                mReleased = true;
+                if (--mShared.mHandles > 0) return;
+                forget(mShared);
+                released = mShared.mImage;
+            }
+            released.release();
+        }
+
+        @Override
+        public int getDrawnFrame() {
+            return mShared.mImage.getDrawnFrame();
+        }
+
+        @Override
+        public boolean getChangedBounds(int drawnFrame, int time, Rect bounds) {
+            return mShared.mImage.getChangedBounds(drawnFrame, getTime(time), bounds);
+        }
+
+        /** @return The time the image is played at, given the time of the view. */
+        private int getTime(int time) {
+            return mShared.isSynchronized() ? mShared.getTime() : time;
+        }
+    }
+
+    /**
+     * Turns the synchronized mode on or off. When on, all the views showing
+     * the same image play it in step, drawing the same frames. Off by default.
+     *
+     * @param synchronize true to synchronize the views.
+     */
+    public static void setSynchronized(boolean synchronize) {
+        mSynchronized = synchronize;
+    }
+
+    /** @return true if the views showing the same image play it in step. */
+    public static boolean isSynchronized() {
+        return mSynchronized;
+    }
+
+    /**
+     * Sets whether the views showing the same image played by a
+     * {@link MovieImage} play it in step, even if the synchronized mode is
+     * off. A movie only holds the frame of its last position, so views at
+     * different positions make it seek back and forth on every frame, and
+     * seeking backward decodes it again from its first frame: turn this off
+     * only if the views must keep their own positions whatever the cost.
+     * On by default.
+     *
+     * @param synchronize true to synchronize the views playing a movie.
+     */
+    public static void setMoviesSynchronized(boolean synchronize) {
+        mMoviesSynchronized = synchronize;
+    }
+
+    /** @return true if the views showing the same image played by a movie play it in step. */
+    public static boolean isMoviesSynchronized() {
+        return mMoviesSynchronized;
+    }
+
+    /**
+     * Gets a new handle of a shared image.
+     *
+     * @param key The key of the image.
+     *
+     * @return The handle, to be played by a single view, or null if no image is shared with that key.
+     */
+    public static AnimatedImage acquire(String key) {
+        synchronized (mImages) {
+            WeakReference<Shared> reference = mImages.get(key);
+            Shared shared = reference != null ? reference.get() : null;
+            return shared != null ? new Handle(shared) : null;
+        }
+    }
+
+    /**
+     * Shares a decoded image. If another image has been shared with the same
+     * key in the meantime, that one is kept instead, and the given one is released.
+     *
+     * @param key   The key of the image.
+     * @param image The decoded image.
+     *
+     * @return A handle of the shared image, to be played by a single view.
+     */
+    public static AnimatedImage share(String key, AnimatedImage image) {
+        final Handle handle;
+        synchronized (mImages) {
+            WeakReference<Shared> reference = mImages.get(key);
+            Shared shared = reference != null ? reference.get() : null;
+            if (shared == null) {
+                purge();
+                shared = new Shared(image);
+                mImages.put(key, new WeakReference<Shared>(shared));
+            }
+            handle = new Handle(shared);
+        }
+        if (handle.mShared.mImage != image) image.release();
+        return handle;
+    }
+
+    /** @return The number of images being shared. */
+    public static int size() {
+        synchronized (mImages) {
+            purge();
+            return mImages.size();
+        }
+    }
+
+    /** Stops sharing an image whose last handle has been released. Called with mImages held. */
+    private static void forget(Shared shared) {
+        for (Iterator<WeakReference<Shared>> it = mImages.values().iterator(); it.hasNext(); ) {
+            if (it.next().get() == shared) {
+                it.remove();
+                return;
+            }
+        }
+    }
+
+    /** Forgets the images that aren't played by any view anymore. */
+    private static void purge() {
+        for (Iterator<WeakReference<Shared>> it = mImages.values().iterator(); it.hasNext(); ) {
+            if (it.next().get() == null) it.remove();
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package net.frakbot.imageviewex.decoder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Plays an animation transcoded into a replay-friendly form: each frame is
+ * stored as the area it changes, already composed, palettized when possible
+ * and run-length encoded,
+ * with a full keyframe every {@value #KEYFRAME_INTERVAL} frames and an
+ * index of all the frames at the end. Replaying a frame is just copying
+ * its runs of pixels, and any frame can be reached from the keyframe before
+ * it (see {@link #seek(int)}).
+ * <p/>
+ * The frames are streamed from a {@link Source}, which is opened once per
+ * loop, so only the current frame is held in memory. Animations are
+ * transcoded with {@link #transcode(FrameDecoder, OutputStream)}.
+ *
+ * @author Francesco Pontillo
+ */
+public class TranscodedFrameDecoder implements FrameDecoder, Closeable {
+
+    /** The frames between two keyframes. */
+    public static final int KEYFRAME_INTERVAL = 16;
+
+    private static final int MAGIC = 0x49565846; // "IVXF"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 13;
+    private static final int TRAILER_SIZE = 8;
+    private static final int INDEX_ENTRY_SIZE = 28;
+
+    private static final int MAX_PALETTE_SIZE = 256;
+    private static final int MAX_RUN = Short.MAX_VALUE;
+
+    // Animations with more frames than this aren't transcoded
+    private static final int MAX_FRAME_COUNT = 10000;
+
+    /** Where the transcoded animation is read from. */
+    public interface Source {
+
+        /**
+         * Opens the transcoded animation from its beginning.
+         *
+         * @return A new stream, closed by the caller.
+         * @throws IOException If the animation can't be read.
+         */
+        InputStream open() throws IOException;
+
+        /** @return The length of the transcoded animation, in bytes. */
+        long getLength();
+
+        /** Releases the animation, which isn't opened anymore. */
+        void close();
+    }
+
+    private final Source mSource;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameCount;
+
+    // The index: where each frame is, how long it lasts and what it changes
+    private final int[] mOffsets;
+    private final int[] mLengths;
+    private final int[] mDelays;
+    private final int[] mBounds;
+
+    private final int[] mPixels;
+    private final int[] mDirtyBounds = new int[4];
+    private byte[] mBuffer = new byte[0];
+    private final int[] mPalette = new int[MAX_PALETTE_SIZE];
+
+    private InputStream mStream;
+    private long mPosition;
+    private int mFrameIndex = -1;
+
+    private TranscodedFrameDecoder(Source source, int width, int height, int[] offsets, int[] lengths,
+                                   int[] delays, int[] bounds) {
+        mSource = source;
+        mWidth = width;
+        mHeight = height;
+        mFrameCount = offsets.length;
+        mOffsets = offsets;
+        mLengths = lengths;
+        mDelays = delays;
+        mBounds = bounds;
+        mPixels = new int[width * height];
+    }
+
+    /**
+     * Reads the header and the index of a transcoded animation.
+     *
+     * @param source The transcoded animation.
+     *
+     * @return The decoder, positioned before the first frame.
+     * @throws IOException If the animation can't be read, or isn't a valid transcoded animation.
+     */
+    public static TranscodedFrameDecoder open(Source source) throws IOException {
+        final long length = source.getLength();
+        if (length < HEADER_SIZE + TRAILER_SIZE) throw new IOException("Truncated frames");
+
+        int width, height, indexOffset;
+        DataInputStream in = new DataInputStream(source.open());
+        try {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) throw new IOException("Unknown frames format");
+            width = in.readInt();
+            height = in.readInt();
+            skipFully(in, length - TRAILER_SIZE - HEADER_SIZE);
+            indexOffset = in.readInt();
+            if (in.readInt() != MAGIC) throw new IOException("Truncated frames");
+        }
+        finally {
+            in.close();
+        }
+        if (width <= 0 || height <= 0 || indexOffset < HEADER_SIZE || indexOffset > length - TRAILER_SIZE) {
+            throw new IOException("Corrupted frames");
+        }
+
+        in = new DataInputStream(source.open());
+        try {
+            skipFully(in, indexOffset);
+            final int count = in.readInt();
+            if (count <= 0 || count > MAX_FRAME_COUNT) throw new IOException("Corrupted frames");
+
+            int[] offsets = new int[count], lengths = new int[count], delays = new int[count];
+            int[] bounds = new int[4 * count];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = in.readInt();
+                lengths[i] = in.readInt();
+                delays[i] = in.readInt();
+                for (int j = 0; j < 4; j++) {
+                    bounds[4 * i + j] = in.readInt();
+                }
+                if (offsets[i] < HEADER_SIZE || lengths[i] < 0 || (long) offsets[i] + lengths[i] > indexOffset
+                    || bounds[4 * i] < 0 || bounds[4 * i + 1] < 0
+                    || bounds[4 * i + 2] > width || bounds[4 * i + 3] > height) {
+                    throw new IOException("Corrupted frames");
+                }
+            }
+            return new TranscodedFrameDecoder(source, width, height, offsets, lengths, delays, bounds);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Transcodes an animation, decoding a whole loop of it.
+     *
+     * @param decoder The decoder of the animation, positioned before its first frame.
+     * @param out     The stream to write the transcoded animation to. It's not closed.
+     *
+     * @return The size of the transcoded animation, in bytes, or -1 if it can't be decoded.
+     * @throws IOException If the transcoded animation can't be written.
+     */
+    public static int transcode(FrameDecoder decoder, OutputStream out) throws IOException {
+        final int width = decoder.getWidth();
+        final int height = decoder.getHeight();
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(width);
+        data.writeInt(height);
+
+        final int[] fullBounds = {0, 0, width, height};
+        final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        final DataOutputStream index = new DataOutputStream(indexBytes);
+        int count = 0;
+        int frame;
+        while ((frame = decoder.advance()) == count) {
+            if (count == MAX_FRAME_COUNT) return -1;
+
+            final int[] bounds = count % KEYFRAME_INTERVAL == 0 ? fullBounds : decoder.getDirtyBounds();
+            final int offset = data.size();
+            encodeFrame(decoder.getPixels(), width, bounds, data);
+
+            index.writeInt(offset);
+            index.writeInt(data.size() - offset);
+            index.writeInt(decoder.getFrameDelay());
+            for (int j = 0; j < 4; j++) {
+                index.writeInt(bounds[j]);
+            }
+            count++;
+        }
+        // The loop must be over, starting again from the first frame
+        if (frame != 0 || count == 0) return -1;
+
+        final int indexOffset = data.size();
+        data.writeInt(count);
+        indexBytes.writeTo(data);
+        data.writeInt(indexOffset);
+        data.writeInt(MAGIC);
+        data.flush();
+        return data.size();
+    }
+
+    /** @return The duration of a loop of the animation, in milliseconds. */
+    public int getDuration() {
+        int duration = 0;
+        for (int delay : mDelays) {
+            duration += delay;
+        }
+        return duration;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    @Override
+    public int getCurrentFrame() {
+        return mFrameIndex;
+    }
+
+    @Override
+    public int getFrameDelay() {
+        return mFrameIndex >= 0 ? mDelays[mFrameIndex] : 0;
+    }
+
+    @Override
+    public int advance() {
+        final int next = mFrameIndex + 1 < mFrameCount ? mFrameIndex + 1 : 0;
+        try {
+            readFrame(next);
+            return next;
+        }
+        catch (IOException e) {
+            closeStream();
+            return -1;
+        }
+    }
+
+    /**
+     * Moves to any frame, replaying the frames from the keyframe before it.
+     *
+     * @param frame The index of the frame.
+     *
+     * @return The index of the frame, or -1 if it can't be read.
+     */
+    public int seek(int frame) {
+        if (frame < 0 || frame >= mFrameCount) {
+            throw new IndexOutOfBoundsException("No frame " + frame + " in " + mFrameCount + " frames");
+        }
+
+        // Keep composing from the current frame, if the keyframe isn't closer
+        int from = frame - frame % KEYFRAME_INTERVAL;
+        if (mFrameIndex >= from && mFrameIndex <= frame) from = mFrameIndex + 1;
+        try {
+            for (int i = from; i <= frame; i++) {
+                readFrame(i);
+            }
+            if (from > frame) mFrameIndex = frame;
+            // The frames in between have been skipped over
+            mDirtyBounds[0] = 0;
+            mDirtyBounds[1] = 0;
+            mDirtyBounds[2] = mWidth;
+            mDirtyBounds[3] = mHeight;
+            return frame;
+        }
+        catch (IOException e) {
+            closeStream();
+            return -1;
+        }
+    }
+
+    @Override
+    public void rewind() {
+        closeStream();
+        mFrameIndex = -1;
+        Arrays.fill(mPixels, 0);
+    }
+
+    @Override
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    @Override
+    public int[] getDirtyBounds() {
+        return mDirtyBounds;
+    }
+
+    @Override
+    public long getByteSize() {
+        return 4L * (mPixels.length + mPalette.length) + mBuffer.length + (long) INDEX_ENTRY_SIZE * mFrameCount;
+    }
+
+    /**
+     * Closes the stream being read and the source of the animation.
+     * No frame can be read afterwards.
+     */
+    @Override
+    public void close() {
+        closeStream();
+        mSource.close();
+    }
+
+    /** Reads a frame and copies its runs into the canvas. */
+    private void readFrame(int frame) throws IOException {
+        final long offset = mOffsets[frame];
+        if (mStream == null || mPosition > offset) {
+            closeStream();
+            mStream = mSource.open();
+            mPosition = 0;
+        }
+        skipFully(mStream, offset - mPosition);
+
+        final int length = mLengths[frame];
+        if (mBuffer.length < length) mBuffer = new byte[length];
+        readFully(mStream, mBuffer, length);
+        mPosition = offset + length;
+
+        System.arraycopy(mBounds, 4 * frame, mDirtyBounds, 0, 4);
+        decodeFrame(mBuffer, length, mDirtyBounds);
+        mFrameIndex = frame;
+    }
+
+    private void closeStream() {
+        if (mStream != null) {
+            try {
+                mStream.close();
+            }
+            catch (IOException ignored) {
+            }
+            mStream = null;
+        }
+    }
+
+    /**
+     * Encodes the pixels within the bounds, row by row. Frames with up to 256
+     * colors are stored as the size of their palette, the palette and 1-byte
+     * indices, the others as a zero size and 4-byte pixels. Either way, they're stored as runs: a positive count
+     * followed by a value repeated that many times, or a negative count
+     * followed by that many different values.
+     */
+    private static void encodeFrame(int[] pixels, int width, int[] bounds, DataOutputStream out) throws IOException {
+        final int rectWidth = bounds[2] - bounds[0];
+        final int area = rectWidth * (bounds[3] - bounds[1]);
+        final int[] values = new int[area];
+        for (int i = 0; i < area; i++) {
+            values[i] = pixels[(bounds[1] + i / rectWidth) * width + bounds[0] + i % rectWidth];
+        }
+
+        final Map<Integer, Integer> palette = new LinkedHashMap<Integer, Integer>();
+        for (int i = 0; i < area && palette.size() <= MAX_PALETTE_SIZE; i++) {
+            if (!palette.containsKey(values[i])) palette.put(values[i], palette.size());
+        }
+        final boolean indexed = palette.size() <= MAX_PALETTE_SIZE;
+        out.writeShort(indexed ? palette.size() : 0);
+        if (indexed) {
+            for (int color : palette.keySet()) {
+                out.writeInt(color);
+            }
+            for (int i = 0; i < area; i++) {
+                values[i] = palette.get(values[i]);
+            }
+        }
+        encodeRuns(values, area, indexed, out);
+    }
+
+    private static void encodeRuns(int[] values, int count, boolean indexed, DataOutputStream out) throws IOException {
+        int i = 0;
+        while (i < count) {
+            int run = 1;
+            while (i + run < count && run < MAX_RUN && values[i + run] == values[i]) run++;
+
+            if (run > 1) {
+                out.writeShort(run);
+                writeValue(out, values[i], indexed);
+                i += run;
+                continue;
+            }
+
+            // Different values, up to the next run of at least three
+            int literals = 1;
+            while (i + literals < count && literals < MAX_RUN
+                   && !(i + literals + 2 < count && values[i + literals] == values[i + literals + 1]
+                        && values[i + literals] == values[i + literals + 2])) {
+                literals++;
+            }
+            out.writeShort(-literals);
+            for (int j = 0; j < literals; j++) {
+                writeValue(out, values[i + j], indexed);
+            }
+            i += literals;
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, int value, boolean indexed) throws IOException {
+        if (indexed) {
+            out.writeByte(value);
+        }
+        else {
+            out.writeInt(value);
+        }
+    }
+
+    /** Copies the runs of a frame into the canvas, within the bounds of the frame. */
+    private void decodeFrame(byte[] data, int length, int[] bounds) throws IOException {
+        if (length < 2) throw new IOException("Corrupted frame");
+        final int paletteSize = ((data[0] & 0xff) << 8) | (data[1] & 0xff);
+        final boolean indexed = paletteSize > 0;
+        if (paletteSize > MAX_PALETTE_SIZE) throw new IOException("Corrupted frame");
+        int pos = 2;
+        if (indexed) {
+            if (pos + 4 * paletteSize > length) throw new IOException("Corrupted frame");
+            for (int i = 0; i < paletteSize; i++) {
+                mPalette[i] = readInt(data, pos);
+                pos += 4;
+            }
+        }
+
+        final int[] pixels = mPixels;
+        final int width = mWidth;
+        final int left = bounds[0], right = bounds[2], bottom = bounds[3];
+        int x = left, y = bounds[1];
+        while (pos + 2 <= length) {
+            int count = (short) ((data[pos] << 8) | (data[pos + 1] & 0xff));
+            pos += 2;
+            final boolean repeated = count > 0;
+            if (!repeated) count = -count;
+
+            final int valueSize = indexed ? 1 : 4;
+            if (pos + (repeated ? valueSize : valueSize * count) > length) throw new IOException("Corrupted frame");
+            int pixel = 0;
+            if (repeated) {
+                pixel = indexed ? mPalette[data[pos] & 0xff] : readInt(data, pos);
+                pos += valueSize;
+            }
+            for (int i = 0; i < count; i++) {
+                if (y >= bottom) throw new IOException("Corrupted frame");
+                if (!repeated) {
+                    pixel = indexed ? mPalette[data[pos] & 0xff] : readInt(data, pos);
+                    pos += valueSize;
+                }
+                pixels[y * width + x] = pixel;
+                if (++x == right) {
+                    x = left;
+                    y++;
+                }
+            }
+        }
+    }
+
+    private static int readInt(byte[] data, int pos) {
+        return (data[pos] << 24) | ((data[pos + 1] & 0xff) << 16) | ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            final long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException();
+                count--;
+            }
+            else {
+                count -= skipped;
+            }
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            final int count = in.read(buffer, read, length - read);
+            if (count < 0) throw new EOFException();
+            read += count;
+        }
+    }
+}
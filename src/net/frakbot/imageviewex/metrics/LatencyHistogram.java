@@ -0,0 +1,130 @@
+package net.frakbot.imageviewex.metrics;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies, with power-of-two buckets in
+ * microseconds: recording a value is a couple of atomic increments, so it
+ * can be done on any thread, including the UI one.
+ *
+ * @author Francesco Pontillo
+ */
+public class LatencyHistogram {
+
+    /** Bucket 0 holds latencies under 1us, bucket i those in [2^(i-1), 2^i) us. */
+    static final int BUCKETS = 32;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency, in nanoseconds.
+     */
+    public void record(long nanos) {
+        final long micros = Math.max(0, nanos / 1000);
+        final int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        mCounts.incrementAndGet(bucket);
+        mSum.addAndGet(micros);
+
+        long max;
+        while (micros > (max = mMax.get()) && !mMax.compareAndSet(max, micros)) {
+            // Somebody else has updated the max, try again
+        }
+    }
+
+    /** @return A copy of the current state of the histogram. */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return new Snapshot(counts, mSum.get(), mMax.get());
+    }
+
+    /** An immutable copy of a histogram. */
+    public static class Snapshot {
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        Snapshot(long[] counts, long sum, long max) {
+            mCounts = counts;
+            mSum = sum;
+            mMax = max;
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            mCount = count;
+        }
+
+        /** @return The number of recorded latencies. */
+        public long getCount() {
+            return mCount;
+        }
+
+        /** @return The mean latency, in microseconds. */
+        public long getMean() {
+            return mCount > 0 ? mSum / mCount : 0;
+        }
+
+        /** @return The largest latency, in microseconds. */
+        public long getMax() {
+            return mMax;
+        }
+
+        /**
+         * Estimates a percentile of the latencies, as the upper bound of the
+         * bucket it falls into (so it's off by a factor of 2 at most).
+         *
+         * @param percentile The percentile, between 0 and 1.
+         *
+         * @return The estimated latency, in microseconds.
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0) return 0;
+
+            final long threshold = (long) Math.ceil(percentile * mCount);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mCounts[i];
+                if (seen >= threshold && seen > 0) {
+                    return Math.min(1L << i, mMax);
+                }
+            }
+            return mMax;
+        }
+
+        /**
+         * Exports the snapshot: count, mean, percentiles and max in
+         * microseconds, plus the raw bucket counts.
+         *
+         * @return The snapshot as a JSON object.
+         * @throws JSONException Never, really.
+         */
+        public JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("count", mCount);
+            json.put("meanUs", getMean());
+            json.put("p50Us", getPercentile(0.5));
+            json.put("p90Us", getPercentile(0.9));
+            json.put("p99Us", getPercentile(0.99));
+            json.put("maxUs", mMax);
+            JSONArray buckets = new JSONArray();
+            for (long bucketCount : mCounts) {
+                buckets.put(bucketCount);
+            }
+            json.put("buckets", buckets);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package net.frakbot.imageviewex.metrics;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The timeline of a single image load, from the URL being set until the
+ * image is shown (or the load fails or is abandoned): a monotonic
+ * timestamp for each stage transition, plus what was transferred and
+ * decoded along the way.
+ * <p/>
+ * Timestamps come from {@link System#nanoTime()}, so only the differences
+ * between them are meaningful. Stages that a load didn't go through
+ * (e.g. the network ones for a disk cache hit) are -1.
+ *
+ * @author Francesco Pontillo
+ */
+public class LoadTrace {
+
+    /** The stage transitions of a load, in the order they normally happen. */
+    public enum Event {
+        /** The URL has been set. */
+        STARTED,
+        /** The memory cache (and the decoded images) have been checked. */
+        MEMORY_CHECKED,
+        /** The disk cache request has been sent to the service. */
+        DISK_QUEUED,
+        /** An operation has started looking into the disk cache. */
+        DISK_STARTED,
+        /** The image has been read from the disk cache, or not found. */
+        DISK_READ,
+        /** The network request has been sent to the service. */
+        NETWORK_QUEUED,
+        /** An operation has started the download. */
+        NETWORK_STARTED,
+        /** The response headers have been received (DNS, connection and server time included). */
+        NETWORK_RESPONSE,
+        /** The response body has been read. */
+        NETWORK_TRANSFERRED,
+        /** Decoding has started. */
+        DECODE_STARTED,
+        /** Decoding has finished. */
+        DECODED,
+        /** The image is shown. */
+        BOUND
+    }
+
+    /** How a load ended. */
+    public enum Outcome {
+        /** Still loading. */
+        PENDING,
+        /** The image is shown. */
+        BOUND,
+        /** The image couldn't be found anywhere. */
+        FAILED,
+        /** Another URL has been set before the image was shown. */
+        CANCELLED
+    }
+
+    private static final AtomicInteger mNextId = new AtomicInteger();
+
+    private final int mId = mNextId.incrementAndGet();
+    private final String mUrl;
+    private final boolean mSampled;
+    private final String mAsyncSection;
+    private final long[] mTimes = new long[Event.values().length];
+    private Outcome mOutcome = Outcome.PENDING;
+    private String mSource;
+    private long mBytesRead = -1;
+    private long mBytesTransferred = -1;
+    private long mAllocatedBytes;
+    private int mSourceWidth = -1;
+    private int mSourceHeight = -1;
+    private int mDecodedWidth = -1;
+    private int mDecodedHeight = -1;
+
+    /**
+     * Starts tracing a load.
+     *
+     * @param url     The URL being loaded.
+     * @param sampled true if the trace has to be delivered to the sink once finished.
+     */
+    LoadTrace(String url, boolean sampled) {
+        mUrl = url;
+        mSampled = sampled;
+        for (int i = 0; i < mTimes.length; i++) {
+            mTimes[i] = -1;
+        }
+        mTimes[Event.STARTED.ordinal()] = System.nanoTime();
+
+        // Links all the stages of the load in the system trace
+        final String section = "IVX.load " + getLabel();
+        mAsyncSection = Systrace.beginAsyncSection(section, mId) ? section : null;
+    }
+
+    /**
+     * Records a stage transition happening now.
+     *
+     * @param event The stage transition.
+     */
+    public void mark(Event event) {
+        mark(event, System.nanoTime());
+    }
+
+    /**
+     * Records a stage transition that happened at the given time, possibly
+     * on another thread. Times before the start of the load (e.g. those of
+     * a result computed for an earlier load) are ignored.
+     *
+     * @param event The stage transition.
+     * @param nanos The time of the transition, from {@link System#nanoTime()}.
+     */
+    public synchronized void mark(Event event, long nanos) {
+        if (mOutcome != Outcome.PENDING || nanos < mTimes[Event.STARTED.ordinal()]) return;
+        mTimes[event.ordinal()] = nanos;
+    }
+
+    /**
+     * Records where the encoded image has been found.
+     *
+     * @param source The tier the image has been found in, e.g. "memory", "decoded", "disk" or "network".
+     * @param bytes  The size of the encoded image, in bytes, or -1 if unknown.
+     */
+    public synchronized void setSource(String source, long bytes) {
+        mSource = source;
+        mBytesRead = bytes;
+    }
+
+    /** @param bytes The number of bytes downloaded from the network. */
+    public synchronized void setBytesTransferred(long bytes) {
+        mBytesTransferred = bytes;
+    }
+
+    /**
+     * Adds to the estimate of the memory allocated by the load: encoded copies
+     * read from the disk or the network, and decoded pixels.
+     *
+     * @param bytes The number of bytes allocated.
+     */
+    public synchronized void addAllocatedBytes(long bytes) {
+        if (mOutcome == Outcome.PENDING) mAllocatedBytes += bytes;
+    }
+
+    /**
+     * Records the size of the decoded image.
+     *
+     * @param sourceWidth   The width of the original image, in pixels, or -1 if unknown.
+     * @param sourceHeight  The height of the original image, in pixels, or -1 if unknown.
+     * @param decodedWidth  The width of the decoded image, in pixels.
+     * @param decodedHeight The height of the decoded image, in pixels.
+     */
+    public synchronized void setDimensions(int sourceWidth, int sourceHeight, int decodedWidth, int decodedHeight) {
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        mDecodedWidth = decodedWidth;
+        mDecodedHeight = decodedHeight;
+    }
+
+    /**
+     * Ends the trace, delivering it to the sink if sampled. Calling this
+     * more than once has no effect.
+     *
+     * @param outcome How the load ended.
+     *
+     * @return true if the trace has been ended by this call, false if it had already ended.
+     */
+    public boolean finish(Outcome outcome) {
+        synchronized (this) {
+            if (mOutcome != Outcome.PENDING) return false;
+            if (outcome == Outcome.BOUND) {
+                mTimes[Event.BOUND.ordinal()] = System.nanoTime();
+            }
+            mOutcome = outcome;
+        }
+        if (mAsyncSection != null) {
+            Systrace.endAsyncSection(mAsyncSection, mId);
+        }
+        if (mSampled) {
+            PipelineMetrics.deliverTrace(this);
+        }
+        return true;
+    }
+
+    /** @return The identifier of the load, unique within the process. */
+    public int getId() {
+        return mId;
+    }
+
+    /** @return A short description of the load, used to name its trace sections. */
+    public String getLabel() {
+        return "#" + mId + " " + mUrl;
+    }
+
+    /** @return The URL being loaded. */
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /** @return How the load ended, or {@link Outcome#PENDING} if it's still going on. */
+    public synchronized Outcome getOutcome() {
+        return mOutcome;
+    }
+
+    /**
+     * @param event The stage transition.
+     *
+     * @return The time of the transition, from {@link System#nanoTime()}, or -1 if it didn't happen.
+     */
+    public synchronized long getTime(Event event) {
+        return mTimes[event.ordinal()];
+    }
+
+    /**
+     * @param from The first stage transition.
+     * @param to   The second stage transition.
+     *
+     * @return The time between the two transitions, in nanoseconds, or -1 if either didn't happen.
+     */
+    public synchronized long getDuration(Event from, Event to) {
+        final long start = mTimes[from.ordinal()];
+        final long end = mTimes[to.ordinal()];
+        return start >= 0 && end >= 0 ? end - start : -1;
+    }
+
+    /** @return The time between the URL being set and the image being shown, in nanoseconds, or -1. */
+    public long getTotalTime() {
+        return getDuration(Event.STARTED, Event.BOUND);
+    }
+
+    /** @return The tier the encoded image has been found in, or null if not found yet. */
+    public synchronized String getSource() {
+        return mSource;
+    }
+
+    /** @return The size of the encoded image, in bytes, or -1 if unknown. */
+    public synchronized long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /** @return The number of bytes downloaded from the network, or -1 if nothing was downloaded. */
+    public synchronized long getBytesTransferred() {
+        return mBytesTransferred;
+    }
+
+    /** @return The estimated memory allocated by the load, in bytes. */
+    public synchronized long getAllocatedBytes() {
+        return mAllocatedBytes;
+    }
+
+    /** @return The width of the original image, in pixels, or -1 if unknown. */
+    public synchronized int getSourceWidth() {
+        return mSourceWidth;
+    }
+
+    /** @return The height of the original image, in pixels, or -1 if unknown. */
+    public synchronized int getSourceHeight() {
+        return mSourceHeight;
+    }
+
+    /** @return The width of the decoded image, in pixels, or -1 if not decoded yet. */
+    public synchronized int getDecodedWidth() {
+        return mDecodedWidth;
+    }
+
+    /** @return The height of the decoded image, in pixels, or -1 if not decoded yet. */
+    public synchronized int getDecodedHeight() {
+        return mDecodedHeight;
+    }
+
+    /** @return true if the decoded image is smaller than the original one. */
+    public synchronized boolean isDownsampled() {
+        return mSourceWidth > 0 && mDecodedWidth > 0 &&
+               (mDecodedWidth < mSourceWidth || mDecodedHeight < mSourceHeight);
+    }
+
+    /**
+     * Exports the trace, with the time of each stage transition relative
+     * to the start of the load.
+     *
+     * @return The trace as a JSON object.
+     * @throws JSONException Never, really.
+     */
+    public synchronized JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("id", mId);
+        json.put("url", mUrl);
+        json.put("outcome", mOutcome.name());
+        json.put("source", mSource);
+
+        final long start = mTimes[Event.STARTED.ordinal()];
+        JSONObject times = new JSONObject();
+        for (Event event : Event.values()) {
+            final long time = mTimes[event.ordinal()];
+            if (time >= 0) {
+                times.put(event.name(), (time - start) / 1000);
+            }
+        }
+        json.put("timesUs", times);
+
+        json.put("bytesRead", mBytesRead);
+        json.put("bytesTransferred", mBytesTransferred);
+        json.put("allocatedBytes", mAllocatedBytes);
+        json.put("sourceWidth", mSourceWidth);
+        json.put("sourceHeight", mSourceHeight);
+        json.put("decodedWidth", mDecodedWidth);
+        json.put("decodedHeight", mDecodedHeight);
+        json.put("downsampled", isDownsampled());
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return toJson().toString();
+        }
+        catch (JSONException e) {
+            return super.toString();
+        }
+    }
+}
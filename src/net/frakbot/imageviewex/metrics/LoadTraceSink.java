@@ -0,0 +1,19 @@
+package net.frakbot.imageviewex.metrics;
+
+/**
+ * Receives the finished {@link LoadTrace}s sampled by the
+ * {@link PipelineMetrics}, e.g. to forward them to some telemetry.
+ *
+ * @author Francesco Pontillo
+ */
+public interface LoadTraceSink {
+
+    /**
+     * Called when a sampled load has ended, usually on the UI thread:
+     * implementations must return quickly and hand any slow work off
+     * to another thread.
+     *
+     * @param trace The finished trace.
+     */
+    public void onLoadTraced(LoadTrace trace);
+}
@@ -0,0 +1,190 @@
+package net.frakbot.imageviewex.metrics;
+
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Catches the library doing expensive work on the main thread: decodes,
+ * disk cache reads and writes, key hashing and network calls made on the
+ * main looper are recorded as {@link Violation}s, with their duration and
+ * the stack trace of the caller.
+ * <p/>
+ * The guard is disabled by default. In {@link Mode#LOG} mode violations are
+ * logged and kept for inspection; in {@link Mode#STRICT} mode they're also
+ * thrown as a {@link MainThreadViolationException} once the operation
+ * completes, so that instrumentation tests fail on them.
+ * <p/>
+ * Guarded operations look like this:
+ * <pre>
+ * final long guard = MainThreadGuard.begin();
+ * try {
+ *     result = expensiveOperation();
+ * }
+ * finally {
+ *     MainThreadGuard.end(MainThreadGuard.Operation.DECODE, detail, guard);
+ * }
+ * </pre>
+ * It's abstract and all of its methods are static.
+ *
+ * @author Francesco Pontillo
+ */
+public abstract class MainThreadGuard {
+    private static final String TAG = MainThreadGuard.class.getSimpleName();
+
+    // The oldest violations are dropped once there are this many
+    private static final int MAX_VIOLATIONS = 32;
+
+    /** The operations that must not run on the main thread. */
+    public enum Operation {
+        DECODE, DISK_READ, DISK_WRITE, HASH, NETWORK
+    }
+
+    /** What the guard does with the violations. */
+    public enum Mode {
+        /** Nothing is checked. */
+        OFF,
+        /** Violations are logged and recorded. */
+        LOG,
+        /** Violations are logged, recorded and thrown. */
+        STRICT
+    }
+
+    /** An operation that ran on the main thread. */
+    public static class Violation {
+        private final Operation mOperation;
+        private final String mDetail;
+        private final long mDuration;
+        private final Throwable mStackTrace;
+
+        Violation(Operation operation, String detail, long duration) {
+            mOperation = operation;
+            mDetail = detail;
+            mDuration = duration;
+            mStackTrace = new Throwable(toString());
+        }
+
+        /** @return The operation. */
+        public Operation getOperation() {
+            return mOperation;
+        }
+
+        /** @return What the operation was about (e.g. the URL of the image), or null. */
+        public String getDetail() {
+            return mDetail;
+        }
+
+        /** @return How long the operation blocked the main thread, in nanoseconds. */
+        public long getDuration() {
+            return mDuration;
+        }
+
+        /** @return A throwable holding the stack trace of the operation. */
+        public Throwable getStackTrace() {
+            return mStackTrace;
+        }
+
+        @Override
+        public String toString() {
+            return mOperation + " on the main thread (" + mDuration / 1000 + "us)"
+                   + (mDetail != null ? ": " + mDetail : "");
+        }
+    }
+
+    /** Thrown by violations in {@link Mode#STRICT} mode. */
+    public static class MainThreadViolationException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Violation mViolation;
+
+        MainThreadViolationException(Violation violation) {
+            super(violation.toString(), violation.getStackTrace());
+            mViolation = violation;
+        }
+
+        /** @return The violation. */
+        public Violation getViolation() {
+            return mViolation;
+        }
+    }
+
+    private static volatile Mode mMode = Mode.OFF;
+    private static final LinkedList<Violation> mViolations = new LinkedList<Violation>();
+    private static int mViolationCount = 0;
+
+    /** @return The current mode of the guard. */
+    public static Mode getMode() {
+        return mMode;
+    }
+
+    /** @param mode The new mode of the guard. */
+    public static void setMode(Mode mode) {
+        mMode = mode != null ? mode : Mode.OFF;
+    }
+
+    /**
+     * Marks the beginning of a guarded operation.
+     *
+     * @return A token to be passed to {@link #end(Operation, String, long)},
+     *         negative if the operation doesn't need to be checked.
+     */
+    public static long begin() {
+        if (mMode == Mode.OFF || !isMainThread()) return -1;
+        return System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a guarded operation, recording a violation if it
+     * began on the main thread.
+     *
+     * @param operation The operation.
+     * @param detail    What the operation was about (e.g. the URL of the image), or null.
+     * @param token     The value returned by {@link #begin()}.
+     *
+     * @throws MainThreadViolationException In {@link Mode#STRICT} mode, if the operation ran on the main thread.
+     */
+    public static void end(Operation operation, String detail, long token) {
+        if (token < 0) return;
+
+        Violation violation = new Violation(operation, detail, System.nanoTime() - token);
+        synchronized (mViolations) {
+            mViolations.addLast(violation);
+            if (mViolations.size() > MAX_VIOLATIONS) mViolations.removeFirst();
+            mViolationCount++;
+        }
+        Log.w(TAG, violation.toString(), violation.getStackTrace());
+
+        if (mMode == Mode.STRICT) {
+            throw new MainThreadViolationException(violation);
+        }
+    }
+
+    /** @return The most recent violations, oldest first. */
+    public static List<Violation> getViolations() {
+        synchronized (mViolations) {
+            return new ArrayList<Violation>(mViolations);
+        }
+    }
+
+    /** @return The number of violations since the last {@link #clearViolations()}. */
+    public static int getViolationCount() {
+        synchronized (mViolations) {
+            return mViolationCount;
+        }
+    }
+
+    /** Forgets all the violations recorded so far. */
+    public static void clearViolations() {
+        synchronized (mViolations) {
+            mViolations.clear();
+            mViolationCount = 0;
+        }
+    }
+
+    private static boolean isMainThread() {
+        return Looper.getMainLooper().getThread() == Thread.currentThread();
+    }
+}
@@ -0,0 +1,168 @@
+package net.frakbot.imageviewex.metrics;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import net.frakbot.cache.BitmapPool;
+import net.frakbot.cache.BitmapResource;
+import net.frakbot.cache.BitmapResourceCache;
+import net.frakbot.cache.MemoryCache;
+import net.frakbot.imageviewex.ImageViewEx;
+import net.frakbot.imageviewex.ImageViewNext;
+import net.frakbot.imageviewex.TiledDrawable;
+import net.frakbot.imageviewex.decoder.AnimatedImage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Accounts for the memory retained by the library: each cache tier, the
+ * bitmap pool, and the images shown (or played) by each view, so that the
+ * heaviest ones can be found when the heap runs out.
+ * Views are tracked weakly, from their construction until they're
+ * garbage collected. It's abstract and all of its methods are static.
+ *
+ * @author Francesco Pontillo
+ */
+public abstract class MemoryAccounting {
+
+    private static final Map<ImageViewEx, Boolean> mViews = new WeakHashMap<ImageViewEx, Boolean>();
+
+    /**
+     * Starts tracking a view. Called by the views themselves.
+     *
+     * @param view The view.
+     */
+    public static void registerView(ImageViewEx view) {
+        synchronized (mViews) {
+            mViews.put(view, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * @param bitmap The bitmap, or null.
+     *
+     * @return The size of the pixels of the bitmap, in bytes, or 0 if null or recycled.
+     */
+    public static long getByteSize(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) return 0;
+        return (long) bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * @param drawable The drawable, or null.
+     *
+     * @return The size of the bitmap of the drawable, in bytes, or 0 if it has none. The tiles of a
+     *         {@link TiledDrawable} are shared by all the images, so only its low resolution copy is counted.
+     */
+    public static long getByteSize(Drawable drawable) {
+        if (drawable instanceof TiledDrawable) return getByteSize(((TiledDrawable) drawable).getPreview());
+        return drawable instanceof BitmapDrawable ? getByteSize(((BitmapDrawable) drawable).getBitmap()) : 0;
+    }
+
+    /**
+     * Estimates the memory retained by a {@code Movie}, which keeps a copy of
+     * the encoded GIF and renders each frame into a 32-bit bitmap.
+     *
+     * @param width       The width of the movie, in pixels.
+     * @param height      The height of the movie, in pixels.
+     * @param encodedSize The size of the encoded GIF, in bytes, or 0 if unknown.
+     *
+     * @return The estimated retained memory, in bytes.
+     */
+    public static long getMovieByteSize(int width, int height, int encodedSize) {
+        return 4L * width * height + encodedSize;
+    }
+
+    /**
+     * Takes a report of the retained memory.
+     * It walks all the views and the decoded images, so it's meant for debugging.
+     *
+     * @param topCount The number of the heaviest views and decoded images to list.
+     *
+     * @return The report.
+     */
+    public static MemoryReport report(int topCount) {
+        List<MemoryReport.Item> tiers = new ArrayList<MemoryReport.Item>();
+
+        MemoryCache<String, byte[]> memCache = ImageViewNext.getMemCache();
+        if (memCache != null) {
+            tiers.add(new MemoryReport.Item("memory cache", null, memCache.size()));
+        }
+
+        List<MemoryReport.Item> entries = new ArrayList<MemoryReport.Item>();
+        BitmapResourceCache decodedCache = ImageViewNext.getDecodedCache();
+        if (decodedCache != null) {
+            long activeBytes = 0;
+            for (BitmapResource resource : decodedCache.getActiveResources()) {
+                activeBytes += resource.getByteSize();
+                entries.add(new MemoryReport.Item("decoded (in use)", resource.getKey(), resource.getByteSize()));
+            }
+            for (BitmapResource resource : decodedCache.getCachedResources()) {
+                entries.add(new MemoryReport.Item("decoded (cached)", resource.getKey(), resource.getByteSize()));
+            }
+            tiers.add(new MemoryReport.Item("decoded images (in use)", null, activeBytes));
+            tiers.add(new MemoryReport.Item("decoded images (cached)", null, decodedCache.size()));
+
+            BitmapPool pool = decodedCache.getBitmapPool();
+            tiers.add(new MemoryReport.Item("bitmap pool", null, pool.size()));
+        }
+
+        List<ImageViewEx> views;
+        synchronized (mViews) {
+            views = new ArrayList<ImageViewEx>(mViews.keySet());
+        }
+
+        // Bitmaps and GIFs shared by several views (or by the decoded images) are only counted once
+        Map<Bitmap, Boolean> counted = new IdentityHashMap<Bitmap, Boolean>();
+        if (decodedCache != null) {
+            for (BitmapResource resource : decodedCache.getActiveResources()) {
+                counted.put(resource.getBitmap(), Boolean.TRUE);
+            }
+        }
+        Map<AnimatedImage, Boolean> countedGifs = new IdentityHashMap<AnimatedImage, Boolean>();
+        List<MemoryReport.Item> viewItems = new ArrayList<MemoryReport.Item>();
+        long unsharedViewBytes = 0;
+        long movieBytes = 0;
+        for (ImageViewEx view : views) {
+            final long retained = view.getRetainedBytes();
+            if (retained > 0) {
+                viewItems.add(new MemoryReport.Item(describe(view), getUrl(view), retained));
+            }
+
+            final AnimatedImage gif = view.getAnimatedImage();
+            if (gif != null && countedGifs.put(gif.getSource(), Boolean.TRUE) == null) {
+                movieBytes += gif.getByteSize();
+            }
+            Drawable drawable = view.getDrawable();
+            if (drawable instanceof BitmapDrawable) {
+                Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+                if (bitmap != null && counted.put(bitmap, Boolean.TRUE) == null) {
+                    unsharedViewBytes += getByteSize(bitmap);
+                }
+            }
+        }
+        tiers.add(new MemoryReport.Item("playing GIFs", null, movieBytes));
+        tiers.add(new MemoryReport.Item("other view bitmaps", null, unsharedViewBytes));
+
+        Collections.sort(viewItems);
+        Collections.sort(entries);
+        return new MemoryReport(tiers, views.size(),
+                                viewItems.subList(0, Math.min(topCount, viewItems.size())),
+                                entries.subList(0, Math.min(topCount, entries.size())));
+    }
+
+    private static String describe(ImageViewEx view) {
+        String kind = view.getRetainedMovieBytes() > 0 ? "GIF" : "bitmap";
+        return view.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(view))
+               + " (" + kind + (view.getWindowToken() != null ? ", attached" : ", detached") + ")";
+    }
+
+    private static String getUrl(ImageViewEx view) {
+        return view instanceof ImageViewNext ? ((ImageViewNext) view).getUrl() : null;
+    }
+}
@@ -0,0 +1,148 @@
+package net.frakbot.imageviewex.metrics;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The memory retained by the library, taken by {@link MemoryAccounting#report(int)}:
+ * the size of each tier, plus the heaviest views and decoded images.
+ *
+ * @author Francesco Pontillo
+ */
+public class MemoryReport {
+
+    /** Something that retains memory. */
+    public static class Item implements Comparable<Item> {
+        private final String mName;
+        private final String mKey;
+        private final long mBytes;
+
+        Item(String name, String key, long bytes) {
+            mName = name;
+            mKey = key;
+            mBytes = bytes;
+        }
+
+        /** @return What retains the memory. */
+        public String getName() {
+            return mName;
+        }
+
+        /** @return The URL or the cache key of the image, or null. */
+        public String getKey() {
+            return mKey;
+        }
+
+        /** @return The retained memory, in bytes. */
+        public long getBytes() {
+            return mBytes;
+        }
+
+        /** Sorts the heaviest items first. */
+        @Override
+        public int compareTo(Item another) {
+            return mBytes > another.mBytes ? -1 : (mBytes < another.mBytes ? 1 : 0);
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("name", mName);
+            if (mKey != null) json.put("key", mKey);
+            json.put("bytes", mBytes);
+            return json;
+        }
+
+        @Override
+        public String toString() {
+            return mName + (mKey != null ? " " + mKey : "") + ": " + mBytes / 1024 + " KiB";
+        }
+    }
+
+    private final List<Item> mTiers;
+    private final int mViewCount;
+    private final List<Item> mTopViews;
+    private final List<Item> mTopEntries;
+
+    MemoryReport(List<Item> tiers, int viewCount, List<Item> topViews, List<Item> topEntries) {
+        mTiers = Collections.unmodifiableList(new ArrayList<Item>(tiers));
+        mViewCount = viewCount;
+        mTopViews = Collections.unmodifiableList(new ArrayList<Item>(topViews));
+        mTopEntries = Collections.unmodifiableList(new ArrayList<Item>(topEntries));
+    }
+
+    /** @return The memory retained by each tier; items shared by several tiers are only counted once. */
+    public List<Item> getTiers() {
+        return mTiers;
+    }
+
+    /** @return The total memory retained by the library, in bytes. */
+    public long getTotalBytes() {
+        long total = 0;
+        for (Item tier : mTiers) {
+            total += tier.getBytes();
+        }
+        return total;
+    }
+
+    /** @return The number of views alive. */
+    public int getViewCount() {
+        return mViewCount;
+    }
+
+    /** @return The heaviest views, heaviest first. */
+    public List<Item> getTopViews() {
+        return mTopViews;
+    }
+
+    /** @return The heaviest decoded images, heaviest first. */
+    public List<Item> getTopEntries() {
+        return mTopEntries;
+    }
+
+    /**
+     * Exports the whole report as a structured dump.
+     *
+     * @return The report as a JSON object.
+     * @throws JSONException Never, really.
+     */
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("totalBytes", getTotalBytes());
+        json.put("views", mViewCount);
+        json.put("tiers", toJson(mTiers));
+        json.put("topViews", toJson(mTopViews));
+        json.put("topEntries", toJson(mTopEntries));
+        return json;
+    }
+
+    private static JSONArray toJson(List<Item> items) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (Item item : items) {
+            array.put(item.toJson());
+        }
+        return array;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Retained: ").append(getTotalBytes() / 1024).append(" KiB, ").append(mViewCount).append(" views\n");
+        for (Item tier : mTiers) {
+            sb.append("  ").append(tier).append('\n');
+        }
+        sb.append("Heaviest views:\n");
+        for (Item view : mTopViews) {
+            sb.append("  ").append(view).append('\n');
+        }
+        sb.append("Heaviest decoded images:\n");
+        for (Item entry : mTopEntries) {
+            sb.append("  ").append(entry).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,214 @@
+package net.frakbot.imageviewex.metrics;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * An immutable copy of the metrics of the image loading pipeline,
+ * taken by {@link PipelineMetrics#snapshot()}. Counters are cumulative:
+ * subtract two snapshots to get the rates.
+ *
+ * @author Francesco Pontillo
+ */
+public class MetricsSnapshot {
+
+    private final long mTimestamp;
+    private final Tier mMemory;
+    private final Tier mDecoded;
+    private final Tier mDisk;
+    private final long mDiskBytesRead;
+    private final long mDiskBytesWritten;
+    private final long mNetworkBytes;
+    private final LatencyHistogram.Snapshot[] mLatencies;
+    private final int mQueuedRequests;
+    private final int mRunningRequests;
+
+    MetricsSnapshot(long timestamp, Tier memory, Tier decoded, Tier disk,
+                    long diskBytesRead, long diskBytesWritten, long networkBytes,
+                    LatencyHistogram.Snapshot[] latencies, int queuedRequests, int runningRequests) {
+        mTimestamp = timestamp;
+        mMemory = memory;
+        mDecoded = decoded;
+        mDisk = disk;
+        mDiskBytesRead = diskBytesRead;
+        mDiskBytesWritten = diskBytesWritten;
+        mNetworkBytes = networkBytes;
+        mLatencies = latencies;
+        mQueuedRequests = queuedRequests;
+        mRunningRequests = runningRequests;
+    }
+
+    /** @return The time the snapshot was taken at, in milliseconds. */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /** @return The counters of the in-memory cache of the encoded images, or null if not initialized. */
+    public Tier getMemory() {
+        return mMemory;
+    }
+
+    /** @return The counters of the decoded images cache, or null if not initialized. */
+    public Tier getDecoded() {
+        return mDecoded;
+    }
+
+    /** @return The counters of the disk cache. */
+    public Tier getDisk() {
+        return mDisk;
+    }
+
+    /** @return The number of bytes read from the disk cache. */
+    public long getDiskBytesRead() {
+        return mDiskBytesRead;
+    }
+
+    /** @return The number of bytes written into the disk cache. */
+    public long getDiskBytesWritten() {
+        return mDiskBytesWritten;
+    }
+
+    /** @return The number of bytes downloaded from the network. */
+    public long getNetworkBytes() {
+        return mNetworkBytes;
+    }
+
+    /**
+     * @param stage The stage of the pipeline.
+     *
+     * @return The latencies of the stage.
+     */
+    public LatencyHistogram.Snapshot getLatency(PipelineMetrics.Stage stage) {
+        return mLatencies[stage.ordinal()];
+    }
+
+    /** @return The number of requests waiting for an operation to run them. */
+    public int getQueuedRequests() {
+        return mQueuedRequests;
+    }
+
+    /** @return The number of requests being run by an operation. */
+    public int getRunningRequests() {
+        return mRunningRequests;
+    }
+
+    /**
+     * Exports the whole snapshot as a structured dump.
+     *
+     * @return The snapshot as a JSON object.
+     * @throws JSONException Never, really.
+     */
+    public JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("timestamp", mTimestamp);
+
+        JSONObject tiers = new JSONObject();
+        if (mMemory != null) tiers.put("memory", mMemory.toJson());
+        if (mDecoded != null) tiers.put("decoded", mDecoded.toJson());
+        tiers.put("disk", mDisk.toJson());
+        json.put("tiers", tiers);
+
+        JSONObject bytes = new JSONObject();
+        bytes.put("diskRead", mDiskBytesRead);
+        bytes.put("diskWritten", mDiskBytesWritten);
+        bytes.put("network", mNetworkBytes);
+        json.put("bytes", bytes);
+
+        JSONObject latencies = new JSONObject();
+        for (PipelineMetrics.Stage stage : PipelineMetrics.Stage.values()) {
+            latencies.put(stage.name(), getLatency(stage).toJson());
+        }
+        json.put("latencies", latencies);
+
+        JSONObject requests = new JSONObject();
+        requests.put("queued", mQueuedRequests);
+        requests.put("running", mRunningRequests);
+        json.put("requests", requests);
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return toJson().toString();
+        }
+        catch (JSONException e) {
+            return super.toString();
+        }
+    }
+
+    /** The counters of a cache tier. */
+    public static class Tier {
+        private final long mHits;
+        private final long mMisses;
+        private final long mPuts;
+        private final long mEvictions;
+        private final long mBytes;
+        private final long mEntries;
+        private final long mMaxBytes;
+
+        Tier(long hits, long misses, long puts, long evictions, long bytes, long entries, long maxBytes) {
+            mHits = hits;
+            mMisses = misses;
+            mPuts = puts;
+            mEvictions = evictions;
+            mBytes = bytes;
+            mEntries = entries;
+            mMaxBytes = maxBytes;
+        }
+
+        /** @return The number of lookups that found the image. */
+        public long getHits() {
+            return mHits;
+        }
+
+        /** @return The number of lookups that didn't find the image. */
+        public long getMisses() {
+            return mMisses;
+        }
+
+        /** @return The number of images added to the tier. */
+        public long getPuts() {
+            return mPuts;
+        }
+
+        /** @return The number of images evicted from the tier. */
+        public long getEvictions() {
+            return mEvictions;
+        }
+
+        /** @return The current size of the tier, in bytes, or -1 if unknown. */
+        public long getBytes() {
+            return mBytes;
+        }
+
+        /** @return The current number of images in the tier, or -1 if unknown. */
+        public long getEntries() {
+            return mEntries;
+        }
+
+        /** @return The maximum size of the tier, in bytes, or -1 if unknown. */
+        public long getMaxBytes() {
+            return mMaxBytes;
+        }
+
+        /** @return The ratio of lookups that found the image, between 0 and 1. */
+        public double getHitRate() {
+            final long lookups = mHits + mMisses;
+            return lookups > 0 ? (double) mHits / lookups : 0;
+        }
+
+        JSONObject toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("hits", mHits);
+            json.put("misses", mMisses);
+            json.put("hitRate", getHitRate());
+            json.put("puts", mPuts);
+            json.put("evictions", mEvictions);
+            json.put("bytes", mBytes);
+            json.put("entries", mEntries);
+            json.put("maxBytes", mMaxBytes);
+            return json;
+        }
+    }
+}
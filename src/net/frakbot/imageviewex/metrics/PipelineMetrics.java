@@ -0,0 +1,255 @@
+package net.frakbot.imageviewex.metrics;
+
+import com.foxykeep.datadroid.requestmanager.Request;
+import com.jakewharton.disklrucache.DiskLruCache;
+import net.frakbot.cache.BitmapResourceCache;
+import net.frakbot.cache.MemoryCache;
+import net.frakbot.cache.MetadataIndex;
+import net.frakbot.imageviewex.ImageViewNext;
+import net.frakbot.remote.RemoteResponse;
+
+import android.util.Log;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the metrics of the image loading pipeline: the counters of the
+ * cache tiers, the latency of each stage of a load and the number of
+ * queued and running requests. Recording is lock-free and
+ * {@link #snapshot()} only copies a few counters, so it can be polled
+ * as often as once per second in production.
+ * It's abstract and all of its methods are static.
+ *
+ * @author Francesco Pontillo
+ */
+public abstract class PipelineMetrics {
+    private static final String TAG = PipelineMetrics.class.getSimpleName();
+
+    /** The stages of an image load. */
+    public enum Stage {
+        /** From the request being sent to the service until an operation starts running it. */
+        QUEUE_WAIT,
+        /** Reading an image (or its processed variant) from the disk cache. */
+        DISK_READ,
+        /** From connecting to the server until the response headers are received. */
+        NETWORK_TTFB,
+        /** Reading the response body. */
+        NETWORK_TRANSFER,
+        /** Decoding the image into a bitmap or a movie. */
+        DECODE,
+        /** From the URL being set until the image is shown. */
+        BIND
+    }
+
+    private static final LatencyHistogram[] mHistograms = new LatencyHistogram[Stage.values().length];
+
+    static {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    private static final ConcurrentHashMap<Request, Long> mQueuedRequests = new ConcurrentHashMap<Request, Long>();
+    private static final AtomicInteger mRunningRequests = new AtomicInteger();
+
+    private static final AtomicLong mDiskHits = new AtomicLong();
+    private static final AtomicLong mDiskMisses = new AtomicLong();
+    private static final AtomicLong mDiskPuts = new AtomicLong();
+    private static final AtomicLong mDiskEvictions = new AtomicLong();
+    private static final AtomicLong mDiskBytesRead = new AtomicLong();
+    private static final AtomicLong mDiskBytesWritten = new AtomicLong();
+    private static final AtomicLong mNetworkBytes = new AtomicLong();
+
+    private static volatile LoadTraceSink mTraceSink;
+    private static volatile float mTraceSampleRate = 1f;
+    private static final Random mTraceRandom = new Random();
+
+    /**
+     * Records the latency of a stage.
+     *
+     * @param stage The stage.
+     * @param nanos The latency, in nanoseconds.
+     */
+    public static void recordLatency(Stage stage, long nanos) {
+        mHistograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records a request being sent to the service. Identical requests sent
+     * while one is already queued are merged by the RequestManager, so only
+     * the first one is tracked.
+     *
+     * @param request The request.
+     */
+    public static void onRequestQueued(Request request) {
+        mQueuedRequests.putIfAbsent(request, System.nanoTime());
+    }
+
+    /**
+     * Records an operation starting to run a request.
+     *
+     * @param request The request.
+     */
+    public static void onRequestStarted(Request request) {
+        mRunningRequests.incrementAndGet();
+        Long queuedAt = mQueuedRequests.remove(request);
+        if (queuedAt != null) {
+            recordLatency(Stage.QUEUE_WAIT, System.nanoTime() - queuedAt);
+        }
+    }
+
+    /**
+     * Records a request having been answered to its listener, either
+     * successfully or not. Requests answered by the memory cache of the
+     * RequestManager never reach the service, so they stop being tracked
+     * here rather than in {@link #onRequestStarted(Request)}.
+     *
+     * @param request The request.
+     */
+    public static void onRequestAnswered(Request request) {
+        mQueuedRequests.remove(request);
+    }
+
+    /**
+     * Records an operation having finished running a request, either
+     * successfully or not.
+     *
+     * @param request The request.
+     */
+    public static void onRequestFinished(Request request) {
+        mRunningRequests.decrementAndGet();
+    }
+
+    /**
+     * Records an image found in the disk cache.
+     *
+     * @param bytes The size of the image, in bytes.
+     */
+    public static void recordDiskHit(int bytes) {
+        mDiskHits.incrementAndGet();
+        mDiskBytesRead.addAndGet(bytes);
+    }
+
+    /** Records an image not found in the disk cache. */
+    public static void recordDiskMiss() {
+        mDiskMisses.incrementAndGet();
+    }
+
+    /**
+     * Records an image written into the disk cache.
+     *
+     * @param bytes The size of the image, in bytes.
+     */
+    public static void recordDiskPut(int bytes) {
+        mDiskPuts.incrementAndGet();
+        mDiskBytesWritten.addAndGet(bytes);
+    }
+
+    /**
+     * Records an image that turned out to have been evicted from the disk
+     * cache. The disk cache doesn't report its evictions, so they're only
+     * counted when they are noticed.
+     */
+    public static void recordDiskEviction() {
+        mDiskEvictions.incrementAndGet();
+    }
+
+    /**
+     * Records the timings of a network response and the size of its body.
+     *
+     * @param response The response.
+     */
+    public static void recordNetworkResponse(RemoteResponse response) {
+        if (response.getTimeToFirstByte() >= 0) {
+            recordLatency(Stage.NETWORK_TTFB, response.getTimeToFirstByte());
+        }
+        if (response.getTransferTime() >= 0) {
+            recordLatency(Stage.NETWORK_TRANSFER, response.getTransferTime());
+        }
+        if (response.getData() != null) {
+            mNetworkBytes.addAndGet(response.getData().length);
+        }
+    }
+
+    /**
+     * Sets the sink the finished {@link LoadTrace}s are delivered to.
+     *
+     * @param sink       The sink, or null to stop delivering traces.
+     * @param sampleRate The fraction of loads to deliver, between 0 and 1.
+     */
+    public static void setLoadTraceSink(LoadTraceSink sink, float sampleRate) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("The sample rate must be between 0 and 1");
+        }
+        mTraceSampleRate = sampleRate;
+        mTraceSink = sink;
+    }
+
+    /** @return The sink the finished traces are delivered to, or null. */
+    public static LoadTraceSink getLoadTraceSink() {
+        return mTraceSink;
+    }
+
+    /**
+     * Starts tracing a load, deciding whether it'll be delivered to the sink.
+     *
+     * @param url The URL being loaded.
+     *
+     * @return The new trace.
+     */
+    public static LoadTrace startTrace(String url) {
+        final boolean sampled = mTraceSink != null && mTraceRandom.nextFloat() < mTraceSampleRate;
+        return new LoadTrace(url, sampled);
+    }
+
+    static void deliverTrace(LoadTrace trace) {
+        LoadTraceSink sink = mTraceSink;
+        if (sink == null) return;
+
+        try {
+            sink.onLoadTraced(trace);
+        }
+        catch (RuntimeException e) {
+            Log.w(TAG, "The load trace sink has thrown an exception", e);
+        }
+    }
+
+    /** @return The current metrics of the pipeline. */
+    public static MetricsSnapshot snapshot() {
+        MetricsSnapshot.Tier memory = null;
+        MemoryCache<String, byte[]> memCache = ImageViewNext.getMemCache();
+        if (memCache != null) {
+            memory = new MetricsSnapshot.Tier(memCache.hitCount(), memCache.missCount(), memCache.putCount(),
+                                              memCache.evictionCount(), memCache.size(), -1, memCache.maxSize());
+        }
+
+        MetricsSnapshot.Tier decoded = null;
+        BitmapResourceCache decodedCache = ImageViewNext.getDecodedCache();
+        if (decodedCache != null) {
+            decoded = new MetricsSnapshot.Tier(decodedCache.hitCount(), decodedCache.missCount(),
+                                               decodedCache.putCount(), decodedCache.evictionCount(),
+                                               decodedCache.size(), decodedCache.getActiveCount(),
+                                               decodedCache.maxSize());
+        }
+
+        DiskLruCache diskCache = ImageViewNext.getDiskCache();
+        MetadataIndex metadataIndex = ImageViewNext.getMetadataIndex();
+        MetricsSnapshot.Tier disk = new MetricsSnapshot.Tier(
+            mDiskHits.get(), mDiskMisses.get(), mDiskPuts.get(), mDiskEvictions.get(),
+            diskCache != null ? diskCache.size() : -1,
+            metadataIndex != null ? metadataIndex.size() : -1,
+            diskCache != null ? diskCache.getMaxSize() : -1);
+
+        LatencyHistogram.Snapshot[] latencies = new LatencyHistogram.Snapshot[mHistograms.length];
+        for (int i = 0; i < mHistograms.length; i++) {
+            latencies[i] = mHistograms[i].snapshot();
+        }
+
+        return new MetricsSnapshot(System.currentTimeMillis(), memory, decoded, disk,
+                                   mDiskBytesRead.get(), mDiskBytesWritten.get(), mNetworkBytes.get(),
+                                   latencies, mQueuedRequests.size(), mRunningRequests.get());
+    }
+}
@@ -0,0 +1,161 @@
+package net.frakbot.imageviewex.metrics;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+
+/**
+ * Emits systrace/Perfetto sections around the hot paths of the library, so
+ * that the time spent decoding, drawing or loading an image shows up with
+ * a name (and the image it belongs to) instead of as anonymous app code.
+ * Each load is also an async section, linking its stages across threads.
+ * <p/>
+ * Tracing is disabled by default: enable it with {@link #setEnabled(boolean)}
+ * while profiling. {@code android.os.Trace} is only available from API 18 and
+ * its async sections only became public with API 29, so everything is looked
+ * up by reflection and silently does nothing where it's not available.
+ * It's abstract and all of its methods are static.
+ *
+ * @author Francesco Pontillo
+ */
+public abstract class Systrace {
+    private static final String TAG = Systrace.class.getSimpleName();
+
+    // Section names longer than this are rejected by the kernel
+    private static final int MAX_SECTION_NAME_LENGTH = 127;
+
+    private static volatile boolean mEnabled = false;
+    private static boolean mResolved = false;
+    private static Method mBeginSection;
+    private static Method mEndSection;
+    private static Method mBeginAsyncSection;
+    private static Method mEndAsyncSection;
+    private static Long mAppTraceTag;
+
+    /** @return true if the trace sections are emitted, false otherwise. */
+    public static boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Enables or disables the trace sections. Sections that are open when
+     * tracing is disabled are still closed.
+     *
+     * @param enabled true to emit the trace sections, false otherwise.
+     */
+    public static void setEnabled(boolean enabled) {
+        if (enabled) resolve();
+        mEnabled = enabled && mBeginSection != null;
+    }
+
+    /**
+     * Begins a section on the current thread, which must be ended by
+     * {@link #endSection(boolean)} on the same thread.
+     *
+     * @param name The name of the section.
+     *
+     * @return true if the section has begun, to be passed to {@link #endSection(boolean)}.
+     */
+    public static boolean beginSection(String name) {
+        if (!mEnabled) return false;
+        return invoke(mBeginSection, truncate(name));
+    }
+
+    /**
+     * Begins a section whose name is made of two parts, which are only
+     * concatenated if tracing is enabled.
+     *
+     * @param name  The name of the section.
+     * @param label What the section is about (e.g. the image), or null.
+     *
+     * @return true if the section has begun, to be passed to {@link #endSection(boolean)}.
+     */
+    public static boolean beginSection(String name, String label) {
+        if (!mEnabled) return false;
+        return beginSection(label != null ? name + " " + label : name);
+    }
+
+    /**
+     * Ends the last section begun on the current thread.
+     *
+     * @param begun The value returned by the call that began the section.
+     */
+    public static void endSection(boolean begun) {
+        if (begun) invoke(mEndSection);
+    }
+
+    /**
+     * Begins an async section, which can be ended on any thread.
+     *
+     * @param name   The name of the section.
+     * @param cookie The identifier of the section, unique among the open ones with the same name.
+     *
+     * @return true if the section has begun, so {@link #endAsyncSection(String, int)} must be called.
+     */
+    public static boolean beginAsyncSection(String name, int cookie) {
+        if (!mEnabled || mBeginAsyncSection == null) return false;
+        return invokeAsync(mBeginAsyncSection, truncate(name), cookie);
+    }
+
+    /**
+     * Ends an async section.
+     *
+     * @param name   The name the section has begun with.
+     * @param cookie The identifier the section has begun with.
+     */
+    public static void endAsyncSection(String name, int cookie) {
+        if (mEndAsyncSection == null) return;
+        invokeAsync(mEndAsyncSection, truncate(name), cookie);
+    }
+
+    private static synchronized void resolve() {
+        if (mResolved) return;
+        mResolved = true;
+        if (Build.VERSION.SDK_INT < 18) return;
+
+        try {
+            Class<?> trace = Class.forName("android.os.Trace");
+            mBeginSection = trace.getMethod("beginSection", String.class);
+            mEndSection = trace.getMethod("endSection");
+            if (Build.VERSION.SDK_INT >= 29) {
+                mBeginAsyncSection = trace.getMethod("beginAsyncSection", String.class, int.class);
+                mEndAsyncSection = trace.getMethod("endAsyncSection", String.class, int.class);
+            }
+            else {
+                // Hidden, but available since the beginning
+                mAppTraceTag = trace.getField("TRACE_TAG_APP").getLong(null);
+                mBeginAsyncSection = trace.getMethod("asyncTraceBegin", long.class, String.class, int.class);
+                mEndAsyncSection = trace.getMethod("asyncTraceEnd", long.class, String.class, int.class);
+            }
+        }
+        catch (Exception e) {
+            Log.w(TAG, "Trace sections are not fully available", e);
+            if (mEndSection == null) {
+                mBeginSection = null;
+            }
+            mBeginAsyncSection = null;
+            mEndAsyncSection = null;
+        }
+    }
+
+    private static boolean invoke(Method method, Object... args) {
+        try {
+            method.invoke(null, args);
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static boolean invokeAsync(Method method, String name, int cookie) {
+        return mAppTraceTag != null ?
+               invoke(method, mAppTraceTag, name, cookie) :
+               invoke(method, name, cookie);
+    }
+
+    private static String truncate(String name) {
+        return name.length() > MAX_SECTION_NAME_LENGTH ? name.substring(0, MAX_SECTION_NAME_LENGTH) : name;
+    }
+}
@@ -1,12 +1,15 @@
 package net.frakbot.imageviewex.operation;
 
 import net.frakbot.cache.CacheHelper;
+import net.frakbot.cache.MemoryCache;
+import net.frakbot.cache.MetadataIndex;
 import net.frakbot.imageviewex.Converters;
 import net.frakbot.imageviewex.ImageViewNext;
+import net.frakbot.imageviewex.metrics.PipelineMetrics;
+import net.frakbot.imageviewex.metrics.Systrace;
 import net.frakbot.imageviewex.requestmanager.ImageViewExRequestFactory;
 import android.content.Context;
 import android.os.Bundle;
-import android.support.v4.util.LruCache;
 
 import com.foxykeep.datadroid.exception.ConnectionException;
 import com.foxykeep.datadroid.exception.CustomRequestException;
@@ -42,6 +45,39 @@ public class ImageDiskCacheOperation implements Operation {
 		
 		// Initializes the caches, if they're not initialized already
 		ImageViewNext.initCaches(context);
+
+		final boolean traced = Systrace.beginSection("IVX.diskRead", url);
+		try {
+			return getFromDiskCache(request, url);
+		}
+		finally {
+			Systrace.endSection(traced);
+		}
+	}
+
+	private Bundle getFromDiskCache(Request request, String url) throws DataException {
+		int variantWidth = request.getInt(ImageViewExRequestFactory.PARAM_VARIANT_WIDTH);
+		int variantHeight = request.getInt(ImageViewExRequestFactory.PARAM_VARIANT_HEIGHT);
+		boolean allowPoster = request.getBoolean(ImageViewExRequestFactory.PARAM_VARIANT_ALLOW_POSTER);
+		boolean useVariant = variantWidth > 0 && variantHeight > 0;
+
+		byte[] image = null;
+		final long readStart = System.nanoTime();
+
+		// Look for an already processed variant first, it's cheaper to decode
+		if (useVariant) {
+			try {
+				image = ImageVariants.getFromDiskCache(url, variantWidth, variantHeight, allowPoster);
+			} catch (Exception e) {
+				throw new DataException("DISK CACHE: Error while getting variant for URL " + url);
+			}
+
+			if (image != null) {
+				PipelineMetrics.recordLatency(PipelineMetrics.Stage.DISK_READ, System.nanoTime() - readStart);
+				PipelineMetrics.recordDiskHit(image.length);
+				return getResultBundle(image, url);
+			}
+		}
 		
 		// Get the entry
 		DiskLruCache diskCache = ImageViewNext.getDiskCache();
@@ -52,23 +88,52 @@ public class ImageDiskCacheOperation implements Operation {
 			throw new DataException("DISK CACHE: Error while getting value for URL " + url);
 		}
 		
-		byte[] image = null;
-		
+		// Keep the metadata index in sync with the disk cache
+		MetadataIndex metadataIndex = ImageViewNext.getMetadataIndex();
+		if (metadataIndex != null && cacheEntry == null && metadataIndex.contains(url)) {
+			// The image was downloaded once, so it has been evicted since
+			PipelineMetrics.recordDiskEviction();
+			metadataIndex.remove(url);
+		}
+
 		// If the object is not null, convert it
 		if (cacheEntry != null) {
 			// Convert the InputStream
 			image = Converters.inputStreamToByteArray(
 					cacheEntry.getInputStream(0),
 					(int)cacheEntry.getLength(0));
-			
-			// Saves the image in the in-memory cache
-			LruCache<String, byte[]> memCache = ImageViewNext.getMemCache();
-			memCache.put(url, image);
+			cacheEntry.close();
+			PipelineMetrics.recordLatency(PipelineMetrics.Stage.DISK_READ, System.nanoTime() - readStart);
+			PipelineMetrics.recordDiskHit(image.length);
+
+			// Create the variant, if requested and worth it
+			byte[] variant = null;
+			if (useVariant) {
+				variant = ImageVariants.createAndCache(url, image, variantWidth, variantHeight, allowPoster);
+			}
+
+			if (variant != null) {
+				image = variant;
+			}
+			else {
+				// Saves the image in the in-memory cache
+				MemoryCache<String, byte[]> memCache = ImageViewNext.getMemCache();
+				memCache.put(url, image);
+			}
+		}
+		else {
+			PipelineMetrics.recordLatency(PipelineMetrics.Stage.DISK_READ, System.nanoTime() - readStart);
+			PipelineMetrics.recordDiskMiss();
 		}
 		
+		return getResultBundle(image, url);
+	}
+
+	private static Bundle getResultBundle(byte[] image, String url) {
 		Bundle b = new Bundle();
 		b.putByteArray(ImageViewExRequestFactory.BUNDLE_EXTRA_OBJECT, image);
 		b.putString(ImageViewExRequestFactory.BUNDLE_EXTRA_IMAGE_URL, url);
+		b.putLong(ImageViewExRequestFactory.BUNDLE_EXTRA_DISK_READ_END, System.nanoTime());
 		return b;
 	}
 
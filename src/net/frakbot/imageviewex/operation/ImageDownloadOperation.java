@@ -2,7 +2,6 @@ package net.frakbot.imageviewex.operation;
 
 import android.content.Context;
 import android.os.Bundle;
-import android.support.v4.util.LruCache;
 import android.text.TextUtils;
 import android.util.Log;
 import com.foxykeep.datadroid.exception.ConnectionException;
@@ -11,11 +10,17 @@ import com.foxykeep.datadroid.exception.DataException;
 import com.foxykeep.datadroid.requestmanager.Request;
 import com.foxykeep.datadroid.service.RequestService.Operation;
 import com.jakewharton.disklrucache.DiskLruCache;
-import com.jakewharton.disklrucache.DiskLruCache.Editor;
 import net.frakbot.cache.CacheHelper;
+import net.frakbot.cache.MemoryCache;
+import net.frakbot.cache.ImageMetadata;
+import net.frakbot.cache.MetadataIndex;
+import net.frakbot.imageviewex.Converters;
 import net.frakbot.imageviewex.ImageViewNext;
+import net.frakbot.imageviewex.metrics.PipelineMetrics;
+import net.frakbot.imageviewex.metrics.Systrace;
 import net.frakbot.imageviewex.requestmanager.ImageViewExRequestFactory;
 import net.frakbot.remote.RemoteHelper;
+import net.frakbot.remote.RemoteResponse;
 
 import java.io.IOException;
 
@@ -45,42 +50,93 @@ public class ImageDownloadOperation implements Operation {
         String url = request.getString(PARAM_IMAGE_URL);
         if (TextUtils.isEmpty(url)) throw new DataException("No value for URL parameter");
 
-        byte[] image;
+        RemoteResponse response;
+        final long downloadStart = System.nanoTime();
+        final boolean traced = Systrace.beginSection("IVX.download", url);
         try {
-            image = RemoteHelper.download(url);
+            response = RemoteHelper.download(url, null, 0);
         }
         catch (IOException e) {
             throw new DataException("NETWORK: Error while getting value for URL " + url);
         }
+        finally {
+            Systrace.endSection(traced);
+        }
+        PipelineMetrics.recordNetworkResponse(response);
+
+        byte[] image = response.getData();
 
         // If the object is not null
         if (image != null) {
-            // Save into the disk cache
-            DiskLruCache diskCache = ImageViewNext.getDiskCache();
-            try {
-                Editor editor = diskCache.edit(CacheHelper.UriToDiskLruCacheString(url));
-                if (editor != null) {
-                    if (CacheHelper.writeByteArrayToEditor(image, editor)) {
-                        diskCache.flush();
-                        editor.commit();
-                    }
-                    else {
-                        editor.abort();
-                    }
-                }
-            }
-            catch (Exception e) {
-                Log.w(ImageDownloadOperation.class.getSimpleName(), "Storage of image into the disk cache failed!");
-            }
-            // Save into the memory cache
-            LruCache<String, byte[]> memCache = ImageViewNext.getMemCache();
-            memCache.put(url, image);
+            image = cacheDownloadedImage(request, url, response);
         }
 
         Bundle b = new Bundle();
         b.putByteArray(ImageViewExRequestFactory.BUNDLE_EXTRA_OBJECT, image);
         b.putString(ImageViewExRequestFactory.BUNDLE_EXTRA_IMAGE_URL, url);
+        if (response.getTimeToFirstByte() >= 0) {
+            final long responseTime = downloadStart + response.getTimeToFirstByte();
+            b.putLong(ImageViewExRequestFactory.BUNDLE_EXTRA_NETWORK_RESPONSE, responseTime);
+            if (response.getTransferTime() >= 0) {
+                b.putLong(ImageViewExRequestFactory.BUNDLE_EXTRA_NETWORK_TRANSFER_END,
+                          responseTime + response.getTransferTime());
+            }
+        }
+        if (response.getData() != null) {
+            b.putLong(ImageViewExRequestFactory.BUNDLE_EXTRA_BYTES_TRANSFERRED, response.getData().length);
+        }
         return b;
     }
 
+    /**
+     * Saves a freshly downloaded image into the disk cache, along with its
+     * metadata, then into the memory cache (or its processed variant, if the
+     * request asks for one).
+     *
+     * @param request  The request the image has been downloaded for.
+     * @param url      The URL of the image.
+     * @param response The response holding the image and its caching headers.
+     *
+     * @return The image to deliver: the processed variant, if any, or the original.
+     */
+    static byte[] cacheDownloadedImage(Request request, String url, RemoteResponse response) {
+        byte[] image = response.getData();
+
+        // Save into the disk cache
+        DiskLruCache diskCache = ImageViewNext.getDiskCache();
+        try {
+            CacheHelper.writeByteArrayToDiskCache(diskCache, url, image);
+            PipelineMetrics.recordDiskPut(image.length);
+        }
+        catch (Exception e) {
+            Log.w(ImageDownloadOperation.class.getSimpleName(), "Storage of image into the disk cache failed!");
+        }
+
+        // Describe the image in the metadata index, once and for all
+        MetadataIndex metadataIndex = ImageViewNext.getMetadataIndex();
+        if (metadataIndex != null) {
+            ImageMetadata metadata = Converters.byteArrayToMetadata(image).withFreshness(
+                response.getExpires(), response.getETag(), response.getLastModified());
+            metadataIndex.put(url, metadata);
+        }
+
+        // Create the variant, if requested and worth it
+        int variantWidth = request.getInt(ImageViewExRequestFactory.PARAM_VARIANT_WIDTH);
+        int variantHeight = request.getInt(ImageViewExRequestFactory.PARAM_VARIANT_HEIGHT);
+        byte[] variant = null;
+        if (variantWidth > 0 && variantHeight > 0) {
+            boolean allowPoster = request.getBoolean(ImageViewExRequestFactory.PARAM_VARIANT_ALLOW_POSTER);
+            variant = ImageVariants.createAndCache(url, image, variantWidth, variantHeight, allowPoster);
+        }
+
+        // Save into the memory cache, replacing the previous revision of a revalidated image
+        MemoryCache<String, byte[]> memCache = ImageViewNext.getMemCache();
+        if (variant != null) {
+            memCache.remove(url);
+            return variant;
+        }
+        memCache.put(url, image);
+        return image;
+    }
+
 }
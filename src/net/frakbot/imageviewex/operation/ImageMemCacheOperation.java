@@ -1,10 +1,10 @@
 package net.frakbot.imageviewex.operation;
 
+import net.frakbot.cache.MemoryCache;
 import net.frakbot.imageviewex.ImageViewNext;
 import net.frakbot.imageviewex.requestmanager.ImageViewExRequestFactory;
 import android.content.Context;
 import android.os.Bundle;
-import android.support.v4.util.LruCache;
 
 import com.foxykeep.datadroid.exception.ConnectionException;
 import com.foxykeep.datadroid.exception.CustomRequestException;
@@ -39,7 +39,7 @@ public class ImageMemCacheOperation implements Operation {
 		// Initializes the caches, if they're not initialized already
 		ImageViewNext.initCaches(context);
 		
-		LruCache<String, byte[]> cache = ImageViewNext.getMemCache();
+		MemoryCache<String, byte[]> cache = ImageViewNext.getMemCache();
 		byte[] image = cache.get(url);
 		
 		Bundle b = new Bundle();
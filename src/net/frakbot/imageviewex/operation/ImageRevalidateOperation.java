@@ -0,0 +1,113 @@
+package net.frakbot.imageviewex.operation;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Process;
+import android.text.TextUtils;
+import com.foxykeep.datadroid.exception.ConnectionException;
+import com.foxykeep.datadroid.exception.CustomRequestException;
+import com.foxykeep.datadroid.exception.DataException;
+import com.foxykeep.datadroid.requestmanager.Request;
+import com.foxykeep.datadroid.service.RequestService.Operation;
+import net.frakbot.cache.CacheHelper;
+import net.frakbot.cache.ImageMetadata;
+import net.frakbot.cache.MetadataIndex;
+import net.frakbot.imageviewex.ImageViewNext;
+import net.frakbot.imageviewex.metrics.PipelineMetrics;
+import net.frakbot.imageviewex.metrics.Systrace;
+import net.frakbot.imageviewex.requestmanager.ImageViewExRequestFactory;
+import net.frakbot.remote.RemoteHelper;
+import net.frakbot.remote.RemoteResponse;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Operation to revalidate a stale image against the network, with a
+ * conditional request, while the stale copy is already being displayed.
+ * It runs at a background priority so that it never competes with
+ * the retrieval of the images that are still missing.
+ * Requested input:
+ * - ImageRevalidateOperation.PARAM_IMAGE_URL, the URL of the image
+ * Given output:
+ * - ImageViewExRequestFactory.BUNDLE_EXTRA_OBJECT, the byte array of the image,
+ *   only if it has changed, null otherwise
+ * - ImageViewExRequestFactory.BUNDLE_EXTRA_IMAGE_URL, the requested URL of the image
+ *
+ * @author Francesco Pontillo
+ */
+public class ImageRevalidateOperation implements Operation {
+
+    public static final String PARAM_IMAGE_URL =
+        "net.frakbot.imageviewex.extra.url";
+
+    @Override
+    public Bundle execute(Context context, Request request)
+        throws ConnectionException, DataException, CustomRequestException {
+
+        // Initializes the caches, if they're not initialized already
+        ImageViewNext.initCaches(context);
+
+        // Get the URL from the input Bundle
+        String url = request.getString(PARAM_IMAGE_URL);
+        if (TextUtils.isEmpty(url)) throw new DataException("No value for URL parameter");
+
+        // Another request may have already revalidated the image
+        MetadataIndex metadataIndex = ImageViewNext.getMetadataIndex();
+        ImageMetadata metadata = metadataIndex != null ? metadataIndex.get(url) : null;
+        if (metadata == null || !metadata.isStale(System.currentTimeMillis())) {
+            return getResultBundle(null, url);
+        }
+
+        final int priority = Process.getThreadPriority(Process.myTid());
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            RemoteResponse response;
+            final boolean traced = Systrace.beginSection("IVX.revalidate", url);
+            try {
+                response = RemoteHelper.download(url, metadata.getETag(), metadata.getLastModified());
+            }
+            catch (IOException e) {
+                // The stale copy will keep being used
+                throw new DataException("REVALIDATION: Error while getting value for URL " + url);
+            }
+            finally {
+                Systrace.endSection(traced);
+            }
+            PipelineMetrics.recordNetworkResponse(response);
+
+            byte[] image = response.getData();
+            if (response.isNotModified() || (image != null && isSameAsCached(url, image))) {
+                // Only the freshness needs to be updated
+                metadataIndex.put(url, metadata.withFreshness(
+                    response.getExpires(), response.getETag(), response.getLastModified()));
+                return getResultBundle(null, url);
+            }
+
+            if (image != null) {
+                image = ImageDownloadOperation.cacheDownloadedImage(request, url, response);
+            }
+            return getResultBundle(image, url);
+        }
+        finally {
+            Process.setThreadPriority(priority);
+        }
+    }
+
+    private static boolean isSameAsCached(String url, byte[] image) {
+        try {
+            return Arrays.equals(image, CacheHelper.readByteArrayFromDiskCache(ImageViewNext.getDiskCache(), url));
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static Bundle getResultBundle(byte[] image, String url) {
+        Bundle b = new Bundle();
+        b.putByteArray(ImageViewExRequestFactory.BUNDLE_EXTRA_OBJECT, image);
+        b.putString(ImageViewExRequestFactory.BUNDLE_EXTRA_IMAGE_URL, url);
+        return b;
+    }
+
+}
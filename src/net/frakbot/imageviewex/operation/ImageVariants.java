@@ -0,0 +1,104 @@
+package net.frakbot.imageviewex.operation;
+
+import android.util.Log;
+import com.jakewharton.disklrucache.DiskLruCache;
+import net.frakbot.cache.CacheHelper;
+import net.frakbot.cache.MemoryCache;
+import net.frakbot.cache.ImageMetadata;
+import net.frakbot.imageviewex.Converters;
+import net.frakbot.imageviewex.ImageFormat;
+import net.frakbot.imageviewex.ImageViewNext;
+import net.frakbot.imageviewex.metrics.PipelineMetrics;
+import net.frakbot.imageviewex.metrics.Systrace;
+
+/**
+ * Helper for the processed variants tier: downsampled copies of the original
+ * images, stored in the disk cache under their own keys so that later binds
+ * at the same size don't need to decode the full-size original again.
+ * It's abstract and all of its methods are static.
+ *
+ * @author Francesco Pontillo
+ */
+abstract class ImageVariants {
+    private static final String TAG = ImageVariants.class.getSimpleName();
+
+    /**
+     * Looks for a processed variant of an image in the disk cache and,
+     * if found, saves it into the in-memory cache too.
+     *
+     * @param url         The URL of the original image.
+     * @param width       The target width of the variant, in pixels.
+     * @param height      The target height of the variant, in pixels.
+     * @param allowPoster true if a static poster of an animated image can be returned.
+     *
+     * @return The variant as a byte array, or null if there is none.
+     * @throws Exception If there was an error while reading the disk cache.
+     */
+    static byte[] getFromDiskCache(String url, int width, int height, boolean allowPoster) throws Exception {
+        DiskLruCache diskCache = ImageViewNext.getDiskCache();
+        ImageMetadata metadata = ImageViewNext.getMetadata(url);
+
+        String key = CacheHelper.getVariantKey(url, metadata, width, height);
+        byte[] variant = CacheHelper.readByteArrayFromDiskCache(diskCache, key);
+
+        if (variant == null && allowPoster) {
+            key = CacheHelper.getPosterKey(url, metadata, width, height);
+            variant = CacheHelper.readByteArrayFromDiskCache(diskCache, key);
+        }
+
+        if (variant != null) {
+            MemoryCache<String, byte[]> memCache = ImageViewNext.getMemCache();
+            memCache.put(key, variant);
+        }
+        return variant;
+    }
+
+    /**
+     * Creates the processed variant of an image and saves it into both the
+     * disk and the in-memory caches. Animated GIFs are only turned into a
+     * (first frame) poster if allowed to.
+     *
+     * @param url         The URL of the original image.
+     * @param image       The original image, as a byte array.
+     * @param width       The target width of the variant, in pixels.
+     * @param height      The target height of the variant, in pixels.
+     * @param allowPoster true if a static poster of an animated image can be created.
+     *
+     * @return The variant as a byte array, or null if the original should be used instead.
+     */
+    static byte[] createAndCache(String url, byte[] image, int width, int height, boolean allowPoster) {
+        final boolean isGif = ImageFormat.sniff(image) == ImageFormat.GIF;
+        if (isGif && !allowPoster) {
+            return null;
+        }
+
+        byte[] variant;
+        final boolean traced = Systrace.beginSection("IVX.createVariant", url);
+        try {
+            variant = Converters.byteArrayToDownsampledByteArray(image, width, height);
+        }
+        finally {
+            Systrace.endSection(traced);
+        }
+        if (variant == null) {
+            return null;
+        }
+
+        ImageMetadata metadata = ImageViewNext.getMetadata(url);
+        String key = isGif ?
+                     CacheHelper.getPosterKey(url, metadata, width, height) :
+                     CacheHelper.getVariantKey(url, metadata, width, height);
+
+        try {
+            CacheHelper.writeByteArrayToDiskCache(ImageViewNext.getDiskCache(), key, variant);
+            PipelineMetrics.recordDiskPut(variant.length);
+        }
+        catch (Exception e) {
+            Log.w(TAG, "Storage of image variant into the disk cache failed!");
+        }
+
+        MemoryCache<String, byte[]> memCache = ImageViewNext.getMemCache();
+        memCache.put(key, variant);
+        return variant;
+    }
+}
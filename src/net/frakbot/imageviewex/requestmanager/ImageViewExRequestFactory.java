@@ -11,6 +11,7 @@ package net.frakbot.imageviewex.requestmanager;
 import net.frakbot.imageviewex.operation.ImageDiskCacheOperation;
 import net.frakbot.imageviewex.operation.ImageDownloadOperation;
 import net.frakbot.imageviewex.operation.ImageMemCacheOperation;
+import net.frakbot.imageviewex.operation.ImageRevalidateOperation;
 
 import com.foxykeep.datadroid.requestmanager.Request;
 
@@ -25,12 +26,33 @@ public final class ImageViewExRequestFactory {
     public static final int REQUEST_TYPE_IMAGE_MEM_CACHE = 0;
     public static final int REQUEST_TYPE_IMAGE_DISK_CACHE = 1;
     public static final int REQUEST_TYPE_IMAGE_DOWNLOAD = 2;
+    public static final int REQUEST_TYPE_IMAGE_REVALIDATE = 3;
+
+    // Request data
+    public static final String PARAM_VARIANT_WIDTH =
+            "net.frakbot.imageviewex.extra.variantWidth";
+    public static final String PARAM_VARIANT_HEIGHT =
+            "net.frakbot.imageviewex.extra.variantHeight";
+    public static final String PARAM_VARIANT_ALLOW_POSTER =
+            "net.frakbot.imageviewex.extra.variantAllowPoster";
     
     // Response data
     public static final String BUNDLE_EXTRA_OBJECT =
             "net.frakbot.imageviewex.extra.object";
     public static final String BUNDLE_EXTRA_IMAGE_URL =
             "net.frakbot.imageviewex.extra.imageUrl";
+
+    // Response timings, from System.nanoTime()
+    public static final String BUNDLE_EXTRA_OPERATION_START =
+            "net.frakbot.imageviewex.extra.operationStart";
+    public static final String BUNDLE_EXTRA_DISK_READ_END =
+            "net.frakbot.imageviewex.extra.diskReadEnd";
+    public static final String BUNDLE_EXTRA_NETWORK_RESPONSE =
+            "net.frakbot.imageviewex.extra.networkResponse";
+    public static final String BUNDLE_EXTRA_NETWORK_TRANSFER_END =
+            "net.frakbot.imageviewex.extra.networkTransferEnd";
+    public static final String BUNDLE_EXTRA_BYTES_TRANSFERRED =
+            "net.frakbot.imageviewex.extra.bytesTransferred";
     
     private ImageViewExRequestFactory() {
         // no public constructor
@@ -74,4 +96,72 @@ public final class ImageViewExRequestFactory {
         request.setMemoryCacheEnabled(true);
         return request;
     }
+
+    /**
+     * Create the request to get a processed variant of an image from the disk cache.
+     * If there is no such variant, it will be created from the original image.
+     *
+     * @param url 			The URL of the image.
+     * @param width			The target width of the variant, in pixels.
+     * @param height		The target height of the variant, in pixels.
+     * @param allowPoster	true if a static poster can be used in place of an animated image.
+     * @return 				The request.
+     */
+    public static Request getImageDiskCacheRequest(String url, int width, int height, boolean allowPoster) {
+        Request request = getImageDiskCacheRequest(url);
+        putVariantParams(request, width, height, allowPoster);
+        return request;
+    }
+
+    /**
+     * Create the request to get an image from the network, storing a processed
+     * variant of it alongside the original.
+     *
+     * @param url 			The URL of the image.
+     * @param width			The target width of the variant, in pixels.
+     * @param height		The target height of the variant, in pixels.
+     * @param allowPoster	true if a static poster can be used in place of an animated image.
+     * @return 				The request.
+     */
+    public static Request getImageDownloaderRequest(String url, int width, int height, boolean allowPoster) {
+        Request request = getImageDownloaderRequest(url);
+        putVariantParams(request, width, height, allowPoster);
+        return request;
+    }
+
+    /**
+     * Create the request to revalidate a stale image against the network.
+     * The request is never served from the request manager's memory cache.
+     *
+     * @param url 	The URL of the image.
+     * @return 		The request.
+     */
+    public static Request getImageRevalidateRequest(String url) {
+        Request request = new Request(REQUEST_TYPE_IMAGE_REVALIDATE);
+        request.put(ImageRevalidateOperation.PARAM_IMAGE_URL, url);
+        request.setMemoryCacheEnabled(false);
+        return request;
+    }
+
+    /**
+     * Create the request to revalidate a stale image against the network,
+     * refreshing its processed variant too if the image has changed.
+     *
+     * @param url 			The URL of the image.
+     * @param width			The target width of the variant, in pixels.
+     * @param height		The target height of the variant, in pixels.
+     * @param allowPoster	true if a static poster can be used in place of an animated image.
+     * @return 				The request.
+     */
+    public static Request getImageRevalidateRequest(String url, int width, int height, boolean allowPoster) {
+        Request request = getImageRevalidateRequest(url);
+        putVariantParams(request, width, height, allowPoster);
+        return request;
+    }
+
+    private static void putVariantParams(Request request, int width, int height, boolean allowPoster) {
+        request.put(PARAM_VARIANT_WIDTH, width);
+        request.put(PARAM_VARIANT_HEIGHT, height);
+        request.put(PARAM_VARIANT_ALLOW_POSTER, allowPoster);
+    }
 }
@@ -9,13 +9,18 @@
 package net.frakbot.imageviewex.service;
 
 import net.frakbot.imageviewex.ImageViewNext;
+import net.frakbot.imageviewex.metrics.PipelineMetrics;
 import net.frakbot.imageviewex.operation.ImageDiskCacheOperation;
 import net.frakbot.imageviewex.operation.ImageDownloadOperation;
 import net.frakbot.imageviewex.operation.ImageMemCacheOperation;
+import net.frakbot.imageviewex.operation.ImageRevalidateOperation;
 import net.frakbot.imageviewex.requestmanager.ImageViewExRequestFactory;
+import android.content.Context;
 import android.os.Bundle;
 
+import com.foxykeep.datadroid.exception.ConnectionException;
 import com.foxykeep.datadroid.exception.CustomRequestException;
+import com.foxykeep.datadroid.exception.DataException;
 import com.foxykeep.datadroid.requestmanager.Request;
 import com.foxykeep.datadroid.service.RequestService;
 
@@ -37,11 +42,13 @@ public class ImageViewExService extends RequestService {
     public Operation getOperationForType(int requestType) {
         switch (requestType) {
             case ImageViewExRequestFactory.REQUEST_TYPE_IMAGE_MEM_CACHE:
-                return new ImageMemCacheOperation();
+                return new MeasuredOperation(new ImageMemCacheOperation());
             case ImageViewExRequestFactory.REQUEST_TYPE_IMAGE_DISK_CACHE:
-                return new ImageDiskCacheOperation();
+                return new MeasuredOperation(new ImageDiskCacheOperation());
             case ImageViewExRequestFactory.REQUEST_TYPE_IMAGE_DOWNLOAD:
-                return new ImageDownloadOperation();
+                return new MeasuredOperation(new ImageDownloadOperation());
+            case ImageViewExRequestFactory.REQUEST_TYPE_IMAGE_REVALIDATE:
+                return new MeasuredOperation(new ImageRevalidateOperation());
         }
         return null;
     }
@@ -50,5 +57,35 @@ public class ImageViewExService extends RequestService {
     protected Bundle onCustomRequestException(Request request, CustomRequestException exception) {
         return super.onCustomRequestException(request, exception);
     }
-    
+
+    /**
+     * Reports to the {@link PipelineMetrics} how long a request has waited
+     * in the queue and how many requests are running, and tells the views
+     * when the operation has started.
+     */
+    private static class MeasuredOperation implements Operation {
+        private final Operation mOperation;
+
+        MeasuredOperation(Operation operation) {
+            mOperation = operation;
+        }
+
+        @Override
+        public Bundle execute(Context context, Request request)
+                throws ConnectionException, DataException, CustomRequestException {
+            final long start = System.nanoTime();
+            PipelineMetrics.onRequestStarted(request);
+            try {
+                Bundle result = mOperation.execute(context, request);
+                if (result != null) {
+                    result.putLong(ImageViewExRequestFactory.BUNDLE_EXTRA_OPERATION_START, start);
+                }
+                return result;
+            }
+            finally {
+                PipelineMetrics.onRequestFinished(request);
+            }
+        }
+    }
+
 }
@@ -5,10 +5,13 @@ import android.util.Log;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Locale;
 
 import com.squareup.okhttp.OkHttpClient;
+import net.frakbot.imageviewex.metrics.MainThreadGuard;
 
 /**
  * Helper class that exposes some utility methods for retrieving
@@ -21,6 +24,9 @@ public class RemoteHelper {
 
     private static final int defaultBufferSize = 2048;
 
+    // Heuristic freshness: a fraction of the time since the last modification
+    private static final int HEURISTIC_FRESHNESS_DIVISOR = 10;
+
     /**
      * Download an object from the network.
      *
@@ -30,14 +36,61 @@ public class RemoteHelper {
      * @return Byte array of the downloaded object.
      */
     public static byte[] download(String resourceUrl) throws IOException {
+        return download(resourceUrl, null, 0).getData();
+    }
+
+    /**
+     * Download an object from the network, only if it has changed since the
+     * cached copy identified by the given validators was downloaded.
+     *
+     * @param resourceUrl  The URL of then rsource.
+     * @param eTag         The entity tag of the cached copy, or null.
+     * @param lastModified The last modification time of the cached copy, or 0.
+     *
+     * @throws IOException If the connection cannot be established.
+     * @return The response: if the object has not changed, or if the download
+     *         failed, it won't contain any data.
+     */
+    public static RemoteResponse download(String resourceUrl, String eTag, long lastModified)
+        throws IOException {
+        final long guard = MainThreadGuard.begin();
+        try {
+            return fetch(resourceUrl, eTag, lastModified);
+        }
+        finally {
+            MainThreadGuard.end(MainThreadGuard.Operation.NETWORK, resourceUrl, guard);
+        }
+    }
+
+    private static RemoteResponse fetch(String resourceUrl, String eTag, long lastModified)
+        throws IOException {
         OkHttpClient client = new OkHttpClient();
         URL url = new URL(resourceUrl);
         HttpURLConnection connection = client.open(url);
 
+        if (eTag != null) {
+            connection.setRequestProperty("If-None-Match", eTag);
+        }
+        if (lastModified > 0) {
+            connection.setIfModifiedSince(lastModified);
+        }
+
+        final long connectStart = System.nanoTime();
         final int responseCode = connection.getResponseCode();
+        final long timeToFirstByte = System.nanoTime() - connectStart;
+        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            Log.d(LOG_TAG, "Not modified: " + resourceUrl);
+            RemoteResponse response = readResponse(connection, responseCode, null, eTag, lastModified);
+            response.setTimings(timeToFirstByte, -1);
+            connection.disconnect();
+            return response;
+        }
         if (responseCode != HttpURLConnection.HTTP_OK) {
             Log.w(LOG_TAG, "Downloading from URL " + resourceUrl + " failed with response code " + responseCode);
-            return null;
+            connection.disconnect();
+            RemoteResponse response = new RemoteResponse(responseCode, null, 0, null, 0);
+            response.setTimings(timeToFirstByte, -1);
+            return response;
         }
 
         // determine the image size and allocate a buffer
@@ -45,6 +98,7 @@ public class RemoteHelper {
         Log.d(LOG_TAG, "fetching " + resourceUrl
                        + " (" + (fileSize <= 0 ? "size unknown" : Integer.toString(fileSize)) + ")");
 
+        final long transferStart = System.nanoTime();
         BufferedInputStream istream = new BufferedInputStream(connection.getInputStream());
 
         try {
@@ -52,28 +106,11 @@ public class RemoteHelper {
                 Log.w(LOG_TAG,
                       "Server did not set a Content-Length header, will default to buffer size of "
                       + defaultBufferSize + " bytes");
-                ByteArrayOutputStream buf = new ByteArrayOutputStream(defaultBufferSize);
-                byte[] buffer = new byte[defaultBufferSize];
-                int bytesRead = 0;
-                while (bytesRead != -1) {
-                    bytesRead = istream.read(buffer, 0, defaultBufferSize);
-                    if (bytesRead > 0) {
-                        buf.write(buffer, 0, bytesRead);
-                    }
-                }
-                return buf.toByteArray();
-            }
-            else {
-                byte[] data = new byte[fileSize];
-
-                int bytesRead = 0;
-                int offset = 0;
-                while (bytesRead != -1 && offset < fileSize) {
-                    bytesRead = istream.read(data, offset, fileSize - offset);
-                    offset += bytesRead;
-                }
-                return data;
             }
+            byte[] data = readBody(istream, fileSize);
+            RemoteResponse response = readResponse(connection, responseCode, data, null, 0);
+            response.setTimings(timeToFirstByte, System.nanoTime() - transferStart);
+            return response;
         }
         finally {
             // clean up
@@ -86,4 +123,98 @@ public class RemoteHelper {
         }
     }
 
+    /**
+     * Reads the whole body of a response.
+     *
+     * @param istream  The stream of the body.
+     * @param fileSize The size of the body as declared by the server, or 0 or less if unknown.
+     *
+     * @throws IOException If there was an error while reading.
+     * @return The body.
+     */
+    public static byte[] readBody(InputStream istream, int fileSize) throws IOException {
+        if (fileSize <= 0) {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(defaultBufferSize);
+            byte[] buffer = new byte[defaultBufferSize];
+            int bytesRead = 0;
+            while (bytesRead != -1) {
+                bytesRead = istream.read(buffer, 0, defaultBufferSize);
+                if (bytesRead > 0) {
+                    buf.write(buffer, 0, bytesRead);
+                }
+            }
+            return buf.toByteArray();
+        }
+
+        byte[] data = new byte[fileSize];
+        int bytesRead = 0;
+        int offset = 0;
+        while (bytesRead != -1 && offset < fileSize) {
+            bytesRead = istream.read(data, offset, fileSize - offset);
+            offset += bytesRead;
+        }
+        return data;
+    }
+
+    /**
+     * Builds a response, reading the validators and computing the expiration
+     * time from the caching headers of the connection.
+     * Cache-Control directives take precedence over the Expires header; if
+     * none is present, a heuristic based on Last-Modified is used.
+     */
+    private static RemoteResponse readResponse(HttpURLConnection connection, int responseCode, byte[] data,
+                                               String fallbackETag, long fallbackLastModified) {
+        final long now = System.currentTimeMillis();
+
+        String eTag = connection.getHeaderField("ETag");
+        if (eTag == null) eTag = fallbackETag;
+        long lastModified = connection.getLastModified();
+        if (lastModified <= 0) lastModified = fallbackLastModified;
+
+        long expires = 0;
+        long maxAge = parseMaxAge(connection.getHeaderField("Cache-Control"));
+        if (maxAge >= 0) {
+            expires = now + maxAge * 1000;
+        }
+        else if (connection.getExpiration() > 0) {
+            // Correct the server clock skew by using its own Date
+            long date = connection.getDate() > 0 ? connection.getDate() : now;
+            expires = now + Math.max(connection.getExpiration() - date, 0);
+        }
+        else if (lastModified > 0) {
+            long date = connection.getDate() > 0 ? connection.getDate() : now;
+            expires = now + Math.max(date - lastModified, 0) / HEURISTIC_FRESHNESS_DIVISOR;
+        }
+
+        return new RemoteResponse(responseCode, data, expires, eTag, lastModified);
+    }
+
+    /**
+     * Parses the freshness lifetime out of a Cache-Control header.
+     *
+     * @param cacheControl The value of the header, or null.
+     *
+     * @return The max-age, in seconds: 0 if the response must always be revalidated,
+     *         -1 if the header doesn't say anything about freshness.
+     */
+    private static long parseMaxAge(String cacheControl) {
+        if (cacheControl == null) return -1;
+
+        long maxAge = -1;
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase(Locale.US);
+            if (directive.equals("no-cache") || directive.equals("no-store")) {
+                return 0;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    maxAge = Long.parseLong(directive.substring("max-age=".length()).replace("\"", ""));
+                }
+                catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return maxAge;
+    }
+
 }
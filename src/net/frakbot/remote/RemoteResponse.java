@@ -0,0 +1,80 @@
+package net.frakbot.remote;
+
+/**
+ * Result of a (possibly conditional) download, holding the downloaded data
+ * along with the caching information sent by the server.
+ *
+ * @author Francesco Pontillo
+ */
+public class RemoteResponse {
+
+    private final int mResponseCode;
+    private final byte[] mData;
+    private final long mExpires;
+    private final String mETag;
+    private final long mLastModified;
+    private long mTimeToFirstByte = -1;
+    private long mTransferTime = -1;
+
+    /**
+     * Creates a new response.
+     *
+     * @param responseCode The HTTP response code.
+     * @param data         The downloaded data, or null if none was downloaded.
+     * @param expires      The time the data expires at, in milliseconds, or 0 if unknown.
+     * @param eTag         The entity tag of the data, or null if none was sent.
+     * @param lastModified The last modification time of the data, in milliseconds, or 0 if unknown.
+     */
+    public RemoteResponse(int responseCode, byte[] data, long expires, String eTag, long lastModified) {
+        mResponseCode = responseCode;
+        mData = data;
+        mExpires = expires;
+        mETag = eTag;
+        mLastModified = lastModified;
+    }
+
+    /** @return The HTTP response code. */
+    public int getResponseCode() {
+        return mResponseCode;
+    }
+
+    /** @return The downloaded data, or null if none was downloaded. */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /** @return The time the data expires at, in milliseconds, or 0 if unknown. */
+    public long getExpires() {
+        return mExpires;
+    }
+
+    /** @return The entity tag of the data, or null if none was sent. */
+    public String getETag() {
+        return mETag;
+    }
+
+    /** @return The last modification time of the data, in milliseconds, or 0 if unknown. */
+    public long getLastModified() {
+        return mLastModified;
+    }
+
+    /** @return The time from connecting until the response headers were received, in nanoseconds, or -1. */
+    public long getTimeToFirstByte() {
+        return mTimeToFirstByte;
+    }
+
+    /** @return The time spent reading the response body, in nanoseconds, or -1 if none was read. */
+    public long getTransferTime() {
+        return mTransferTime;
+    }
+
+    void setTimings(long timeToFirstByte, long transferTime) {
+        mTimeToFirstByte = timeToFirstByte;
+        mTransferTime = transferTime;
+    }
+
+    /** @return true if the server confirmed that the cached data is still valid. */
+    public boolean isNotModified() {
+        return mResponseCode == 304;
+    }
+}